@@ -45,9 +45,12 @@ subprojects {
     dependencies {
         implementation("com.rabbitmq:amqp-client:5.19.0")
         implementation("redis.clients:jedis:5.0.2")
+        implementation("io.lettuce:lettuce-core:6.3.0.RELEASE")
         implementation("com.google.code.gson:gson:2.10.1")
         compileOnly("org.projectlombok:lombok:1.18.30")
         annotationProcessor("org.projectlombok:lombok:1.18.30")
+        testImplementation("org.junit.jupiter:junit-jupiter:5.10.1")
+        testRuntimeOnly("org.junit.platform:junit-platform-launcher:1.10.1")
     }
 
     val generateVersionClass by tasks.registering {
@@ -78,6 +81,10 @@ subprojects {
         dependsOn(generateVersionClass)
     }
 
+    tasks.test {
+        useJUnitPlatform()
+    }
+
     tasks.processResources {
         expand("projectVersion" to project.version)
     }
@@ -86,6 +93,10 @@ subprojects {
         archiveBaseName.set(project.name)
         archiveClassifier.set("")
         archiveVersion.set(project.version.toString())
+        // Proxies and servers ship their own netty, keep ours isolated from it.
+        relocate("io.lettuce", "me.akraml.serversync.libs.lettuce")
+        relocate("io.netty", "me.akraml.serversync.libs.netty")
+        relocate("reactor", "me.akraml.serversync.libs.reactor")
     }
 
     sourceSets["main"].java.srcDir(File(buildDir, "generated/sources/version"))
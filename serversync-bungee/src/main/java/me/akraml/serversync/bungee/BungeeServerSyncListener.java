@@ -0,0 +1,54 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package me.akraml.serversync.bungee;
+
+import lombok.RequiredArgsConstructor;
+import me.akraml.serversync.broker.PlayerLocationIndex;
+import net.md_5.bungee.api.event.PlayerDisconnectEvent;
+import net.md_5.bungee.api.event.PostLoginEvent;
+import net.md_5.bungee.api.plugin.Listener;
+import net.md_5.bungee.event.EventHandler;
+
+/**
+ * Listens to the players connecting through this proxy, to record them in the player location index.
+ */
+@RequiredArgsConstructor
+public final class BungeeServerSyncListener implements Listener {
+
+    private final PlayerLocationIndex playerLocationIndex;
+    private final String proxyName;
+
+    @EventHandler
+    public void onPostLogin(final PostLoginEvent event) {
+        playerLocationIndex.proxyJoined(event.getPlayer().getUniqueId(), proxyName);
+    }
+
+    @EventHandler
+    public void onDisconnect(final PlayerDisconnectEvent event) {
+        playerLocationIndex.proxyLeft(event.getPlayer().getUniqueId(), proxyName);
+    }
+
+}
@@ -24,14 +24,27 @@
 
 package me.akraml.serversync.bungee;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import me.akraml.serversync.ServerSync;
 import me.akraml.serversync.VersionInfo;
+import me.akraml.serversync.broker.DirectMessageBrokerService;
+import me.akraml.serversync.broker.GossipMessageBrokerService;
+import me.akraml.serversync.broker.InboundGuard;
+import me.akraml.serversync.broker.MessageBrokerService;
+import me.akraml.serversync.broker.RedisClientType;
 import me.akraml.serversync.broker.RedisMessageBrokerService;
 import me.akraml.serversync.connection.ConnectionResult;
 import me.akraml.serversync.connection.ConnectionType;
+import me.akraml.serversync.connection.auth.AuthenticatedConnection;
 import me.akraml.serversync.connection.auth.ConnectionCredentials;
+import me.akraml.serversync.connection.auth.credentials.DirectCredentialsKeys;
+import me.akraml.serversync.connection.auth.credentials.GossipCredentialsKeys;
 import me.akraml.serversync.connection.auth.credentials.RedisCredentialsKeys;
+import me.akraml.serversync.executor.ExecutionMode;
+import me.akraml.serversync.executor.SyncExecutor;
+import me.akraml.serversync.server.LivenessMode;
+import me.akraml.serversync.metrics.LatencyTracer;
 import me.akraml.serversync.server.ServersManager;
 import net.md_5.bungee.api.plugin.Plugin;
 import net.md_5.bungee.config.Configuration;
@@ -43,6 +56,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An implementation for ServerSync in BungeeCord platform.
@@ -51,6 +65,9 @@ import java.nio.file.StandardCopyOption;
 public final class BungeeServerSyncPlugin extends Plugin {
 
     private Configuration config;
+    /** The instance of the network of this proxy, which is not the primary one if several networks share the process. */
+    @Getter(AccessLevel.NONE)
+    private ServerSync serverSync;
 
     @SuppressWarnings("ResultOfMethodCallIgnored")
     @Override
@@ -78,6 +95,23 @@ public final class BungeeServerSyncPlugin extends Plugin {
                 "                                |___/            \n");
         getLogger().info("This server is running ServerSync " + VersionInfo.VERSION + " by AkramL.");
         final ServersManager serversManager = new BungeeServersManager(this);
+        final int restoredServers = serversManager.loadSnapshot();
+        if (restoredServers > 0) getLogger().info("Restored " + restoredServers + " servers from the registry snapshot.");
+        final SyncExecutor executor = SyncExecutor.create(
+                "ServerSync",
+                ExecutionMode.valueOf(config.getString("executor-mode", "AUTO")),
+                config.getInt("executor-threads", 4)
+        );
+        getLogger().info("ServerSync tasks will run on " + (executor.isVirtual() ? "virtual threads." : "a platform thread pool."));
+        final String network = config.getString("network", MessageBrokerService.DEFAULT_NETWORK);
+        // The guard is installed before the handlers start, so the very first messages are checked too.
+        final InboundGuard inboundGuard = InboundGuard.newBuilder()
+                .messagesPerSecond(config.getInt("inbound-rate-limit", 1000))
+                .burst(config.getInt("inbound-burst", 5000))
+                .maxPayloadSize(config.getInt("inbound-max-payload", 1048576))
+                .maxPlayersPerMessage(config.getInt("inbound-max-players", 5000))
+                .quarantine(config.getLong("inbound-quarantine", 30L), TimeUnit.SECONDS)
+                .build();
         // Initialize message broker service.
         final ConnectionType connectionType = ConnectionType.valueOf(config.getString("message-broker-service"));
         switch (connectionType) {
@@ -96,33 +130,136 @@ public final class BungeeServerSyncPlugin extends Plugin {
                         .addKey(RedisCredentialsKeys.MIN_EVICTABLE_IDLE_TIME, redisSection.getLong("min-evictable-idle-time"))
                         .addKey(RedisCredentialsKeys.TIME_BETWEEN_EVICTION_RUNS, redisSection.getLong("time-between-eviction-runs"))
                         .addKey(RedisCredentialsKeys.BLOCK_WHEN_EXHAUSTED, redisSection.getBoolean("block-when-exhausted"))
+                        .addKey(RedisCredentialsKeys.CLUSTER_NODES, redisSection.getStringList("cluster.seed-nodes"))
+                        .addKey(RedisCredentialsKeys.CLUSTER_SHARDS, redisSection.getInt("cluster.shards", 16))
+                        .addKey(RedisCredentialsKeys.TOPOLOGY_REFRESH_PERIOD, redisSection.getLong("cluster.topology-refresh-period", 30000L))
                         .build();
-                final RedisMessageBrokerService messageBrokerService = new RedisMessageBrokerService(
+                final RedisClientType clientType = RedisClientType.valueOf(redisSection.getString("client", "JEDIS"));
+                final MessageBrokerService messageBrokerService = clientType.createService(
                         serversManager,
+                        executor,
                         credentials
                 );
-                final ConnectionResult connectionResult = messageBrokerService.connect();
+                messageBrokerService.setNetwork(network);
+                final int trackingCacheSize = redisSection.getInt("tracking-cache-size", 0);
+                if (trackingCacheSize > 0) {
+                    if (messageBrokerService instanceof RedisMessageBrokerService) {
+                        ((RedisMessageBrokerService) messageBrokerService).enableTrackingCache(trackingCacheSize);
+                    } else {
+                        getLogger().warning("The tracking cache requires the JEDIS redis client, it won't be enabled.");
+                    }
+                }
+                final LivenessMode livenessMode = LivenessMode.valueOf(config.getString("liveness-mode", "HEARTBEAT"));
+                if (livenessMode == LivenessMode.REDIS_TTL && !messageBrokerService.supportsBrokerLiveness()) {
+                    getLogger().warning("The REDIS_TTL liveness mode is not supported by the " + clientType + " client, heartbeats will be checked instead.");
+                } else {
+                    messageBrokerService.setLivenessMode(livenessMode, config.getLong("liveness-ttl", 15000L));
+                }
+                final ConnectionResult connectionResult = ((AuthenticatedConnection<?>) messageBrokerService).connect();
                 if (connectionResult == ConnectionResult.FAILURE) {
                     getLogger().severe("Failed to connect into redis, please check credentials!");
+                    executor.shutdown();
+                    return;
+                }
+                getLogger().info("Successfully connected to redis using " + clientType + " client, process took " + (System.currentTimeMillis() - redisStartTime) + "ms!");
+                messageBrokerService.setInboundGuard(inboundGuard);
+                messageBrokerService.startHandler();
+                serversManager.start(executor);
+                this.serverSync = ServerSync.initializeInstance(serversManager, messageBrokerService, executor);
+                // Ask every server for its full state instead of waiting for their next heartbeat.
+                messageBrokerService.publishSyncRequest(null);
+                break;
+            }
+            case DIRECT: {
+                getLogger().info("ServerSync will run without message broker, using direct connections...");
+                final Configuration directSection = config.getSection("direct");
+                final ConnectionCredentials credentials = ConnectionCredentials.newBuilder()
+                        .addKey(DirectCredentialsKeys.LISTEN_ADDRESS, directSection.getString("listen-address", "0.0.0.0:25580"))
+                        .addKey(DirectCredentialsKeys.SHARED_SECRET, directSection.getString("shared-secret"))
+                        .build();
+                final DirectMessageBrokerService messageBrokerService = new DirectMessageBrokerService(
+                        serversManager,
+                        executor,
+                        credentials
+                );
+                messageBrokerService.setNetwork(network);
+                if (messageBrokerService.connect() == ConnectionResult.FAILURE) {
+                    getLogger().severe("Failed to listen for direct connections, please check the listen address!");
+                    executor.shutdown();
                     return;
                 }
-                getLogger().info("Successfully connected to redis, process took " + (System.currentTimeMillis() - redisStartTime) + "ms!");
+                getLogger().info("Listening for direct connections on " + directSection.getString("listen-address", "0.0.0.0:25580") + ".");
+                messageBrokerService.setInboundGuard(inboundGuard);
                 messageBrokerService.startHandler();
-                ServerSync.initializeInstance(serversManager, messageBrokerService);
+                serversManager.start(executor);
+                this.serverSync = ServerSync.initializeInstance(serversManager, messageBrokerService, executor);
+                break;
+            }
+            case GOSSIP: {
+                getLogger().info("ServerSync will run without message broker, using gossip membership...");
+                final Configuration gossipSection = config.getSection("gossip");
+                final ConnectionCredentials.Builder credentialsBuilder = ConnectionCredentials.newBuilder()
+                        .addKey(GossipCredentialsKeys.NODE_NAME, gossipSection.getString("node-name", ""))
+                        .addKey(GossipCredentialsKeys.BIND_ADDRESS, gossipSection.getString("bind-address", "0.0.0.0:7946"))
+                        .addKey(GossipCredentialsKeys.SEEDS, gossipSection.getStringList("seeds"))
+                        .addKey(GossipCredentialsKeys.SHARED_SECRET, gossipSection.getString("shared-secret"))
+                        .addKey(GossipCredentialsKeys.PROTOCOL_PERIOD, gossipSection.getLong("protocol-period", 1000L));
+                if (!gossipSection.getString("advertise-address", "").isEmpty()) {
+                    credentialsBuilder.addKey(GossipCredentialsKeys.ADVERTISE_ADDRESS, gossipSection.getString("advertise-address"));
+                }
+                final GossipMessageBrokerService messageBrokerService = new GossipMessageBrokerService(
+                        serversManager,
+                        executor,
+                        credentialsBuilder.build()
+                );
+                messageBrokerService.setNetwork(network);
+                if (messageBrokerService.connect() == ConnectionResult.FAILURE) {
+                    getLogger().severe("Failed to join the gossip membership, please check the bind address!");
+                    executor.shutdown();
+                    return;
+                }
+                getLogger().info("Joined the gossip membership on " + gossipSection.getString("bind-address", "0.0.0.0:7946") + ".");
+                messageBrokerService.setInboundGuard(inboundGuard);
+                messageBrokerService.startHandler();
+                serversManager.start(executor);
+                this.serverSync = ServerSync.initializeInstance(serversManager, messageBrokerService, executor);
                 break;
             }
             case RABBITMQ: {
                 getLogger().severe("RabbitMQ is not ready yet, the plugin won't continue starting up!");
+                executor.shutdown();
                 return;
             }
         }
+        serverSync.getMessageBrokerService().getLatencyTracer().configure(
+                LatencyTracer.ClockMode.valueOf(config.getString("latency-clock-mode", "WALL_CLOCK")),
+                config.getDouble("trace-sample-rate", 0D),
+                getLogger()::info
+        );
+        if (config.getBoolean("player-location-index", false)) {
+            final MessageBrokerService messageBrokerService = serverSync.getMessageBrokerService();
+            if (messageBrokerService.supportsPlayerLocationIndex()) {
+                final String proxyName = config.getString("proxy-name", "");
+                getProxy().getPluginManager().registerListener(this, new BungeeServerSyncListener(
+                        messageBrokerService.enablePlayerLocationIndex(config.getLong("player-location-cache", 1000L)),
+                        proxyName.isEmpty() ? messageBrokerService.getRpcManager().getNodeId() : proxyName
+                ));
+            } else {
+                getLogger().warning("The player location index requires the JEDIS or LETTUCE redis client, it won't be enabled.");
+            }
+        }
         getLogger().info("ServerSync has fully started in " + (System.currentTimeMillis() - start) + "ms.");
     }
 
     @Override
     public void onDisable() {
-        if (ServerSync.getInstance() != null)
-            ServerSync.getInstance().getMessageBrokerService().stop();
+        if (serverSync != null) {
+            serverSync.getMessageBrokerService().stop();
+            serverSync.getServersManager().stop();
+            serverSync.getExecutor().shutdown();
+            ServerSync.removeInstance(serverSync.getNetwork());
+            serverSync = null;
+        }
     }
 
     private void loadConfig() throws IOException {
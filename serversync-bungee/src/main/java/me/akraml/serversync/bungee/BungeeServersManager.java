@@ -28,6 +28,7 @@ import me.akraml.serversync.server.Server;
 import me.akraml.serversync.server.ServersManager;
 import net.md_5.bungee.api.config.ServerInfo;
 
+import java.io.File;
 import java.net.InetSocketAddress;
 
 /**
@@ -43,6 +44,14 @@ public final class BungeeServersManager extends ServersManager {
         this.plugin = plugin;
         this.heartbeatSchedulerDelay = plugin.getConfig().getInt("heartbeat-scheduler-delay");
         this.maxAliveTime = plugin.getConfig().getInt("max-alive-time");
+        this.phiThreshold = plugin.getConfig().getDouble("phi-threshold", 8D);
+        this.registrationBatchInterval = plugin.getConfig().getLong("registration-batch-interval", 250L);
+        this.flapDampingHalfLife = plugin.getConfig().getLong("flap-damping-half-life", 30L);
+        this.playerSwitchWindow = plugin.getConfig().getLong("player-switch-window", 1000L);
+        if (plugin.getConfig().getBoolean("registry-snapshot", true)) {
+            this.snapshotFile = new File(plugin.getDataFolder(), "registry.snapshot").toPath();
+            this.snapshotInterval = plugin.getConfig().getLong("registry-snapshot-interval", 60L);
+        }
     }
 
     /**
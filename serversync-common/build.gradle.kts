@@ -28,4 +28,13 @@ tasks.compileJava {
 }
 
 dependencies {
-}
\ No newline at end of file
+}
+
+// Benchmark harnesses live in the test sources, run one with: gradlew :serversync-common:benchmark -Pbenchmark=<class name>
+tasks.register<JavaExec>("benchmark") {
+    group = "verification"
+    description = "Runs one of the benchmark harnesses of me.akraml.serversync.benchmark."
+    classpath = sourceSets["test"].runtimeClasspath
+    mainClass.set("me.akraml.serversync.benchmark." + (project.findProperty("benchmark") ?: "ExecutorBenchmark"))
+    args = (project.findProperty("benchmarkArgs") as String?)?.split(" ") ?: emptyList()
+}
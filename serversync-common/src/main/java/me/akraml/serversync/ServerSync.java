@@ -26,54 +26,132 @@ package me.akraml.serversync;
 
 import lombok.Getter;
 import me.akraml.serversync.broker.MessageBrokerService;
+import me.akraml.serversync.executor.SyncExecutor;
+import me.akraml.serversync.server.NetworkView;
 import me.akraml.serversync.server.ServersManager;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
- * The main class for ServerSync, which serves as a singleton instance to coordinate
- * the servers management and message brokering services.
+ * The main class for ServerSync, which coordinates the servers management and message brokering services
+ * of a network.
+ *
+ * <p>A process may take part in several isolated networks, each with its own instance: its own servers manager,
+ * and its own broker service publishing on the channels of the network. Instances may share an executor, and
+ * Redis services may share their connections, see {@link me.akraml.serversync.broker.RedisMessageBrokerService#share(ServersManager)}.</p>
  */
 @Getter
 public class ServerSync {
 
-    private static ServerSync INSTANCE;
+    /** Instances by network name. */
+    private static final Map<String, ServerSync> INSTANCES = new ConcurrentHashMap<>();
+
+    /** The first initialized instance, returned by {@link #getInstance()}. */
+    private static volatile ServerSync PRIMARY;
 
     private final ServersManager serversManager;
     private final MessageBrokerService messageBrokerService;
+    private final SyncExecutor executor;
 
     /**
-     * Private constructor to prevent instantiation from outside and enforce the singleton pattern.
+     * Private constructor to prevent instantiation from outside, instances are created through
+     * {@link #initializeInstance(ServersManager, MessageBrokerService, SyncExecutor)}.
      *
      * @param serversManager The servers manager to manage server operations.
      * @param messageBrokerService The message broker service to handle messaging.
+     * @param executor The executor running every asynchronous task of ServerSync.
      */
     private ServerSync(final ServersManager serversManager,
-                       final MessageBrokerService messageBrokerService) {
+                       final MessageBrokerService messageBrokerService,
+                       final SyncExecutor executor) {
         this.serversManager = serversManager;
         this.messageBrokerService = messageBrokerService;
+        this.executor = executor;
+    }
+
+    /**
+     * Retrieves the network of this instance.
+     *
+     * @return The network name.
+     */
+    public String getNetwork() {
+        return messageBrokerService.getNetwork();
     }
 
     /**
-     * Retrieves the singleton instance of ServerSync.
+     * Retrieves the read-only view of the network: the servers registry on proxies, and its replica
+     * on spigot servers if the network view is enabled.
      *
-     * @return The singleton instance of ServerSync.
+     * @return The network view, or null on spigot servers without network view.
+     */
+    public NetworkView getNetworkView() {
+        return serversManager;
+    }
+
+    /**
+     * Retrieves the first initialized instance of ServerSync, which is the only one unless several
+     * networks are used in this process.
+     *
+     * @return The first initialized instance, or null if none is initialized.
      */
     public static ServerSync getInstance() {
-        return INSTANCE;
+        return PRIMARY;
+    }
+
+    /**
+     * Retrieves the instance of a network.
+     *
+     * @param network The network name.
+     * @return The instance of the network, or null if it is not initialized.
+     */
+    public static ServerSync getInstance(final String network) {
+        return INSTANCES.get(network);
+    }
+
+    /**
+     * Retrieves every initialized instance.
+     *
+     * @return An unmodifiable live view of the instances.
+     */
+    public static Collection<ServerSync> getInstances() {
+        return Collections.unmodifiableCollection(INSTANCES.values());
     }
 
     /**
-     * Initializes the singleton instance of ServerSync. If the instance is already
-     * initialized, this method will throw a {@link RuntimeException} to prevent
+     * Initializes the instance of the network of the provided message broker service. If the network
+     * already has an instance, this method will throw a {@link RuntimeException} to prevent
      * re-initialization.
      *
      * @param serversManager The servers manager for server operations.
      * @param messageBrokerService The message broker service for messaging.
-     * @throws RuntimeException if an instance is already initialized.
+     * @param executor The executor running every asynchronous task of ServerSync.
+     * @return The initialized instance.
+     * @throws RuntimeException if the network already has an instance.
+     */
+    public static synchronized ServerSync initializeInstance(final ServersManager serversManager,
+                                                             final MessageBrokerService messageBrokerService,
+                                                             final SyncExecutor executor) {
+        final String network = messageBrokerService.getNetwork();
+        if (INSTANCES.containsKey(network)) throw new RuntimeException("Instance of network " + network + " is already initialized");
+        final ServerSync instance = new ServerSync(serversManager, messageBrokerService, executor);
+        INSTANCES.put(network, instance);
+        if (PRIMARY == null) PRIMARY = instance;
+        return instance;
+    }
+
+    /**
+     * Forgets the instance of a network, once its services are stopped.
+     *
+     * @param network The network name.
      */
-    public static void initializeInstance(final ServersManager serversManager,
-                                          final MessageBrokerService messageBrokerService) {
-        if (INSTANCE != null) throw new RuntimeException("Instance is already initialized");
-        INSTANCE = new ServerSync(serversManager, messageBrokerService);
+    public static synchronized void removeInstance(final String network) {
+        final ServerSync removed = INSTANCES.remove(network);
+        if (removed != null && removed == PRIMARY) {
+            PRIMARY = INSTANCES.isEmpty() ? null : INSTANCES.values().iterator().next();
+        }
     }
 
 }
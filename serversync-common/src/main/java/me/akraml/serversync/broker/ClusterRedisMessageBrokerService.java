@@ -0,0 +1,304 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.broker;
+
+import com.google.gson.JsonObject;
+import me.akraml.serversync.connection.ConnectionResult;
+import me.akraml.serversync.connection.auth.AuthenticatedConnection;
+import me.akraml.serversync.connection.auth.ConnectionAuthenticationException;
+import me.akraml.serversync.connection.auth.ConnectionCredentials;
+import me.akraml.serversync.connection.auth.credentials.RedisCredentialsKeys;
+import me.akraml.serversync.executor.SyncExecutor;
+import me.akraml.serversync.server.ServersManager;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.DefaultJedisClientConfig;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.JedisShardedPubSub;
+import redis.clients.jedis.providers.ClusterConnectionProvider;
+import redis.clients.jedis.util.JedisClusterCRC16;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A concrete implementation of the {@link MessageBrokerService} for Redis Cluster deployments, built on Redis 7
+ * sharded pub/sub ({@code SPUBLISH}/{@code SSUBSCRIBE}).
+ *
+ * <p>Classic {@code PUBLISH} is broadcast to every node of a cluster. Instead, the servers channel is split into a
+ * fixed amount of shard channels, each one carrying a hash tag chosen so the shards are spread evenly over the
+ * 16384 cluster slots. A message is published on the shard of its routing key, so every message only travels
+ * through the node owning that slot, and proxies keep one subscription per shard on the owning node.</p>
+ *
+ * <p>{@code MOVED} redirections are followed by {@link JedisCluster}, which renews its slot cache when they happen.
+ * The topology is also refreshed periodically, and a shard subscription dropped by the cluster because its slot
+ * migrated is re-established on the new owner.</p>
+ *
+ * @version 1.0-BETA
+ */
+public final class ClusterRedisMessageBrokerService extends MessageBrokerService implements AuthenticatedConnection<JedisCluster> {
+
+    private static final int SLOTS = 16384;
+    private static final int MAX_SHARDS = 1024;
+    private static final int UNSHARDED_CHANNELS = 3;
+    private static final long RESUBSCRIBE_DELAY_MILLIS = 1000L;
+
+    private final ConnectionCredentials credentials;
+    private final List<JedisShardedPubSub> subscriptions = new CopyOnWriteArrayList<>();
+    private ClusterConnectionProvider provider;
+    private JedisCluster cluster;
+    private String[] shardChannels, updateShardChannels;
+    private ScheduledFuture<?> topologyRefreshTask;
+    private volatile boolean running;
+
+    /**
+     * Constructs a new ClusterRedisMessageBrokerService with the given {@link ServersManager} and {@link ConnectionCredentials}.
+     *
+     * @param serversManager The servers manager to use for actions on servers.
+     * @param executor The executor to run the subscriptions and topology refreshes on.
+     * @param credentials The credentials used to establish a connection with the cluster.
+     */
+    public ClusterRedisMessageBrokerService(final ServersManager serversManager,
+                                            final SyncExecutor executor,
+                                            final ConnectionCredentials credentials) {
+        super(serversManager, executor);
+        this.credentials = credentials;
+    }
+
+    @Override
+    public ConnectionResult connect() {
+        final Set<HostAndPort> seedNodes = new HashSet<>();
+        for (final Object node : credentials.getProperty(RedisCredentialsKeys.CLUSTER_NODES, List.class)) {
+            seedNodes.add(HostAndPort.from(String.valueOf(node).trim()));
+        }
+        if (seedNodes.isEmpty()) {
+            throw new ConnectionAuthenticationException("At least one cluster seed node is required");
+        }
+        final int shards = credentials.getProperty(RedisCredentialsKeys.CLUSTER_SHARDS, Integer.class);
+        if (shards <= 0 || shards > MAX_SHARDS) {
+            throw new ConnectionAuthenticationException("Cluster shards must be between 1 and " + MAX_SHARDS);
+        }
+        this.shardChannels = createShardChannels(getServersChannel(), shards);
+        this.updateShardChannels = createShardChannels(getUpdatesChannel(), shards);
+
+        final int timeout = credentials.getProperty(RedisCredentialsKeys.TIMEOUT, Integer.class);
+        final String password = credentials.getProperty(RedisCredentialsKeys.PASSWORD, String.class);
+        final DefaultJedisClientConfig clientConfig = DefaultJedisClientConfig.builder()
+                .connectionTimeoutMillis(timeout)
+                .socketTimeoutMillis(timeout)
+                .password(password == null || password.isEmpty() ? null : password)
+                .build();
+
+        // Every subscription holds a connection for as long as it lives, the servers and updates shards as well as the
+        // control, RPC request and RPC reply channels, and all of them may land on the same node. The configured
+        // maximum is left to the publishing connections on top of those.
+        final int subscriberConnections = 2 * shards + UNSHARDED_CHANNELS;
+        final GenericObjectPoolConfig<Connection> poolConfig = new GenericObjectPoolConfig<>();
+        poolConfig.setMaxTotal(subscriberConnections + Math.max(credentials.getProperty(RedisCredentialsKeys.MAX_TOTAL, Integer.class), 1));
+        poolConfig.setMaxIdle(credentials.getProperty(RedisCredentialsKeys.MAX_IDLE, Integer.class));
+        poolConfig.setMinIdle(credentials.getProperty(RedisCredentialsKeys.MIN_IDLE, Integer.class));
+        poolConfig.setBlockWhenExhausted(credentials.getProperty(RedisCredentialsKeys.BLOCK_WHEN_EXHAUSTED, Boolean.class));
+        poolConfig.setMinEvictableIdleTime(
+                Duration.ofMillis(credentials.getProperty(RedisCredentialsKeys.MIN_EVICTABLE_IDLE_TIME, Long.class))
+        );
+        poolConfig.setTimeBetweenEvictionRuns(
+                Duration.ofMillis(credentials.getProperty(RedisCredentialsKeys.TIME_BETWEEN_EVICTION_RUNS, Long.class))
+        );
+
+        try {
+            this.provider = new ClusterConnectionProvider(seedNodes, clientConfig, poolConfig);
+            this.cluster = new JedisCluster(provider, JedisCluster.DEFAULT_MAX_ATTEMPTS, Duration.ofMillis(timeout * 2L));
+        } catch (final Exception exception) {
+            return ConnectionResult.FAILURE;
+        }
+        if (cluster.getClusterNodes().isEmpty()) return ConnectionResult.FAILURE;
+
+        running = true;
+        final long refreshPeriod = credentials.getProperty(RedisCredentialsKeys.TOPOLOGY_REFRESH_PERIOD, Long.class);
+        if (refreshPeriod > 0) {
+            this.topologyRefreshTask = executor.scheduleAtFixedRate(
+                    this::refreshTopology, refreshPeriod, refreshPeriod, TimeUnit.MILLISECONDS
+            );
+        }
+        return ConnectionResult.SUCCESS;
+    }
+
+    @Override
+    public JedisCluster getConnection() {
+        return cluster;
+    }
+
+    @Override
+    public ConnectionCredentials getCredentials() {
+        return credentials;
+    }
+
+    @Override
+    public void startHandler() {
+        final List<String> channels = new ArrayList<>();
+        for (final String channel : getSubscribedChannels()) {
+            // The servers and updates channels are split into shards, while the control and RPC channels are not.
+            if (getServersChannel().equals(channel)) {
+                channels.addAll(Arrays.asList(shardChannels));
+            } else if (getUpdatesChannel().equals(channel)) {
+                channels.addAll(Arrays.asList(updateShardChannels));
+            } else {
+                channels.add(channel);
+            }
+        }
+        for (final String shardChannel : channels) {
+            executor.startLongRunning("Subscriber-" + shardChannel, () -> subscribeShard(shardChannel));
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (topologyRefreshTask != null) topologyRefreshTask.cancel(false);
+        for (final JedisShardedPubSub subscription : subscriptions) {
+            try {
+                if (subscription.isSubscribed()) subscription.sunsubscribe();
+            } catch (final Exception ignored) {
+                // The connection is being closed anyway.
+            }
+        }
+        close();
+        stopInboundLanes();
+    }
+
+    @Override
+    public void publish(String channel, JsonObject message) {
+        final String shardChannel;
+        if (getServersChannel().equals(channel)) {
+            shardChannel = getShardChannel(getRoutingKey(message));
+        } else if (getUpdatesChannel().equals(channel)) {
+            // Updates of a server use the same shard index as its other messages, on the updates channels.
+            shardChannel = updateShardChannels[getShardIndex(getRoutingKey(message))];
+        } else {
+            shardChannel = channel;
+        }
+        cluster.spublish(shardChannel, message.toString());
+    }
+
+    /**
+     * Retrieves the key a message is routed by. Every message of a server must share the same key,
+     * so they all travel through the same shard and keep their order. Servers of a group share the
+     * group as their key, servers without one are routed by their name.
+     *
+     * @param message The message to route.
+     * @return The routing key of the message.
+     */
+    private String getRoutingKey(final JsonObject message) {
+        // Only creations and heartbeats carry the group, the local one also covers the other messages.
+        final String group = getServerGroup();
+        return group != null ? group : message.get("name").getAsString();
+    }
+
+    /**
+     * Retrieves the shard channel a routing key is published on.
+     *
+     * @param routingKey The routing key of the message.
+     * @return The shard channel name.
+     */
+    public String getShardChannel(final String routingKey) {
+        return shardChannels[getShardIndex(routingKey)];
+    }
+
+    private int getShardIndex(final String routingKey) {
+        return Math.floorMod(JedisClusterCRC16.getCRC16(routingKey), shardChannels.length);
+    }
+
+    private void subscribeShard(final String shardChannel) {
+        while (running) {
+            final JedisShardedPubSub subscription = new JedisShardedPubSub() {
+                @Override
+                public void onSMessage(String channel, String message) {
+                    // Shards are merged back into the channel they split, other channels are delivered as they are.
+                    final String logicalChannel;
+                    if (channel.startsWith(getServersChannel() + ":{")) {
+                        logicalChannel = getServersChannel();
+                    } else if (channel.startsWith(getUpdatesChannel() + ":{")) {
+                        logicalChannel = getUpdatesChannel();
+                    } else {
+                        logicalChannel = channel;
+                    }
+                    onMessageReceive(logicalChannel, message);
+                }
+            };
+            subscriptions.add(subscription);
+            try {
+                // Returns once the cluster drops the subscription, which happens when the slot migrates.
+                cluster.ssubscribe(subscription, shardChannel);
+            } catch (final Exception exception) {
+                if (running) exception.printStackTrace(System.err);
+            } finally {
+                subscriptions.remove(subscription);
+            }
+            if (!running) return;
+            refreshTopology();
+            try {
+                Thread.sleep(RESUBSCRIBE_DELAY_MILLIS);
+            } catch (final InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void refreshTopology() {
+        try {
+            provider.renewSlotCache();
+        } catch (final Exception exception) {
+            exception.printStackTrace(System.err);
+        }
+    }
+
+    /**
+     * Creates the shard channels names. Each channel carries a hash tag picked so that its slot falls into
+     * its own evenly sized range of the cluster slots, which spreads the shards over every node.
+     *
+     * @param prefix The channel the shards are split from.
+     * @param shards Amount of shards.
+     * @return The channel names indexed by shard.
+     */
+    private static String[] createShardChannels(final String prefix,
+                                                final int shards) {
+        final String[] channels = new String[shards];
+        int found = 0;
+        for (int candidate = 0; found < shards; candidate++) {
+            final String tag = Integer.toString(candidate, 36);
+            final int shard = (int) ((long) JedisClusterCRC16.getSlot(tag) * shards / SLOTS);
+            if (channels[shard] == null) {
+                channels[shard] = prefix + ":{" + tag + "}";
+                found++;
+            }
+        }
+        return channels;
+    }
+}
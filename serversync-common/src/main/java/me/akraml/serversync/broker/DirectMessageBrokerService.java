@@ -0,0 +1,550 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.broker;
+
+import com.google.gson.JsonObject;
+import me.akraml.serversync.connection.ConnectionResult;
+import me.akraml.serversync.connection.auth.AuthenticatedConnection;
+import me.akraml.serversync.connection.auth.ConnectionAuthenticationException;
+import me.akraml.serversync.connection.auth.ConnectionCredentials;
+import me.akraml.serversync.connection.auth.credentials.DirectCredentialsKeys;
+import me.akraml.serversync.executor.SyncExecutor;
+import me.akraml.serversync.server.ServersManager;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A concrete implementation of the {@link MessageBrokerService} which does not rely on any message broker:
+ * proxies listen on a TCP port and every spigot server keeps a persistent connection to each configured proxy,
+ * pushing its messages directly to them.
+ *
+ * <p>All the sockets are non-blocking and handled by a single selector thread. Messages are sent as
+ * length-prefixed frames; frames queued while a socket is busy are coalesced into a single gathering write.
+ * Lost connections to proxies are re-established with an exponential backoff.</p>
+ *
+ * <p>Both sides must share the same secret and authenticate each other: a proxy sends a random challenge to every
+ * accepted connection, the server answers with a challenge of its own and the HMAC of both, and the proxy confirms
+ * with its own HMAC of both. A server neither sends nor accepts messages before checking the confirmation, so nobody
+ * listening on the address of a proxy receives its state. Until then, only frames small enough for the handshake
+ * are read, and connections not authenticated within {@link #HANDSHAKE_TIMEOUT_MILLIS} are closed.</p>
+ *
+ * <p>Each direction of a connection then derives its own session key from both challenges, and every message frame
+ * carries a sequence number and the HMAC of both, so frames can neither be forged, replayed nor moved to another
+ * connection. Frames are not encrypted, so this transport is meant to be used on a private network.</p>
+ *
+ * @version 1.0-BETA
+ */
+public final class DirectMessageBrokerService extends MessageBrokerService implements AuthenticatedConnection<Selector> {
+
+    private static final int MAX_FRAME_SIZE = 1 << 20;
+    /** Largest frame read before authentication, the challenge and its response are much smaller. */
+    private static final int MAX_HANDSHAKE_FRAME_SIZE = 256;
+    /** Delay after which connections which did not complete the handshake are closed. */
+    private static final long HANDSHAKE_TIMEOUT_MILLIS = 5000L;
+    private static final int MAX_PENDING_BYTES = 4 << 20;
+    private static final int MAX_GATHERED_FRAMES = 64;
+    private static final int NONCE_LENGTH = 16;
+    private static final long MIN_RECONNECT_DELAY_MILLIS = 1000L, MAX_RECONNECT_DELAY_MILLIS = 30000L;
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private static final int MAC_LENGTH = 32;
+
+    private static final byte FRAME_CHALLENGE = 0, FRAME_RESPONSE = 1, FRAME_MESSAGE = 2, FRAME_CONFIRM = 3;
+    /** Labels of the signed values, so none of them can be replayed as another one. */
+    private static final byte[] SERVER_LABEL = {'S'}, PROXY_LABEL = {'P'}, TO_PROXY_LABEL = {'>'}, TO_SERVER_LABEL = {'<'};
+
+    private final SecureRandom random = new SecureRandom();
+    private final ConnectionCredentials credentials;
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    private final List<Peer> peers = new CopyOnWriteArrayList<>();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private byte[] secret;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running, handling;
+
+    /**
+     * Constructs a new DirectMessageBrokerService with the given {@link ServersManager} and {@link ConnectionCredentials}.
+     * The service listens for connections if {@link DirectCredentialsKeys#LISTEN_ADDRESS} is present, and connects
+     * to every address of {@link DirectCredentialsKeys#PROXY_ADDRESSES} if present.
+     *
+     * @param serversManager The servers manager to use for actions on servers.
+     * @param executor The executor to run the selector loop and reconnections on.
+     * @param credentials The credentials used to establish the connections.
+     */
+    public DirectMessageBrokerService(final ServersManager serversManager,
+                                      final SyncExecutor executor,
+                                      final ConnectionCredentials credentials) {
+        super(serversManager, executor);
+        this.credentials = credentials;
+    }
+
+    @Override
+    public ConnectionResult connect() {
+        final String sharedSecret = credentials.getProperty(DirectCredentialsKeys.SHARED_SECRET, String.class);
+        if (sharedSecret == null || sharedSecret.isEmpty()) {
+            throw new ConnectionAuthenticationException("A shared secret is required for direct connections");
+        }
+        this.secret = sharedSecret.getBytes(StandardCharsets.UTF_8);
+        try {
+            this.selector = Selector.open();
+            if (credentials.hasProperty(DirectCredentialsKeys.LISTEN_ADDRESS)) {
+                serverChannel = ServerSocketChannel.open();
+                serverChannel.configureBlocking(false);
+                serverChannel.bind(parseAddress(credentials.getProperty(DirectCredentialsKeys.LISTEN_ADDRESS, String.class)));
+                serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            }
+        } catch (final IOException exception) {
+            exception.printStackTrace(System.err);
+            return ConnectionResult.FAILURE;
+        }
+        if (credentials.hasProperty(DirectCredentialsKeys.PROXY_ADDRESSES)) {
+            for (final Object address : credentials.getProperty(DirectCredentialsKeys.PROXY_ADDRESSES, List.class)) {
+                final Peer peer = new Peer(parseAddress(String.valueOf(address)));
+                peers.add(peer);
+                selectorTasks.add(() -> openOutbound(peer));
+            }
+        }
+        running = true;
+        executor.startLongRunning("Direct-IO", this::runSelector);
+        return ConnectionResult.SUCCESS;
+    }
+
+    @Override
+    public Selector getConnection() {
+        return selector;
+    }
+
+    @Override
+    public ConnectionCredentials getCredentials() {
+        return credentials;
+    }
+
+    @Override
+    public void startHandler() {
+        handling = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (selector != null) selector.wakeup();
+        stopInboundLanes();
+    }
+
+    @Override
+    public void publish(String channel, JsonObject message) {
+        final byte[] body = encodeMessage(channel, message.toString());
+        for (final Peer peer : peers) {
+            if (peer.authenticated) enqueueMessage(peer, body);
+        }
+    }
+
+    /**
+     * Retrieves the amount of frames dropped because a peer was not consuming them fast enough.
+     *
+     * @return Dropped frames count.
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    private void runSelector() {
+        try {
+            while (running) {
+                Runnable task;
+                while ((task = selectorTasks.poll()) != null) task.run();
+                selector.select(1000L);
+                final Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    final SelectionKey key = iterator.next();
+                    iterator.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    final Peer peer = (Peer) key.attachment();
+                    try {
+                        if (key.isConnectable()) finishConnect(peer);
+                        if (key.isValid() && key.isReadable()) read(peer);
+                        if (key.isValid() && key.isWritable()) flush(peer);
+                    } catch (final IOException | RuntimeException exception) {
+                        disconnect(peer);
+                    }
+                }
+                closeStalledHandshakes();
+            }
+        } catch (final IOException exception) {
+            exception.printStackTrace(System.err);
+        } finally {
+            for (final Peer peer : peers) closeQuietly(peer.channel);
+            closeQuietly(serverChannel);
+            closeQuietly(selector);
+        }
+    }
+
+    private void accept() throws IOException {
+        final SocketChannel channel = serverChannel.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        final Peer peer = new Peer(null);
+        peer.channel = channel;
+        peer.key = channel.register(selector, SelectionKey.OP_READ, peer);
+        peer.nonce = new byte[NONCE_LENGTH];
+        random.nextBytes(peer.nonce);
+        peer.connectedNanos = System.nanoTime();
+        peers.add(peer);
+        peer.enqueue(encodeFrame(FRAME_CHALLENGE, peer.nonce));
+    }
+
+    private void openOutbound(final Peer peer) {
+        if (!running) return;
+        try {
+            final SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            peer.channel = channel;
+            peer.connectedNanos = System.nanoTime();
+            if (channel.connect(peer.address)) {
+                peer.key = channel.register(selector, SelectionKey.OP_READ, peer);
+            } else {
+                peer.key = channel.register(selector, SelectionKey.OP_CONNECT, peer);
+            }
+        } catch (final IOException exception) {
+            disconnect(peer);
+        }
+    }
+
+    private void finishConnect(final Peer peer) throws IOException {
+        if (peer.channel.finishConnect()) {
+            peer.key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void read(final Peer peer) throws IOException {
+        if (peer.channel.read(peer.readBuffer) < 0) {
+            disconnect(peer);
+            return;
+        }
+        peer.readBuffer.flip();
+        while (peer.readBuffer.remaining() >= Integer.BYTES) {
+            final int length = peer.readBuffer.getInt(peer.readBuffer.position());
+            if (length <= 0 || length > (peer.authenticated ? MAX_FRAME_SIZE : MAX_HANDSHAKE_FRAME_SIZE)) {
+                throw new IOException("Invalid frame length " + length);
+            }
+            if (peer.readBuffer.remaining() < Integer.BYTES + length) {
+                if (peer.readBuffer.capacity() < Integer.BYTES + length) {
+                    final ByteBuffer grown = ByteBuffer.allocate(Integer.BYTES + length);
+                    grown.put(peer.readBuffer);
+                    peer.readBuffer = grown;
+                    return;
+                }
+                break;
+            }
+            peer.readBuffer.getInt();
+            final byte type = peer.readBuffer.get();
+            final byte[] body = new byte[length - 1];
+            peer.readBuffer.get(body);
+            handleFrame(peer, type, body);
+        }
+        peer.readBuffer.compact();
+    }
+
+    private void handleFrame(final Peer peer,
+                             final byte type,
+                             final byte[] body) throws IOException {
+        switch (type) {
+            case FRAME_CHALLENGE: {
+                if (peer.address == null || peer.authenticated || peer.nonce != null || body.length != NONCE_LENGTH) {
+                    throw new IOException("Unexpected challenge");
+                }
+                peer.challenge = body;
+                peer.nonce = new byte[NONCE_LENGTH];
+                random.nextBytes(peer.nonce);
+                final byte[] response = Arrays.copyOf(peer.nonce, NONCE_LENGTH + MAC_LENGTH);
+                System.arraycopy(sign(secret, SERVER_LABEL, peer.challenge, peer.nonce), 0, response, NONCE_LENGTH, MAC_LENGTH);
+                peer.enqueue(encodeFrame(FRAME_RESPONSE, response));
+                break;
+            }
+            case FRAME_RESPONSE: {
+                // The proxy side: the server proved it knows the secret, the proxy proves it in turn.
+                if (peer.address != null || peer.authenticated || peer.nonce == null || body.length != NONCE_LENGTH + MAC_LENGTH) {
+                    throw new IOException("Unexpected challenge response");
+                }
+                final byte[] serverNonce = Arrays.copyOf(body, NONCE_LENGTH);
+                if (!MessageDigest.isEqual(sign(secret, SERVER_LABEL, peer.nonce, serverNonce),
+                        Arrays.copyOfRange(body, NONCE_LENGTH, body.length))) {
+                    throw new IOException("Invalid challenge response");
+                }
+                peer.enqueue(encodeFrame(FRAME_CONFIRM, sign(secret, PROXY_LABEL, peer.nonce, serverNonce)));
+                startSession(peer, peer.nonce, serverNonce, TO_SERVER_LABEL, TO_PROXY_LABEL);
+                peer.identity = ((InetSocketAddress) peer.channel.getRemoteAddress()).getAddress().getHostAddress();
+                peer.authenticated = true;
+                break;
+            }
+            case FRAME_CONFIRM: {
+                // The server side: the proxy must prove it knows the secret before receiving anything.
+                if (peer.address == null || peer.authenticated || peer.challenge == null
+                        || !MessageDigest.isEqual(sign(secret, PROXY_LABEL, peer.challenge, peer.nonce), body)) {
+                    throw new IOException("Invalid challenge confirmation");
+                }
+                startSession(peer, peer.challenge, peer.nonce, TO_PROXY_LABEL, TO_SERVER_LABEL);
+                peer.identity = peer.address.getHostString();
+                peer.authenticated = true;
+                peer.reconnectDelay = MIN_RECONNECT_DELAY_MILLIS;
+                // The proxy may have missed anything published while disconnected, send it the full state.
+                respondToSync();
+                break;
+            }
+            case FRAME_MESSAGE: {
+                if (!peer.authenticated) throw new IOException("Message received before authentication");
+                final ByteBuffer buffer = ByteBuffer.wrap(body);
+                final long sequence = buffer.getLong();
+                final byte[] mac = new byte[MAC_LENGTH];
+                buffer.get(mac);
+                peer.receiveMac.update(body, 0, Long.BYTES);
+                peer.receiveMac.update(body, buffer.position(), buffer.remaining());
+                if (!MessageDigest.isEqual(peer.receiveMac.doFinal(), mac)) throw new IOException("Invalid message signature");
+                if (sequence <= peer.receiveSequence) throw new IOException("Replayed message " + sequence);
+                peer.receiveSequence = sequence;
+                final byte[] channel = new byte[buffer.getShort()];
+                buffer.get(channel);
+                final String message = new String(body, buffer.position(), buffer.remaining(), StandardCharsets.UTF_8);
+                if (handling) {
+                    onMessageReceive(new String(channel, StandardCharsets.UTF_8), message, peer.identity);
+                }
+                break;
+            }
+            default:
+                throw new IOException("Unknown frame type " + type);
+        }
+    }
+
+    /**
+     * Derives the session keys of both directions of an authenticated connection from both challenges.
+     */
+    private void startSession(final Peer peer,
+                              final byte[] proxyNonce,
+                              final byte[] serverNonce,
+                              final byte[] sendLabel,
+                              final byte[] receiveLabel) throws IOException {
+        synchronized (peer) {
+            peer.sendMac = newMac(sign(secret, sendLabel, proxyNonce, serverNonce));
+            peer.sendSequence = 0L;
+        }
+        peer.receiveMac = newMac(sign(secret, receiveLabel, proxyNonce, serverNonce));
+        peer.receiveSequence = 0L;
+        peer.nonce = null;
+        peer.challenge = null;
+    }
+
+    /**
+     * Signs a message with the session key of the peer and queues it. Sequence numbers are assigned in the order the
+     * frames are queued, so the peer can reject any frame it already received.
+     */
+    private void enqueueMessage(final Peer peer,
+                                final byte[] body) {
+        synchronized (peer) {
+            if (!peer.authenticated) return;
+            final long sequence = ++peer.sendSequence;
+            final ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + 1 + Long.BYTES + MAC_LENGTH + body.length);
+            frame.putInt(1 + Long.BYTES + MAC_LENGTH + body.length).put(FRAME_MESSAGE).putLong(sequence);
+            peer.sendMac.update(frame.array(), Integer.BYTES + 1, Long.BYTES);
+            frame.put(peer.sendMac.doFinal(body)).put(body);
+            frame.flip();
+            peer.enqueue(frame);
+        }
+    }
+
+    private void flush(final Peer peer) throws IOException {
+        ByteBuffer frame;
+        while (peer.inFlight.size() < MAX_GATHERED_FRAMES && (frame = peer.outbound.poll()) != null) {
+            peer.inFlight.add(frame);
+        }
+        if (!peer.inFlight.isEmpty()) {
+            peer.channel.write(peer.inFlight.toArray(new ByteBuffer[0]));
+            while (!peer.inFlight.isEmpty() && !peer.inFlight.peekFirst().hasRemaining()) {
+                peer.pendingBytes.addAndGet(-peer.inFlight.pollFirst().capacity());
+            }
+        }
+        if (peer.inFlight.isEmpty() && peer.outbound.isEmpty()) {
+            peer.key.interestOps(peer.key.interestOps() & ~SelectionKey.OP_WRITE);
+            peer.writeScheduled.set(false);
+            // A frame may have been queued between the emptiness check and the flag reset.
+            if (!peer.outbound.isEmpty() && peer.writeScheduled.compareAndSet(false, true)) {
+                peer.key.interestOps(peer.key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    /**
+     * Closes the connections which did not complete the handshake in time, an outbound connection is opened again
+     * after its reconnection delay.
+     */
+    private void closeStalledHandshakes() {
+        final long deadline = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(HANDSHAKE_TIMEOUT_MILLIS);
+        for (final Peer peer : peers) {
+            if (!peer.authenticated && peer.channel != null && peer.channel.isOpen() && peer.connectedNanos - deadline < 0L) {
+                disconnect(peer);
+            }
+        }
+    }
+
+    private void disconnect(final Peer peer) {
+        closeQuietly(peer.channel);
+        peer.authenticated = false;
+        peer.nonce = null;
+        peer.challenge = null;
+        peer.outbound.clear();
+        peer.inFlight.clear();
+        peer.pendingBytes.set(0);
+        peer.writeScheduled.set(false);
+        peer.readBuffer.clear();
+        if (peer.address == null) {
+            peers.remove(peer);
+            return;
+        }
+        if (!running) return;
+        final long delay = peer.reconnectDelay;
+        peer.reconnectDelay = Math.min(delay * 2, MAX_RECONNECT_DELAY_MILLIS);
+        executor.schedule(() -> runOnSelector(() -> openOutbound(peer)), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void runOnSelector(final Runnable task) {
+        selectorTasks.add(task);
+        selector.wakeup();
+    }
+
+    private static byte[] sign(final byte[] key,
+                               final byte[]... parts) throws IOException {
+        final Mac mac = newMac(key);
+        for (final byte[] part : parts) mac.update(part);
+        return mac.doFinal();
+    }
+
+    private static Mac newMac(final byte[] key) throws IOException {
+        try {
+            final Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(new SecretKeySpec(key, HMAC_ALGORITHM));
+            return mac;
+        } catch (final GeneralSecurityException exception) {
+            throw new IOException(exception);
+        }
+    }
+
+    private static byte[] encodeMessage(final String channel,
+                                        final String message) {
+        final byte[] channelBytes = channel.getBytes(StandardCharsets.UTF_8);
+        final byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer body = ByteBuffer.allocate(Short.BYTES + channelBytes.length + messageBytes.length);
+        body.putShort((short) channelBytes.length).put(channelBytes).put(messageBytes);
+        return body.array();
+    }
+
+    private static ByteBuffer encodeFrame(final byte type,
+                                          final byte[] body) {
+        final ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + 1 + body.length);
+        frame.putInt(1 + body.length).put(type).put(body);
+        frame.flip();
+        return frame;
+    }
+
+    private static InetSocketAddress parseAddress(final String address) {
+        final int separator = address.lastIndexOf(':');
+        if (separator <= 0) throw new ConnectionAuthenticationException("Invalid address=" + address);
+        return new InetSocketAddress(address.substring(0, separator).trim(),
+                Integer.parseInt(address.substring(separator + 1).trim()));
+    }
+
+    private static void closeQuietly(final java.io.Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (final IOException ignored) {
+            // Nothing to do, the resource is discarded anyway.
+        }
+    }
+
+    /**
+     * Represents the remote side of a connection: a proxy when {@link #address} is set, a spigot server otherwise.
+     */
+    private final class Peer {
+
+        private final InetSocketAddress address;
+        private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+        private final Deque<ByteBuffer> inFlight = new ArrayDeque<>();
+        private final AtomicInteger pendingBytes = new AtomicInteger();
+        private final AtomicBoolean writeScheduled = new AtomicBoolean();
+        private ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+        private SocketChannel channel;
+        private SelectionKey key;
+        /** The challenge sent by this side, and the one received from the proxy on servers, until authenticated. */
+        private byte[] nonce, challenge;
+        private String identity;
+        /** The session keys of both directions, the sending one is guarded by the peer. */
+        private Mac sendMac, receiveMac;
+        private long sendSequence, receiveSequence;
+        private long reconnectDelay = MIN_RECONNECT_DELAY_MILLIS;
+        private long connectedNanos;
+        private volatile boolean authenticated;
+
+        private Peer(final InetSocketAddress address) {
+            this.address = address;
+        }
+
+        private void enqueue(final ByteBuffer frame) {
+            if (pendingBytes.addAndGet(frame.capacity()) > MAX_PENDING_BYTES) {
+                pendingBytes.addAndGet(-frame.capacity());
+                droppedFrames.incrementAndGet();
+                return;
+            }
+            outbound.add(frame);
+            if (writeScheduled.compareAndSet(false, true)) {
+                runOnSelector(() -> {
+                    if (key != null && key.isValid()) key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                });
+            }
+        }
+    }
+}
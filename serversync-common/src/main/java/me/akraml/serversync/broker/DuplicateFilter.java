@@ -0,0 +1,121 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package me.akraml.serversync.broker;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drops the messages received more than once, such as messages replayed from a spill journal after their first
+ * publication went through, or messages delivered by several redundant transports.
+ *
+ * <p>Every message carries the identifier of its origin and a sequence number incremented by the origin for each
+ * message. For each origin and lane, a sliding window remembers which of the latest {@link #WINDOW_SIZE} sequences
+ * have been seen, in a ring of bits. Checking a message is a constant amount of work, and the memory is bounded by
+ * the window size and {@link #MAX_ORIGINS}. Messages older than the window are dropped as well, as they can no longer
+ * be told apart from duplicates; each lane is delivered in order, so only duplicates are that late.</p>
+ *
+ * <p>It is only used by the dispatcher thread of the {@link InboundLanes}, so it is not thread-safe.</p>
+ *
+ * @version 1.0-BETA
+ */
+public final class DuplicateFilter {
+
+    /** Amount of 64 bits words of each window, must be a power of two. */
+    private static final int WINDOW_WORDS = 32;
+
+    /** Amount of sequences tracked by a window, the oldest word is cleared when the window slides over it. */
+    public static final int WINDOW_SIZE = (WINDOW_WORDS - 1) * Long.SIZE;
+
+    /** Maximum amount of origins tracked, the least recently seen ones are forgotten first. */
+    public static final int MAX_ORIGINS = 4096;
+
+    private final Map<String, Map<MessageLane, Window>> origins = new LinkedHashMap<String, Map<MessageLane, Window>>(64, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Map<MessageLane, Window>> eldest) {
+            return size() > MAX_ORIGINS;
+        }
+    };
+    private final LongAdder duplicates = new LongAdder();
+
+    /**
+     * Retrieves the amount of messages dropped as duplicates so far.
+     *
+     * @return The amount of dropped messages.
+     */
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    /**
+     * Checks a received message, and remembers its sequence.
+     *
+     * @param origin   The identifier of the node which published the message.
+     * @param lane     The lane the message has been received on.
+     * @param sequence The sequence number of the message.
+     * @return True if the message is seen for the first time, false if it must be dropped.
+     */
+    boolean accept(final String origin,
+                   final MessageLane lane,
+                   final long sequence) {
+        final Window window = origins.computeIfAbsent(origin, key -> new EnumMap<>(MessageLane.class))
+                .computeIfAbsent(lane, key -> new Window());
+        if (window.accept(sequence)) return true;
+        duplicates.increment();
+        return false;
+    }
+
+    /**
+     * The sequences recently seen from one origin on one lane.
+     */
+    private static final class Window {
+
+        private final long[] bits = new long[WINDOW_WORDS];
+        private long highest = -1L;
+
+        private boolean accept(final long sequence) {
+            if (sequence > highest) {
+                final long word = sequence >>> 6;
+                if (highest < 0 || word - (highest >>> 6) >= WINDOW_WORDS) {
+                    Arrays.fill(bits, 0L);
+                } else {
+                    for (long i = (highest >>> 6) + 1; i <= word; i++) bits[(int) (i & (WINDOW_WORDS - 1))] = 0L;
+                }
+                highest = sequence;
+            } else if (highest - sequence >= WINDOW_SIZE) {
+                return false;
+            }
+            final int index = (int) ((sequence >>> 6) & (WINDOW_WORDS - 1));
+            final long bit = 1L << (sequence & 63);
+            if ((bits[index] & bit) != 0) return false;
+            bits[index] |= bit;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,822 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.broker;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import me.akraml.serversync.connection.ConnectionResult;
+import me.akraml.serversync.connection.auth.AuthenticatedConnection;
+import me.akraml.serversync.connection.auth.ConnectionAuthenticationException;
+import me.akraml.serversync.connection.auth.ConnectionCredentials;
+import me.akraml.serversync.connection.auth.credentials.GossipCredentialsKeys;
+import me.akraml.serversync.executor.SyncExecutor;
+import me.akraml.serversync.gossip.GossipMember;
+import me.akraml.serversync.gossip.MemberState;
+import me.akraml.serversync.metrics.LatencyHistogram;
+import me.akraml.serversync.player.SyncPlayer;
+import me.akraml.serversync.server.Server;
+import me.akraml.serversync.server.ServerImpl;
+import me.akraml.serversync.server.ServerLoad;
+import me.akraml.serversync.server.ServerMessageType;
+import me.akraml.serversync.server.ServersManager;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * A concrete implementation of the {@link MessageBrokerService} which replaces the broker by a decentralized,
+ * SWIM-style membership protocol over UDP. Every spigot server and proxy is a member of the network, so the
+ * network keeps working as long as members can reach each other, without any single point of failure.
+ *
+ * <p>Every protocol period, each member probes another member picked in a shuffled round-robin order. If no
+ * acknowledgement comes back in time, a few other members are asked to probe it indirectly, and the member is
+ * marked as suspect if none of them succeeds. Suspects are declared dead once the suspicion timeout, which grows
+ * with the logarithm of the network size, expires without being refuted by the suspected member.</p>
+ *
+ * <p>Membership changes, server information and a digest of every players set are piggybacked on the probes and
+ * retransmitted a logarithmic amount of times. Full players sets are only fetched from their owner when their
+ * digest changes, and a full state exchange with a random member runs periodically to heal lost packets.
+ * Changes are applied through the same {@link ServersManager} hooks as the broker-based services.</p>
+ *
+ * @version 1.0-BETA
+ */
+public final class GossipMessageBrokerService extends MessageBrokerService implements AuthenticatedConnection<DatagramChannel> {
+
+    private static final int MAX_PACKET_SIZE = 65000;
+    private static final int PIGGYBACK_BUDGET = 1200;
+    private static final int MAC_LENGTH = 16;
+    private static final int INDIRECT_PROBES = 3;
+    private static final int SUSPICION_MULTIPLIER = 4;
+    private static final int RETRANSMIT_MULTIPLIER = 4;
+    private static final int PUSH_PULL_PERIODS = 10;
+    private static final int DEAD_RETENTION_PERIODS = 60;
+    private static final long DEFAULT_PROTOCOL_PERIOD = 1000L;
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private enum PacketType {
+        PING, ACK, PING_REQ, SYNC, SYNC_REPLY, STATE_REQUEST, STATE
+    }
+
+    private final Gson gson = new Gson();
+    private final ConnectionCredentials credentials;
+    private final Map<String, GossipMember> members = new ConcurrentHashMap<>();
+    private final Map<Integer, Probe> probes = new ConcurrentHashMap<>();
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final LatencyHistogram disseminationLatency = new LatencyHistogram();
+    private final AtomicBoolean snapshotScheduled = new AtomicBoolean();
+    private final Object lock = new Object();
+
+    // Every field below is guarded by the lock.
+    private final Map<String, Broadcast> broadcasts = new LinkedHashMap<>();
+    private final Map<String, Long> appliedDigests = new HashMap<>();
+    private final TreeMap<String, String> localPlayers = new TreeMap<>();
+    private final List<String> probeOrder = new ArrayList<>();
+    private GossipMember self;
+    private Probe currentProbe;
+    private int probeIndex, ticks;
+    private boolean leaving;
+
+    private ThreadLocal<Mac> mac;
+    private DatagramChannel channel;
+    private ScheduledFuture<?> protocolTask;
+    private long protocolPeriod;
+    private volatile boolean running, handling;
+
+    /**
+     * Constructs a new GossipMessageBrokerService with the given {@link ServersManager} and {@link ConnectionCredentials}.
+     *
+     * @param serversManager The servers manager to use for actions on servers, null on spigot servers.
+     * @param executor The executor to run the receiver and protocol tasks on.
+     * @param credentials The credentials used to join the membership.
+     */
+    public GossipMessageBrokerService(final ServersManager serversManager,
+                                      final SyncExecutor executor,
+                                      final ConnectionCredentials credentials) {
+        super(serversManager, executor);
+        this.credentials = credentials;
+    }
+
+    @Override
+    public ConnectionResult connect() {
+        final String sharedSecret = credentials.getProperty(GossipCredentialsKeys.SHARED_SECRET, String.class);
+        if (sharedSecret == null || sharedSecret.isEmpty()) {
+            throw new ConnectionAuthenticationException("A shared secret is required for gossip membership");
+        }
+        final SecretKeySpec key = new SecretKeySpec(sharedSecret.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM);
+        this.mac = ThreadLocal.withInitial(() -> {
+            try {
+                final Mac instance = Mac.getInstance(HMAC_ALGORITHM);
+                instance.init(key);
+                return instance;
+            } catch (final GeneralSecurityException exception) {
+                throw new IllegalStateException(exception);
+            }
+        });
+        this.protocolPeriod = credentials.hasProperty(GossipCredentialsKeys.PROTOCOL_PERIOD)
+                ? credentials.getProperty(GossipCredentialsKeys.PROTOCOL_PERIOD, Long.class)
+                : DEFAULT_PROTOCOL_PERIOD;
+        final String nodeName = credentials.getProperty(GossipCredentialsKeys.NODE_NAME, String.class);
+        final InetSocketAddress bindAddress = parseAddress(credentials.getProperty(GossipCredentialsKeys.BIND_ADDRESS, String.class));
+        try {
+            final InetSocketAddress advertiseAddress = credentials.hasProperty(GossipCredentialsKeys.ADVERTISE_ADDRESS)
+                    ? parseAddress(credentials.getProperty(GossipCredentialsKeys.ADVERTISE_ADDRESS, String.class))
+                    : bindAddress.getAddress().isAnyLocalAddress()
+                    ? new InetSocketAddress(InetAddress.getLocalHost(), bindAddress.getPort())
+                    : bindAddress;
+            channel = DatagramChannel.open();
+            channel.bind(bindAddress);
+            final long now = System.currentTimeMillis();
+            synchronized (lock) {
+                // Starting at the current time keeps incarnations increasing across restarts.
+                self = new GossipMember(nodeName == null || nodeName.isEmpty() ? UUID.randomUUID().toString() : nodeName,
+                        advertiseAddress, now, MemberState.ALIVE, now, null, null, 0, null, Collections.emptyMap(), 0, 0L, 0, null);
+                members.put(self.getId(), self);
+                enqueueBroadcast(self, now);
+            }
+        } catch (final IOException exception) {
+            exception.printStackTrace(System.err);
+            return ConnectionResult.FAILURE;
+        }
+        running = true;
+        executor.startLongRunning("Gossip-Receiver", this::receive);
+        protocolTask = executor.scheduleAtFixedRate(this::tick, protocolPeriod, protocolPeriod, TimeUnit.MILLISECONDS);
+        if (credentials.hasProperty(GossipCredentialsKeys.SEEDS)) {
+            for (final Object seed : credentials.getProperty(GossipCredentialsKeys.SEEDS, List.class)) {
+                final InetSocketAddress seedAddress = parseAddress(String.valueOf(seed));
+                if (!seedAddress.equals(self.getAddress())) send(seedAddress, createSync(PacketType.SYNC));
+            }
+        }
+        return ConnectionResult.SUCCESS;
+    }
+
+    @Override
+    public DatagramChannel getConnection() {
+        return channel;
+    }
+
+    @Override
+    public ConnectionCredentials getCredentials() {
+        return credentials;
+    }
+
+    @Override
+    public void startHandler() {
+        handling = true;
+        synchronized (lock) {
+            for (final GossipMember member : members.values()) applyMember(member);
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (protocolTask != null) protocolTask.cancel(false);
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (final IOException exception) {
+                exception.printStackTrace(System.err);
+            }
+        }
+        stopInboundLanes();
+    }
+
+    /**
+     * Updates the state of the local server from a message built by the publishing methods, and disseminates
+     * the change if the server information or the players set changed. Control messages are ignored, as the
+     * membership already synchronizes its whole state periodically, and so are RPC messages: gossip has no
+     * request/response path, RPC requests sent over it time out.
+     *
+     * @param channel The channel the message is published on.
+     * @param message The message to apply to the local state.
+     */
+    @Override
+    public void publish(String channel, JsonObject message) {
+        if (!running || !(getServersChannel().equals(channel) || getUpdatesChannel().equals(channel))) return;
+        synchronized (lock) {
+            final ServerMessageType type = ServerMessageType.valueOf(message.get("type").getAsString());
+            String serverIp = self.getServerIp();
+            int serverPort = self.getServerPort(), maxPlayers = self.getMaxPlayers();
+            String group = self.getGroup();
+            Map<String, String> tags = self.getTags();
+            ServerLoad load = self.getLoad();
+            switch (type) {
+                case CREATE:
+                case HEARTBEAT: {
+                    serverIp = message.get("ip").getAsString();
+                    serverPort = message.get("port").getAsInt();
+                    maxPlayers = message.get("maxPlayers").getAsInt();
+                    group = message.has("group") ? message.get("group").getAsString() : null;
+                    tags = decodeTags(message.getAsJsonObject("tags"));
+                    final JsonElement loadElement = message.get("load");
+                    // Small load fluctuations are not disseminated, they would flood the membership.
+                    if (loadElement != null) {
+                        final ServerLoad sampled = ServerLoad.fromJson(loadElement.getAsJsonArray());
+                        if (sampled.differsFrom(load)) load = sampled;
+                    }
+                    final JsonArray playersArray = message.getAsJsonArray("players");
+                    if (playersArray != null) {
+                        localPlayers.clear();
+                        for (final JsonElement element : playersArray) {
+                            final String entry = element.getAsString();
+                            localPlayers.put(entry.substring(0, entry.indexOf(';')), entry);
+                        }
+                    }
+                    break;
+                }
+                case UPDATE: {
+                    final JsonElement playerUpdate = message.get("playerUpdate");
+                    if (playerUpdate != null) {
+                        final String entry = message.get("playerToUpdate").getAsString();
+                        final String uuid = entry.substring(0, entry.indexOf(';'));
+                        final PlayerUpdateState updateState = PlayerUpdateState.valueOf(playerUpdate.getAsString());
+                        // Attributes are not part of the gossiped state.
+                        if (updateState == PlayerUpdateState.ADD) {
+                            localPlayers.put(uuid, entry);
+                        } else if (updateState == PlayerUpdateState.REMOVE) {
+                            localPlayers.remove(uuid);
+                        }
+                    }
+                    final JsonElement maxPlayersElement = message.get("maxPlayers");
+                    if (maxPlayersElement != null) maxPlayers = maxPlayersElement.getAsInt();
+                    break;
+                }
+                case REMOVE: {
+                    leave();
+                    return;
+                }
+            }
+            final String serverName = message.get("name").getAsString();
+            final long digest = digest(localPlayers.values());
+            if (serverName.equals(self.getServerName()) && serverIp.equals(self.getServerIp())
+                    && serverPort == self.getServerPort() && maxPlayers == self.getMaxPlayers()
+                    && Objects.equals(group, self.getGroup()) && tags.equals(self.getTags())
+                    && digest == self.getPlayersDigest() && localPlayers.size() == self.getPlayersCount()
+                    && load == self.getLoad()) {
+                return;
+            }
+            final long now = System.currentTimeMillis();
+            self = new GossipMember(self.getId(), self.getAddress(), self.getIncarnation() + 1, MemberState.ALIVE, now,
+                    serverName, serverIp, serverPort, group, tags, maxPlayers, digest, localPlayers.size(), load);
+            members.put(self.getId(), self);
+            enqueueBroadcast(self, now);
+        }
+    }
+
+    /**
+     * Retrieves every member currently known by this node, including itself and recently dead members.
+     *
+     * @return An immutable snapshot of the known members.
+     */
+    public Collection<GossipMember> getMembers() {
+        return Collections.unmodifiableCollection(new ArrayList<>(members.values()));
+    }
+
+    /**
+     * Retrieves the histogram of the delays between the creation of a membership change by a member
+     * and its application by this node, which measures how fast changes converge over the network.
+     *
+     * @return The dissemination latency histogram.
+     */
+    public LatencyHistogram getDisseminationLatency() {
+        return disseminationLatency;
+    }
+
+    private void tick() {
+        synchronized (lock) {
+            if (leaving) return;
+            final long now = System.currentTimeMillis();
+            ticks++;
+            // The previous probe got no direct nor indirect acknowledgement during a whole period.
+            if (currentProbe != null && !currentProbe.acked) suspect(currentProbe.target, now);
+            currentProbe = null;
+            final long suspicionTimeout = (long) (SUSPICION_MULTIPLIER
+                    * Math.max(1D, Math.log10(members.size())) * protocolPeriod);
+            final Iterator<GossipMember> iterator = members.values().iterator();
+            while (iterator.hasNext()) {
+                final GossipMember member = iterator.next();
+                if (member == self) continue;
+                if (member.getState() == MemberState.SUSPECT && now - member.getStateSince() > suspicionTimeout) {
+                    updateMember(member.withState(MemberState.DEAD, member.getIncarnation(), now), now);
+                } else if (member.getState() == MemberState.DEAD
+                        && now - member.getStateSince() > DEAD_RETENTION_PERIODS * protocolPeriod) {
+                    iterator.remove();
+                    appliedDigests.remove(member.getId());
+                } else if (member.getState() != MemberState.DEAD && handling && member.hasServer()) {
+                    // Liveness is tracked by the membership, keep the heartbeat based expiry from removing the server.
+                    final Server server = getServersManager().getServer(member.getServerName());
+                    if (server != null) ((ServerImpl) server).heartbeat();
+                }
+            }
+            probes.values().removeIf(probe -> now - probe.sentAt > 3 * protocolPeriod);
+            final GossipMember target = nextProbeTarget();
+            if (target != null) {
+                final int seq = sequence.incrementAndGet();
+                currentProbe = new Probe(target.getId(), null, 0, now);
+                probes.put(seq, currentProbe);
+                sendGossip(target.getAddress(), PacketType.PING, seq, null);
+                final Probe probe = currentProbe;
+                executor.schedule(() -> probeIndirectly(probe, target), protocolPeriod / 2, TimeUnit.MILLISECONDS);
+            }
+            if (ticks % PUSH_PULL_PERIODS == 0) {
+                final List<GossipMember> alive = aliveMembers(null);
+                if (!alive.isEmpty()) {
+                    send(alive.get(ThreadLocalRandom.current().nextInt(alive.size())).getAddress(), createSync(PacketType.SYNC));
+                }
+                // Retry fetching players sets whose last request or answer has been lost.
+                for (final GossipMember member : alive) {
+                    if (member.hasServer() && !Objects.equals(appliedDigests.get(member.getId()), member.getPlayersDigest())) {
+                        requestState(member);
+                    }
+                }
+            }
+        }
+        if (handling) getServersManager().publishNetworkSnapshot();
+    }
+
+    private void probeIndirectly(final Probe probe,
+                                 final GossipMember target) {
+        if (probe.acked) return;
+        synchronized (lock) {
+            final List<GossipMember> candidates = aliveMembers(target.getId());
+            Collections.shuffle(candidates);
+            for (int i = 0; i < Math.min(INDIRECT_PROBES, candidates.size()); i++) {
+                final int seq = sequence.incrementAndGet();
+                probes.put(seq, probe);
+                final JsonObject extra = new JsonObject();
+                extra.addProperty("target", formatAddress(target.getAddress()));
+                sendGossip(candidates.get(i).getAddress(), PacketType.PING_REQ, seq, extra);
+            }
+        }
+    }
+
+    private GossipMember nextProbeTarget() {
+        for (int attempts = 0; attempts < 2; attempts++) {
+            while (probeIndex < probeOrder.size()) {
+                final GossipMember member = members.get(probeOrder.get(probeIndex++));
+                if (member != null && member != self && member.getState() != MemberState.DEAD) return member;
+            }
+            // Every member has been probed once, start a new round in a new random order.
+            probeOrder.clear();
+            probeOrder.addAll(members.keySet());
+            Collections.shuffle(probeOrder);
+            probeIndex = 0;
+        }
+        return null;
+    }
+
+    private List<GossipMember> aliveMembers(final String excluded) {
+        final List<GossipMember> alive = new ArrayList<>();
+        for (final GossipMember member : members.values()) {
+            if (member != self && member.getState() == MemberState.ALIVE && !member.getId().equals(excluded)) {
+                alive.add(member);
+            }
+        }
+        return alive;
+    }
+
+    private void suspect(final String id,
+                         final long now) {
+        final GossipMember member = members.get(id);
+        if (member == null || member.getState() != MemberState.ALIVE) return;
+        updateMember(member.withState(MemberState.SUSPECT, member.getIncarnation(), now), now);
+    }
+
+    private void leave() {
+        leaving = true;
+        final long now = System.currentTimeMillis();
+        self = self.withState(MemberState.DEAD, self.getIncarnation() + 1, now);
+        members.put(self.getId(), self);
+        enqueueBroadcast(self, now);
+        // Tell every member directly, gossiping would take a few periods the server may not have.
+        for (final GossipMember member : aliveMembers(null)) {
+            sendGossip(member.getAddress(), PacketType.PING, sequence.incrementAndGet(), null);
+        }
+    }
+
+    private void receive() {
+        final ByteBuffer buffer = ByteBuffer.allocate(MAX_PACKET_SIZE);
+        while (running) {
+            try {
+                buffer.clear();
+                final SocketAddress source = channel.receive(buffer);
+                buffer.flip();
+                if (source == null || buffer.remaining() <= MAC_LENGTH) continue;
+                final byte[] body = new byte[buffer.remaining() - MAC_LENGTH], signature = new byte[MAC_LENGTH];
+                buffer.get(body).get(signature);
+                if (!MessageDigest.isEqual(sign(body), signature)) continue;
+                handlePacket((InetSocketAddress) source, gson.fromJson(new String(body, StandardCharsets.UTF_8), JsonObject.class));
+                scheduleSnapshot();
+            } catch (final ClosedChannelException exception) {
+                return;
+            } catch (final Exception exception) {
+                if (running) exception.printStackTrace(System.err);
+            }
+        }
+    }
+
+    /**
+     * Publishes the registry snapshot once the packets received meanwhile are handled, so a burst of packets
+     * publishes a single snapshot instead of one per packet.
+     */
+    private void scheduleSnapshot() {
+        if (!handling || !snapshotScheduled.compareAndSet(false, true)) return;
+        try {
+            executor.execute(() -> {
+                snapshotScheduled.set(false);
+                getServersManager().publishNetworkSnapshot();
+            });
+        } catch (final RejectedExecutionException exception) {
+            snapshotScheduled.set(false);
+        }
+    }
+
+    private void handlePacket(final InetSocketAddress source,
+                              final JsonObject packet) {
+        final PacketType type = PacketType.valueOf(packet.get("type").getAsString());
+        final long now = System.currentTimeMillis();
+        synchronized (lock) {
+            final JsonArray updates = packet.getAsJsonArray("updates");
+            if (updates != null) {
+                for (final JsonElement update : updates) applyUpdate(update.getAsJsonObject(), now);
+            }
+            switch (type) {
+                case PING: {
+                    sendGossip(source, PacketType.ACK, packet.get("seq").getAsInt(), null);
+                    break;
+                }
+                case ACK: {
+                    final Probe probe = probes.remove(packet.get("seq").getAsInt());
+                    if (probe == null) break;
+                    probe.acked = true;
+                    // The probe was made on behalf of another member, relay the acknowledgement.
+                    if (probe.relayTo != null) sendGossip(probe.relayTo, PacketType.ACK, probe.relaySeq, null);
+                    break;
+                }
+                case PING_REQ: {
+                    final int seq = sequence.incrementAndGet();
+                    probes.put(seq, new Probe(null, source, packet.get("seq").getAsInt(), now));
+                    sendGossip(parseAddress(packet.get("target").getAsString()), PacketType.PING, seq, null);
+                    break;
+                }
+                case SYNC:
+                case SYNC_REPLY: {
+                    for (final JsonElement element : packet.getAsJsonArray("members")) {
+                        applyUpdate(element.getAsJsonObject(), now);
+                    }
+                    if (type == PacketType.SYNC) send(source, createSync(PacketType.SYNC_REPLY));
+                    break;
+                }
+                case STATE_REQUEST: {
+                    final JsonObject state = new JsonObject();
+                    state.addProperty("type", PacketType.STATE.name());
+                    state.addProperty("id", self.getId());
+                    final JsonArray players = new JsonArray();
+                    for (final String entry : localPlayers.values()) players.add(entry);
+                    state.add("players", players);
+                    send(source, state);
+                    break;
+                }
+                case STATE: {
+                    applyPlayers(packet.get("id").getAsString(), packet.getAsJsonArray("players"));
+                    break;
+                }
+            }
+        }
+    }
+
+    private void applyUpdate(final JsonObject update,
+                             final long now) {
+        final GossipMember incoming = decodeMember(update, now);
+        if (incoming.getId().equals(self.getId())) {
+            if (!leaving && incoming.getState() != MemberState.ALIVE && incoming.getIncarnation() >= self.getIncarnation()) {
+                // Refute the suspicion by announcing a newer incarnation of ourselves.
+                self = self.withState(MemberState.ALIVE, incoming.getIncarnation() + 1, now);
+                members.put(self.getId(), self);
+                enqueueBroadcast(self, now);
+            }
+            return;
+        }
+        if (!overrides(incoming, members.get(incoming.getId()))) return;
+        updateMember(incoming, update.get("ts").getAsLong());
+        disseminationLatency.recordMillis(now - update.get("ts").getAsLong());
+    }
+
+    private static boolean overrides(final GossipMember incoming,
+                                     final GossipMember current) {
+        if (current == null) return incoming.getState() != MemberState.DEAD;
+        switch (incoming.getState()) {
+            case ALIVE:
+                return incoming.getIncarnation() > current.getIncarnation();
+            case SUSPECT:
+                return current.getState() == MemberState.ALIVE
+                        ? incoming.getIncarnation() >= current.getIncarnation()
+                        : current.getState() == MemberState.SUSPECT && incoming.getIncarnation() > current.getIncarnation();
+            default:
+                return current.getState() != MemberState.DEAD && incoming.getIncarnation() >= current.getIncarnation();
+        }
+    }
+
+    private void updateMember(final GossipMember member,
+                              final long timestamp) {
+        members.put(member.getId(), member);
+        enqueueBroadcast(member, timestamp);
+        applyMember(member);
+        if (member.getState() == MemberState.ALIVE && member.hasServer()
+                && !Objects.equals(appliedDigests.get(member.getId()), member.getPlayersDigest())) {
+            requestState(member);
+        }
+    }
+
+    private void applyMember(final GossipMember member) {
+        if (!handling || !member.hasServer() || member == self) return;
+        final ServersManager serversManager = getServersManager();
+        final Server server = serversManager.getServer(member.getServerName());
+        if (member.getState() == MemberState.DEAD) {
+            if (server != null) serversManager.removeServer(server);
+            appliedDigests.remove(member.getId());
+            return;
+        }
+        if (server == null) {
+            final ServerImpl created = (ServerImpl) Server.of(member.getServerName(), member.getServerIp(), member.getServerPort());
+            created.setMaxPlayers(member.getMaxPlayers());
+            serversManager.updateMetadata(created, member.getGroup(), member.getTags());
+            created.setLoad(member.getLoad());
+            serversManager.addServer(created);
+            appliedDigests.remove(member.getId());
+        } else {
+            ((ServerImpl) server).setMaxPlayers(member.getMaxPlayers());
+            serversManager.updateMetadata((ServerImpl) server, member.getGroup(), member.getTags());
+            ((ServerImpl) server).setLoad(member.getLoad());
+            ((ServerImpl) server).heartbeat();
+        }
+    }
+
+    private void applyPlayers(final String id,
+                              final JsonArray players) {
+        final GossipMember member = members.get(id);
+        if (!handling || member == null || !member.hasServer() || member.getState() == MemberState.DEAD) return;
+        final ServersManager serversManager = getServersManager();
+        final ServerImpl server = (ServerImpl) serversManager.getServer(member.getServerName());
+        if (server == null) return;
+        final List<String> entries = new ArrayList<>();
+        final Set<UUID> online = new HashSet<>();
+        for (final JsonElement element : players) {
+            final String[] playerData = element.getAsString().split(";");
+            final UUID uuid = UUID.fromString(playerData[0]);
+            entries.add(element.getAsString());
+            online.add(uuid);
+            if (!server.containsPlayer(uuid)) serversManager.addPlayer(server, new SyncPlayer(uuid, playerData[1]));
+        }
+        for (final SyncPlayer player : new ArrayList<>(server.getOnlinePlayers())) {
+            if (!online.contains(player.getUuid())) serversManager.removePlayer(server, player);
+        }
+        Collections.sort(entries);
+        appliedDigests.put(id, digest(entries));
+    }
+
+    private void requestState(final GossipMember member) {
+        if (!handling) return;
+        final JsonObject request = new JsonObject();
+        request.addProperty("type", PacketType.STATE_REQUEST.name());
+        send(member.getAddress(), request);
+    }
+
+    private void enqueueBroadcast(final GossipMember member,
+                                  final long timestamp) {
+        final JsonObject update = encodeMember(member);
+        update.addProperty("ts", timestamp);
+        // A newer update about a member always replaces the pending one.
+        broadcasts.remove(member.getId());
+        broadcasts.put(member.getId(), new Broadcast(update));
+    }
+
+    private JsonArray piggyback() {
+        final JsonArray updates = new JsonArray();
+        if (broadcasts.isEmpty()) return updates;
+        final int retransmitLimit = RETRANSMIT_MULTIPLIER * (int) Math.ceil(Math.log10(members.size() + 1));
+        final List<Broadcast> pending = new ArrayList<>(broadcasts.values());
+        // Least transmitted updates first, they are the ones the fewest members know about.
+        pending.sort(Comparator.comparingInt(broadcast -> broadcast.transmits));
+        int size = 0;
+        for (final Broadcast broadcast : pending) {
+            if (size + broadcast.size > PIGGYBACK_BUDGET) continue;
+            size += broadcast.size;
+            updates.add(broadcast.update);
+            if (++broadcast.transmits >= retransmitLimit) {
+                broadcasts.remove(broadcast.update.get("id").getAsString());
+            }
+        }
+        return updates;
+    }
+
+    private void sendGossip(final InetSocketAddress address,
+                            final PacketType type,
+                            final int seq,
+                            final JsonObject extra) {
+        final JsonObject packet = extra == null ? new JsonObject() : extra;
+        packet.addProperty("type", type.name());
+        packet.addProperty("seq", seq);
+        packet.add("updates", piggyback());
+        send(address, packet);
+    }
+
+    private JsonObject createSync(final PacketType type) {
+        final JsonObject packet = new JsonObject();
+        packet.addProperty("type", type.name());
+        final JsonArray array = new JsonArray();
+        final long now = System.currentTimeMillis();
+        synchronized (lock) {
+            for (final GossipMember member : members.values()) {
+                final JsonObject encoded = encodeMember(member);
+                encoded.addProperty("ts", now);
+                array.add(encoded);
+            }
+        }
+        packet.add("members", array);
+        return packet;
+    }
+
+    private void send(final InetSocketAddress address,
+                      final JsonObject packet) {
+        final byte[] body = packet.toString().getBytes(StandardCharsets.UTF_8);
+        if (body.length + MAC_LENGTH > MAX_PACKET_SIZE) {
+            System.err.println("Dropping gossip packet of " + body.length + " bytes, above the maximum packet size");
+            return;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(body.length + MAC_LENGTH);
+        buffer.put(body).put(sign(body));
+        buffer.flip();
+        try {
+            channel.send(buffer, address);
+        } catch (final IOException exception) {
+            if (running) exception.printStackTrace(System.err);
+        }
+    }
+
+    private byte[] sign(final byte[] body) {
+        return Arrays.copyOf(mac.get().doFinal(body), MAC_LENGTH);
+    }
+
+    private static JsonObject encodeMember(final GossipMember member) {
+        final JsonObject object = new JsonObject();
+        object.addProperty("id", member.getId());
+        object.addProperty("address", formatAddress(member.getAddress()));
+        object.addProperty("incarnation", member.getIncarnation());
+        object.addProperty("state", member.getState().name());
+        if (member.hasServer()) {
+            final JsonObject server = new JsonObject();
+            server.addProperty("name", member.getServerName());
+            server.addProperty("ip", member.getServerIp());
+            server.addProperty("port", member.getServerPort());
+            server.addProperty("maxPlayers", member.getMaxPlayers());
+            if (member.getGroup() != null) server.addProperty("group", member.getGroup());
+            if (!member.getTags().isEmpty()) {
+                final JsonObject tags = new JsonObject();
+                member.getTags().forEach(tags::addProperty);
+                server.add("tags", tags);
+            }
+            server.addProperty("digest", member.getPlayersDigest());
+            server.addProperty("count", member.getPlayersCount());
+            if (member.getLoad() != null) server.add("load", member.getLoad().toJson());
+            object.add("server", server);
+        }
+        return object;
+    }
+
+    private static GossipMember decodeMember(final JsonObject object,
+                                             final long now) {
+        final JsonObject server = object.getAsJsonObject("server");
+        return new GossipMember(
+                object.get("id").getAsString(),
+                parseAddress(object.get("address").getAsString()),
+                object.get("incarnation").getAsLong(),
+                MemberState.valueOf(object.get("state").getAsString()),
+                now,
+                server == null ? null : server.get("name").getAsString(),
+                server == null ? null : server.get("ip").getAsString(),
+                server == null ? 0 : server.get("port").getAsInt(),
+                server == null || !server.has("group") ? null : server.get("group").getAsString(),
+                decodeTags(server == null ? null : server.getAsJsonObject("tags")),
+                server == null ? 0 : server.get("maxPlayers").getAsInt(),
+                server == null ? 0L : server.get("digest").getAsLong(),
+                server == null ? 0 : server.get("count").getAsInt(),
+                server == null || !server.has("load") ? null : ServerLoad.fromJson(server.getAsJsonArray("load"))
+        );
+    }
+
+    private static Map<String, String> decodeTags(final JsonObject object) {
+        if (object == null) return Collections.emptyMap();
+        final Map<String, String> tags = new HashMap<>();
+        for (final Map.Entry<String, JsonElement> tag : object.entrySet()) {
+            tags.put(tag.getKey(), tag.getValue().getAsString());
+        }
+        return Collections.unmodifiableMap(tags);
+    }
+
+    private static long digest(final Collection<String> players) {
+        final CRC32 crc = new CRC32();
+        for (final String entry : players) {
+            crc.update(entry.getBytes(StandardCharsets.UTF_8));
+            crc.update('\n');
+        }
+        return crc.getValue();
+    }
+
+    private static String formatAddress(final InetSocketAddress address) {
+        return address.getHostString() + ":" + address.getPort();
+    }
+
+    private static InetSocketAddress parseAddress(final String address) {
+        if (address == null) throw new ConnectionAuthenticationException("Missing gossip address");
+        final int separator = address.lastIndexOf(':');
+        if (separator <= 0) throw new ConnectionAuthenticationException("Invalid address=" + address);
+        try {
+            return new InetSocketAddress(InetAddress.getByName(address.substring(0, separator).trim()),
+                    Integer.parseInt(address.substring(separator + 1).trim()));
+        } catch (final UnknownHostException exception) {
+            throw new ConnectionAuthenticationException("Unknown host in address=" + address);
+        }
+    }
+
+    /**
+     * A probe waiting for its acknowledgement, either made by this node or on behalf of another member.
+     */
+    private static final class Probe {
+
+        private final String target;
+        private final InetSocketAddress relayTo;
+        private final int relaySeq;
+        private final long sentAt;
+        private volatile boolean acked;
+
+        private Probe(final String target,
+                      final InetSocketAddress relayTo,
+                      final int relaySeq,
+                      final long sentAt) {
+            this.target = target;
+            this.relayTo = relayTo;
+            this.relaySeq = relaySeq;
+            this.sentAt = sentAt;
+        }
+    }
+
+    /**
+     * A membership update waiting to be piggybacked on the next packets.
+     */
+    private static final class Broadcast {
+
+        private final JsonObject update;
+        private final int size;
+        private int transmits;
+
+        private Broadcast(final JsonObject update) {
+            this.update = update;
+            this.size = update.toString().length();
+        }
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package me.akraml.serversync.broker;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Protects the proxies against servers flooding the network, whether they are broken or compromised, by checking
+ * the raw messages before they are decoded.
+ *
+ * <p>Each origin has a token bucket, refilled at a steady rate and holding a limited burst of messages. Messages
+ * larger than the maximum payload size, or listing more players than allowed, are dropped as well. The origin is
+ * read straight from the raw message, from the top-level {@code "origin"} field stamped on every message, or from
+ * the top-level {@code "name"} of the server for older ones, so dropped messages never cost a full decoding. Fields
+ * nested inside the message, such as the payload of a request, are never read as its origin.</p>
+ *
+ * <p>When the transport knows which peer a message came from, the origin is only trusted within that peer, so a peer
+ * claiming the origin of another one can only ever get its own messages dropped.</p>
+ *
+ * <p>Messages above the rate of an origin are dropped on their own, so a busy server only loses its excess
+ * messages. The membership messages of the servers, its heartbeats, creation and removal, are never rate limited,
+ * so a busy server never expires on the proxies.</p>
+ *
+ * <p>An origin sending an oversized message, or one listing too many players, is quarantined for a while, and all
+ * of its messages are dropped until the quarantine ends. Its heartbeats are dropped too, so a quarantined server
+ * expires like a crashed one, and registers again once it is released. The memory is bounded by
+ * {@link #MAX_ORIGINS}.</p>
+ *
+ * @version 1.0-BETA
+ */
+public final class InboundGuard {
+
+    /** Maximum amount of origins tracked, the least recently seen ones are forgotten first. */
+    public static final int MAX_ORIGINS = 4096;
+
+    private static final String ORIGIN_FIELD = "\"origin\":\"", NAME_FIELD = "\"name\":\"", TYPE_FIELD = "\"type\":\"",
+            PLAYERS_FIELD = "\"players\":[";
+    private static final Set<String> MEMBERSHIP_TYPES = new HashSet<>(Arrays.asList("HEARTBEAT", "CREATE", "REMOVE"));
+
+    private final double messagesPerNano;
+    private final int burst, maxPayloadSize, maxPlayersPerMessage;
+    private final long quarantineNanos;
+    private final Map<String, Bucket> origins = new LinkedHashMap<String, Bucket>(64, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Bucket> eldest) {
+            return size() > MAX_ORIGINS;
+        }
+    };
+    private final Map<Rejection, LongAdder> rejections = new EnumMap<>(Rejection.class);
+    private final LongAdder quarantines = new LongAdder();
+
+    private InboundGuard(final Builder builder) {
+        this.messagesPerNano = builder.messagesPerSecond / (double) TimeUnit.SECONDS.toNanos(1L);
+        this.burst = Math.max(builder.burst, builder.messagesPerSecond);
+        this.maxPayloadSize = builder.maxPayloadSize;
+        this.maxPlayersPerMessage = builder.maxPlayersPerMessage;
+        this.quarantineNanos = TimeUnit.MILLISECONDS.toNanos(builder.quarantineMillis);
+        for (final Rejection rejection : Rejection.values()) rejections.put(rejection, new LongAdder());
+    }
+
+    /**
+     * Creates a new builder, every limit is disabled unless it is set.
+     *
+     * @return A new builder instance.
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Retrieves the amount of messages dropped for the given reason so far.
+     *
+     * @param rejection The reason of the rejections.
+     * @return The amount of dropped messages.
+     */
+    public long getRejections(final Rejection rejection) {
+        return rejections.get(rejection).sum();
+    }
+
+    /**
+     * Retrieves the amount of messages dropped so far, for any reason.
+     *
+     * @return The amount of dropped messages.
+     */
+    public long getRejections() {
+        long total = 0L;
+        for (final LongAdder adder : rejections.values()) total += adder.sum();
+        return total;
+    }
+
+    /**
+     * Retrieves the amount of times an origin has been quarantined so far.
+     *
+     * @return The amount of quarantines.
+     */
+    public long getQuarantines() {
+        return quarantines.sum();
+    }
+
+    /**
+     * Retrieves the origins currently in quarantine.
+     *
+     * @return An immutable set of the quarantined origins.
+     */
+    public Set<String> getQuarantinedOrigins() {
+        final long now = System.nanoTime();
+        final Set<String> quarantined = new HashSet<>();
+        synchronized (origins) {
+            origins.forEach((origin, bucket) -> {
+                if (bucket.isQuarantined(now)) quarantined.add(origin);
+            });
+        }
+        return Collections.unmodifiableSet(quarantined);
+    }
+
+    /**
+     * Releases an origin from its quarantine, and refills its bucket.
+     *
+     * @param origin The identifier of the origin.
+     */
+    public void release(final String origin) {
+        synchronized (origins) {
+            origins.remove(origin);
+        }
+    }
+
+    /**
+     * Checks a raw message against the limits, before it is decoded.
+     *
+     * @param message        The raw JSON message.
+     * @param peer           The authenticated peer the message came from, null if the transport does not know it.
+     * @param serversChannel If the message has been received on the servers channel, whose membership messages are
+     *                       never rate limited.
+     * @return True if the message can be handled, false if it must be dropped.
+     */
+    boolean accept(final String message,
+                   final String peer,
+                   final boolean serversChannel) {
+        final String[] header = readHeader(message);
+        final String claimed = header[0],
+                origin = peer == null ? claimed : claimed == null ? peer : peer + "/" + claimed;
+        final boolean membership = serversChannel && MEMBERSHIP_TYPES.contains(header[1]);
+        final long now = System.nanoTime();
+        final Bucket bucket;
+        if (origin == null) {
+            bucket = null;
+        } else {
+            synchronized (origins) {
+                bucket = origins.computeIfAbsent(origin, key -> new Bucket(now));
+            }
+            if (bucket.isQuarantined(now)) return reject(Rejection.QUARANTINED, null, null, now);
+        }
+        if (maxPayloadSize > 0 && message.length() > maxPayloadSize) {
+            return reject(Rejection.OVERSIZED, origin, bucket, now);
+        }
+        if (bucket != null && !membership && messagesPerNano > 0D && !bucket.tryAcquire(now)) {
+            // Only the excess is dropped, a busy server must not lose its heartbeats.
+            return reject(Rejection.RATE_LIMITED, origin, null, now);
+        }
+        if (maxPlayersPerMessage > 0 && countPlayers(message) > maxPlayersPerMessage) {
+            return reject(Rejection.TOO_MANY_PLAYERS, origin, bucket, now);
+        }
+        return true;
+    }
+
+    private boolean reject(final Rejection rejection,
+                           final String origin,
+                           final Bucket bucket,
+                           final long now) {
+        rejections.get(rejection).increment();
+        if (bucket != null && quarantineNanos > 0L && bucket.quarantine(now)) {
+            quarantines.increment();
+            System.err.println("[ServerSync] Quarantining messages from " + origin + " for "
+                    + TimeUnit.NANOSECONDS.toSeconds(quarantineNanos) + "s, reason: " + rejection);
+        }
+        return false;
+    }
+
+    /**
+     * Reads the origin and the type of a raw message without decoding it. Only the fields of the top-level object are
+     * looked at, so they can not be spoofed by a nested object such as the payload of a request.
+     */
+    private static String[] readHeader(final String message) {
+        int origin = -1, name = -1, type = -1, depth = 0;
+        boolean inString = false;
+        for (int i = 0; i < message.length(); i++) {
+            final char character = message.charAt(i);
+            if (inString) {
+                if (character == '\\') i++;
+                else if (character == '"') inString = false;
+                continue;
+            }
+            switch (character) {
+                case '{':
+                case '[':
+                    depth++;
+                    break;
+                case '}':
+                case ']':
+                    depth--;
+                    break;
+                case '"':
+                    // A string followed by a colon is a key, values are followed by a comma or a bracket.
+                    if (depth == 1) {
+                        if (message.startsWith(ORIGIN_FIELD, i)) origin = i + ORIGIN_FIELD.length();
+                        else if (message.startsWith(NAME_FIELD, i)) name = i + NAME_FIELD.length();
+                        else if (message.startsWith(TYPE_FIELD, i)) type = i + TYPE_FIELD.length();
+                    }
+                    inString = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return new String[]{readString(message, origin >= 0 ? origin : name), readString(message, type)};
+    }
+
+    private static String readString(final String message,
+                                     final int start) {
+        if (start < 0) return null;
+        final int end = message.indexOf('"', start);
+        return end < 0 ? null : message.substring(start, end);
+    }
+
+    /**
+     * Counts the players listed by a raw message without decoding it, each player being a single string.
+     */
+    private static int countPlayers(final String message) {
+        final int start = message.indexOf(PLAYERS_FIELD);
+        if (start < 0) return 0;
+        int quotes = 0;
+        for (int i = start + PLAYERS_FIELD.length(); i < message.length(); i++) {
+            final char character = message.charAt(i);
+            if (character == ']') break;
+            if (character == '"') quotes++;
+        }
+        return quotes / 2;
+    }
+
+    /**
+     * The reasons messages are dropped for.
+     *
+     * <ul>
+     *     <li>{@link #OVERSIZED} - The message is larger than the maximum payload size.</li>
+     *     <li>{@link #RATE_LIMITED} - The origin sent more messages than its bucket holds, it is not quarantined.</li>
+     *     <li>{@link #TOO_MANY_PLAYERS} - The message lists more players than allowed.</li>
+     *     <li>{@link #QUARANTINED} - The origin is in quarantine.</li>
+     * </ul>
+     */
+    public enum Rejection {
+
+        OVERSIZED,
+        RATE_LIMITED,
+        TOO_MANY_PLAYERS,
+        QUARANTINED
+
+    }
+
+    /**
+     * The token bucket and quarantine of one origin.
+     */
+    private final class Bucket {
+
+        private double tokens = burst;
+        private long refilledAt, quarantinedUntil;
+
+        private Bucket(final long now) {
+            this.refilledAt = now;
+            this.quarantinedUntil = now;
+        }
+
+        private synchronized boolean tryAcquire(final long now) {
+            tokens = Math.min(burst, tokens + (now - refilledAt) * messagesPerNano);
+            refilledAt = now;
+            if (tokens < 1D) return false;
+            tokens--;
+            return true;
+        }
+
+        private synchronized boolean isQuarantined(final long now) {
+            return now - quarantinedUntil < 0L;
+        }
+
+        /**
+         * Starts a quarantine, unless another message already started one. The bucket is full once it ends.
+         */
+        private synchronized boolean quarantine(final long now) {
+            if (isQuarantined(now)) return false;
+            quarantinedUntil = now + quarantineNanos;
+            tokens = burst;
+            return true;
+        }
+    }
+
+    /**
+     * Collects the limits of the guard.
+     */
+    public static final class Builder {
+
+        private int messagesPerSecond, burst, maxPayloadSize, maxPlayersPerMessage;
+        private long quarantineMillis;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the rate at which the bucket of each origin is refilled.
+         *
+         * @param messagesPerSecond Amount of messages per second allowed from each origin, 0 to disable.
+         * @return This builder instance.
+         */
+        public Builder messagesPerSecond(final int messagesPerSecond) {
+            this.messagesPerSecond = Math.max(0, messagesPerSecond);
+            return this;
+        }
+
+        /**
+         * Sets the amount of messages each origin can send at once, it is at least one second worth of messages.
+         *
+         * @param burst Capacity of the bucket of each origin.
+         * @return This builder instance.
+         */
+        public Builder burst(final int burst) {
+            this.burst = Math.max(0, burst);
+            return this;
+        }
+
+        /**
+         * Sets the maximum size of the received messages.
+         *
+         * @param maxPayloadSize Maximum amount of characters of a message, 0 to disable.
+         * @return This builder instance.
+         */
+        public Builder maxPayloadSize(final int maxPayloadSize) {
+            this.maxPayloadSize = Math.max(0, maxPayloadSize);
+            return this;
+        }
+
+        /**
+         * Sets the maximum amount of players listed by a single message.
+         *
+         * @param maxPlayersPerMessage Maximum amount of players, 0 to disable.
+         * @return This builder instance.
+         */
+        public Builder maxPlayersPerMessage(final int maxPlayersPerMessage) {
+            this.maxPlayersPerMessage = Math.max(0, maxPlayersPerMessage);
+            return this;
+        }
+
+        /**
+         * Sets how long the messages of an origin sending an oversized message, or one listing too many players, are dropped.
+         *
+         * @param quarantine Duration of the quarantine, 0 to only drop the offending messages.
+         * @param unit       Unit of the duration.
+         * @return This builder instance.
+         */
+        public Builder quarantine(final long quarantine,
+                                  final TimeUnit unit) {
+            this.quarantineMillis = Math.max(0L, unit.toMillis(quarantine));
+            return this;
+        }
+
+        /**
+         * Builds the guard.
+         *
+         * @return The configured guard.
+         */
+        public InboundGuard build() {
+            return new InboundGuard(this);
+        }
+    }
+}
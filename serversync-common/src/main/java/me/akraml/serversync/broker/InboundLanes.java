@@ -0,0 +1,192 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.broker;
+
+import com.google.gson.JsonObject;
+import me.akraml.serversync.executor.SyncExecutor;
+import me.akraml.serversync.metrics.LatencyHistogram;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Queues the received messages by {@link MessageLane} and handles them on a single dispatcher thread,
+ * so the subscriber threads never wait for the handling of a message.
+ *
+ * <p>The control lane is always drained first: a data message is only handled when no control message is
+ * waiting. Each lane keeps its own order, which is the order of the messages of a server on its channel.</p>
+ *
+ * <p>Once the lanes are drained, or after {@link #MAX_BATCH_SIZE} messages, the end of the batch is reported,
+ * which lets the registry publish a single snapshot for all of them.</p>
+ *
+ * @version 1.0-BETA
+ */
+public final class InboundLanes {
+
+    /** Maximum amount of messages handled before a batch is ended, so snapshots are published under sustained load. */
+    private static final int MAX_BATCH_SIZE = 256;
+
+    private final Map<MessageLane, Queue<Inbound>> queues = new EnumMap<>(MessageLane.class);
+    private final Map<MessageLane, AtomicInteger> depths = new EnumMap<>(MessageLane.class);
+    private final Map<MessageLane, LatencyHistogram> latencies = new EnumMap<>(MessageLane.class);
+    private final Semaphore available = new Semaphore(0);
+    private final Handler handler;
+    private final Runnable batchHandler;
+    private volatile Thread dispatcher;
+
+    InboundLanes(final Handler handler,
+                 final Runnable batchHandler) {
+        this.handler = handler;
+        this.batchHandler = batchHandler;
+        for (final MessageLane lane : MessageLane.values()) {
+            queues.put(lane, new ConcurrentLinkedQueue<>());
+            depths.put(lane, new AtomicInteger());
+            latencies.put(lane, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Retrieves the amount of messages waiting in a lane.
+     *
+     * @param lane The lane.
+     * @return The queue depth of the lane.
+     */
+    public int getDepth(final MessageLane lane) {
+        return depths.get(lane).get();
+    }
+
+    /**
+     * Retrieves the delay between the reception of the messages of a lane and the end of their handling.
+     *
+     * @param lane The lane.
+     * @return The latency histogram of the lane.
+     */
+    public LatencyHistogram getLatency(final MessageLane lane) {
+        return latencies.get(lane);
+    }
+
+    /**
+     * Queues a received message, starting the dispatcher with the first one.
+     *
+     * @param executor The executor to start the dispatcher on.
+     * @param lane     The lane of the message.
+     * @param channel       The channel the message has been received on.
+     * @param message       The message.
+     * @param receivedNanos The time at which the message has been received, from {@link System#nanoTime()}.
+     * @param decodeNanos   The time spent decoding the message in nanoseconds.
+     */
+    void offer(final SyncExecutor executor,
+               final MessageLane lane,
+               final String channel,
+               final JsonObject message,
+               final long receivedNanos,
+               final long decodeNanos) {
+        if (dispatcher == null) startDispatcher(executor);
+        queues.get(lane).add(new Inbound(channel, message, receivedNanos, decodeNanos));
+        depths.get(lane).incrementAndGet();
+        available.release();
+    }
+
+    /**
+     * Stops the dispatcher, the messages still waiting are discarded.
+     */
+    synchronized void stop() {
+        final Thread thread = dispatcher;
+        if (thread != null) thread.interrupt();
+    }
+
+    private synchronized void startDispatcher(final SyncExecutor executor) {
+        if (dispatcher != null) return;
+        dispatcher = executor.startLongRunning("Dispatcher", this::dispatch);
+    }
+
+    private void dispatch() {
+        int batchSize = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                available.acquire();
+            } catch (final InterruptedException exception) {
+                return;
+            }
+            MessageLane lane = MessageLane.CONTROL;
+            Inbound inbound = queues.get(lane).poll();
+            if (inbound == null) {
+                lane = MessageLane.DATA;
+                inbound = queues.get(lane).poll();
+            }
+            // A permit is released after its message is queued, so a message is always found.
+            if (inbound == null) continue;
+            depths.get(lane).decrementAndGet();
+            try {
+                handler.handle(inbound.channel, inbound.message, inbound.receivedNanos, inbound.decodeNanos);
+            } catch (final Exception exception) {
+                exception.printStackTrace(System.err);
+            }
+            latencies.get(lane).recordNanos(System.nanoTime() - inbound.receivedNanos);
+            if (++batchSize >= MAX_BATCH_SIZE || available.availablePermits() == 0) {
+                batchSize = 0;
+                try {
+                    batchHandler.run();
+                } catch (final Exception exception) {
+                    exception.printStackTrace(System.err);
+                }
+            }
+        }
+    }
+
+    /**
+     * Handles a message taken from a lane.
+     */
+    @FunctionalInterface
+    interface Handler {
+
+        void handle(final String channel,
+                    final JsonObject message,
+                    final long receivedNanos,
+                    final long decodeNanos);
+
+    }
+
+    private static final class Inbound {
+
+        private final String channel;
+        private final JsonObject message;
+        private final long receivedNanos, decodeNanos;
+
+        private Inbound(final String channel,
+                        final JsonObject message,
+                        final long receivedNanos,
+                        final long decodeNanos) {
+            this.channel = channel;
+            this.message = message;
+            this.receivedNanos = receivedNanos;
+            this.decodeNanos = decodeNanos;
+        }
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.broker;
+
+import com.google.gson.JsonObject;
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.KeyScanCursor;
+import io.lettuce.core.KeyValue;
+import io.lettuce.core.LettuceFutures;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.ScanArgs;
+import io.lettuce.core.ScanCursor;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.TimeoutOptions;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.api.sync.RedisCommands;
+import io.lettuce.core.pubsub.RedisPubSubAdapter;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+import io.lettuce.core.resource.ClientResources;
+import io.lettuce.core.resource.DefaultClientResources;
+import me.akraml.serversync.connection.ConnectionResult;
+import me.akraml.serversync.connection.auth.AuthenticatedConnection;
+import me.akraml.serversync.connection.auth.ConnectionCredentials;
+import me.akraml.serversync.connection.auth.credentials.RedisCredentialsKeys;
+import me.akraml.serversync.executor.SyncExecutor;
+import me.akraml.serversync.server.LivenessMode;
+import me.akraml.serversync.server.ServersManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A concrete implementation of the {@link MessageBrokerService} that utilizes Redis as the message broker backend
+ * through the asynchronous Lettuce client.
+ *
+ * <p>Unlike {@link RedisMessageBrokerService}, publications do not borrow a pooled connection: every command is
+ * written on a single multiplexed connection without waiting for the previous replies, so concurrent publications
+ * are pipelined automatically and never block the calling thread. While the connection is being re-established,
+ * commands are queued (up to a bounded amount) instead of failing.</p>
+ *
+ * <p>Pool related credentials keys are ignored by this implementation.</p>
+ *
+ * <p>The {@link LivenessMode#REDIS_TTL} liveness mode works as with {@link RedisMessageBrokerService}, the expiry
+ * notifications being received on a pub/sub connection of their own.</p>
+ *
+ * @version 1.0-BETA
+ */
+public final class LettuceMessageBrokerService extends MessageBrokerService
+        implements AuthenticatedConnection<StatefulRedisConnection<String, String>> {
+
+    /** Maximum amount of commands queued while the connection is unavailable. */
+    private static final int REQUEST_QUEUE_SIZE = 65536;
+
+    private final ConnectionCredentials credentials;
+    private ClientResources resources;
+    private RedisClient client;
+    private StatefulRedisConnection<String, String> connection;
+    private final Map<MessageLane, StatefulRedisPubSubConnection<String, String>> pubSubConnections = new EnumMap<>(MessageLane.class);
+    private StatefulRedisPubSubConnection<String, String> livenessConnection;
+
+    /** The service whose client and connection are shared, null if this service owns them. */
+    private final LettuceMessageBrokerService owner;
+
+    /**
+     * Constructs a new LettuceMessageBrokerService with the given {@link ServersManager} and {@link ConnectionCredentials}.
+     *
+     * @param serversManager The servers manager to use for actions on servers.
+     * @param executor The executor used by this broker for its blocking tasks.
+     * @param credentials The credentials used to establish a connection with Redis.
+     */
+    public LettuceMessageBrokerService(final ServersManager serversManager,
+                                       final SyncExecutor executor,
+                                       final ConnectionCredentials credentials) {
+        super(serversManager, executor);
+        this.credentials = credentials;
+        this.owner = null;
+    }
+
+    private LettuceMessageBrokerService(final LettuceMessageBrokerService owner,
+                                        final ServersManager serversManager) {
+        super(serversManager, owner.executor);
+        this.credentials = owner.credentials;
+        this.owner = owner;
+    }
+
+    /**
+     * Creates a service for another network, sharing the client, the publishing connection and the executor
+     * of this one. Only the subscriptions use connections of their own. The created service must be connected
+     * once this one is, and stopped before it.
+     *
+     * @param serversManager The servers manager of the other network.
+     * @return A new, not yet connected, message broker service.
+     */
+    public LettuceMessageBrokerService share(final ServersManager serversManager) {
+        return new LettuceMessageBrokerService(this, serversManager);
+    }
+
+    @Override
+    public ConnectionResult connect() {
+        if (owner != null) {
+            this.client = owner.client;
+            this.connection = owner.connection;
+            if (client == null || connection == null) return ConnectionResult.FAILURE;
+            return connectPubSub();
+        }
+        final RedisURI.Builder uriBuilder = RedisURI.builder()
+                .withHost(credentials.getProperty(RedisCredentialsKeys.HOST, String.class))
+                .withPort(credentials.getProperty(RedisCredentialsKeys.PORT, Integer.class))
+                .withTimeout(Duration.ofMillis(credentials.getProperty(RedisCredentialsKeys.TIMEOUT, Integer.class)));
+        final String password = credentials.getProperty(RedisCredentialsKeys.PASSWORD, String.class);
+        if (password != null && !password.isEmpty()) {
+            uriBuilder.withPassword(password.toCharArray());
+        }
+
+        // A couple of I/O threads are plenty for a single multiplexed connection.
+        this.resources = DefaultClientResources.builder()
+                .ioThreadPoolSize(2)
+                .computationThreadPoolSize(2)
+                .build();
+        this.client = RedisClient.create(resources, uriBuilder.build());
+        this.client.setOptions(ClientOptions.builder()
+                .autoReconnect(true)
+                .requestQueueSize(REQUEST_QUEUE_SIZE)
+                .disconnectedBehavior(ClientOptions.DisconnectedBehavior.ACCEPT_COMMANDS)
+                // Commands queued while disconnected fail after the timeout, so their messages are spilled.
+                .timeoutOptions(TimeoutOptions.enabled())
+                .build());
+
+        try {
+            this.connection = client.connect();
+        } catch (final Exception exception) {
+            shutdownClient();
+            return ConnectionResult.FAILURE;
+        }
+        return connectPubSub();
+    }
+
+    private ConnectionResult connectPubSub() {
+        try {
+            // Each lane is read from its own connection, so control messages never wait behind a burst of updates.
+            for (final MessageLane lane : MessageLane.values()) {
+                pubSubConnections.put(lane, client.connectPubSub());
+            }
+            connection.sync().ping();
+            return ConnectionResult.SUCCESS;
+        } catch (final Exception exception) {
+            pubSubConnections.values().forEach(StatefulRedisPubSubConnection::close);
+            pubSubConnections.clear();
+            if (owner == null) shutdownClient();
+            return ConnectionResult.FAILURE;
+        }
+    }
+
+    /**
+     * Closes the connection and shuts the client and its threads down, on stop or when the connection failed.
+     */
+    private void shutdownClient() {
+        if (connection != null) connection.close();
+        if (client != null) client.shutdown();
+        if (resources != null) resources.shutdown();
+        connection = null;
+        client = null;
+        resources = null;
+    }
+
+    @Override
+    public StatefulRedisConnection<String, String> getConnection() {
+        return connection;
+    }
+
+    @Override
+    public ConnectionCredentials getCredentials() {
+        return credentials;
+    }
+
+    @Override
+    public boolean supportsBrokerLiveness() {
+        return true;
+    }
+
+    @Override
+    protected void refreshLiveness(final String key,
+                                   final String state,
+                                   final long ttlMillis) {
+        connection.async().<Long>eval(RedisMessageBrokerService.REFRESH_LIVENESS_SCRIPT, ScriptOutputType.INTEGER,
+                new String[]{key}, state, String.valueOf(ttlMillis)).exceptionally(throwable -> {
+            throwable.printStackTrace(System.err);
+            return null;
+        });
+    }
+
+    @Override
+    protected void clearLiveness(final String key) {
+        connection.async().del(key);
+    }
+
+    @Override
+    public boolean supportsPlayerLocationIndex() {
+        return true;
+    }
+
+    @Override
+    protected void writePlayerLocations(final List<PlayerLocationIndex.Write> writes) {
+        // Commands are written without waiting for the previous replies, which pipelines them.
+        final RedisAsyncCommands<String, String> commands = connection.async();
+        final List<RedisFuture<?>> futures = new ArrayList<>(writes.size());
+        for (final PlayerLocationIndex.Write write : writes) {
+            switch (write.operation) {
+                case SET:
+                    futures.add(commands.hset(write.key, write.field, write.value));
+                    futures.add(commands.pexpire(write.key, PlayerLocationIndex.TTL_MILLIS));
+                    break;
+                case CLEAR:
+                    futures.add(commands.eval(RedisMessageBrokerService.CLEAR_LOCATION_SCRIPT, ScriptOutputType.INTEGER,
+                            new String[]{write.key}, write.field, write.value));
+                    break;
+                case TOUCH:
+                    futures.add(commands.pexpire(write.key, PlayerLocationIndex.TTL_MILLIS));
+                    break;
+            }
+        }
+        awaitAll(futures);
+    }
+
+    @Override
+    protected List<String[]> readPlayerLocations(final List<String> keys) {
+        final RedisAsyncCommands<String, String> commands = connection.async();
+        final List<RedisFuture<List<KeyValue<String, String>>>> futures = new ArrayList<>(keys.size());
+        for (final String key : keys) {
+            futures.add(commands.hmget(key, PlayerLocationIndex.SERVER_FIELD, PlayerLocationIndex.PROXY_FIELD));
+        }
+        awaitAll(futures);
+        final List<String[]> locations = new ArrayList<>(keys.size());
+        for (final RedisFuture<List<KeyValue<String, String>>> future : futures) {
+            final List<KeyValue<String, String>> fields = future.toCompletableFuture().join();
+            locations.add(new String[]{fields.get(0).getValueOrElse(null), fields.get(1).getValueOrElse(null)});
+        }
+        return locations;
+    }
+
+    private void awaitAll(final List<? extends RedisFuture<?>> futures) {
+        final Duration timeout = Duration.ofMillis(credentials.getProperty(RedisCredentialsKeys.TIMEOUT, Integer.class));
+        if (!LettuceFutures.awaitAll(timeout, futures.toArray(new RedisFuture<?>[0]))) {
+            throw new IllegalStateException("Redis did not answer within " + timeout.toMillis() + "ms");
+        }
+    }
+
+    @Override
+    public void startHandler() {
+        if (getLivenessMode() == LivenessMode.REDIS_TTL && getServersManager() != null) startLivenessHandler();
+        // Lettuce restores the subscriptions by itself once the connection is re-established.
+        for (final MessageLane lane : MessageLane.values()) {
+            final String[] channels = getSubscribedChannels(lane);
+            if (channels.length == 0) continue;
+            final StatefulRedisPubSubConnection<String, String> pubSubConnection = pubSubConnections.get(lane);
+            pubSubConnection.addListener(new RedisPubSubAdapter<String, String>() {
+                @Override
+                public void message(String channel, String message) {
+                    onMessageReceive(channel, message);
+                }
+            });
+            pubSubConnection.async().subscribe(channels).exceptionally(throwable -> {
+                throwable.printStackTrace(System.err);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Listens to the expiry of the liveness keys. Lettuce subscribes again by itself after a reconnection,
+     * the live servers are loaded again every time it does.
+     */
+    private void startLivenessHandler() {
+        enableExpiryNotifications(connection.sync());
+        this.livenessConnection = client.connectPubSub();
+        livenessConnection.addListener(new RedisPubSubAdapter<String, String>() {
+            @Override
+            public void psubscribed(String pattern, long count) {
+                // Commands can't block the event loop, and expiries may have been missed while disconnected.
+                executor.execute(LettuceMessageBrokerService.this::loadLiveServers);
+            }
+
+            @Override
+            public void message(String pattern, String channel, String message) {
+                onLivenessExpired(message);
+            }
+        });
+        livenessConnection.async().psubscribe(RedisMessageBrokerService.EXPIRED_KEYS_PATTERN).exceptionally(throwable -> {
+            throwable.printStackTrace(System.err);
+            return null;
+        });
+    }
+
+    /**
+     * Loads the live servers from their liveness keys, then expires the known servers whose key is missing.
+     */
+    private void loadLiveServers() {
+        final Set<String> liveServers = new HashSet<>();
+        try {
+            final RedisCommands<String, String> commands = connection.sync();
+            final ScanArgs args = ScanArgs.Builder.matches(getLivenessKeyPrefix() + "*").limit(256);
+            KeyScanCursor<String> cursor = commands.scan(args);
+            while (true) {
+                if (!cursor.getKeys().isEmpty()) {
+                    for (final KeyValue<String, String> state : commands.mget(cursor.getKeys().toArray(new String[0]))) {
+                        // The key may have expired in between.
+                        if (!state.hasValue()) continue;
+                        liveServers.add(state.getKey().substring(getLivenessKeyPrefix().length()));
+                        onMessageReceive(getServersChannel(), state.getValue());
+                    }
+                }
+                if (cursor.isFinished()) break;
+                cursor = commands.scan(ScanCursor.of(cursor.getCursor()), args);
+            }
+        } catch (final Exception exception) {
+            exception.printStackTrace(System.err);
+            return;
+        }
+        expireMissingServers(liveServers);
+    }
+
+    /**
+     * Enables the keyspace notifications of expired keys, if they are not already.
+     *
+     * @param commands The commands to configure redis with.
+     */
+    private static void enableExpiryNotifications(final RedisCommands<String, String> commands) {
+        try {
+            final Map<String, String> config = commands.configGet("notify-keyspace-events");
+            final String flags = config.isEmpty() ? "" : config.values().iterator().next();
+            final String missing = (flags.contains("E") ? "" : "E") + (flags.contains("x") || flags.contains("A") ? "" : "x");
+            if (!missing.isEmpty()) commands.configSet("notify-keyspace-events", flags + missing);
+        } catch (final Exception exception) {
+            System.err.println("Unable to enable the notifications of expired keys, make sure notify-keyspace-events includes 'Ex': " + exception);
+        }
+    }
+
+    @Override
+    public void stop() {
+        pubSubConnections.values().forEach(StatefulRedisPubSubConnection::close);
+        if (livenessConnection != null) livenessConnection.close();
+        if (owner == null) shutdownClient();
+        stopInboundLanes();
+    }
+
+    @Override
+    public void publish(String channel, JsonObject message) {
+        connection.async().publish(channel, message.toString()).exceptionally(throwable -> {
+            spill(channel, message, throwable);
+            return null;
+        });
+    }
+}
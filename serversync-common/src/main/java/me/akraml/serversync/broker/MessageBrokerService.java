@@ -24,18 +24,29 @@
 
 package me.akraml.serversync.broker;
 
+import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import me.akraml.serversync.executor.SyncExecutor;
+import me.akraml.serversync.metrics.LatencyTracer;
+import me.akraml.serversync.player.AttributeChanges;
 import me.akraml.serversync.player.SyncPlayer;
+import me.akraml.serversync.server.LivenessMode;
 import me.akraml.serversync.server.Server;
 import me.akraml.serversync.server.ServersManager;
 import me.akraml.serversync.server.ServerImpl;
+import me.akraml.serversync.server.ServerLoad;
 import me.akraml.serversync.server.ServerMessageType;
 
-import java.util.Collection;
-import java.util.List;
-import java.util.UUID;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
@@ -48,22 +59,621 @@ import java.util.stream.Collectors;
  */
 public abstract class MessageBrokerService {
 
+    /** The network services belong to unless another one is set, it uses the unprefixed channels. */
+    public static final String DEFAULT_NETWORK = "default";
+
+    /** Prefix of the channels of the default network, other networks insert their name after it. */
+    private static final String CHANNEL_PREFIX = "serversync";
+
+    /** Suffixes of the channels and keys, which can not be used as network names. */
+    private static final Set<String> RESERVED_NETWORKS = new HashSet<>(Arrays.asList("servers", "updates", "control", "rpc",
+            "alive", "player"));
+
+    /** Minimum delay in milliseconds between two synchronization requests targeting the same server. */
+    private static final long SYNC_REQUEST_COOLDOWN = 5000L;
+
+    /** Delay in milliseconds between two attempts to replay the spill journal. */
+    private static final long SPILL_REPLAY_DELAY = 1000L;
+
+    /** The network of this service, and the prefix of its channels. */
+    private volatile String network = DEFAULT_NETWORK, channelPrefix = CHANNEL_PREFIX;
+
+    /**
+     * The channel on which the servers creations, removals and heartbeats are published, the channel
+     * on which their players and maximum players updates are published, and the channel on which proxies
+     * send control messages to spigot servers.
+     */
+    private volatile String serversChannel, updatesChannel, controlChannel;
+
     /** The servers manager used to perform actions based on received messages. */
     private final ServersManager serversManager;
 
+    /** The executor used to run broker I/O tasks. */
+    protected final SyncExecutor executor;
+
+    /** Last synchronization requests sent by this proxy, by targeted server name. */
+    private final Map<String, Long> syncRequests = new ConcurrentHashMap<>();
+
+    /** The name of the local server and the task publishing its full state, set on spigot servers only. */
+    private volatile String localServerName;
+    private volatile Runnable syncResponder;
+    private volatile long syncResponseWindow;
+
+    /** The group and tags of the local server, announced on spigot servers only. */
+    private volatile String localGroup;
+    private volatile Map<String, String> localTags = Collections.emptyMap();
+
+    /** The journal holding the messages which could not be published, null if spilling is disabled. */
+    private volatile SpillJournal spillJournal;
+    private final AtomicBoolean replayScheduled = new AtomicBoolean();
+
+    /** Sends and answers the RPC requests over this service. */
+    private final RpcManager rpcManager;
+
+    /** Queues the received messages, so control messages are handled before players updates. */
+    private final InboundLanes inboundLanes = new InboundLanes(this::handleMessage, this::onBatchHandled);
+
+    /** Records the publish-to-apply latency of the received messages, and traces a sample of them. */
+    private final LatencyTracer latencyTracer = new LatencyTracer();
+
+    /** Sequence number of the next published message, see {@link #send(String, JsonObject)}. */
+    private final AtomicLong nextSequence = new AtomicLong(System.currentTimeMillis() << 20);
+
+    /** Drops the received messages which have already been applied. */
+    private final DuplicateFilter duplicateFilter = new DuplicateFilter();
+
+    /** How the stopped servers are detected, see {@link #setLivenessMode(LivenessMode, long)}. */
+    private volatile LivenessMode livenessMode = LivenessMode.HEARTBEAT;
+
+    /** Time to live in milliseconds of the liveness key of the local server. */
+    private volatile long livenessTtl;
+
+    /** The network-wide index of the player locations, null if it is disabled. */
+    private volatile PlayerLocationIndex playerLocationIndex;
+
+    /** Limits checked on the raw received messages, null if they are not limited. */
+    private volatile InboundGuard inboundGuard;
+
+    private final Gson gson = new Gson();
+
     /**
      * Constructs a new MessageBroker with the given {@link ServersManager}.
      *
      * @param serversManager The servers manager to use for actions on servers.
+     * @param executor       The executor to run broker I/O tasks on.
      */
-    public MessageBrokerService(final ServersManager serversManager) {
+    public MessageBrokerService(final ServersManager serversManager,
+                                final SyncExecutor executor) {
         this.serversManager = serversManager;
+        this.executor = executor;
+        this.rpcManager = new RpcManager(this, executor);
+        updateChannels();
+    }
+
+    /**
+     * Sets the network of this service. Services of different networks share nothing, even through the same
+     * broker: their messages are published on channels prefixed with the network name. It must be set before
+     * connecting.
+     *
+     * @param network The name of the network, made of letters, digits, '-' and '_'.
+     * @throws IllegalArgumentException if the name is not valid or is reserved.
+     */
+    public final void setNetwork(final String network) {
+        if (!network.matches("[A-Za-z0-9_-]+") || RESERVED_NETWORKS.contains(network)) {
+            throw new IllegalArgumentException("Invalid network name: " + network);
+        }
+        this.network = network;
+        this.channelPrefix = DEFAULT_NETWORK.equals(network) ? CHANNEL_PREFIX : CHANNEL_PREFIX + ":" + network;
+        updateChannels();
+    }
+
+    private void updateChannels() {
+        this.serversChannel = channelPrefix + ":servers";
+        this.updatesChannel = channelPrefix + ":updates";
+        this.controlChannel = channelPrefix + ":control";
+    }
+
+    /**
+     * Retrieves the network of this service.
+     *
+     * @return The network name.
+     */
+    public final String getNetwork() {
+        return network;
+    }
+
+    /**
+     * Retrieves the prefix of the channels and keys used by this service in the broker.
+     *
+     * @return The channel prefix.
+     */
+    public final String getChannelPrefix() {
+        return channelPrefix;
+    }
+
+    /**
+     * Retrieves the channel on which the servers creations, removals and heartbeats are published.
+     *
+     * @return The servers channel of the network.
+     */
+    protected final String getServersChannel() {
+        return serversChannel;
+    }
+
+    /**
+     * Retrieves the channel on which the players and maximum players updates of servers are published.
+     *
+     * @return The updates channel of the network.
+     */
+    protected final String getUpdatesChannel() {
+        return updatesChannel;
+    }
+
+    /**
+     * Retrieves the executor used by this broker to run its I/O tasks.
+     *
+     * @return The broker executor.
+     */
+    public final SyncExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Retrieves the servers manager received messages are applied to.
+     *
+     * @return The servers manager, null on spigot servers.
+     */
+    protected final ServersManager getServersManager() {
+        return serversManager;
+    }
+
+    /**
+     * Retrieves the manager sending and answering RPC requests over this service.
+     *
+     * @return The RPC manager.
+     */
+    public final RpcManager getRpcManager() {
+        return rpcManager;
+    }
+
+    /**
+     * Retrieves the name of the local server.
+     *
+     * @return The local server name, null on proxies.
+     */
+    final String getLocalServerName() {
+        return localServerName;
+    }
+
+    /**
+     * Retrieves the queues received messages wait in before being handled, with their depth and latency.
+     *
+     * @return The inbound lanes.
+     */
+    public final InboundLanes getInboundLanes() {
+        return inboundLanes;
+    }
+
+    /**
+     * Retrieves the tracer recording the publish-to-apply latency of the received messages.
+     *
+     * @return The latency tracer.
+     */
+    public final LatencyTracer getLatencyTracer() {
+        return latencyTracer;
+    }
+
+    /**
+     * Retrieves the filter dropping the messages received more than once.
+     *
+     * @return The duplicate filter.
+     */
+    public final DuplicateFilter getDuplicateFilter() {
+        return duplicateFilter;
+    }
+
+    /**
+     * Checks if this service can detect the stopped servers through expiring keys, see {@link LivenessMode#REDIS_TTL}.
+     *
+     * @return If the {@link LivenessMode#REDIS_TTL} liveness mode is supported.
+     */
+    public boolean supportsBrokerLiveness() {
+        return false;
+    }
+
+    /**
+     * Sets how the stopped servers are detected. With {@link LivenessMode#REDIS_TTL}, the creation and heartbeats
+     * of the local server refresh its liveness key, holding its latest state, and proxies remove a server once
+     * its key expires. It must be set before starting the handler.
+     *
+     * @param livenessMode The liveness mode.
+     * @param ttlMillis    Time to live in milliseconds of the liveness keys. Proxies only expire a server missing from
+     *                     the live servers once half of it elapsed since its last heartbeat.
+     * @throws IllegalArgumentException if the liveness mode is not supported by this service.
+     */
+    public final void setLivenessMode(final LivenessMode livenessMode,
+                                      final long ttlMillis) {
+        if (livenessMode == LivenessMode.REDIS_TTL && !supportsBrokerLiveness()) {
+            throw new IllegalArgumentException("The " + livenessMode + " liveness mode is not supported by " + getClass().getSimpleName());
+        }
+        this.livenessMode = livenessMode;
+        this.livenessTtl = ttlMillis;
+        if (serversManager != null) serversManager.setLivenessMode(livenessMode);
+    }
+
+    /**
+     * Retrieves how the stopped servers are detected.
+     *
+     * @return The liveness mode.
+     */
+    public final LivenessMode getLivenessMode() {
+        return livenessMode;
+    }
+
+    /**
+     * Retrieves the prefix of the liveness keys, followed by the server name.
+     *
+     * @return The liveness keys prefix of the network.
+     */
+    protected final String getLivenessKeyPrefix() {
+        return channelPrefix + ":alive:";
+    }
+
+    /**
+     * Stores the state of a server in its liveness key, and sets the key to expire after the given delay.
+     * Services supporting {@link LivenessMode#REDIS_TTL} override it, the update must be atomic.
+     *
+     * @param key       The liveness key of the server.
+     * @param state     The latest creation or heartbeat message of the server.
+     * @param ttlMillis Time to live of the key in milliseconds.
+     */
+    protected void refreshLiveness(final String key,
+                                   final String state,
+                                   final long ttlMillis) {
+    }
+
+    /**
+     * Deletes the liveness key of a server which is stopping, services supporting {@link LivenessMode#REDIS_TTL}
+     * override it.
+     *
+     * @param key The liveness key of the server.
+     */
+    protected void clearLiveness(final String key) {
+    }
+
+    /**
+     * Handles the expiry of a key notified by the broker, the server is removed if it is a liveness key
+     * of this network.
+     *
+     * @param key The expired key.
+     */
+    protected final void onLivenessExpired(final String key) {
+        if (serversManager == null || !key.startsWith(getLivenessKeyPrefix())) return;
+        serversManager.expireServer(key.substring(getLivenessKeyPrefix().length()));
+    }
+
+    /**
+     * Expires the known servers whose liveness key is missing, after the live servers have been loaded from the
+     * broker. The expiry notifications are lost while the service is not subscribed to them, so this catches up on
+     * the servers which expired in the meantime. Servers which sent a heartbeat within the last half of the time to
+     * live are kept, they may have registered right before their key was written.
+     *
+     * @param liveServers The names of the servers whose liveness key exists.
+     */
+    protected final void expireMissingServers(final Set<String> liveServers) {
+        if (serversManager == null) return;
+        final long now = System.currentTimeMillis();
+        for (final Server server : new ArrayList<>(serversManager.getServers())) {
+            if (!liveServers.contains(server.getName()) && now - server.getLastHeartbeat() > livenessTtl / 2) {
+                serversManager.expireServer(server.getName());
+            }
+        }
+    }
+
+    /**
+     * Checks if this service can store the {@link PlayerLocationIndex}.
+     *
+     * @return If the player location index is supported.
+     */
+    public boolean supportsPlayerLocationIndex() {
+        return false;
+    }
+
+    /**
+     * Enables the network-wide index of the player locations. The players joining and leaving the local server
+     * are then written to it, proxies write the players connecting through them.
+     *
+     * @param cacheMillis Delay in milliseconds the looked up locations are cached for, zero to disable the near cache.
+     * @return The enabled index.
+     * @throws IllegalArgumentException if the index is not supported by this service.
+     */
+    public final PlayerLocationIndex enablePlayerLocationIndex(final long cacheMillis) {
+        if (!supportsPlayerLocationIndex()) {
+            throw new IllegalArgumentException("The player location index is not supported by " + getClass().getSimpleName());
+        }
+        final PlayerLocationIndex index = new PlayerLocationIndex(this, cacheMillis);
+        index.start();
+        this.playerLocationIndex = index;
+        return index;
+    }
+
+    /**
+     * Sets the limits checked on the received messages, before they are decoded. Messages handed over already
+     * decoded through {@link #onMessageReceive(String, JsonObject)} are not checked.
+     *
+     * @param inboundGuard The guard to use, null to stop limiting the received messages.
+     */
+    public final void setInboundGuard(final InboundGuard inboundGuard) {
+        this.inboundGuard = inboundGuard;
+    }
+
+    /**
+     * Retrieves the limits checked on the received messages.
+     *
+     * @return The inbound guard, null if the received messages are not limited.
+     */
+    public final InboundGuard getInboundGuard() {
+        return inboundGuard;
+    }
+
+    /**
+     * Retrieves the network-wide index of the player locations.
+     *
+     * @return The player location index, null if it is disabled.
+     */
+    public final PlayerLocationIndex getPlayerLocationIndex() {
+        return playerLocationIndex;
+    }
+
+    /**
+     * Checks if this service keeps its own client-side cache of the player location index, invalidated by the broker.
+     * The near cache of the index is then skipped, since it is not invalidated.
+     *
+     * @return True if the lookups of the index are cached by this service.
+     */
+    protected boolean hasClientSideCache() {
+        return false;
+    }
+
+    /**
+     * Writes changes of the player location index in a single round trip. A cleared field is only deleted if it
+     * still holds the value of the change. Services supporting the index override it, the others have nowhere
+     * to store it and drop the changes.
+     *
+     * @param writes The changes to write, in order.
+     */
+    protected void writePlayerLocations(final List<PlayerLocationIndex.Write> writes) {
+    }
+
+    /**
+     * Reads hashes of the player location index in a single round trip. Services supporting the index override it,
+     * the others report every hash as missing.
+     *
+     * @param keys The keys of the players hashes.
+     * @return The server and proxy fields of each hash, in the order of the keys, null for the missing ones.
+     */
+    protected List<String[]> readPlayerLocations(final List<String> keys) {
+        return Collections.nCopies(keys.size(), null);
+    }
+
+    private void refreshLocalLiveness(final String serverName,
+                                      final String state) {
+        if (livenessMode != LivenessMode.REDIS_TTL) return;
+        try {
+            refreshLiveness(getLivenessKeyPrefix() + serverName, state, livenessTtl);
+        } catch (final RuntimeException exception) {
+            // The key then expires, just like proxies would stop receiving the heartbeats.
+            System.err.println("Unable to refresh the liveness key of " + serverName + ": " + exception);
+        }
+    }
+
+    /**
+     * Retrieves the channels this service listens to: the servers and updates channels if it has a servers manager
+     * to feed, which is the case of proxies and spigot servers replicating the network view, the control and RPC
+     * request channels if it answers requests, which is the case of spigot servers, and its own RPC reply channel.
+     *
+     * @return The channels to subscribe to.
+     */
+    protected final String[] getSubscribedChannels() {
+        final List<String> channels = new ArrayList<>(6);
+        for (final MessageLane lane : MessageLane.values()) {
+            channels.addAll(Arrays.asList(getSubscribedChannels(lane)));
+        }
+        return channels.toArray(new String[0]);
+    }
+
+    /**
+     * Retrieves the channels this service listens to carrying the messages of a lane, so implementations can
+     * subscribe to each lane on its own connection.
+     *
+     * @param lane The lane.
+     * @return The channels to subscribe to, may be empty.
+     */
+    protected final String[] getSubscribedChannels(final MessageLane lane) {
+        final List<String> channels = new ArrayList<>(3);
+        if (lane == MessageLane.CONTROL) {
+            if (serversManager != null) channels.add(serversChannel);
+            if (syncResponder != null) channels.add(controlChannel);
+        } else {
+            if (serversManager != null) channels.add(updatesChannel);
+            if (syncResponder != null) channels.add(rpcManager.getRequestChannel());
+            channels.add(rpcManager.getReplyChannel());
+        }
+        return channels.toArray(new String[0]);
+    }
+
+    /**
+     * Sets the task answering the synchronization requests of proxies, on spigot servers.
+     * It must be set before the handler is started.
+     * Answers are delayed randomly within the response window, so a whole fleet does not answer at once.
+     *
+     * @param serverName     The name of the local server.
+     * @param responder      The task publishing the full state of the local server.
+     * @param responseWindow The maximum delay before answering, in milliseconds.
+     */
+    public final void setSyncResponder(final String serverName,
+                                       final Runnable responder,
+                                       final long responseWindow) {
+        this.localServerName = serverName;
+        this.syncResponder = responder;
+        this.syncResponseWindow = responseWindow;
+    }
+
+    /**
+     * Schedules an answer to a synchronization request, if this service has a responder.
+     */
+    protected final void respondToSync() {
+        final Runnable responder = syncResponder;
+        if (responder == null) return;
+        final long delay = syncResponseWindow <= 0 ? 0L : ThreadLocalRandom.current().nextLong(syncResponseWindow + 1);
+        executor.schedule(responder, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a message received on the given channel in its lane, it is then handled on the dispatcher thread.
+     * Players updates are queued in the data lane even when received on the servers channel, which is the case
+     * of messages sent by older servers.
+     *
+     * @param channel    The channel the message has been received on.
+     * @param jsonObject The JSON object containing the message data.
+     */
+    public final void onMessageReceive(final String channel,
+                                       final JsonObject jsonObject) {
+        enqueue(channel, jsonObject, System.nanoTime(), 0L);
+    }
+
+    /**
+     * Decodes a message received on the given channel, and queues it in its lane. Messages breaking the limits of
+     * the {@link InboundGuard} are dropped before being decoded.
+     *
+     * @param channel The channel the message has been received on.
+     * @param message The raw JSON message.
+     */
+    protected final void onMessageReceive(final String channel,
+                                          final String message) {
+        onMessageReceive(channel, message, null);
+    }
+
+    /**
+     * Decodes a message received on the given channel from an authenticated peer, and queues it in its lane. The
+     * {@link InboundGuard} only trusts the origin of the message within that peer.
+     *
+     * @param channel The channel the message has been received on.
+     * @param message The raw JSON message.
+     * @param peer    The identity of the peer the message came from, null if it is not known.
+     */
+    protected final void onMessageReceive(final String channel,
+                                          final String message,
+                                          final String peer) {
+        final long receivedNanos = System.nanoTime();
+        final InboundGuard guard = inboundGuard;
+        if (guard != null && !guard.accept(message, peer, serversChannel.equals(channel))) return;
+        final JsonObject jsonObject = gson.fromJson(message, JsonObject.class);
+        enqueue(channel, jsonObject, receivedNanos, System.nanoTime() - receivedNanos);
+    }
+
+    private void enqueue(final String channel,
+                         final JsonObject jsonObject,
+                         final long receivedNanos,
+                         final long decodeNanos) {
+        inboundLanes.offer(executor, getLane(channel, jsonObject), channel, jsonObject, receivedNanos, decodeNanos);
+    }
+
+    private MessageLane getLane(final String channel,
+                                final JsonObject jsonObject) {
+        final boolean data = updatesChannel.equals(channel) || channel.startsWith(rpcManager.getRequestChannel())
+                || (serversChannel.equals(channel) && ServerMessageType.UPDATE.name().equals(jsonObject.get("type").getAsString()));
+        return data ? MessageLane.DATA : MessageLane.CONTROL;
+    }
+
+    /**
+     * Stops handling the received messages, to be called when the service stops.
+     */
+    protected final void stopInboundLanes() {
+        inboundLanes.stop();
+    }
+
+    /**
+     * Dispatches a message received on the given channel to the matching handler, unless it is a duplicate,
+     * then records its publish-to-apply latency.
+     *
+     * @param channel       The channel the message has been received on.
+     * @param jsonObject    The JSON object containing the message data.
+     * @param receivedNanos The time at which the message has been received, from {@link System#nanoTime()}.
+     * @param decodeNanos   The time spent decoding the message in nanoseconds.
+     */
+    private void handleMessage(final String channel,
+                               final JsonObject jsonObject,
+                               final long receivedNanos,
+                               final long decodeNanos) {
+        final long startNanos = System.nanoTime();
+        final JsonElement origin = jsonObject.get("origin"), sequence = jsonObject.get("seq");
+        if (origin != null && sequence != null
+                && !duplicateFilter.accept(origin.getAsString(), getLane(channel, jsonObject), sequence.getAsLong())) {
+            return;
+        }
+        dispatch(channel, jsonObject);
+        final JsonElement sentAt = jsonObject.get("sentAt"), type = jsonObject.get("type");
+        if (sentAt == null || origin == null || type == null) return;
+        final long now = System.currentTimeMillis(), endNanos = System.nanoTime();
+        final long latency = latencyTracer.record(type.getAsString(), origin.getAsString(), sentAt.getAsLong(), now);
+        final JsonElement trace = jsonObject.get("trace");
+        if (trace == null) return;
+        final long localNanos = endNanos - receivedNanos;
+        latencyTracer.trace("id=" + trace.getAsString()
+                + " type=" + type.getAsString()
+                + " origin=" + origin.getAsString()
+                + " transit=" + LatencyTracer.formatNanos(Math.max(0L, TimeUnit.MILLISECONDS.toNanos(now - sentAt.getAsLong()) - localNanos))
+                + " decode=" + LatencyTracer.formatNanos(decodeNanos)
+                + " queue=" + LatencyTracer.formatNanos(startNanos - receivedNanos - decodeNanos)
+                + " apply=" + LatencyTracer.formatNanos(endNanos - startNanos)
+                + " total=" + latency + "ms");
+        if (serversManager != null && ServerMessageType.CREATE.name().equals(type.getAsString())) {
+            serversManager.traceRegistration(jsonObject.get("name").getAsString(), trace.getAsString(), latencyTracer);
+        }
+    }
+
+    private void onBatchHandled() {
+        if (serversManager != null) serversManager.publishNetworkSnapshot();
+    }
+
+    private void dispatch(final String channel,
+                          final JsonObject jsonObject) {
+        if (controlChannel.equals(channel)) {
+            onControlMessageReceive(jsonObject);
+        } else if (channel.startsWith(rpcManager.getRequestChannel())) {
+            try {
+                rpcManager.onMessageReceive(channel, jsonObject);
+            } catch (final Exception exception) {
+                exception.printStackTrace(System.err);
+            }
+        } else {
+            onMessageReceive(jsonObject);
+        }
+    }
+
+    /**
+     * Handles a control message sent by a proxy. Synchronization requests targeting every server or the local
+     * one are answered with the full state of the local server.
+     *
+     * @param jsonObject The JSON object containing the message data.
+     */
+    public void onControlMessageReceive(final JsonObject jsonObject) {
+        try {
+            final ServerMessageType messageType = ServerMessageType.valueOf(jsonObject.get("type").getAsString());
+            if (messageType != ServerMessageType.SYNC_REQUEST) return;
+            final JsonElement target = jsonObject.get("target");
+            if (target == null || target.getAsString().equals(localServerName)) respondToSync();
+        } catch (final Exception exception) {
+            exception.printStackTrace(System.err);
+        }
     }
 
     /**
      * Handles the reception of a server-related message encapsulated in a {@link JsonObject}.
      * Depending on the message type, different actions are taken, such as creating, updating,
-     * sending a heartbeat, or removing a server.
+     * sending a heartbeat, or removing a server. Changes are applied through the {@link ServersManager},
+     * which publishes the matching lifecycle events.
      *
      * @param jsonObject The JSON object containing the message data.
      */
@@ -81,6 +691,7 @@ public abstract class MessageBrokerService {
                             maxPlayers = jsonObject.get("maxPlayers").getAsInt();
                     final ServerImpl server = (ServerImpl) Server.of(name, ip, port);
                     server.setMaxPlayers(maxPlayers);
+                    serversManager.updateMetadata(server, readGroup(jsonObject), readTags(jsonObject));
 
                     if (serversManager.getServer(name) != null) {
                         serversManager.removeServer(server);
@@ -103,8 +714,11 @@ public abstract class MessageBrokerService {
                  */
                 case UPDATE: {
                     final ServerImpl server = (ServerImpl) serversManager.getServer(name);
-                    // If server is not present, then wait till the heartbeat.
-                    if (server == null) break;
+                    // If server is not present, ask it for its full state instead of waiting for the heartbeat.
+                    if (server == null) {
+                        requestSync(name);
+                        break;
+                    }
                     final JsonElement playerUpdateElement = jsonObject.get("playerUpdate");
                     // If it's not null, then it means we need to update a player state.
                     if (playerUpdateElement != null) {
@@ -116,14 +730,22 @@ public abstract class MessageBrokerService {
                             case ADD: {
                                 final SyncPlayer syncPlayer = new SyncPlayer(uuid, playerName);
                                 if (!server.containsPlayer(uuid)) {
-                                    server.addPlayer(syncPlayer);
+                                    serversManager.addPlayer(server, syncPlayer);
                                 }
                                 break;
                             }
                             case REMOVE: {
                                 final SyncPlayer syncPlayer = server.getPlayer(uuid);
                                 if (syncPlayer != null) {
-                                    server.removePlayer(syncPlayer);
+                                    serversManager.removePlayer(server, syncPlayer);
+                                }
+                                break;
+                            }
+                            case ATTRIBUTES: {
+                                final SyncPlayer syncPlayer = server.getPlayer(uuid);
+                                if (syncPlayer != null) {
+                                    final AttributeChanges changes = AttributeChanges.fromJson(jsonObject.getAsJsonArray("attributes"));
+                                    serversManager.updatePlayer(server, syncPlayer.withChanges(changes));
                                 }
                                 break;
                             }
@@ -143,25 +765,44 @@ public abstract class MessageBrokerService {
                     ServerImpl server = (ServerImpl) serversManager.getServer(name);
                     if (server != null) {
                         server.heartbeat();
+                        serversManager.updateMetadata(server, readGroup(jsonObject), readTags(jsonObject));
+                        // Answers to synchronization requests carry the full state, which replaces the known one.
+                        if (jsonObject.has("sync")) {
+                            server.setMaxPlayers(jsonObject.get("maxPlayers").getAsInt());
+                            final JsonObject attributes = jsonObject.getAsJsonObject("attributes");
+                            final Set<UUID> online = new HashSet<>();
+                            for (final JsonElement element : jsonObject.getAsJsonArray("players")) {
+                                final SyncPlayer syncPlayer = readPlayer(element.getAsString(), attributes);
+                                online.add(syncPlayer.getUuid());
+                                if (!server.containsPlayer(syncPlayer.getUuid())) {
+                                    serversManager.addPlayer(server, syncPlayer);
+                                } else {
+                                    serversManager.updatePlayer(server, syncPlayer);
+                                }
+                            }
+                            for (final SyncPlayer syncPlayer : new ArrayList<>(server.getOnlinePlayers())) {
+                                if (!online.contains(syncPlayer.getUuid())) serversManager.removePlayer(server, syncPlayer);
+                            }
+                        }
                     } else {
                         // It means the server is not registered yet, so we need to register it.
                         final String ip = jsonObject.get("ip").getAsString();
                         final int port = jsonObject.get("port").getAsInt();
                         // Initialize a new instance and register it.
                         server = (ServerImpl) Server.of(name, ip, port);
+                        serversManager.updateMetadata(server, readGroup(jsonObject), readTags(jsonObject));
                         serversManager.addServer(server);
                         // Update max players value.
                         server.setMaxPlayers(jsonObject.get("maxPlayers").getAsInt());
                         // Add players in the server.
                         final JsonArray playersArray = jsonObject.getAsJsonArray("players");
+                        final JsonObject attributes = jsonObject.getAsJsonObject("attributes");
                         for (final JsonElement element : playersArray) {
-                            final String[] playerData = element.getAsString().split(";");
-                            final UUID uuid = UUID.fromString(playerData[0]);
-                            final String playerName = playerData[1];
-                            final SyncPlayer syncPlayer = new SyncPlayer(uuid, playerName);
-                            server.addPlayer(syncPlayer);
+                            serversManager.addPlayer(server, readPlayer(element.getAsString(), attributes));
                         }
                     }
+                    final JsonElement loadElement = jsonObject.get("load");
+                    if (loadElement != null) server.setLoad(ServerLoad.fromJson(loadElement.getAsJsonArray()));
                     break;
                 }
                 case REMOVE: {
@@ -185,7 +826,33 @@ public abstract class MessageBrokerService {
         jsonObject.addProperty("name", serverName);
         jsonObject.addProperty("playerUpdate", updateState.name());
         jsonObject.addProperty("playerToUpdate", syncPlayer.getUuid() + ";" + syncPlayer.getUsername());
-        publish(jsonObject);
+        send(updatesChannel, jsonObject);
+        final PlayerLocationIndex index = playerLocationIndex;
+        if (index != null) {
+            if (updateState == PlayerUpdateState.ADD) index.serverJoined(syncPlayer.getUuid(), serverName);
+            else if (updateState == PlayerUpdateState.REMOVE) index.serverLeft(syncPlayer.getUuid(), serverName);
+        }
+    }
+
+    /**
+     * Publishes the changed attributes of a player. Only the changed attributes are carried, selected by the
+     * mask of the changes, so frequent updates such as the ping stay small.
+     *
+     * @param serverName The name of the server the player is on.
+     * @param syncPlayer The player whose attributes changed.
+     * @param changes    The changed attributes.
+     */
+    public void publishPlayerAttributes(final String serverName,
+                                        final SyncPlayer syncPlayer,
+                                        final AttributeChanges changes) {
+        if (changes.isEmpty()) return;
+        final JsonObject jsonObject = new JsonObject();
+        jsonObject.addProperty("type", ServerMessageType.UPDATE.name());
+        jsonObject.addProperty("name", serverName);
+        jsonObject.addProperty("playerUpdate", PlayerUpdateState.ATTRIBUTES.name());
+        jsonObject.addProperty("playerToUpdate", syncPlayer.getUuid() + ";" + syncPlayer.getUsername());
+        jsonObject.add("attributes", changes.toJson());
+        send(updatesChannel, jsonObject);
     }
 
     /**
@@ -203,7 +870,7 @@ public abstract class MessageBrokerService {
         jsonObject.addProperty("type", ServerMessageType.UPDATE.name());
         jsonObject.addProperty("name", serverName);
         jsonObject.addProperty("maxPlayers", maxPlayers);
-        publish(jsonObject);
+        send(updatesChannel, jsonObject);
     }
 
     /**
@@ -223,6 +890,104 @@ public abstract class MessageBrokerService {
                                  final int port,
                                  final int maxPlayers,
                                  final Collection<SyncPlayer> players) {
+        publishHeartbeat(serverName, ip, port, maxPlayers, players, null);
+    }
+
+    /**
+     * Publishes a heartbeat message for a server, carrying its latest load sample.
+     *
+     * @param serverName The name of the server.
+     * @param ip         The IP address of the server.
+     * @param port       The port on which the server is running.
+     * @param maxPlayers The maximum number of players that can join the server.
+     * @param players    A collection of the current players on the server.
+     * @param load       The load of the server, null if it is not sampled.
+     */
+    public void publishHeartbeat(final String serverName,
+                                 final String ip,
+                                 final int port,
+                                 final int maxPlayers,
+                                 final Collection<SyncPlayer> players,
+                                 final ServerLoad load) {
+        final JsonObject jsonObject = createHeartbeat(serverName, ip, port, maxPlayers, players, load);
+        // The stored state is taken before stamping, as it is replayed to proxies starting later on.
+        final String state = jsonObject.toString();
+        send(serversChannel, jsonObject);
+        refreshLocalLiveness(serverName, state);
+    }
+
+    /**
+     * Publishes the full state of a server in answer to a synchronization request. Unlike a heartbeat,
+     * it replaces the players and maximum players known by proxies for this server.
+     *
+     * @param serverName The name of the server.
+     * @param ip         The IP address of the server.
+     * @param port       The port on which the server is running.
+     * @param maxPlayers The maximum number of players that can join the server.
+     * @param players    A collection of the current players on the server.
+     * @param load       The load of the server, null if it is not sampled.
+     */
+    public void publishSyncResponse(final String serverName,
+                                    final String ip,
+                                    final int port,
+                                    final int maxPlayers,
+                                    final Collection<SyncPlayer> players,
+                                    final ServerLoad load) {
+        final JsonObject jsonObject = createHeartbeat(serverName, ip, port, maxPlayers, players, load);
+        // Unlike regular heartbeats, the full state carries the attributes of the players.
+        final JsonObject attributes = new JsonObject();
+        for (final SyncPlayer syncPlayer : players) {
+            if (syncPlayer.getAttributesMask() != 0L) {
+                attributes.add(syncPlayer.getUuid().toString(), syncPlayer.getAttributes().toJson());
+            }
+        }
+        if (attributes.size() > 0) jsonObject.add("attributes", attributes);
+        jsonObject.addProperty("sync", true);
+        final String state = jsonObject.toString();
+        send(serversChannel, jsonObject);
+        refreshLocalLiveness(serverName, state);
+    }
+
+    /**
+     * Publishes a synchronization request on the control channel, asking spigot servers to publish their full state.
+     *
+     * @param target The name of the server to ask, or null to ask every server.
+     */
+    public void publishSyncRequest(final String target) {
+        final JsonObject jsonObject = new JsonObject();
+        jsonObject.addProperty("type", ServerMessageType.SYNC_REQUEST.name());
+        if (target != null) jsonObject.addProperty("target", target);
+        send(controlChannel, jsonObject);
+    }
+
+    /**
+     * Asks a server for its full state, unless it has already been asked recently.
+     *
+     * @param serverName The name of the server to ask.
+     */
+    protected final void requestSync(final String serverName) {
+        final long now = System.currentTimeMillis();
+        final Long previous = syncRequests.get(serverName);
+        if (previous != null && now - previous < SYNC_REQUEST_COOLDOWN) return;
+        syncRequests.put(serverName, now);
+        publishSyncRequest(serverName);
+    }
+
+    private SyncPlayer readPlayer(final String playerEntry,
+                                  final JsonObject attributes) {
+        final String[] playerData = playerEntry.split(";");
+        final SyncPlayer syncPlayer = new SyncPlayer(UUID.fromString(playerData[0]), playerData[1]);
+        final JsonElement playerAttributes = attributes == null ? null : attributes.get(playerData[0]);
+        if (playerAttributes == null) return syncPlayer;
+        return syncPlayer.withChanges(AttributeChanges.fromJson(playerAttributes.getAsJsonArray()));
+    }
+
+    private JsonObject createHeartbeat(final String serverName,
+                                       final String ip,
+                                       final int port,
+                                       final int maxPlayers,
+                                       final Collection<SyncPlayer> players,
+                                       final ServerLoad load) {
         final JsonObject jsonObject = new JsonObject();
         final JsonArray playersArray = new JsonArray();
         players.forEach(syncPlayer -> playersArray.add(syncPlayer.getUuid() + ";" + syncPlayer.getUsername()));
@@ -231,8 +996,10 @@ public abstract class MessageBrokerService {
         jsonObject.addProperty("ip", ip);
         jsonObject.addProperty("port", port);
         jsonObject.addProperty("maxPlayers", maxPlayers);
+        addMetadata(jsonObject);
         jsonObject.add("players", playersArray);
-        publish(jsonObject);
+        if (load != null) jsonObject.add("load", load.toJson());
+        return jsonObject;
     }
 
     /**
@@ -255,7 +1022,55 @@ public abstract class MessageBrokerService {
         jsonObject.addProperty("ip", ip);
         jsonObject.addProperty("port", port);
         jsonObject.addProperty("maxPlayers", maxPlayers);
-        publish(jsonObject);
+        addMetadata(jsonObject);
+        final String state = jsonObject.toString();
+        send(serversChannel, jsonObject);
+        refreshLocalLiveness(serverName, state);
+    }
+
+    /**
+     * Sets the group and tags of the local server, announced with its creation and heartbeats.
+     *
+     * @param group The group of the local server, null if it has none.
+     * @param tags  The tags of the local server.
+     */
+    public final void setServerMetadata(final String group,
+                                        final Map<String, String> tags) {
+        this.localGroup = group == null || group.isEmpty() ? null : group;
+        this.localTags = new HashMap<>(tags);
+    }
+
+    /**
+     * Retrieves the group of the local server, announced with its creation and heartbeats.
+     *
+     * @return The group of the local server, null if it has none.
+     */
+    protected final String getServerGroup() {
+        return localGroup;
+    }
+
+    private void addMetadata(final JsonObject jsonObject) {
+        if (localGroup != null) jsonObject.addProperty("group", localGroup);
+        if (!localTags.isEmpty()) {
+            final JsonObject tags = new JsonObject();
+            localTags.forEach(tags::addProperty);
+            jsonObject.add("tags", tags);
+        }
+    }
+
+    private static String readGroup(final JsonObject jsonObject) {
+        final JsonElement group = jsonObject.get("group");
+        return group == null ? null : group.getAsString();
+    }
+
+    private static Map<String, String> readTags(final JsonObject jsonObject) {
+        final JsonElement tagsElement = jsonObject.get("tags");
+        if (tagsElement == null) return Collections.emptyMap();
+        final Map<String, String> tags = new HashMap<>();
+        for (final Map.Entry<String, JsonElement> tag : tagsElement.getAsJsonObject().entrySet()) {
+            tags.put(tag.getKey(), tag.getValue().getAsString());
+        }
+        return tags;
     }
 
     /**
@@ -269,7 +1084,145 @@ public abstract class MessageBrokerService {
         final JsonObject jsonObject = new JsonObject();
         jsonObject.addProperty("type", ServerMessageType.REMOVE.name());
         jsonObject.addProperty("name", serverName);
-        publish(jsonObject);
+        send(serversChannel, jsonObject);
+        if (livenessMode == LivenessMode.REDIS_TTL) {
+            try {
+                clearLiveness(getLivenessKeyPrefix() + serverName);
+            } catch (final RuntimeException exception) {
+                exception.printStackTrace(System.err);
+            }
+        }
+    }
+
+    /**
+     * Enables spilling: messages which cannot be published because the broker is unreachable are written
+     * to a bounded journal, and replayed in order once the broker is reachable again.
+     *
+     * @param file     The journal file.
+     * @param capacity Maximum size of the journal in bytes.
+     * @throws IOException if the journal file could not be opened.
+     */
+    public final void enableSpillJournal(final Path file,
+                                         final int capacity) throws IOException {
+        this.spillJournal = new SpillJournal(file, capacity);
+    }
+
+    /**
+     * Attempts a last replay of the spill journal, then closes it.
+     * Messages which still cannot be published are lost.
+     */
+    public final void closeSpillJournal() {
+        final SpillJournal journal = spillJournal;
+        if (journal == null) return;
+        spillJournal = null;
+        if (journal.hasPending()) journal.replay(this::publish);
+        journal.close();
+    }
+
+    /**
+     * Retrieves the spill journal, which holds the spilling metrics.
+     *
+     * @return The spill journal, null if spilling is disabled.
+     */
+    public final SpillJournal getSpillJournal() {
+        return spillJournal;
+    }
+
+    /**
+     * Publishes a message, or spills it into the journal if the broker is unreachable.
+     * While the journal holds messages, new ones are spilled as well to keep the publishing order.
+     *
+     * <p>Messages are stamped with their origin and a sequence number, so receivers drop the duplicates. Sequences
+     * start at the startup time shifted by 20 bits, so they keep increasing when a node restarts under the same
+     * identifier, unless it published more than a million messages per millisecond.</p>
+     *
+     * @param channel The channel to publish on.
+     * @param message Message to publish.
+     */
+    private void send(final String channel,
+                      final JsonObject message) {
+        message.addProperty("sentAt", System.currentTimeMillis());
+        message.addProperty("origin", rpcManager.getNodeId());
+        message.addProperty("seq", nextSequence.getAndIncrement());
+        final String traceId = latencyTracer.sample();
+        if (traceId != null) message.addProperty("trace", traceId);
+        final SpillJournal journal = spillJournal;
+        if (journal == null) {
+            publish(channel, message, traceId);
+            return;
+        }
+        if (!journal.hasPending()) {
+            try {
+                publish(channel, message, traceId);
+                return;
+            } catch (final RuntimeException exception) {
+                System.err.println("Unable to publish a message, spilling until the broker is reachable: " + exception);
+            }
+        }
+        journal.append(channel, message);
+        scheduleReplay(journal);
+    }
+
+    /**
+     * Publishes a message, logging the time spent serializing and publishing it if it is traced.
+     *
+     * @param channel The channel to publish on.
+     * @param message Message to publish.
+     * @param traceId The trace identifier of the message, null if it is not traced.
+     */
+    private void publish(final String channel,
+                         final JsonObject message,
+                         final String traceId) {
+        if (traceId == null) {
+            publish(channel, message);
+            return;
+        }
+        // Implementations serialize the message themselves, it is serialized once more to measure it.
+        final long startNanos = System.nanoTime();
+        message.toString();
+        final long serializedNanos = System.nanoTime();
+        publish(channel, message);
+        final long publishedNanos = System.nanoTime();
+        latencyTracer.trace("id=" + traceId
+                + " type=" + message.get("type").getAsString()
+                + " channel=" + channel
+                + " serialize=" + LatencyTracer.formatNanos(serializedNanos - startNanos)
+                + " publish=" + LatencyTracer.formatNanos(publishedNanos - serializedNanos));
+    }
+
+    /**
+     * Spills a message whose publishing failed after {@link #publish(String, JsonObject)} returned, so it is published
+     * again once the broker is reachable. Implementations publishing asynchronously call it from their failure
+     * callback, the following messages are then spilled as well until the journal is replayed.
+     *
+     * @param channel The channel the message was published on.
+     * @param message The message.
+     * @param cause   The reason the publishing failed.
+     */
+    protected final void spill(final String channel,
+                               final JsonObject message,
+                               final Throwable cause) {
+        final SpillJournal journal = spillJournal;
+        if (journal == null) {
+            cause.printStackTrace(System.err);
+            return;
+        }
+        if (!journal.hasPending()) {
+            System.err.println("Unable to publish a message, spilling until the broker is reachable: " + cause);
+        }
+        journal.append(channel, message);
+        scheduleReplay(journal);
+    }
+
+    private void scheduleReplay(final SpillJournal journal) {
+        if (!replayScheduled.compareAndSet(false, true)) return;
+        executor.schedule(() -> {
+            if (spillJournal != journal) return;
+            final boolean replayed = journal.replay(this::publish);
+            replayScheduled.set(false);
+            // Messages may have been spilled after a successful replay, or the broker is still unreachable.
+            if (!replayed || journal.hasPending()) scheduleReplay(journal);
+        }, SPILL_REPLAY_DELAY, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -284,16 +1237,27 @@ public abstract class MessageBrokerService {
     public abstract void stop();
 
     /**
-     * Publishes a message into the current message broker channel.
+     * Publishes a message into the servers channel.
      *
      * @param message Message to publish.
      */
-    public abstract void publish(final JsonObject message);
+    public void publish(final JsonObject message) {
+        send(serversChannel, message);
+    }
+
+    /**
+     * Publishes a message into the given message broker channel.
+     *
+     * @param channel The channel to publish on, either the servers or the control channel.
+     * @param message Message to publish.
+     */
+    public abstract void publish(final String channel,
+                                 final JsonObject message);
 
     /**
      * Represents the state of a player update action.
      * This enum is used to indicate whether a player is being added to
-     * or removed from a server during an update message process.
+     * or removed from a server, or whether its attributes changed, during an update message process.
      */
     public enum PlayerUpdateState {
 
@@ -301,7 +1265,10 @@ public abstract class MessageBrokerService {
         ADD,
 
         /** Indicates that a player is being removed from the server. */
-        REMOVE
+        REMOVE,
+
+        /** Indicates that attributes of a player on the server changed. */
+        ATTRIBUTES
     }
 
 }
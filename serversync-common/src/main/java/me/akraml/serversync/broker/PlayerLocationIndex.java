@@ -0,0 +1,410 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package me.akraml.serversync.broker;
+
+import me.akraml.serversync.player.PlayerLocation;
+import me.akraml.serversync.server.ServersManager;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A network-wide index of the player locations, stored in the message broker so every proxy and server can find
+ * any player without asking the whole network.
+ *
+ * <p>Each online player has a hash holding the server it plays on, written by the server, and the proxy it
+ * connected through, written by the proxy. Writes are queued and flushed in a single pipeline, so a burst of joins
+ * costs one round trip. A field is only cleared if it still holds the same value, so a player switching servers
+ * is never removed by the late quit of the previous server. Writes which fail are kept and written again with the
+ * next flush, only the latest change of each field and a single expiry refresh of each player are kept.</p>
+ *
+ * <p>Every hash expires after {@link #TTL_MILLIS}, and the node which wrote a field refreshes the expiry while its
+ * player stays online. The hashes of the players of a crashed proxy or server therefore disappear on their own.</p>
+ *
+ * <p>Lookups take one round trip, however many players are looked up, and their results are kept in a near
+ * cache for a short time. The near cache is skipped when the service keeps its own client-side cache, invalidated by
+ * the broker, since it would serve locations which already changed. Entries left by a server which crashed are ignored when the local view knows the server
+ * is gone, and are replaced once their players join again.</p>
+ *
+ * @version 1.0-BETA
+ */
+public final class PlayerLocationIndex {
+
+    /** Names of the fields of the players hashes. */
+    static final String SERVER_FIELD = "server", PROXY_FIELD = "proxy";
+
+    /** Time to live in milliseconds of the players hashes, refreshed a few times per period while the players are online. */
+    static final long TTL_MILLIS = 60000L;
+
+    /** Maximum amount of locations kept in the near cache. */
+    private static final int MAX_CACHED_LOCATIONS = 16384;
+
+    /** Maximum amount of failed writes kept to be written again, expiry refreshes then the oldest changes are dropped beyond. */
+    private static final int MAX_FAILED_WRITES = 65536;
+
+    /** Delay in milliseconds before writing the failed writes again. */
+    private static final long RETRY_DELAY = 1000L;
+
+    private final MessageBrokerService messageBrokerService;
+    private final long cacheMillis;
+    private final Queue<Write> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushing = new AtomicBoolean();
+    private volatile boolean flushRequested;
+    /** Writes which failed by player and field, written again ahead of the pending ones. Only used by the running flush. */
+    private final Map<String, Write> failedWrites = new LinkedHashMap<>();
+    /** Players whose hash has a field written by this node, whose expiry is refreshed by this node. */
+    private final Set<UUID> localPlayers = ConcurrentHashMap.newKeySet();
+    private final Map<UUID, CachedLocation> nearCache = new ConcurrentHashMap<>();
+    private final LongAdder lookups = new LongAdder(), cacheHits = new LongAdder(), roundTrips = new LongAdder();
+
+    PlayerLocationIndex(final MessageBrokerService messageBrokerService,
+                        final long cacheMillis) {
+        this.messageBrokerService = messageBrokerService;
+        this.cacheMillis = cacheMillis;
+    }
+
+    /**
+     * Starts refreshing the expiry of the hashes of the local players.
+     */
+    void start() {
+        messageBrokerService.getExecutor().scheduleAtFixedRate(this::refreshExpiries,
+                TTL_MILLIS / 3, TTL_MILLIS / 3, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Looks up the location of a player, without any round trip if it is in the near cache.
+     *
+     * @param uuid The unique identifier of the player.
+     * @return A future completed with the location, or with null if the player is not online.
+     */
+    public CompletableFuture<PlayerLocation> locate(final UUID uuid) {
+        return locateAll(Collections.singletonList(uuid)).thenApply(locations -> locations.get(uuid));
+    }
+
+    /**
+     * Looks up the locations of several players in a single round trip. The players in the near cache
+     * are not looked up again.
+     *
+     * @param uuids The unique identifiers of the players.
+     * @return A future completed with the locations of the online players.
+     */
+    public CompletableFuture<Map<UUID, PlayerLocation>> locateAll(final Collection<UUID> uuids) {
+        final Map<UUID, PlayerLocation> locations = new HashMap<>();
+        final List<UUID> missing = new ArrayList<>();
+        final long now = System.currentTimeMillis();
+        final boolean nearCacheEnabled = isNearCacheEnabled();
+        for (final UUID uuid : uuids) {
+            lookups.increment();
+            final CachedLocation cached = nearCacheEnabled ? nearCache.get(uuid) : null;
+            if (cached != null && cached.expiresAt > now) {
+                cacheHits.increment();
+                if (cached.location != null) locations.put(uuid, cached.location);
+            } else {
+                missing.add(uuid);
+            }
+        }
+        if (missing.isEmpty()) return CompletableFuture.completedFuture(locations);
+        return messageBrokerService.getExecutor().supplyAsync(() -> {
+            final List<String> keys = new ArrayList<>(missing.size());
+            for (final UUID uuid : missing) keys.add(getKey(uuid));
+            roundTrips.increment();
+            final List<String[]> fields = messageBrokerService.readPlayerLocations(keys);
+            final long expiresAt = System.currentTimeMillis() + cacheMillis;
+            for (int i = 0; i < missing.size(); i++) {
+                final UUID uuid = missing.get(i);
+                final PlayerLocation location = toLocation(uuid, fields.get(i));
+                if (location != null) locations.put(uuid, location);
+                cache(uuid, location, expiresAt);
+            }
+            return locations;
+        });
+    }
+
+    /**
+     * Retrieves the location of a player from the near cache, without any round trip.
+     *
+     * @param uuid The unique identifier of the player.
+     * @return The cached location, null if the player is not cached or not online, or if the near cache is skipped.
+     */
+    public PlayerLocation getCached(final UUID uuid) {
+        if (!isNearCacheEnabled()) return null;
+        final CachedLocation cached = nearCache.get(uuid);
+        return cached == null || cached.expiresAt <= System.currentTimeMillis() ? null : cached.location;
+    }
+
+    /**
+     * Records that a player connected through a proxy.
+     *
+     * @param uuid  The unique identifier of the player.
+     * @param proxy The name of the proxy.
+     */
+    public void proxyJoined(final UUID uuid,
+                            final String proxy) {
+        localPlayers.add(uuid);
+        enqueue(new Write(uuid, getKey(uuid), PROXY_FIELD, proxy, Write.Operation.SET));
+    }
+
+    /**
+     * Records that a player disconnected from a proxy.
+     *
+     * @param uuid  The unique identifier of the player.
+     * @param proxy The name of the proxy.
+     */
+    public void proxyLeft(final UUID uuid,
+                          final String proxy) {
+        localPlayers.remove(uuid);
+        enqueue(new Write(uuid, getKey(uuid), PROXY_FIELD, proxy, Write.Operation.CLEAR));
+    }
+
+    /**
+     * Records that a player joined a server.
+     *
+     * @param uuid   The unique identifier of the player.
+     * @param server The name of the server.
+     */
+    void serverJoined(final UUID uuid,
+                      final String server) {
+        localPlayers.add(uuid);
+        enqueue(new Write(uuid, getKey(uuid), SERVER_FIELD, server, Write.Operation.SET));
+    }
+
+    /**
+     * Records that a player left a server.
+     *
+     * @param uuid   The unique identifier of the player.
+     * @param server The name of the server.
+     */
+    void serverLeft(final UUID uuid,
+                    final String server) {
+        localPlayers.remove(uuid);
+        enqueue(new Write(uuid, getKey(uuid), SERVER_FIELD, server, Write.Operation.CLEAR));
+    }
+
+    /**
+     * Retrieves the amount of players looked up.
+     *
+     * @return The amount of lookups.
+     */
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    /**
+     * Retrieves the amount of players found in the near cache.
+     *
+     * @return The amount of near cache hits.
+     */
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * Retrieves the amount of round trips made by the lookups.
+     *
+     * @return The amount of round trips.
+     */
+    public long getRoundTrips() {
+        return roundTrips.sum();
+    }
+
+    /**
+     * Retrieves the key of the hash holding the location of a player.
+     *
+     * @param uuid The unique identifier of the player.
+     * @return The key of the player hash.
+     */
+    String getKey(final UUID uuid) {
+        return messageBrokerService.getChannelPrefix() + ":player:" + uuid;
+    }
+
+    private PlayerLocation toLocation(final UUID uuid,
+                                      final String[] fields) {
+        String server = fields[0];
+        final String proxy = fields[1];
+        // The entries of a crashed server stay until its players join again, the local view knows it is gone.
+        final ServersManager serversManager = messageBrokerService.getServersManager();
+        if (server != null && serversManager != null && serversManager.getServer(server) == null) server = null;
+        return server == null && proxy == null ? null : new PlayerLocation(uuid, server, proxy);
+    }
+
+    private boolean isNearCacheEnabled() {
+        return cacheMillis > 0L && !messageBrokerService.hasClientSideCache();
+    }
+
+    private void cache(final UUID uuid,
+                       final PlayerLocation location,
+                       final long expiresAt) {
+        if (!isNearCacheEnabled()) return;
+        if (nearCache.size() >= MAX_CACHED_LOCATIONS) {
+            final long now = System.currentTimeMillis();
+            nearCache.values().removeIf(cached -> cached.expiresAt <= now);
+            if (nearCache.size() >= MAX_CACHED_LOCATIONS) nearCache.clear();
+        }
+        nearCache.put(uuid, new CachedLocation(location, expiresAt));
+    }
+
+    private void enqueue(final Write write) {
+        nearCache.remove(write.uuid);
+        pendingWrites.add(write);
+        requestFlush();
+    }
+
+    private void refreshExpiries() {
+        if (localPlayers.isEmpty()) return;
+        // Only the expiry is refreshed, writing the fields again could overwrite a newer value of another node.
+        for (final UUID uuid : localPlayers) pendingWrites.add(new Write(uuid, getKey(uuid), null, null, Write.Operation.TOUCH));
+        requestFlush();
+    }
+
+    /**
+     * Flushes the queued writes, unless a flush is already running, in which case it flushes again once done.
+     * Only one flush runs at a time, so the writes are always applied in the order they were queued.
+     */
+    private void requestFlush() {
+        flushRequested = true;
+        if (flushing.compareAndSet(false, true)) messageBrokerService.getExecutor().execute(this::flush);
+    }
+
+    private void flush() {
+        do {
+            flushRequested = false;
+            try {
+                flushPending();
+            } finally {
+                flushing.set(false);
+            }
+        } while (flushRequested && flushing.compareAndSet(false, true));
+    }
+
+    /**
+     * Writes the failed writes and every queued change in a single pipeline. If it fails, they are all kept and
+     * written again later, every write gives the same result when applied twice.
+     *
+     * <p>The writes are coalesced by player and field first: the latest change of a field supersedes the older ones,
+     * since a node only ever writes its own name in it, and refreshing the expiry of a hash once is enough.</p>
+     */
+    private void flushPending() {
+        Write write;
+        while ((write = pendingWrites.poll()) != null) {
+            // Moved to the end, so the remaining writes stay in the order of their latest change.
+            failedWrites.remove(write.getCoalescingKey());
+            failedWrites.put(write.getCoalescingKey(), write);
+        }
+        if (failedWrites.isEmpty()) return;
+        final List<Write> writes = new ArrayList<>(failedWrites.values());
+        try {
+            messageBrokerService.writePlayerLocations(writes);
+            failedWrites.clear();
+        } catch (final RuntimeException exception) {
+            trimFailedWrites();
+            System.err.println("Unable to write " + failedWrites.size() + " player locations, retrying: " + exception);
+            messageBrokerService.getExecutor().schedule(this::requestFlush, RETRY_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Drops the expiry refreshes, then the oldest changes, beyond {@link #MAX_FAILED_WRITES}.
+     */
+    private void trimFailedWrites() {
+        int dropped = failedWrites.size() - MAX_FAILED_WRITES;
+        if (dropped <= 0) return;
+        System.err.println("Dropping " + dropped + " player location writes, the broker is unreachable for too long");
+        for (final Iterator<Write> iterator = failedWrites.values().iterator(); dropped > 0 && iterator.hasNext(); ) {
+            if (iterator.next().operation == Write.Operation.TOUCH) {
+                iterator.remove();
+                dropped--;
+            }
+        }
+        for (final Iterator<Write> iterator = failedWrites.values().iterator(); dropped > 0 && iterator.hasNext(); dropped--) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * A change of a field of a player hash.
+     */
+    static final class Write {
+
+        final UUID uuid;
+        final String key;
+        final String field;
+        final String value;
+        final Operation operation;
+
+        private Write(final UUID uuid,
+                      final String key,
+                      final String field,
+                      final String value,
+                      final Operation operation) {
+            this.uuid = uuid;
+            this.key = key;
+            this.field = field;
+            this.value = value;
+            this.operation = operation;
+        }
+
+        /**
+         * Retrieves the key of the writes superseding each other, the player and the written field, or the player
+         * alone for expiry refreshes.
+         */
+        private String getCoalescingKey() {
+            return operation == Operation.TOUCH ? uuid.toString() : uuid + ":" + field;
+        }
+
+        /**
+         * The operations applied to a player hash.
+         */
+        enum Operation {
+
+            /** Sets the field to the value, and the expiry of the hash to {@link #TTL_MILLIS}. */
+            SET,
+
+            /** Clears the field, provided it still holds the value. */
+            CLEAR,
+
+            /** Sets the expiry of the hash to {@link #TTL_MILLIS}, the field and value are null. */
+            TOUCH
+        }
+    }
+
+    private static final class CachedLocation {
+
+        private final PlayerLocation location;
+        private final long expiresAt;
+
+        private CachedLocation(final PlayerLocation location,
+                               final long expiresAt) {
+            this.location = location;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.rabbitmq.client.Connection;
 import me.akraml.serversync.connection.ConnectionResult;
 import me.akraml.serversync.connection.auth.AuthenticatedConnection;
 import me.akraml.serversync.connection.auth.ConnectionCredentials;
+import me.akraml.serversync.executor.SyncExecutor;
 import me.akraml.serversync.server.ServersManager;
 
 /**
@@ -16,8 +17,8 @@ import me.akraml.serversync.server.ServersManager;
  */
 public class RabbitMqMessageBrokerService extends MessageBrokerService implements AuthenticatedConnection<Connection> {
 
-    public RabbitMqMessageBrokerService(ServersManager serversManager) {
-        super(serversManager);
+    public RabbitMqMessageBrokerService(ServersManager serversManager, SyncExecutor executor) {
+        super(serversManager, executor);
     }
 
     @Override
@@ -27,11 +28,11 @@ public class RabbitMqMessageBrokerService extends MessageBrokerService implement
 
     @Override
     public void stop() {
-
+        stopInboundLanes();
     }
 
     @Override
-    public void publish(JsonObject message) {
+    public void publish(String channel, JsonObject message) {
 
     }
 
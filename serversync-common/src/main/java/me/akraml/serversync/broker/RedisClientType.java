@@ -0,0 +1,70 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.broker;
+
+import me.akraml.serversync.connection.auth.ConnectionCredentials;
+import me.akraml.serversync.executor.SyncExecutor;
+import me.akraml.serversync.server.ServersManager;
+
+/**
+ * Holds the available Redis client implementations.
+ *
+ * <ul>
+ *     <li>{@link #JEDIS} - Blocking client backed by a connection pool, see {@link RedisMessageBrokerService}.</li>
+ *     <li>{@link #LETTUCE} - Asynchronous client multiplexed over a single connection,
+ *     see {@link LettuceMessageBrokerService}.</li>
+ *     <li>{@link #CLUSTER} - Redis Cluster client using sharded pub/sub,
+ *     see {@link ClusterRedisMessageBrokerService}.</li>
+ * </ul>
+ */
+public enum RedisClientType {
+
+    JEDIS,
+    LETTUCE,
+    CLUSTER;
+
+    /**
+     * Creates a new Redis message broker service backed by this client implementation.
+     * The returned service also implements {@link me.akraml.serversync.connection.auth.AuthenticatedConnection}.
+     *
+     * @param serversManager The servers manager to use for actions on servers.
+     * @param executor The executor used by the broker for its blocking tasks.
+     * @param credentials The credentials used to establish a connection with Redis.
+     * @return A new, not yet connected, message broker service.
+     */
+    public MessageBrokerService createService(final ServersManager serversManager,
+                                              final SyncExecutor executor,
+                                              final ConnectionCredentials credentials) {
+        switch (this) {
+            case LETTUCE:
+                return new LettuceMessageBrokerService(serversManager, executor, credentials);
+            case CLUSTER:
+                return new ClusterRedisMessageBrokerService(serversManager, executor, credentials);
+            case JEDIS:
+            default:
+                return new RedisMessageBrokerService(serversManager, executor, credentials);
+        }
+    }
+}
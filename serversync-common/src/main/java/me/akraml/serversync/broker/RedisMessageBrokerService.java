@@ -24,20 +24,34 @@
 
 package me.akraml.serversync.broker;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonObject;
+import me.akraml.serversync.executor.SyncExecutor;
+import me.akraml.serversync.server.LivenessMode;
 import me.akraml.serversync.server.ServersManager;
 import me.akraml.serversync.connection.ConnectionResult;
 import me.akraml.serversync.connection.auth.AuthenticatedConnection;
 import me.akraml.serversync.connection.auth.ConnectionCredentials;
 import me.akraml.serversync.connection.auth.credentials.RedisCredentialsKeys;
+import redis.clients.jedis.Connection;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.resps.ScanResult;
+import redis.clients.jedis.util.SafeEncoder;
 
 import java.time.Duration;
-import java.util.concurrent.CompletableFuture;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * A concrete implementation of the {@link MessageBrokerService} that utilizes Redis as the message broker backend.
@@ -48,28 +62,93 @@ import java.util.concurrent.CompletableFuture;
  * <p>This class also implements {@link AuthenticatedConnection} which mandates methods related to
  * connection handling and credential management.</p>
  *
+ * <p>Services of other networks can share the pool and executor of a service, see {@link #share(ServersManager)}.</p>
+ *
+ * <p>With the {@link LivenessMode#REDIS_TTL} liveness mode, servers store their latest
+ * state in an expiring key, refreshed by a Lua script. Proxies load the live servers from these keys when they start,
+ * then learn about the stopped servers from the keyspace notifications of the expired keys.</p>
+ *
+ * <p>Lookups of the player location index can be served from a {@link TrackingCache}, see
+ * {@link #enableTrackingCache(int)}.</p>
+ *
  * @version 1.0-BETA
  */
 public final class RedisMessageBrokerService extends MessageBrokerService implements AuthenticatedConnection<JedisPool> {
 
-    private final Gson gson = new Gson();
+    /** Stores the state of a server and refreshes the expiry of its key, in a single step. */
+    static final String REFRESH_LIVENESS_SCRIPT = "redis.call('SET', KEYS[1], ARGV[1]) "
+            + "return redis.call('PEXPIRE', KEYS[1], ARGV[2])";
+
+    /** Deletes a field of a player hash, provided it still holds the given value. */
+    static final String CLEAR_LOCATION_SCRIPT = "if redis.call('HGET', KEYS[1], ARGV[1]) == ARGV[2] then "
+            + "return redis.call('HDEL', KEYS[1], ARGV[1]) end return 0";
+
+    /** Pattern of the channels on which redis notifies the expired keys of every database. */
+    static final String EXPIRED_KEYS_PATTERN = "__keyevent@*__:expired";
+
+    /** Channel on which redis sends the invalidations of the tracked keys. */
+    private static final String INVALIDATION_CHANNEL = "__redis__:invalidate";
+
+    /** Delay in milliseconds before subscribing again to the invalidations once the connection is lost. */
+    private static final long TRACKING_RETRY_DELAY = 1000L;
+
+    /** Delay in milliseconds before subscribing again to the channels once the connection is lost. */
+    private static final long SUBSCRIBE_RETRY_DELAY = 1000L;
+
+    /** Delay in milliseconds before subscribing again to the expired keys once the connection is lost. */
+    private static final long LIVENESS_RETRY_DELAY = 1000L;
+
     private final ConnectionCredentials credentials;
     private JedisPool pool;
 
+    /** The service whose pool is shared, null if this service owns its pool. */
+    private final RedisMessageBrokerService owner;
+
+    /** Caches the player locations read from redis, null if client-side caching is disabled. */
+    private volatile TrackingCache<String[]> trackingCache;
+    private volatile Jedis invalidationConnection;
+    private volatile boolean stopped;
+
     /**
      * Constructs a new RedisMessageBroker with the given {@link ServersManager} and {@link ConnectionCredentials}.
      *
      * @param serversManager The servers manager to use for actions on servers.
+     * @param executor The executor to run the subscription and publications on.
      * @param credentials The credentials used to establish a connection with Redis.
      */
     public RedisMessageBrokerService(final ServersManager serversManager,
+                                     final SyncExecutor executor,
                                      final ConnectionCredentials credentials) {
-        super(serversManager);
+        super(serversManager, executor);
         this.credentials = credentials;
+        this.owner = null;
+    }
+
+    private RedisMessageBrokerService(final RedisMessageBrokerService owner,
+                                      final ServersManager serversManager) {
+        super(serversManager, owner.executor);
+        this.credentials = owner.credentials;
+        this.owner = owner;
+    }
+
+    /**
+     * Creates a service for another network, sharing the connection pool and executor of this one. Each service
+     * still subscribes on its own connections, so the pool must allow two more connections per shared service.
+     * The created service must be connected once this one is, and stopped before it.
+     *
+     * @param serversManager The servers manager of the other network.
+     * @return A new, not yet connected, message broker service.
+     */
+    public RedisMessageBrokerService share(final ServersManager serversManager) {
+        return new RedisMessageBrokerService(this, serversManager);
     }
 
     @Override
     public ConnectionResult connect() {
+        if (owner != null) {
+            this.pool = owner.getConnection();
+            return pool == null ? ConnectionResult.FAILURE : testConnection();
+        }
 
         // Initializes a jedis pool configuration with required information.
         final JedisPoolConfig poolConfig = new JedisPoolConfig();
@@ -93,6 +172,10 @@ public final class RedisMessageBrokerService extends MessageBrokerService implem
                 credentials.getProperty(RedisCredentialsKeys.PASSWORD, String.class)
         );
 
+        return testConnection();
+    }
+
+    private ConnectionResult testConnection() {
         // Tests if the connection works properly and return the result.
         try (final Jedis ignore = pool.getResource()) {
             return ConnectionResult.SUCCESS;
@@ -111,32 +194,310 @@ public final class RedisMessageBrokerService extends MessageBrokerService implem
         return credentials;
     }
 
+    @Override
+    public boolean supportsBrokerLiveness() {
+        return true;
+    }
+
+    @Override
+    protected void refreshLiveness(final String key,
+                                   final String state,
+                                   final long ttlMillis) {
+        try (final Jedis jedis = pool.getResource()) {
+            jedis.eval(REFRESH_LIVENESS_SCRIPT, Collections.singletonList(key),
+                    Arrays.asList(state, String.valueOf(ttlMillis)));
+        }
+    }
+
+    @Override
+    protected void clearLiveness(final String key) {
+        try (final Jedis jedis = pool.getResource()) {
+            jedis.del(key);
+        }
+    }
+
+    @Override
+    public boolean supportsPlayerLocationIndex() {
+        return true;
+    }
+
+    @Override
+    protected void writePlayerLocations(final List<PlayerLocationIndex.Write> writes) {
+        try (final Jedis jedis = pool.getResource()) {
+            final Pipeline pipeline = jedis.pipelined();
+            for (final PlayerLocationIndex.Write write : writes) {
+                switch (write.operation) {
+                    case SET:
+                        pipeline.hset(write.key, write.field, write.value);
+                        pipeline.pexpire(write.key, PlayerLocationIndex.TTL_MILLIS);
+                        break;
+                    case CLEAR:
+                        pipeline.eval(CLEAR_LOCATION_SCRIPT, Collections.singletonList(write.key), Arrays.asList(write.field, write.value));
+                        break;
+                    case TOUCH:
+                        pipeline.pexpire(write.key, PlayerLocationIndex.TTL_MILLIS);
+                        break;
+                }
+            }
+            pipeline.sync();
+        }
+    }
+
+    @Override
+    protected List<String[]> readPlayerLocations(final List<String> keys) {
+        final TrackingCache<String[]> cache = trackingCache;
+        final String[][] locations = new String[keys.size()][];
+        final List<Integer> missing = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            locations[i] = cache == null ? null : cache.get(keys.get(i));
+            if (locations[i] == null) missing.add(i);
+        }
+        if (missing.isEmpty()) return Arrays.asList(locations);
+        try (final Jedis jedis = pool.getResource()) {
+            final Pipeline pipeline = jedis.pipelined();
+            final Object[] markers = new Object[missing.size()];
+            final List<Response<List<String>>> responses = new ArrayList<>(missing.size());
+            for (int i = 0; i < missing.size(); i++) {
+                final String key = keys.get(missing.get(i));
+                // The load is announced before reading, so an invalidation received in between discards the value.
+                if (cache != null) markers[i] = cache.beginLoad(key);
+                responses.add(pipeline.hmget(key, PlayerLocationIndex.SERVER_FIELD, PlayerLocationIndex.PROXY_FIELD));
+            }
+            pipeline.sync();
+            for (int i = 0; i < missing.size(); i++) {
+                final List<String> fields = responses.get(i).get();
+                final String[] location = new String[]{fields.get(0), fields.get(1)};
+                locations[missing.get(i)] = location;
+                if (cache != null) cache.completeLoad(keys.get(missing.get(i)), markers[i], location);
+            }
+            return Arrays.asList(locations);
+        }
+    }
+
+    /**
+     * Enables client-side caching of the player location index: looked up locations are kept in memory until
+     * redis reports that their key changed. Redis is asked to track every key of the index of this network
+     * (CLIENT TRACKING in broadcasting mode) and to send the invalidations to a connection subscribed to them,
+     * so lookups of hot players never leave the process while staying correct. It must be enabled before
+     * starting the handler.
+     *
+     * @param maxEntries Maximum amount of cached locations, the least recently used ones are evicted beyond it.
+     * @return The enabled cache, which holds its hit and miss ratios.
+     */
+    public TrackingCache<String[]> enableTrackingCache(final int maxEntries) {
+        this.trackingCache = new TrackingCache<>(maxEntries);
+        return trackingCache;
+    }
+
+    @Override
+    protected boolean hasClientSideCache() {
+        return trackingCache != null;
+    }
+
+    /**
+     * Retrieves the client-side cache of the player location index.
+     *
+     * @return The tracking cache, null if it is disabled.
+     */
+    public TrackingCache<String[]> getTrackingCache() {
+        return trackingCache;
+    }
+
+    /**
+     * Receives the invalidations of the tracked keys until this service stops. Values are only cached while the
+     * invalidations are received, the cache is emptied whenever the connection is lost.
+     *
+     * @param cache The cache to invalidate.
+     */
+    private void receiveInvalidations(final TrackingCache<String[]> cache) {
+        while (!stopped) {
+            Jedis jedis = null;
+            try {
+                jedis = pool.getResource();
+                invalidationConnection = jedis;
+                final Connection connection = jedis.getConnection();
+                // Invalidations are redirected to this very connection, which is then dedicated to receiving them.
+                jedis.sendCommand(Protocol.Command.CLIENT, "TRACKING", "ON", "REDIRECT", String.valueOf(jedis.clientId()),
+                        "BCAST", "PREFIX", getChannelPrefix() + ":player:");
+                connection.setTimeoutInfinite();
+                connection.sendCommand(Protocol.Command.SUBSCRIBE, INVALIDATION_CHANNEL);
+                connection.getObjectMultiBulkReply();
+                cache.setActive(true);
+                while (!stopped) {
+                    final List<Object> reply = connection.getObjectMultiBulkReply();
+                    final Object keys = reply.get(2);
+                    if (keys instanceof List) {
+                        for (final Object key : (List<?>) keys) cache.invalidate(SafeEncoder.encode((byte[]) key));
+                    } else {
+                        // Redis flushed its tracking table, such as after FLUSHALL.
+                        cache.invalidateAll();
+                    }
+                }
+            } catch (final Exception exception) {
+                cache.setActive(false);
+                if (stopped) return;
+                System.err.println("Lost the invalidations of the tracking cache, retrying: " + exception);
+                try {
+                    Thread.sleep(TRACKING_RETRY_DELAY);
+                } catch (final InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            } finally {
+                if (jedis != null) {
+                    // A subscribed connection can never be used for commands again.
+                    jedis.getConnection().setBroken();
+                    jedis.close();
+                }
+            }
+        }
+    }
+
     @Override
     public void startHandler() {
-        CompletableFuture.runAsync(() -> {
+        if (getLivenessMode() == LivenessMode.REDIS_TTL && getServersManager() != null) startLivenessHandler();
+        final TrackingCache<String[]> cache = trackingCache;
+        if (cache != null) executor.startLongRunning("Invalidations", () -> receiveInvalidations(cache));
+        // Each lane is read from its own connection, so control messages never wait behind a burst of updates.
+        for (final MessageLane lane : MessageLane.values()) {
+            final String[] channels = getSubscribedChannels(lane);
+            if (channels.length == 0) continue;
+            // Proxies ask every server for its full state after subscribing again, anything published meanwhile is lost.
+            final boolean resync = getServersManager() != null && Arrays.asList(channels).contains(getServersChannel());
+            executor.startLongRunning("Subscriber-" + lane, () -> subscribe(lane, channels, resync));
+        }
+    }
+
+    /**
+     * Receives the messages of a lane until this service stops, subscribing again whenever the connection is lost.
+     */
+    private void subscribe(final MessageLane lane,
+                           final String[] channels,
+                           final boolean resync) {
+        boolean resubscribing = false;
+        while (!stopped) {
             try (final Jedis jedis = getConnection().getResource()) {
+                final boolean lost = resubscribing;
                 jedis.subscribe(new JedisPubSub() {
+                    @Override
+                    public void onSubscribe(String channel, int subscribedChannels) {
+                        if (lost && resync && subscribedChannels == channels.length) {
+                            executor.execute(() -> publishSyncRequest(null));
+                        }
+                    }
+
                     @Override
                     public void onMessage(String channel, String message) {
-                        onMessageReceive(gson.fromJson(message, JsonObject.class));
+                        onMessageReceive(channel, message);
+                    }
+                }, channels);
+            } catch (final Exception exception) {
+                if (stopped) return;
+                System.err.println("Lost the subscription of the " + lane + " lane, retrying: " + exception);
+                resubscribing = true;
+                try {
+                    Thread.sleep(SUBSCRIBE_RETRY_DELAY);
+                } catch (final InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Listens to the expiry of the liveness keys until this service stops, subscribing again whenever the
+     * connection is lost.
+     */
+    private void startLivenessHandler() {
+        executor.startLongRunning("Subscriber-Liveness", () -> {
+            while (!stopped) {
+                try (final Jedis jedis = pool.getResource()) {
+                    enableExpiryNotifications(jedis);
+                    jedis.psubscribe(new JedisPubSub() {
+                        @Override
+                        public void onPSubscribe(String pattern, int subscribedChannels) {
+                            // Only loaded once subscribed, so no expiry can fall between the scan and the subscription.
+                            loadLiveServers();
+                        }
+
+                        @Override
+                        public void onPMessage(String pattern, String channel, String message) {
+                            onLivenessExpired(message);
+                        }
+                    }, EXPIRED_KEYS_PATTERN);
+                } catch (final Exception exception) {
+                    if (stopped) return;
+                    System.err.println("Lost the notifications of expired keys, retrying: " + exception);
+                    try {
+                        Thread.sleep(LIVENESS_RETRY_DELAY);
+                    } catch (final InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        return;
                     }
-                }, "serversync:servers");
+                }
             }
-        }).exceptionally(throwable -> {
-            throwable.printStackTrace(System.err);
-            return null;
         });
     }
 
+    /**
+     * Loads the live servers from their liveness keys, then expires the known servers whose key is missing.
+     */
+    private void loadLiveServers() {
+        final Set<String> liveServers = new HashSet<>();
+        try (final Jedis jedis = pool.getResource()) {
+            final ScanParams params = new ScanParams().match(getLivenessKeyPrefix() + "*").count(256);
+            String cursor = ScanParams.SCAN_POINTER_START;
+            do {
+                final ScanResult<String> result = jedis.scan(cursor, params);
+                cursor = result.getCursor();
+                if (result.getResult().isEmpty()) continue;
+                final List<String> states = jedis.mget(result.getResult().toArray(new String[0]));
+                for (int i = 0; i < states.size(); i++) {
+                    // The key may have expired in between.
+                    if (states.get(i) == null) continue;
+                    liveServers.add(result.getResult().get(i).substring(getLivenessKeyPrefix().length()));
+                    onMessageReceive(getServersChannel(), states.get(i));
+                }
+            } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+        } catch (final Exception exception) {
+            exception.printStackTrace(System.err);
+            return;
+        }
+        expireMissingServers(liveServers);
+    }
+
+    /**
+     * Enables the keyspace notifications of expired keys, if they are not already. Managed redis instances
+     * usually forbid changing the configuration, they must then be enabled with "notify-keyspace-events Ex".
+     *
+     * @param jedis The connection to configure redis with.
+     */
+    private static void enableExpiryNotifications(final Jedis jedis) {
+        try {
+            final Map<String, String> config = jedis.configGet("notify-keyspace-events");
+            final String flags = config.isEmpty() ? "" : config.values().iterator().next();
+            final String missing = (flags.contains("E") ? "" : "E") + (flags.contains("x") || flags.contains("A") ? "" : "x");
+            if (!missing.isEmpty()) jedis.configSet("notify-keyspace-events", flags + missing);
+        } catch (final Exception exception) {
+            System.err.println("Unable to enable the notifications of expired keys, make sure notify-keyspace-events includes 'Ex': " + exception);
+        }
+    }
+
     @Override
     public void stop() {
-        close();
+        stopped = true;
+        // The invalidations connection is blocked reading, closing it wakes the receiving thread up.
+        final Jedis invalidations = invalidationConnection;
+        if (invalidations != null) invalidations.getConnection().disconnect();
+        if (owner == null) close();
+        stopInboundLanes();
     }
 
     @Override
-    public void publish(JsonObject message) {
+    public void publish(String channel, JsonObject message) {
         try(final Jedis jedis = pool.getResource()) {
-            jedis.publish("serversync:servers", message.toString());
+            jedis.publish(channel, message.toString());
         }
     }
 }
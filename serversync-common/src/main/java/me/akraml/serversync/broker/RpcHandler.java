@@ -0,0 +1,49 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.broker;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Answers the RPC requests of a method, registered through {@link RpcManager#registerHandler(String, RpcHandler)}.
+ *
+ * @version 1.0-BETA
+ */
+@FunctionalInterface
+public interface RpcHandler {
+
+    /**
+     * Handles a request. This method is invoked on a broker executor thread, handlers needing the server
+     * main thread have to hop to it themselves.
+     *
+     * @param origin  The identifier of the node which sent the request.
+     * @param payload The payload of the request.
+     * @return The payload of the response, may be null.
+     * @throws Exception to answer with an error, the exception message is sent to the requester.
+     */
+    JsonObject handle(final String origin,
+                      final JsonObject payload) throws Exception;
+
+}
@@ -0,0 +1,352 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.broker;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import me.akraml.serversync.executor.SyncExecutor;
+import me.akraml.serversync.metrics.LatencyHistogram;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends request/response calls between nodes over the message broker.
+ *
+ * <p>Requests are published on a shared request channel with a correlation identifier and the names of the
+ * targeted servers. Each targeted server answers on the reply channel of the requesting node, where responses
+ * are matched back to the waiting futures. Every request has a deadline, and the amount of requests waiting
+ * for a response is bounded.</p>
+ *
+ * @version 1.0-BETA
+ */
+public final class RpcManager {
+
+    /** Default maximum amount of requests waiting for a response. */
+    private static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+
+    private final MessageBrokerService messageBrokerService;
+    private final SyncExecutor executor;
+    private final String proxyNodeId = "proxy-" + UUID.randomUUID().toString().substring(0, 8);
+    private final Map<String, RpcHandler> handlers = new ConcurrentHashMap<>();
+    private final Map<String, PendingRequest> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlightCount = new AtomicInteger();
+    private final AtomicLong nextId = new AtomicLong();
+    private volatile int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+
+    RpcManager(final MessageBrokerService messageBrokerService,
+               final SyncExecutor executor) {
+        this.messageBrokerService = messageBrokerService;
+        this.executor = executor;
+    }
+
+    /**
+     * Retrieves the identifier of this node: the name of the server on spigot servers,
+     * a random identifier on proxies.
+     *
+     * @return The node identifier.
+     */
+    public String getNodeId() {
+        final String serverName = messageBrokerService.getLocalServerName();
+        return serverName != null ? serverName : proxyNodeId;
+    }
+
+    /**
+     * Registers the handler answering the requests of a method on this server.
+     * Only spigot servers receive requests.
+     *
+     * @param method  The name of the method.
+     * @param handler The handler.
+     */
+    public void registerHandler(final String method,
+                                final RpcHandler handler) {
+        handlers.put(method, handler);
+    }
+
+    /**
+     * Unregisters the handler of a method.
+     *
+     * @param method The name of the method.
+     */
+    public void unregisterHandler(final String method) {
+        handlers.remove(method);
+    }
+
+    /**
+     * Sets the maximum amount of requests waiting for a response. Requests sent above it fail right away.
+     *
+     * @param maxInFlight The maximum amount of requests in flight.
+     */
+    public void setMaxInFlight(final int maxInFlight) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    /**
+     * Retrieves the amount of requests waiting for a response.
+     *
+     * @return Requests in flight.
+     */
+    public int getInFlight() {
+        return inFlightCount.get();
+    }
+
+    /**
+     * Retrieves the latency between sending requests of a method and receiving their responses.
+     *
+     * @param method The name of the method.
+     * @return The latency histogram of the method, empty if it has never been called.
+     */
+    public LatencyHistogram getLatency(final String method) {
+        return latencies.computeIfAbsent(method, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Sends a request to a server.
+     *
+     * @param target  The name of the server to ask.
+     * @param method  The name of the method.
+     * @param payload The payload of the request.
+     * @param timeout The deadline of the request in milliseconds.
+     * @return A future completed with the response payload, or exceptionally with a {@link TimeoutException}
+     * if the deadline is reached, or a {@link RpcException} if the server failed to answer.
+     */
+    public CompletableFuture<JsonObject> request(final String target,
+                                                 final String method,
+                                                 final JsonObject payload,
+                                                 final long timeout) {
+        final CompletableFuture<JsonObject> future = new CompletableFuture<>();
+        final PendingRequest request = new PendingRequest(method, Collections.singleton(target)) {
+            @Override
+            void onResponse(final String responder, final JsonObject response, final String error) {
+                if (error != null) {
+                    future.completeExceptionally(new RpcException(responder + ": " + error));
+                } else {
+                    future.complete(response);
+                }
+                complete();
+            }
+
+            @Override
+            void onTimeout() {
+                future.completeExceptionally(new TimeoutException("No response from " + target + " to " + method + " within " + timeout + "ms"));
+            }
+        };
+        send(request, payload, timeout, future);
+        return future;
+    }
+
+    /**
+     * Sends a request to many servers at once, and gathers their responses in parallel.
+     * The returned future is completed once every server answered or the deadline is reached, whichever
+     * comes first, so it only holds the servers which answered successfully in time.
+     *
+     * @param targets The names of the servers to ask.
+     * @param method  The name of the method.
+     * @param payload The payload of the request.
+     * @param timeout The deadline of the request in milliseconds.
+     * @return A future completed with the response payloads, by server name.
+     */
+    public CompletableFuture<Map<String, JsonObject>> requestAll(final Collection<String> targets,
+                                                                 final String method,
+                                                                 final JsonObject payload,
+                                                                 final long timeout) {
+        final CompletableFuture<Map<String, JsonObject>> future = new CompletableFuture<>();
+        if (targets.isEmpty()) {
+            future.complete(Collections.emptyMap());
+            return future;
+        }
+        final Map<String, JsonObject> responses = new ConcurrentHashMap<>();
+        final PendingRequest request = new PendingRequest(method, new HashSet<>(targets)) {
+            @Override
+            void onResponse(final String responder, final JsonObject response, final String error) {
+                if (error == null) responses.put(responder, response == null ? new JsonObject() : response);
+                if (awaiting.remove(responder) && awaiting.isEmpty()) {
+                    future.complete(responses);
+                    complete();
+                }
+            }
+
+            @Override
+            void onTimeout() {
+                future.complete(responses);
+            }
+        };
+        send(request, payload, timeout, future);
+        return future;
+    }
+
+    private void send(final PendingRequest request,
+                      final JsonObject payload,
+                      final long timeout,
+                      final CompletableFuture<?> future) {
+        if (inFlightCount.incrementAndGet() > maxInFlight) {
+            inFlightCount.decrementAndGet();
+            future.completeExceptionally(new RpcException("Too many requests in flight (" + maxInFlight + ")"));
+            return;
+        }
+        final String id = Long.toString(nextId.incrementAndGet(), 36);
+        request.id = id;
+        inFlight.put(id, request);
+        request.timeoutTask = executor.schedule(() -> {
+            if (request.complete()) request.onTimeout();
+        }, timeout, TimeUnit.MILLISECONDS);
+
+        final JsonObject message = new JsonObject();
+        final JsonArray targets = new JsonArray();
+        request.awaiting.forEach(targets::add);
+        message.addProperty("id", id);
+        message.addProperty("method", request.method);
+        message.addProperty("origin", getNodeId());
+        message.add("targets", targets);
+        if (payload != null) message.add("payload", payload);
+        executor.execute(() -> {
+            try {
+                messageBrokerService.publish(getRequestChannel(), message);
+            } catch (final RuntimeException exception) {
+                if (request.complete()) future.completeExceptionally(exception);
+            }
+        });
+    }
+
+    /**
+     * Handles a message received on the request channel or a reply channel.
+     *
+     * @param channel    The channel the message has been received on.
+     * @param jsonObject The JSON object containing the message data.
+     */
+    void onMessageReceive(final String channel,
+                          final JsonObject jsonObject) {
+        if (getRequestChannel().equals(channel)) {
+            onRequest(jsonObject);
+        } else if (getReplyChannel().equals(channel)) {
+            onResponse(jsonObject);
+        }
+    }
+
+    /**
+     * Retrieves the channel on which requests are published in the network of this node.
+     *
+     * @return The request channel.
+     */
+    String getRequestChannel() {
+        return messageBrokerService.getChannelPrefix() + ":rpc";
+    }
+
+    /**
+     * Retrieves the channel on which this node receives the responses to its requests,
+     * which is the request channel suffixed with the node identifier.
+     *
+     * @return The reply channel.
+     */
+    String getReplyChannel() {
+        return getRequestChannel() + ":" + getNodeId();
+    }
+
+    private void onRequest(final JsonObject jsonObject) {
+        final String serverName = messageBrokerService.getLocalServerName();
+        if (serverName == null) return;
+        boolean targeted = false;
+        for (final JsonElement target : jsonObject.getAsJsonArray("targets")) {
+            if (target.getAsString().equals(serverName)) {
+                targeted = true;
+                break;
+            }
+        }
+        if (!targeted) return;
+        final String origin = jsonObject.get("origin").getAsString();
+        final String method = jsonObject.get("method").getAsString();
+        final JsonElement payload = jsonObject.get("payload");
+        executor.execute(() -> {
+            final JsonObject response = new JsonObject();
+            response.add("id", jsonObject.get("id"));
+            response.addProperty("responder", serverName);
+            final RpcHandler handler = handlers.get(method);
+            if (handler == null) {
+                response.addProperty("error", "Unknown method " + method);
+            } else {
+                try {
+                    final JsonObject result = handler.handle(origin, payload == null ? new JsonObject() : payload.getAsJsonObject());
+                    if (result != null) response.add("payload", result);
+                } catch (final Exception exception) {
+                    response.addProperty("error", String.valueOf(exception.getMessage()));
+                }
+            }
+            messageBrokerService.publish(getRequestChannel() + ":" + origin, response);
+        });
+    }
+
+    private void onResponse(final JsonObject jsonObject) {
+        final PendingRequest request = inFlight.get(jsonObject.get("id").getAsString());
+        if (request == null) return;
+        final String responder = jsonObject.get("responder").getAsString();
+        getLatency(request.method).recordNanos(System.nanoTime() - request.sentNanos);
+        final JsonElement payload = jsonObject.get("payload"), error = jsonObject.get("error");
+        request.onResponse(responder,
+                payload == null ? null : payload.getAsJsonObject(),
+                error == null ? null : error.getAsString());
+    }
+
+    /**
+     * A request waiting for its responses.
+     */
+    private abstract class PendingRequest {
+
+        final String method;
+        final Set<String> awaiting;
+        final long sentNanos = System.nanoTime();
+        volatile String id;
+        volatile ScheduledFuture<?> timeoutTask;
+
+        PendingRequest(final String method,
+                       final Set<String> awaiting) {
+            this.method = method;
+            this.awaiting = ConcurrentHashMap.newKeySet();
+            this.awaiting.addAll(awaiting);
+        }
+
+        /**
+         * Removes this request from the in-flight table and cancels its deadline.
+         *
+         * @return If the request was still in flight.
+         */
+        final boolean complete() {
+            final ScheduledFuture<?> task = timeoutTask;
+            if (task != null) task.cancel(false);
+            if (!inFlight.remove(id, this)) return false;
+            inFlightCount.decrementAndGet();
+            return true;
+        }
+
+        abstract void onResponse(final String responder,
+                                 final JsonObject response,
+                                 final String error);
+
+        abstract void onTimeout();
+    }
+}
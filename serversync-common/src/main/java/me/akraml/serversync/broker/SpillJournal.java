@@ -0,0 +1,269 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.broker;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, memory-mapped journal holding the messages which could not be published while the broker was
+ * unreachable. Messages are appended in order, and replayed in the same order once the broker is back.
+ *
+ * <p>Before being replayed, superseded messages are collapsed: only the latest update of a player on a server,
+ * the latest maximum players update, heartbeat and synchronization request of a server are kept. Messages which
+ * do not fit in the journal anymore are dropped, the next heartbeats or synchronization restore the state.</p>
+ *
+ * <p>The journal is cleared when opened: the messages of a previous run describe a state the server announces
+ * again anyway when it starts.</p>
+ *
+ * @version 1.0-BETA
+ */
+public final class SpillJournal {
+
+    private final Gson gson = new Gson();
+    private final FileChannel fileChannel;
+    private final MappedByteBuffer buffer;
+    private final AtomicLong spilled = new AtomicLong(), replayed = new AtomicLong(),
+            collapsed = new AtomicLong(), dropped = new AtomicLong();
+
+    /**
+     * Opens the journal file, creating or clearing it.
+     *
+     * @param file     The journal file.
+     * @param capacity Maximum size of the journal in bytes.
+     * @throws IOException if the file could not be mapped.
+     */
+    SpillJournal(final Path file,
+                 final int capacity) throws IOException {
+        this.fileChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.buffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /**
+     * Checks if messages are waiting to be replayed. While it is the case, new messages must be appended
+     * to the journal as well, so they are not published before older ones.
+     *
+     * @return If the journal holds messages.
+     */
+    synchronized boolean hasPending() {
+        return buffer.position() > 0;
+    }
+
+    /**
+     * Appends a message to the journal, or drops it if the journal is full.
+     *
+     * @param channel The channel the message has to be published on.
+     * @param message The message.
+     */
+    synchronized void append(final String channel,
+                             final JsonObject message) {
+        if (write(channel, message)) {
+            spilled.incrementAndGet();
+        } else {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Replays the journal through the given publisher, in order and without superseded messages.
+     * If publishing fails, the messages which have not been published are kept for the next replay.
+     *
+     * @param publisher Publishes a message on a channel, throwing if it is not possible.
+     * @return If every message has been published.
+     */
+    synchronized boolean replay(final Publisher publisher) {
+        final List<Entry> entries = collapse(read());
+        buffer.clear();
+        for (int i = 0; i < entries.size(); i++) {
+            final Entry entry = entries.get(i);
+            try {
+                publisher.publish(entry.channel, entry.message);
+                replayed.incrementAndGet();
+            } catch (final RuntimeException exception) {
+                // Keep the remaining messages, in order, for the next attempt.
+                for (int j = i; j < entries.size(); j++) {
+                    if (!write(entries.get(j).channel, entries.get(j).message)) dropped.incrementAndGet();
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Closes the journal file.
+     */
+    synchronized void close() {
+        try {
+            fileChannel.close();
+        } catch (final IOException exception) {
+            exception.printStackTrace(System.err);
+        }
+    }
+
+    /**
+     * Retrieves the amount of messages written to the journal.
+     *
+     * @return Spilled messages count.
+     */
+    public long getSpilled() {
+        return spilled.get();
+    }
+
+    /**
+     * Retrieves the amount of messages published from the journal.
+     *
+     * @return Replayed messages count.
+     */
+    public long getReplayed() {
+        return replayed.get();
+    }
+
+    /**
+     * Retrieves the amount of messages discarded because a newer message superseded them.
+     *
+     * @return Collapsed messages count.
+     */
+    public long getCollapsed() {
+        return collapsed.get();
+    }
+
+    /**
+     * Retrieves the amount of messages dropped because the journal was full.
+     *
+     * @return Dropped messages count.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private boolean write(final String channel,
+                          final JsonObject message) {
+        final byte[] channelBytes = channel.getBytes(StandardCharsets.UTF_8);
+        final byte[] messageBytes = message.toString().getBytes(StandardCharsets.UTF_8);
+        final int length = Short.BYTES + channelBytes.length + messageBytes.length;
+        if (buffer.remaining() < Integer.BYTES + length) return false;
+        buffer.putInt(length).putShort((short) channelBytes.length).put(channelBytes).put(messageBytes);
+        return true;
+    }
+
+    private List<Entry> read() {
+        final List<Entry> entries = new ArrayList<>();
+        final int end = buffer.position();
+        buffer.position(0);
+        while (buffer.position() < end) {
+            final int length = buffer.getInt();
+            final byte[] channelBytes = new byte[buffer.getShort()];
+            buffer.get(channelBytes);
+            final byte[] messageBytes = new byte[length - Short.BYTES - channelBytes.length];
+            buffer.get(messageBytes);
+            entries.add(new Entry(new String(channelBytes, StandardCharsets.UTF_8),
+                    gson.fromJson(new String(messageBytes, StandardCharsets.UTF_8), JsonObject.class)));
+        }
+        return entries;
+    }
+
+    private List<Entry> collapse(final List<Entry> entries) {
+        // Walking backwards keeps the latest message of every key, the order is then restored.
+        final Set<String> seenKeys = new HashSet<>();
+        final LinkedList<Entry> kept = new LinkedList<>();
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            final Entry entry = entries.get(i);
+            final String key = getSupersedingKey(entry);
+            if (key != null && !seenKeys.add(key)) {
+                collapsed.incrementAndGet();
+                continue;
+            }
+            kept.addFirst(entry);
+        }
+        return kept;
+    }
+
+    /**
+     * Retrieves the key shared by the messages superseding each other.
+     *
+     * @param entry The journal entry.
+     * @return The key, or null if the message never gets superseded.
+     */
+    private static String getSupersedingKey(final Entry entry) {
+        final JsonObject message = entry.message;
+        final String type = message.get("type").getAsString();
+        final JsonElement name = message.get("name");
+        switch (type) {
+            case "UPDATE": {
+                final JsonElement player = message.get("playerToUpdate");
+                if (player != null) {
+                    // Attribute updates only carry the changed attributes, so none of them can be dropped.
+                    if ("ATTRIBUTES".equals(message.get("playerUpdate").getAsString())) return null;
+                    final String playerData = player.getAsString();
+                    return "player:" + name.getAsString() + ":" + playerData.substring(0, playerData.indexOf(';'));
+                }
+                return "maxPlayers:" + name.getAsString();
+            }
+            case "HEARTBEAT":
+                return "heartbeat:" + name.getAsString();
+            case "SYNC_REQUEST": {
+                final JsonElement target = message.get("target");
+                return "sync:" + (target == null ? "" : target.getAsString());
+            }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Publishes a message on a channel, throwing a runtime exception if it is not possible.
+     */
+    @FunctionalInterface
+    interface Publisher {
+
+        void publish(final String channel,
+                     final JsonObject message);
+
+    }
+
+    private static final class Entry {
+
+        private final String channel;
+        private final JsonObject message;
+
+        private Entry(final String channel,
+                      final JsonObject message) {
+            this.channel = channel;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package me.akraml.serversync.broker;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, least recently used cache of broker values, kept correct by the invalidations of the broker
+ * rather than by expiry: an entry stays until its key is modified, or until it is evicted.
+ *
+ * <p>A value read from the broker can be invalidated while the read is in flight. Loads are therefore announced
+ * with {@link #beginLoad(String)}, which stores a marker, and their value is only stored if no invalidation
+ * removed the marker in between.</p>
+ *
+ * <p>While the invalidations are not received, for example while reconnecting, the cache is inactive: it is empty
+ * and stores nothing, so stale values are never served.</p>
+ *
+ * @param <V> The type of the cached values.
+ * @version 1.0-BETA
+ */
+public final class TrackingCache<V> {
+
+    private final int maxEntries;
+    private final Map<String, Object> entries;
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder(), evictions = new LongAdder();
+    private boolean active;
+
+    TrackingCache(final int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, Object>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Object> eldest) {
+                if (size() <= TrackingCache.this.maxEntries) return false;
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Retrieves a cached value.
+     *
+     * @param key The key of the value.
+     * @return The value, or null if it is not cached.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V get(final String key) {
+        final Object value = entries.get(key);
+        if (value == null || value instanceof LoadMarker) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return (V) value;
+    }
+
+    /**
+     * Announces that a value is being read from the broker.
+     *
+     * @param key The key of the value.
+     * @return The marker to complete the load with, null if the cache is inactive.
+     */
+    synchronized Object beginLoad(final String key) {
+        if (!active) return null;
+        final LoadMarker marker = new LoadMarker();
+        entries.put(key, marker);
+        return marker;
+    }
+
+    /**
+     * Stores a value read from the broker, unless it has been invalidated since the load began.
+     *
+     * @param key    The key of the value.
+     * @param marker The marker returned when the load began.
+     * @param value  The value read.
+     */
+    synchronized void completeLoad(final String key,
+                                   final Object marker,
+                                   final V value) {
+        if (marker == null) return;
+        if (entries.get(key) == marker) entries.put(key, value);
+    }
+
+    /**
+     * Removes the value of a key modified in the broker.
+     *
+     * @param key The modified key.
+     */
+    synchronized void invalidate(final String key) {
+        if (entries.remove(key) != null) invalidations.increment();
+    }
+
+    /**
+     * Removes every value, when the broker asks for it or when invalidations may have been missed.
+     */
+    synchronized void invalidateAll() {
+        invalidations.add(entries.size());
+        entries.clear();
+    }
+
+    /**
+     * Sets if invalidations are received, the cache is emptied whenever it changes.
+     *
+     * @param active If the invalidations are received.
+     */
+    synchronized void setActive(final boolean active) {
+        this.active = active;
+        entries.clear();
+    }
+
+    /**
+     * Checks if the invalidations are received, values are only cached while they are.
+     *
+     * @return If the cache is active.
+     */
+    public synchronized boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Retrieves the amount of cached values.
+     *
+     * @return The cache size.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Retrieves the maximum amount of cached values, the least recently used ones are evicted beyond it.
+     *
+     * @return The maximum cache size.
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Retrieves the amount of lookups answered from the cache.
+     *
+     * @return The amount of hits.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Retrieves the amount of lookups which had to read the broker.
+     *
+     * @return The amount of misses.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Retrieves the share of the lookups answered from the cache.
+     *
+     * @return The hit ratio between 0 and 1, zero if nothing was looked up.
+     */
+    public double getHitRatio() {
+        final long hitCount = hits.sum(), total = hitCount + misses.sum();
+        return total == 0L ? 0D : (double) hitCount / total;
+    }
+
+    /**
+     * Retrieves the share of the lookups which had to read the broker.
+     *
+     * @return The miss ratio between 0 and 1, zero if nothing was looked up.
+     */
+    public double getMissRatio() {
+        final long missCount = misses.sum(), total = hits.sum() + missCount;
+        return total == 0L ? 0D : (double) missCount / total;
+    }
+
+    /**
+     * Retrieves the amount of values removed because their key was modified.
+     *
+     * @return The amount of invalidations.
+     */
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    /**
+     * Retrieves the amount of values evicted because the cache was full.
+     *
+     * @return The amount of evictions.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size() + "/" + maxEntries
+                + ", hits=" + String.format("%.1f", getHitRatio() * 100D) + "%"
+                + ", invalidations=" + getInvalidations()
+                + ", evictions=" + getEvictions();
+    }
+
+    /**
+     * Marks a key whose value is being read from the broker.
+     */
+    private static final class LoadMarker {
+    }
+}
@@ -30,6 +30,8 @@ package me.akraml.serversync.connection;
 public enum ConnectionType {
 
     REDIS,
-    RABBITMQ
+    RABBITMQ,
+    DIRECT,
+    GOSSIP
 
 }
\ No newline at end of file
@@ -61,6 +61,16 @@ public final class ConnectionCredentials {
         return typeClass.cast(keyObject);
     }
 
+    /**
+     * Checks if a value is associated with the specified key.
+     *
+     * @param key The key of the property.
+     * @return If the key is present in the credentials.
+     */
+    public boolean hasProperty(final CredentialsKey key) {
+        return keyMap.containsKey(key);
+    }
+
     /**
      * Creates a new instance of the ConnectionCredentials.Builder.
      *
@@ -40,7 +40,10 @@ public enum RedisCredentialsKeys implements CredentialsKey {
     MIN_IDLE("minIdle"),
     MIN_EVICTABLE_IDLE_TIME("minEvictableIdleTime"),
     TIME_BETWEEN_EVICTION_RUNS("timeBetweenEvictionRuns"),
-    BLOCK_WHEN_EXHAUSTED("blockWhenExhausted");
+    BLOCK_WHEN_EXHAUSTED("blockWhenExhausted"),
+    CLUSTER_NODES("clusterNodes"),
+    CLUSTER_SHARDS("clusterShards"),
+    TOPOLOGY_REFRESH_PERIOD("topologyRefreshPeriod");
 
     private final String keyName;
 
@@ -0,0 +1,170 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.event;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous dispatcher of {@link SyncEvent}s.
+ *
+ * <p>Each registered listener has its own bounded queue, drained by its own consumer thread, so listeners receive
+ * the events in the order they have been posted and a slow listener only delays itself. Posting never blocks: if
+ * the queue of a listener is full, the event is dropped for that listener only and the drop is accounted for in
+ * its registration, this guarantees that slow listeners can never slow down the thread which applies
+ * synchronization messages.</p>
+ *
+ * <p>Consumer threads are only started when listeners are registered, so the bus costs nothing when no plugin is
+ * interested in events.</p>
+ *
+ * @version 1.0-BETA
+ */
+public final class EventBus {
+
+    /** Default capacity of the queue of each listener. */
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    private final int capacity;
+    private final List<ListenerRegistration<?>> registrations = new CopyOnWriteArrayList<>();
+    private final AtomicLong posted = new AtomicLong(), dropped = new AtomicLong();
+    private volatile boolean running = true;
+
+    /**
+     * Constructs a new event bus with the default capacity.
+     */
+    public EventBus() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs a new event bus.
+     *
+     * @param capacity Maximum amount of pending events of each listener before new ones get dropped.
+     */
+    public EventBus(final int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+    }
+
+    /**
+     * Registers a listener for the provided event type and its subtypes.
+     *
+     * @param eventType The class of the events to listen to.
+     * @param listener  The listener to invoke.
+     * @param <E>       Type of the event.
+     * @return The registration handle, which exposes delivery metrics and allows un-registering the listener.
+     */
+    public synchronized <E extends SyncEvent> ListenerRegistration<E> register(final Class<E> eventType,
+                                                                                final SyncEventListener<? super E> listener) {
+        final ListenerRegistration<E> registration = new ListenerRegistration<>(this, eventType, listener, capacity);
+        if (running) {
+            registrations.add(registration);
+            registration.start();
+        }
+        return registration;
+    }
+
+    /**
+     * Removes a previously registered listener, its pending events are discarded.
+     *
+     * @param registration The registration to remove.
+     */
+    public void unregister(final ListenerRegistration<?> registration) {
+        if (registrations.remove(registration)) registration.stop();
+    }
+
+    /**
+     * Posts an event to be dispatched asynchronously. This method never blocks.
+     *
+     * @param event The event to dispatch.
+     * @return {@code true} if the event has been queued for every listener interested in it, {@code false} if it
+     * was dropped for at least one of them or nobody listens to it.
+     */
+    public boolean post(final SyncEvent event) {
+        if (!running || registrations.isEmpty()) return false;
+        posted.incrementAndGet();
+        boolean queued = false, complete = true;
+        for (final ListenerRegistration<?> registration : registrations) {
+            if (!registration.accepts(event)) continue;
+            if (registration.offer(event)) {
+                queued = true;
+            } else {
+                complete = false;
+            }
+        }
+        if (!complete) dropped.incrementAndGet();
+        return queued && complete;
+    }
+
+    /**
+     * Stops the consumer threads, pending events are discarded.
+     */
+    public synchronized void shutdown() {
+        running = false;
+        for (final ListenerRegistration<?> registration : registrations) registration.stop();
+        registrations.clear();
+    }
+
+    /**
+     * Retrieves the amount of events currently waiting in the queues of the listeners.
+     *
+     * @return Pending events count.
+     */
+    public int getPendingEvents() {
+        int pending = 0;
+        for (final ListenerRegistration<?> registration : registrations) pending += registration.getPendingCount();
+        return pending;
+    }
+
+    /**
+     * Retrieves the total amount of posted events while at least one listener was registered.
+     *
+     * @return Posted events count.
+     */
+    public long getPostedEvents() {
+        return posted.get();
+    }
+
+    /**
+     * Retrieves the amount of events dropped for at least one listener because its queue was full.
+     *
+     * @return Dropped events count.
+     */
+    public long getDroppedEvents() {
+        return dropped.get();
+    }
+
+    /**
+     * Retrieves an immutable view of the current listener registrations.
+     *
+     * @return Current registrations.
+     */
+    public List<ListenerRegistration<?>> getRegistrations() {
+        return Collections.unmodifiableList(registrations);
+    }
+
+}
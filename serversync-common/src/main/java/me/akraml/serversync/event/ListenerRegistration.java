@@ -0,0 +1,187 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.event;
+
+import me.akraml.serversync.metrics.LatencyHistogram;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A handle returned by {@link EventBus#register(Class, SyncEventListener)}.
+ * It owns the queue and the consumer thread of a single listener, and keeps track of its delivery metrics: how
+ * many events it handled, how many it failed on, how many it missed because its queue was full, and the latency
+ * between the event creation and the moment the listener finished handling it.
+ *
+ * @param <E> The type of the event being listened to.
+ */
+public final class ListenerRegistration<E extends SyncEvent> {
+
+    private static final long POLL_TIMEOUT_MILLIS = 500L;
+
+    private final EventBus eventBus;
+    private final Class<E> eventType;
+    private final SyncEventListener<? super E> listener;
+    private final BlockingQueue<SyncEvent> queue;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong delivered = new AtomicLong(),
+            failed = new AtomicLong(),
+            dropped = new AtomicLong();
+    private volatile boolean running;
+
+    ListenerRegistration(final EventBus eventBus,
+                         final Class<E> eventType,
+                         final SyncEventListener<? super E> listener,
+                         final int capacity) {
+        this.eventBus = eventBus;
+        this.eventType = eventType;
+        this.listener = listener;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    boolean accepts(final SyncEvent event) {
+        return eventType.isInstance(event);
+    }
+
+    /**
+     * Queues an event for the listener, or drops it if the queue is full.
+     *
+     * @return True if the event has been queued.
+     */
+    boolean offer(final SyncEvent event) {
+        if (queue.offer(event)) return true;
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    void start() {
+        running = true;
+        final Thread thread = new Thread(this::consume, "ServerSync-EventBus-" + eventType.getSimpleName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        queue.clear();
+    }
+
+    private void consume() {
+        while (running) {
+            final SyncEvent event;
+            try {
+                event = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (event != null && running) dispatch(event);
+        }
+    }
+
+    private void dispatch(final SyncEvent event) {
+        try {
+            listener.handle(eventType.cast(event));
+            delivered.incrementAndGet();
+        } catch (final Throwable throwable) {
+            failed.incrementAndGet();
+            throwable.printStackTrace(System.err);
+        } finally {
+            latency.recordNanos(System.nanoTime() - event.getCreatedNanos());
+        }
+    }
+
+    /**
+     * Un-registers the listener from the event bus.
+     */
+    public void unregister() {
+        eventBus.unregister(this);
+    }
+
+    /**
+     * Retrieves the event type this listener is registered for.
+     *
+     * @return The event class.
+     */
+    public Class<E> getEventType() {
+        return eventType;
+    }
+
+    /**
+     * Retrieves the latency histogram between the creation of events and the end of their handling.
+     *
+     * @return Latency histogram of this listener.
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Retrieves the amount of events successfully handled by the listener.
+     *
+     * @return Delivered events count.
+     */
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    /**
+     * Retrieves the amount of events for which the listener has thrown an exception.
+     *
+     * @return Failed events count.
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Retrieves the amount of events waiting to be handled by the listener.
+     *
+     * @return Pending events count.
+     */
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * Retrieves the amount of events the listener missed because its queue was full.
+     *
+     * @return Dropped events count.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ListenerRegistration{type=" + eventType.getSimpleName()
+                + ", delivered=" + getDeliveredCount()
+                + ", failed=" + getFailedCount()
+                + ", dropped=" + getDroppedCount()
+                + ", latency=[" + latency + "]}";
+    }
+}
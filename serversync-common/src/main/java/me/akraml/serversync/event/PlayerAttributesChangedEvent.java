@@ -0,0 +1,67 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package me.akraml.serversync.event;
+
+import lombok.Getter;
+import me.akraml.serversync.player.PlayerAttribute;
+import me.akraml.serversync.player.SyncPlayer;
+import me.akraml.serversync.server.Server;
+
+import java.util.Objects;
+
+/**
+ * Called when attributes of a player, such as the ping or the world, change on the server the player is on.
+ */
+@Getter
+public final class PlayerAttributesChangedEvent extends SyncEvent {
+
+    /** The player, carrying the new attributes. */
+    private final SyncPlayer player;
+
+    /** The player, carrying the attributes before the change. */
+    private final SyncPlayer previous;
+
+    /** The server the player is on. */
+    private final Server server;
+
+    public PlayerAttributesChangedEvent(final SyncPlayer player,
+                                        final SyncPlayer previous,
+                                        final Server server) {
+        this.player = player;
+        this.previous = previous;
+        this.server = server;
+    }
+
+    /**
+     * Checks if an attribute has been changed.
+     *
+     * @param attribute The attribute.
+     * @return If the value of the attribute differs from the previous one.
+     */
+    public boolean changed(final PlayerAttribute<?> attribute) {
+        return !Objects.equals(player.getAttribute(attribute), previous.getAttribute(attribute));
+    }
+}
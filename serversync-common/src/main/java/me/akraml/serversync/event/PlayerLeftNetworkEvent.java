@@ -0,0 +1,50 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.event;
+
+import lombok.Getter;
+import me.akraml.serversync.player.SyncPlayer;
+import me.akraml.serversync.server.Server;
+
+/**
+ * Called when a player is no longer present on any synchronized server, either because they quit
+ * or because the server they were on has been removed. Quits are reported once the player did not join another
+ * server within the switch window of the servers manager, see {@link PlayerSwitchedServerEvent}.
+ */
+@Getter
+public final class PlayerLeftNetworkEvent extends SyncEvent {
+
+    /** The player who left. */
+    private final SyncPlayer player;
+
+    /** The last server the player was seen on. */
+    private final Server server;
+
+    public PlayerLeftNetworkEvent(final SyncPlayer player,
+                                  final Server server) {
+        this.player = player;
+        this.server = server;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.event;
+
+import lombok.Getter;
+import me.akraml.serversync.player.SyncPlayer;
+import me.akraml.serversync.server.Server;
+
+/**
+ * Called when a player appears on a server while still being known on another one.
+ *
+ * <p>Join and quit updates of different servers are not ordered between each other, so a quit is only reported
+ * once the player did not join another server within the switch window of the servers manager. A switch is
+ * detected whichever server reports first, as long as the join comes within the window. Otherwise, a
+ * {@link PlayerLeftNetworkEvent} followed by a {@link PlayerJoinedNetworkEvent} is fired.</p>
+ */
+@Getter
+public final class PlayerSwitchedServerEvent extends SyncEvent {
+
+    /** The player who switched servers. */
+    private final SyncPlayer player;
+
+    /** The server the player was previously on. */
+    private final Server from;
+
+    /** The server the player is now on. */
+    private final Server to;
+
+    public PlayerSwitchedServerEvent(final SyncPlayer player,
+                                     final Server from,
+                                     final Server to) {
+        this.player = player;
+        this.from = from;
+        this.to = to;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.event;
+
+/**
+ * Base class of every event dispatched through the {@link EventBus}.
+ * Events are immutable and are delivered to listeners asynchronously on the bus consumer threads.
+ *
+ * @version 1.0-BETA
+ */
+public abstract class SyncEvent {
+
+    /** The time in milliseconds at which the event has been created. */
+    private final long timestamp = System.currentTimeMillis();
+
+    /** The monotonic time in nanoseconds at which the event has been created, used for latency metrics. */
+    private final long createdNanos = System.nanoTime();
+
+    /**
+     * Retrieves the time at which this event has been created.
+     *
+     * @return Creation timestamp in milliseconds.
+     */
+    public final long getTimestamp() {
+        return timestamp;
+    }
+
+    final long getCreatedNanos() {
+        return createdNanos;
+    }
+}
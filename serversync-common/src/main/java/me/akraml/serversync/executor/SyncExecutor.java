@@ -0,0 +1,248 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.executor;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Executes every blocking task of ServerSync (broker I/O, subscriptions, expiry sweeps and heartbeats)
+ * away from the shared {@link ForkJoinPool#commonPool()}, so blocking calls can never starve other plugins.
+ *
+ * <p>Depending on the {@link ExecutionMode}, tasks run either on virtual threads (Java 21+) or on a bounded pool
+ * of platform threads. Virtual threads are looked up reflectively because the common module targets Java 8.
+ * Delayed and periodic tasks are timed by a single scheduler thread, which only hands them off to the workers.</p>
+ *
+ * @version 1.0-BETA
+ */
+public final class SyncExecutor {
+
+    private final String name;
+    private final boolean virtual;
+    private final ExecutorService workers;
+    private final ThreadFactory threadFactory;
+    private final ScheduledExecutorService scheduler;
+
+    private SyncExecutor(final String name,
+                         final boolean virtual,
+                         final ExecutorService workers,
+                         final ThreadFactory threadFactory) {
+        this.name = name;
+        this.virtual = virtual;
+        this.workers = workers;
+        this.threadFactory = threadFactory;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(platformFactory(name + "-Scheduler"));
+    }
+
+    /**
+     * Creates a new executor.
+     *
+     * @param name            Prefix of the created threads' names.
+     * @param mode            The threading mode to use.
+     * @param platformThreads Maximum amount of platform threads when virtual threads are not used.
+     * @return A new executor instance.
+     * @throws IllegalStateException if {@link ExecutionMode#VIRTUAL} is requested on a JVM without virtual threads.
+     */
+    public static SyncExecutor create(final String name,
+                                      final ExecutionMode mode,
+                                      final int platformThreads) {
+        if (mode != ExecutionMode.PLATFORM) {
+            final ThreadFactory virtualFactory = virtualFactory(name);
+            if (virtualFactory != null) {
+                return new SyncExecutor(name, true, newThreadPerTaskExecutor(virtualFactory), virtualFactory);
+            }
+            if (mode == ExecutionMode.VIRTUAL) {
+                throw new IllegalStateException("Virtual threads are not supported by the running JVM");
+            }
+        }
+        final int threads = Math.max(1, platformThreads);
+        final ThreadFactory factory = platformFactory(name);
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                threads, threads,
+                60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                factory
+        );
+        pool.allowCoreThreadTimeOut(true);
+        return new SyncExecutor(name, false, pool, factory);
+    }
+
+    /**
+     * Checks if the tasks of this executor run on virtual threads.
+     *
+     * @return If virtual threads are used.
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Executes the provided task asynchronously.
+     *
+     * @param task Task to execute.
+     */
+    public void execute(final Runnable task) {
+        workers.execute(task);
+    }
+
+    /**
+     * Executes the provided task asynchronously.
+     *
+     * @param task Task to execute.
+     * @return A future completed once the task has been executed.
+     */
+    public CompletableFuture<Void> runAsync(final Runnable task) {
+        return CompletableFuture.runAsync(task, workers);
+    }
+
+    /**
+     * Executes the provided supplier asynchronously.
+     *
+     * @param supplier Supplier to execute.
+     * @param <T>      Type of the supplied value.
+     * @return A future completed with the supplied value.
+     */
+    public <T> CompletableFuture<T> supplyAsync(final Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(supplier, workers);
+    }
+
+    /**
+     * Starts a long-running task, such as a subscription loop, on its own thread so it never
+     * occupies one of the bounded pool workers.
+     *
+     * @param taskName Name of the task, appended to the thread name.
+     * @param task     Task to run.
+     * @return The started thread.
+     */
+    public Thread startLongRunning(final String taskName,
+                                   final Runnable task) {
+        final Thread thread = virtual ? threadFactory.newThread(task) : new Thread(task);
+        thread.setName(name + "-" + taskName);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Executes the provided task once after the given delay.
+     *
+     * @param task  Task to execute.
+     * @param delay Delay before execution.
+     * @param unit  Unit of the delay.
+     * @return A future which can be used to cancel the task.
+     */
+    public ScheduledFuture<?> schedule(final Runnable task,
+                                       final long delay,
+                                       final TimeUnit unit) {
+        return scheduler.schedule(() -> execute(task), delay, unit);
+    }
+
+    /**
+     * Executes the provided task periodically. A run is skipped if the previous one is still in progress,
+     * so slow runs never pile up on the workers.
+     *
+     * @param task         Task to execute.
+     * @param initialDelay Delay before the first execution.
+     * @param period       Period between executions.
+     * @param unit         Unit of the delay and period.
+     * @return A future which can be used to cancel the task.
+     */
+    public ScheduledFuture<?> scheduleAtFixedRate(final Runnable task,
+                                                  final long initialDelay,
+                                                  final long period,
+                                                  final TimeUnit unit) {
+        final AtomicBoolean running = new AtomicBoolean();
+        return scheduler.scheduleAtFixedRate(() -> {
+            if (!running.compareAndSet(false, true)) return;
+            try {
+                execute(() -> {
+                    try {
+                        task.run();
+                    } catch (final Throwable throwable) {
+                        throwable.printStackTrace(System.err);
+                    } finally {
+                        running.set(false);
+                    }
+                });
+            } catch (final RejectedExecutionException exception) {
+                running.set(false);
+            }
+        }, initialDelay, period, unit);
+    }
+
+    /**
+     * Stops accepting new tasks and waits shortly for the running ones to finish.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(5L, TimeUnit.SECONDS)) workers.shutdownNow();
+        } catch (final InterruptedException exception) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ThreadFactory platformFactory(final String name) {
+        final AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, name + "-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Creates a virtual threads factory through reflection, as the API is only available since Java 21.
+     *
+     * @param name Prefix of the created threads' names.
+     * @return The factory, or null if virtual threads are not available.
+     */
+    private static ThreadFactory virtualFactory(final String name) {
+        try {
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            final Object namedBuilder = builderClass.getMethod("name", String.class, long.class)
+                    .invoke(builder, name + "-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(namedBuilder);
+        } catch (final Throwable throwable) {
+            // Either not Java 21+, or virtual threads are a disabled preview feature.
+            return null;
+        }
+    }
+
+    private static ExecutorService newThreadPerTaskExecutor(final ThreadFactory factory) {
+        try {
+            final Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) method.invoke(null, factory);
+        } catch (final ReflectiveOperationException exception) {
+            throw new IllegalStateException("Unable to create a virtual threads executor", exception);
+        }
+    }
+}
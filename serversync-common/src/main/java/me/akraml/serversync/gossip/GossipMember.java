@@ -0,0 +1,112 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.gossip;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import me.akraml.serversync.server.ServerLoad;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+
+/**
+ * An immutable view of a member of the gossip membership, as known by the local node.
+ * Every state change creates a new instance, so instances can be freely shared between threads.
+ *
+ * <p>Members hosting a spigot server also carry the server information and a digest of its players set;
+ * proxies only take part in the failure detection and have no server attached.</p>
+ *
+ * @version 1.0-BETA
+ */
+@Getter
+@RequiredArgsConstructor
+public final class GossipMember {
+
+    /** Unique identifier of the member in the network. */
+    private final String id;
+
+    /** Address the member receives gossip packets on. */
+    private final InetSocketAddress address;
+
+    /** Version of the member state, only the member itself can increase it when it is alive. */
+    private final long incarnation;
+
+    /** The state of the member. */
+    private final MemberState state;
+
+    /** The time in milliseconds since which the member is in its current state. */
+    private final long stateSince;
+
+    /** The name of the hosted server, null if the member is a proxy. */
+    private final String serverName;
+
+    /** The address of the hosted server. */
+    private final String serverIp;
+
+    /** The port of the hosted server. */
+    private final int serverPort;
+
+    /** The group of the hosted server, null if it has none. */
+    private final String group;
+
+    /** The tags of the hosted server. */
+    private final Map<String, String> tags;
+
+    /** The maximum amount of players of the hosted server. */
+    private final int maxPlayers;
+
+    /** Digest of the players set of the hosted server, used to detect changes without exchanging it. */
+    private final long playersDigest;
+
+    /** The amount of players of the hosted server. */
+    private final int playersCount;
+
+    /** The latest load sample of the hosted server, null if it has not reported any. */
+    private final ServerLoad load;
+
+    /**
+     * Checks if the member hosts a spigot server.
+     *
+     * @return If a server is attached to the member.
+     */
+    public boolean hasServer() {
+        return serverName != null;
+    }
+
+    /**
+     * Creates a copy of this member in another state.
+     *
+     * @param state       The new state.
+     * @param incarnation The incarnation of the new state.
+     * @param since       The time in milliseconds since which the member is in the new state.
+     * @return The new member instance.
+     */
+    public GossipMember withState(final MemberState state,
+                                  final long incarnation,
+                                  final long since) {
+        return new GossipMember(id, address, incarnation, state, since,
+                serverName, serverIp, serverPort, group, tags, maxPlayers, playersDigest, playersCount, load);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lightweight, lock-free latency histogram using power-of-two microsecond buckets.
+ * Recording a value is a couple of atomic increments, which makes it cheap enough to be used
+ * on hot paths such as message handling and event dispatching.
+ *
+ * <p>Percentiles are approximated by the upper bound of the bucket they fall in, so the reported
+ * values are never lower than the real ones.</p>
+ *
+ * @version 1.0-BETA
+ */
+public final class LatencyHistogram {
+
+    /** Bucket {@code i} holds values in the range [2^(i-1), 2^i) microseconds, bucket 0 holds zero. */
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * Records a latency value expressed in nanoseconds.
+     *
+     * @param nanos The latency to record, negative values are clamped to zero.
+     */
+    public void recordNanos(final long nanos) {
+        recordMicros(TimeUnit.NANOSECONDS.toMicros(Math.max(0L, nanos)));
+    }
+
+    /**
+     * Records a latency value expressed in milliseconds.
+     *
+     * @param millis The latency to record, negative values are clamped to zero.
+     */
+    public void recordMillis(final long millis) {
+        recordMicros(TimeUnit.MILLISECONDS.toMicros(Math.max(0L, millis)));
+    }
+
+    /**
+     * Records a latency value expressed in microseconds.
+     *
+     * @param micros The latency to record, negative values are clamped to zero.
+     */
+    public void recordMicros(final long micros) {
+        final long value = Math.max(0L, micros);
+        final int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+        buckets.incrementAndGet(bucket);
+        count.increment();
+        totalMicros.add(value);
+        long currentMax;
+        while (value > (currentMax = maxMicros.get())) {
+            if (maxMicros.compareAndSet(currentMax, value)) break;
+        }
+    }
+
+    /**
+     * Retrieves the amount of recorded values.
+     *
+     * @return Amount of recorded values.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Retrieves the mean of the recorded values in microseconds.
+     *
+     * @return Mean latency in microseconds, zero if nothing was recorded.
+     */
+    public double getMeanMicros() {
+        final long samples = count.sum();
+        return samples == 0 ? 0D : (double) totalMicros.sum() / samples;
+    }
+
+    /**
+     * Retrieves the highest recorded value in microseconds.
+     *
+     * @return Maximum latency in microseconds.
+     */
+    public long getMaxMicros() {
+        return maxMicros.get();
+    }
+
+    /**
+     * Approximates the given percentile of the recorded values.
+     *
+     * @param percentile Percentile to compute, between 0 and 100.
+     * @return The upper bound in microseconds of the bucket containing the percentile.
+     */
+    public long getPercentileMicros(final double percentile) {
+        final long samples = count.sum();
+        if (samples == 0) return 0L;
+        final long threshold = (long) Math.ceil(samples * Math.min(100D, Math.max(0D, percentile)) / 100D);
+        long seen = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= threshold) {
+                return Math.min(i == 0 ? 0L : (1L << i) - 1, maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+
+    /**
+     * Clears every recorded value.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) buckets.set(i, 0L);
+        count.reset();
+        totalMicros.reset();
+        maxMicros.set(0L);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount()
+                + ", mean=" + String.format("%.1f", getMeanMicros()) + "us"
+                + ", p50=" + getPercentileMicros(50) + "us"
+                + ", p99=" + getPercentileMicros(99) + "us"
+                + ", max=" + getMaxMicros() + "us";
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Records the delay between the publication of messages on a node and their application on another one,
+ * in a histogram per message type, and logs the stages of a sample of the messages.
+ *
+ * <p>Publication times are read from the wall clock of the publishing node, so the recorded delays include
+ * the clock skew between both nodes. In {@link ClockMode#SKEW_TOLERANT} mode, the smallest delay recently seen
+ * from each origin is taken as its baseline and only the delay above it is recorded. The skew cancels out,
+ * at the cost of the constant transit time which is excluded as well, so the histograms show queueing and
+ * processing delays only.</p>
+ *
+ * @version 1.0-BETA
+ */
+public final class LatencyTracer {
+
+    /** Duration of a baseline window, the baseline is the minimum of the current and previous windows. */
+    private static final long BASELINE_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, Baseline> baselines = new ConcurrentHashMap<>();
+    private final AtomicLong nextTraceId = new AtomicLong();
+    private volatile ClockMode clockMode = ClockMode.WALL_CLOCK;
+    private volatile double sampleRate;
+    private volatile Consumer<String> traceSink;
+
+    /**
+     * Configures the tracer.
+     *
+     * @param clockMode  How publication times are compared to the local clock.
+     * @param sampleRate Share of the published messages whose stages are logged, between 0 and 1.
+     * @param traceSink  Receives the stages log lines, such as a plugin logger.
+     */
+    public void configure(final ClockMode clockMode,
+                          final double sampleRate,
+                          final Consumer<String> traceSink) {
+        this.clockMode = clockMode;
+        this.sampleRate = Math.max(0D, Math.min(1D, sampleRate));
+        this.traceSink = traceSink;
+    }
+
+    /**
+     * Retrieves the publish-to-apply latency of a message type.
+     *
+     * @param type The message type.
+     * @return The latency histogram of the type, empty if no such message has been applied.
+     */
+    public LatencyHistogram getLatency(final String type) {
+        return histograms.computeIfAbsent(type, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Retrieves the publish-to-apply latency of every message type applied so far.
+     *
+     * @return An unmodifiable map of the histograms by message type.
+     */
+    public Map<String, LatencyHistogram> getLatencies() {
+        return Collections.unmodifiableMap(histograms);
+    }
+
+    /**
+     * Records the latency of an applied message.
+     *
+     * @param type          The message type.
+     * @param origin        The node which published the message.
+     * @param sentAtMillis  The wall clock time of the publication on the origin.
+     * @param appliedMillis The wall clock time of the application on this node.
+     * @return The recorded latency in milliseconds.
+     */
+    public long record(final String type,
+                       final String origin,
+                       final long sentAtMillis,
+                       final long appliedMillis) {
+        long latency = appliedMillis - sentAtMillis;
+        if (clockMode == ClockMode.SKEW_TOLERANT) {
+            latency -= baselines.computeIfAbsent(origin, key -> new Baseline()).update(latency, appliedMillis);
+        }
+        latency = Math.max(0L, latency);
+        getLatency(type).recordMillis(latency);
+        return latency;
+    }
+
+    /**
+     * Decides if a message being published has its stages traced.
+     *
+     * @return A new trace identifier, or null if the message is not sampled.
+     */
+    public String sample() {
+        final double rate = sampleRate;
+        if (rate <= 0D || traceSink == null || ThreadLocalRandom.current().nextDouble() >= rate) return null;
+        return Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36) + "-" + nextTraceId.incrementAndGet();
+    }
+
+    /**
+     * Logs the stages of a traced message.
+     *
+     * @param line The log line.
+     */
+    public void trace(final String line) {
+        final Consumer<String> sink = traceSink;
+        if (sink != null) sink.accept("[trace] " + line);
+    }
+
+    /**
+     * Formats a duration for the trace logs.
+     *
+     * @param nanos The duration in nanoseconds.
+     * @return The formatted duration.
+     */
+    public static String formatNanos(final long nanos) {
+        return nanos >= 1_000_000L ? String.format("%.1fms", nanos / 1_000_000D) : (nanos / 1_000L) + "us";
+    }
+
+    /**
+     * Holds the available clock modes of the {@link LatencyTracer}.
+     *
+     * <ul>
+     *     <li>{@link #WALL_CLOCK} - Compares the wall clocks of both nodes, which must be synchronized.</li>
+     *     <li>{@link #SKEW_TOLERANT} - Records the delays above the smallest one recently seen from each origin.</li>
+     * </ul>
+     */
+    public enum ClockMode {
+
+        WALL_CLOCK,
+        SKEW_TOLERANT
+
+    }
+
+    /**
+     * The smallest delay seen from an origin over the current and previous windows.
+     */
+    private static final class Baseline {
+
+        private long current = Long.MAX_VALUE, previous = Long.MAX_VALUE, windowStart;
+
+        private synchronized long update(final long delay,
+                                         final long now) {
+            if (now - windowStart >= BASELINE_WINDOW_MILLIS) {
+                previous = current;
+                current = Long.MAX_VALUE;
+                windowStart = now;
+            }
+            current = Math.min(current, delay);
+            return Math.min(current, previous);
+        }
+    }
+}
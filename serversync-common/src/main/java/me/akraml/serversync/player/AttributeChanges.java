@@ -0,0 +1,203 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package me.akraml.serversync.player;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+
+import java.util.Arrays;
+
+/**
+ * A set of changed attributes of a {@link SyncPlayer}. The changed attributes are selected by a bit mask, and only
+ * their values are carried, so an update of a single attribute such as the ping costs a few bytes.
+ *
+ * <p>Changes are encoded as a JSON array starting with the mask, followed by the values of the changed attributes
+ * ordered by identifier. A null value removes the attribute.</p>
+ *
+ * @version 1.0-BETA
+ */
+public final class AttributeChanges {
+
+    /** Changes of no attribute. */
+    public static final AttributeChanges NONE = new AttributeChanges(0L, new Object[0]);
+
+    /** Bits of the changed attributes. */
+    private final long mask;
+
+    /** Values of the changed attributes, ordered by identifier, null for the removed ones. */
+    private final Object[] values;
+
+    AttributeChanges(final long mask,
+                     final Object[] values) {
+        this.mask = mask;
+        this.values = values;
+    }
+
+    /**
+     * Retrieves the mask of the changed attributes, where the bit of each changed attribute is set.
+     *
+     * @return The changes mask.
+     */
+    public long getMask() {
+        return mask;
+    }
+
+    /**
+     * Checks if no attribute changed.
+     *
+     * @return If the changes are empty.
+     */
+    public boolean isEmpty() {
+        return mask == 0L;
+    }
+
+    /**
+     * Checks if an attribute is part of these changes.
+     *
+     * @param attribute The attribute.
+     * @return If the attribute changed.
+     */
+    public boolean contains(final PlayerAttribute<?> attribute) {
+        return (mask & (1L << attribute.getId())) != 0L;
+    }
+
+    Object[] getValues() {
+        return values;
+    }
+
+    /**
+     * Encodes these changes as a JSON array: the mask, then the values of the changed attributes.
+     *
+     * @return The encoded changes.
+     */
+    public JsonArray toJson() {
+        final JsonArray array = new JsonArray();
+        array.add(mask);
+        int index = 0;
+        for (long bits = mask; bits != 0L; bits &= bits - 1) {
+            final PlayerAttribute<?> attribute = PlayerAttribute.byId(Long.numberOfTrailingZeros(bits));
+            final Object value = values[index++];
+            array.add(attribute == null ? (JsonElement) value : attribute.encode(value));
+        }
+        return array;
+    }
+
+    /**
+     * Decodes changes encoded by {@link #toJson()}. Values of attributes which are not registered on this node
+     * are kept encoded.
+     *
+     * @param array The encoded changes.
+     * @return The decoded changes.
+     */
+    public static AttributeChanges fromJson(final JsonArray array) {
+        final long mask = array.get(0).getAsLong();
+        final Object[] values = new Object[Long.bitCount(mask)];
+        int index = 0;
+        for (long bits = mask; bits != 0L; bits &= bits - 1) {
+            final PlayerAttribute<?> attribute = PlayerAttribute.byId(Long.numberOfTrailingZeros(bits));
+            final JsonElement element = array.get(index + 1);
+            values[index++] = attribute == null ? (element.isJsonNull() ? null : element) : attribute.decode(element);
+        }
+        return new AttributeChanges(mask, values);
+    }
+
+    /**
+     * Initializes a new instance of the {@link Builder}.
+     *
+     * @return A new builder.
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    @Override
+    public String toString() {
+        return "AttributeChanges{mask=" + Long.toBinaryString(mask) + ", values=" + Arrays.toString(values) + "}";
+    }
+
+    /**
+     * Collects the changed attributes.
+     */
+    public static final class Builder {
+
+        private final Object[] values = new Object[PlayerAttribute.MAX_ATTRIBUTES];
+        private long mask;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the new value of an attribute.
+         *
+         * @param attribute The changed attribute.
+         * @param value     The new value, null to remove the attribute.
+         * @param <T>       The type of the attribute values.
+         * @return The current builder.
+         */
+        public <T> Builder set(final PlayerAttribute<T> attribute,
+                               final T value) {
+            mask |= 1L << attribute.getId();
+            values[attribute.getId()] = value;
+            return this;
+        }
+
+        /**
+         * Removes an attribute.
+         *
+         * @param attribute The removed attribute.
+         * @return The current builder.
+         */
+        public Builder remove(final PlayerAttribute<?> attribute) {
+            mask |= 1L << attribute.getId();
+            values[attribute.getId()] = null;
+            return this;
+        }
+
+        /**
+         * Checks if no attribute has been changed yet.
+         *
+         * @return If the builder is empty.
+         */
+        public boolean isEmpty() {
+            return mask == 0L;
+        }
+
+        /**
+         * Builds the changes.
+         *
+         * @return The collected changes.
+         */
+        public AttributeChanges build() {
+            if (mask == 0L) return NONE;
+            final Object[] packed = new Object[Long.bitCount(mask)];
+            int index = 0;
+            for (long bits = mask; bits != 0L; bits &= bits - 1) {
+                packed[index++] = values[Long.numberOfTrailingZeros(bits)];
+            }
+            return new AttributeChanges(mask, packed);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package me.akraml.serversync.player;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * A typed attribute of a {@link SyncPlayer}, such as its ping or current world.
+ *
+ * <p>Attributes are identified by a number between 0 and 63, which is their bit in the change masks of the
+ * attributes updates. Every node of the network must register an attribute under the same identifier, the built-in
+ * ones use the lowest identifiers and custom ones should start from {@link #FIRST_CUSTOM_ID}. A node receiving an
+ * attribute it did not register keeps its raw value, which is decoded once the attribute is looked up.</p>
+ *
+ * @param <T> The type of the attribute values: {@link Integer}, {@link Long}, {@link Double}, {@link Boolean}
+ *            or {@link String}.
+ * @version 1.0-BETA
+ */
+public final class PlayerAttribute<T> {
+
+    /** Maximum amount of attributes, as the change masks are 64 bits wide. */
+    public static final int MAX_ATTRIBUTES = Long.SIZE;
+
+    /** First identifier free for custom attributes. */
+    public static final int FIRST_CUSTOM_ID = 16;
+
+    private static final PlayerAttribute<?>[] REGISTERED = new PlayerAttribute<?>[MAX_ATTRIBUTES];
+
+    /** The latency of the player in milliseconds, as reported by its server. */
+    public static final PlayerAttribute<Integer> PING = register(0, "ping", Integer.class);
+
+    /** The name of the world the player is in. */
+    public static final PlayerAttribute<String> WORLD = register(1, "world", String.class);
+
+    /** The identifier of the party of the player, set by a party plugin. */
+    public static final PlayerAttribute<String> PARTY = register(2, "party", String.class);
+
+    /** If the player is away from keyboard, set by an AFK plugin. */
+    public static final PlayerAttribute<Boolean> AFK = register(3, "afk", Boolean.class);
+
+    private final int id;
+    private final String name;
+    private final Class<T> type;
+
+    private PlayerAttribute(final int id,
+                            final String name,
+                            final Class<T> type) {
+        this.id = id;
+        this.name = name;
+        this.type = type;
+    }
+
+    /**
+     * Registers an attribute, or retrieves it if it is already registered with the same name and type.
+     *
+     * @param id   The identifier of the attribute, between 0 and 63.
+     * @param name The name of the attribute.
+     * @param type The type of the attribute values.
+     * @param <T>  The type of the attribute values.
+     * @return The registered attribute.
+     * @throws IllegalArgumentException if the identifier or the type is not supported.
+     * @throws IllegalStateException    if another attribute is registered under this identifier.
+     */
+    @SuppressWarnings("unchecked")
+    public static synchronized <T> PlayerAttribute<T> register(final int id,
+                                                               final String name,
+                                                               final Class<T> type) {
+        if (id < 0 || id >= MAX_ATTRIBUTES) {
+            throw new IllegalArgumentException("Attribute identifiers must be between 0 and " + (MAX_ATTRIBUTES - 1));
+        }
+        if (type != Integer.class && type != Long.class && type != Double.class
+                && type != Boolean.class && type != String.class) {
+            throw new IllegalArgumentException("Unsupported attribute type " + type.getName());
+        }
+        final PlayerAttribute<?> registered = REGISTERED[id];
+        if (registered != null) {
+            if (registered.name.equals(name) && registered.type == type) return (PlayerAttribute<T>) registered;
+            throw new IllegalStateException("Attribute " + id + " is already registered as " + registered);
+        }
+        final PlayerAttribute<T> attribute = new PlayerAttribute<>(id, name, type);
+        REGISTERED[id] = attribute;
+        return attribute;
+    }
+
+    /**
+     * Retrieves the attribute registered under an identifier.
+     *
+     * @param id The identifier of the attribute.
+     * @return The attribute, or null if none is registered under this identifier.
+     */
+    public static synchronized PlayerAttribute<?> byId(final int id) {
+        return REGISTERED[id];
+    }
+
+    /**
+     * Retrieves the identifier of this attribute, which is its bit in the change masks.
+     *
+     * @return The identifier, between 0 and 63.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Retrieves the name of this attribute.
+     *
+     * @return The attribute name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Retrieves the type of the values of this attribute.
+     *
+     * @return The values type.
+     */
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * Encodes a value of this attribute.
+     *
+     * @param value The value to encode, null if the attribute is removed.
+     * @return The encoded value.
+     */
+    JsonElement encode(final Object value) {
+        if (value == null) return JsonNull.INSTANCE;
+        if (value instanceof JsonElement) return (JsonElement) value;
+        if (value instanceof Boolean) return new JsonPrimitive((Boolean) value);
+        if (value instanceof Number) return new JsonPrimitive((Number) value);
+        return new JsonPrimitive(value.toString());
+    }
+
+    /**
+     * Decodes a value of this attribute.
+     *
+     * @param element The encoded value.
+     * @return The decoded value, null if the attribute is removed.
+     */
+    T decode(final JsonElement element) {
+        if (element == null || element.isJsonNull()) return null;
+        final Object value;
+        if (type == Integer.class) {
+            value = element.getAsInt();
+        } else if (type == Long.class) {
+            value = element.getAsLong();
+        } else if (type == Double.class) {
+            value = element.getAsDouble();
+        } else if (type == Boolean.class) {
+            value = element.getAsBoolean();
+        } else {
+            value = element.getAsString();
+        }
+        return type.cast(value);
+    }
+
+    @Override
+    public String toString() {
+        return name + "#" + id + "(" + type.getSimpleName() + ")";
+    }
+}
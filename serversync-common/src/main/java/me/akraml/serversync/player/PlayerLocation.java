@@ -0,0 +1,92 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package me.akraml.serversync.player;
+
+import java.util.UUID;
+
+/**
+ * Represents where a player is connected in the network: the server it plays on, and the proxy it connected through.
+ *
+ * @version 1.0-BETA
+ */
+public final class PlayerLocation {
+
+    /** Unique identifier of the player. */
+    private final UUID uuid;
+
+    /** Name of the server the player is on, null if unknown. */
+    private final String server;
+
+    /** Name of the proxy the player is connected through, null if unknown. */
+    private final String proxy;
+
+    /**
+     * Constructs a new PlayerLocation.
+     *
+     * @param uuid   The unique identifier of the player.
+     * @param server The name of the server the player is on, null if unknown.
+     * @param proxy  The name of the proxy the player is connected through, null if unknown.
+     */
+    public PlayerLocation(final UUID uuid,
+                          final String server,
+                          final String proxy) {
+        this.uuid = uuid;
+        this.server = server;
+        this.proxy = proxy;
+    }
+
+    /**
+     * Retrieves the UUID of the player.
+     *
+     * @return The unique identifier of the player.
+     */
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    /**
+     * Retrieves the name of the server the player is on.
+     *
+     * @return The server name, null if unknown.
+     */
+    public String getServer() {
+        return server;
+    }
+
+    /**
+     * Retrieves the name of the proxy the player is connected through.
+     *
+     * @return The proxy name, null if unknown.
+     */
+    public String getProxy() {
+        return proxy;
+    }
+
+    @Override
+    public String toString() {
+        return "PlayerLocation{uuid=" + uuid + ", server=" + server + ", proxy=" + proxy + "}";
+    }
+}
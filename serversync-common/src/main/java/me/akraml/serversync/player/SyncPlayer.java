@@ -24,6 +24,9 @@
 
 package me.akraml.serversync.player;
 
+import com.google.gson.JsonElement;
+
+import java.util.Arrays;
 import java.util.UUID;
 
 /**
@@ -31,6 +34,10 @@ import java.util.UUID;
  * This class contains information about the player such as UUID and username.
  * It provides a means to uniquely identify a player and get their associated display name.
  *
+ * <p>A player also carries typed {@link PlayerAttribute attributes}, such as the ping or the world. They are stored
+ * compactly: a bit mask of the present attributes and an array holding only their values, ordered by identifier.
+ * Players are immutable, attribute changes are applied through {@link #withChanges(AttributeChanges)}.</p>
+ *
  * @version 1.0-BETA
  */
 public final class SyncPlayer {
@@ -41,6 +48,12 @@ public final class SyncPlayer {
     /** Display name or username of the player. */
     private final String username;
 
+    /** Bits of the attributes carried by the player. */
+    private final long attributesMask;
+
+    /** Values of the carried attributes, ordered by identifier. */
+    private final Object[] attributes;
+
     /**
      * Constructs a new SyncPlayer with the given UUID and username.
      *
@@ -49,8 +62,17 @@ public final class SyncPlayer {
      */
     public SyncPlayer(final UUID uuid,
                       final String username) {
+        this(uuid, username, 0L, AttributeChanges.NONE.getValues());
+    }
+
+    private SyncPlayer(final UUID uuid,
+                       final String username,
+                       final long attributesMask,
+                       final Object[] attributes) {
         this.uuid = uuid;
         this.username = username;
+        this.attributesMask = attributesMask;
+        this.attributes = attributes;
     }
 
     /**
@@ -71,4 +93,89 @@ public final class SyncPlayer {
         return username;
     }
 
+    /**
+     * Retrieves the value of an attribute of the player.
+     *
+     * @param attribute The attribute.
+     * @param <T>       The type of the attribute values.
+     * @return The value of the attribute, or null if the player doesn't carry it.
+     */
+    public <T> T getAttribute(final PlayerAttribute<T> attribute) {
+        final long bit = 1L << attribute.getId();
+        if ((attributesMask & bit) == 0L) return null;
+        final Object value = attributes[Long.bitCount(attributesMask & (bit - 1))];
+        // Values of attributes registered after the player was received are still encoded.
+        if (value instanceof JsonElement) return attribute.decode((JsonElement) value);
+        return attribute.getType().cast(value);
+    }
+
+    /**
+     * Checks if the player carries an attribute.
+     *
+     * @param attribute The attribute.
+     * @return If the attribute is present.
+     */
+    public boolean hasAttribute(final PlayerAttribute<?> attribute) {
+        return (attributesMask & (1L << attribute.getId())) != 0L;
+    }
+
+    /**
+     * Retrieves the mask of the attributes carried by the player.
+     *
+     * @return The attributes mask.
+     */
+    public long getAttributesMask() {
+        return attributesMask;
+    }
+
+    /**
+     * Retrieves every attribute of the player as changes, which can be applied to a player without attributes
+     * to restore them.
+     *
+     * @return The attributes of the player.
+     */
+    public AttributeChanges getAttributes() {
+        return attributesMask == 0L ? AttributeChanges.NONE : new AttributeChanges(attributesMask, attributes);
+    }
+
+    /**
+     * Creates a copy of this player with the provided changes applied. A null value removes its attribute.
+     *
+     * @param changes The attribute changes.
+     * @return The updated player, or this player if nothing changed.
+     */
+    public SyncPlayer withChanges(final AttributeChanges changes) {
+        if (changes.isEmpty()) return this;
+        final Object[] changedValues = changes.getValues();
+        long mask = attributesMask;
+        int changeIndex = 0;
+        for (long bits = changes.getMask(); bits != 0L; bits &= bits - 1) {
+            final long bit = bits & -bits;
+            if (changedValues[changeIndex++] == null) mask &= ~bit;
+            else mask |= bit;
+        }
+        final Object[] values = new Object[Long.bitCount(mask)];
+        int index = 0;
+        int currentIndex = 0;
+        changeIndex = 0;
+        for (long bits = mask | attributesMask | changes.getMask(); bits != 0L; bits &= bits - 1) {
+            final long bit = bits & -bits;
+            final Object current = (attributesMask & bit) != 0L ? attributes[currentIndex++] : null;
+            final Object value = (changes.getMask() & bit) != 0L ? changedValues[changeIndex++] : current;
+            if ((mask & bit) != 0L) values[index++] = value;
+        }
+        final SyncPlayer updated = new SyncPlayer(uuid, username, mask, values);
+        return attributesEqual(updated) ? this : updated;
+    }
+
+    /**
+     * Checks if another player carries the same attributes as this one.
+     *
+     * @param other The other player.
+     * @return If the attributes are equal.
+     */
+    public boolean attributesEqual(final SyncPlayer other) {
+        return attributesMask == other.attributesMask && Arrays.equals(attributes, other.attributes);
+    }
+
 }
@@ -0,0 +1,205 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package me.akraml.serversync.server;
+
+import me.akraml.serversync.player.SyncPlayer;
+
+import java.util.*;
+
+/**
+ * An immutable, versioned view of the whole registry. A new snapshot is published by the {@link ServersManager}
+ * after each batch of applied changes, sharing the copies of the servers which did not change since the previous one.
+ *
+ * <p>Reading the current snapshot is a single volatile read, so it suits readers such as scoreboards which look up
+ * the network many times per second: they never wait for the thread applying the changes, and every value they read
+ * from a snapshot belongs to the same state of the network.</p>
+ *
+ * <p>The locations of the players are split into buckets shared between versions: a new snapshot only copies the
+ * buckets holding players who joined or left the changed servers, so neither publishing nor looking up a player
+ * costs a pass over the whole network.</p>
+ *
+ * @version 1.0-BETA
+ */
+public final class NetworkSnapshot {
+
+    /** Amount of buckets the player locations are split into, a power of two. */
+    private static final int LOCATION_BUCKETS = 256;
+
+    /** The snapshot published before any change has been applied. */
+    static final NetworkSnapshot EMPTY = new NetworkSnapshot(0L, Collections.emptyMap(), 0, emptyLocations());
+
+    private final long version;
+    private final long timestamp = System.currentTimeMillis();
+    private final Map<String, ServerSnapshot> servers;
+    private final int onlinePlayersCount;
+
+    /** The name of the server of each player, by bucket. The buckets are never modified once published. */
+    private final Map<UUID, String>[] playerLocations;
+
+    private NetworkSnapshot(final long version,
+                            final Map<String, ServerSnapshot> servers,
+                            final int onlinePlayersCount,
+                            final Map<UUID, String>[] playerLocations) {
+        this.version = version;
+        this.servers = Collections.unmodifiableMap(servers);
+        this.onlinePlayersCount = onlinePlayersCount;
+        this.playerLocations = playerLocations;
+    }
+
+    /**
+     * Creates the next version of this snapshot. The player locations are updated from the players who joined or left
+     * the changed servers, the buckets of the others are shared with this snapshot.
+     *
+     * @param servers            The copies of every server.
+     * @param onlinePlayersCount The amount of online players.
+     * @param changes            The previous and new copies of each changed server, null if the server was missing.
+     * @return The next snapshot.
+     */
+    NetworkSnapshot next(final Map<String, ServerSnapshot> servers,
+                         final int onlinePlayersCount,
+                         final List<ServerSnapshot[]> changes) {
+        final Map<UUID, String>[] locations = playerLocations.clone();
+        final boolean[] copied = new boolean[LOCATION_BUCKETS];
+        for (final ServerSnapshot[] change : changes) {
+            final ServerSnapshot previous = change[0], current = change[1];
+            if (previous != null) {
+                for (final SyncPlayer player : previous.getOnlinePlayers()) {
+                    if (current != null && current.containsPlayer(player.getUuid())) continue;
+                    // Players who moved to a server handled before this one keep their new location.
+                    final int bucket = getBucket(player.getUuid());
+                    if (!previous.getName().equals(locations[bucket].get(player.getUuid()))) continue;
+                    copyBucket(locations, copied, bucket).remove(player.getUuid());
+                }
+            }
+            if (current != null) {
+                for (final SyncPlayer player : current.getOnlinePlayers()) {
+                    if (previous != null && previous.containsPlayer(player.getUuid())) continue;
+                    copyBucket(locations, copied, getBucket(player.getUuid())).put(player.getUuid(), current.getName());
+                }
+            }
+        }
+        return new NetworkSnapshot(version + 1, servers, onlinePlayersCount, locations);
+    }
+
+    /**
+     * Retrieves the version of this snapshot, incremented with every published snapshot.
+     *
+     * @return The version of this snapshot.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Retrieves the time at which this snapshot has been published.
+     *
+     * @return The publication timestamp in milliseconds.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Retrieves a server by its name.
+     *
+     * @param name The name of the server.
+     * @return The server, or null if it was not known.
+     */
+    public Server getServer(final String name) {
+        return servers.get(name);
+    }
+
+    /**
+     * Retrieves every server known when this snapshot has been published.
+     *
+     * @return An unmodifiable collection of the servers.
+     */
+    public Collection<Server> getServers() {
+        return Collections.unmodifiableCollection(servers.values());
+    }
+
+    /**
+     * Retrieves the servers matching a query. Snapshots are not indexed, so every server is checked.
+     *
+     * @param query The query to run.
+     * @return A new list of the matching servers.
+     */
+    public List<Server> findServers(final ServerQuery query) {
+        final List<Server> result = new ArrayList<>();
+        for (final ServerSnapshot server : servers.values()) {
+            if (query.matches(server)) result.add(server);
+        }
+        return result;
+    }
+
+    /**
+     * Retrieves the server the player with the provided UUID was on.
+     *
+     * @param uuid UUID of the player.
+     * @return The server of the player, or null if the player was not online in the network.
+     */
+    public Server getPlayerServer(final UUID uuid) {
+        final String name = playerLocations[getBucket(uuid)].get(uuid);
+        return name == null ? null : servers.get(name);
+    }
+
+    /**
+     * Retrieves the amount of players online in the whole network.
+     *
+     * @return The amount of online players.
+     */
+    public int getOnlinePlayersCount() {
+        return onlinePlayersCount;
+    }
+
+    Map<String, ServerSnapshot> getServerSnapshots() {
+        return servers;
+    }
+
+    private static int getBucket(final UUID uuid) {
+        return uuid.hashCode() & (LOCATION_BUCKETS - 1);
+    }
+
+    /**
+     * Copies a bucket shared with the previous snapshot before its first modification.
+     */
+    private static Map<UUID, String> copyBucket(final Map<UUID, String>[] locations,
+                                                final boolean[] copied,
+                                                final int bucket) {
+        if (!copied[bucket]) {
+            locations[bucket] = new HashMap<>(locations[bucket]);
+            copied[bucket] = true;
+        }
+        return locations[bucket];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<UUID, String>[] emptyLocations() {
+        final Map<UUID, String>[] locations = new Map[LOCATION_BUCKETS];
+        Arrays.fill(locations, Collections.emptyMap());
+        return locations;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.server;
+
+import me.akraml.serversync.event.EventBus;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A read-only view of the servers and players of the network. Lookups are served from memory,
+ * so they are cheap enough to be used on every command.
+ *
+ * <p>On proxies, the view is the registry used to route players. On spigot servers, it is an eventually
+ * consistent replica built from the messages of every server, available if the network view is enabled.</p>
+ *
+ * @version 1.0-BETA
+ */
+public interface NetworkView {
+
+    /**
+     * Retrieves a server by its name.
+     *
+     * @param name The name of the server.
+     * @return The server, or null if it is not known.
+     */
+    Server getServer(final String name);
+
+    /**
+     * Retrieves every server currently known in the network.
+     *
+     * @return An unmodifiable live view of the servers.
+     */
+    Collection<Server> getServers();
+
+    /**
+     * Retrieves the servers matching a query, such as the servers of a group with a given tag and free slots.
+     * Groups and tags are indexed, so queries on them do not scan every server.
+     *
+     * @param query The query to run.
+     * @return A new list of the matching servers.
+     */
+    List<Server> findServers(final ServerQuery query);
+
+    /**
+     * Retrieves the groups of the servers currently known in the network.
+     *
+     * @return An unmodifiable live view of the groups names.
+     */
+    Collection<String> getGroups();
+
+    /**
+     * Retrieves the server on which the player with the provided UUID is currently known to be.
+     *
+     * @param uuid UUID of the player.
+     * @return The server of the player, or null if the player is not online in the network.
+     */
+    Server getPlayerServer(final UUID uuid);
+
+    /**
+     * Retrieves the amount of players online in the whole network.
+     *
+     * @return The amount of online players.
+     */
+    int getOnlinePlayersCount();
+
+    /**
+     * Retrieves the latest immutable snapshot of this view, published after each batch of applied changes.
+     * Every value read from a snapshot belongs to the same state of the network, and reading it never locks.
+     *
+     * @return The current snapshot.
+     */
+    NetworkSnapshot getSnapshot();
+
+    /**
+     * Retrieves the event bus notifying about changes of this view.
+     *
+     * @return The event bus of this view.
+     */
+    EventBus getEventBus();
+
+}
@@ -0,0 +1,147 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.server;
+
+/**
+ * An adaptive failure detector based on the phi accrual failure detector (Hayashibara et al.).
+ * Instead of a fixed timeout, it learns the distribution of the intervals between the heartbeats of a server
+ * and expresses how likely the server is to have failed as a suspicion level, phi.
+ *
+ * <p>A phi of 1 means a 10% chance of a false detection, 2 means 1%, 3 means 0.1%, and so on. A server sending
+ * regular heartbeats is suspected quickly once it stops, while a server with jittery heartbeats gets a wider
+ * margin before reaching the same level.</p>
+ *
+ * <p>Until enough heartbeats are received, the distribution is approximated from the expected interval.</p>
+ *
+ * @version 1.0-BETA
+ */
+public final class PhiAccrualFailureDetector {
+
+    /** Default maximum amount of intervals used to estimate the distribution. */
+    public static final int DEFAULT_WINDOW_SIZE = 100;
+
+    /** Default minimum standard deviation in milliseconds, so perfectly regular heartbeats are not too strict. */
+    public static final long DEFAULT_MIN_STD_DEVIATION = 500L;
+
+    /** Default margin in milliseconds added to the expected interval, absorbing short pauses such as garbage collections. */
+    public static final long DEFAULT_ACCEPTABLE_PAUSE = 1000L;
+
+    /** Default expected interval in milliseconds before any heartbeat has been received, matching the spigot default. */
+    public static final long DEFAULT_FIRST_HEARTBEAT_ESTIMATE = 5000L;
+
+    private final long[] intervals;
+    private final long minStdDeviation;
+    private final long acceptablePause;
+    private final long firstHeartbeatEstimate;
+    private int index, size;
+    private long sum, squaresSum;
+    private long lastHeartbeat;
+
+    /**
+     * Constructs a new failure detector with the default settings, starting from the current time.
+     */
+    public PhiAccrualFailureDetector() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_MIN_STD_DEVIATION, DEFAULT_ACCEPTABLE_PAUSE,
+                DEFAULT_FIRST_HEARTBEAT_ESTIMATE, System.currentTimeMillis());
+    }
+
+    /**
+     * Constructs a new failure detector.
+     *
+     * @param windowSize             Maximum amount of intervals used to estimate the distribution.
+     * @param minStdDeviation        Minimum standard deviation in milliseconds.
+     * @param acceptablePause        Margin in milliseconds added to the expected interval.
+     * @param firstHeartbeatEstimate Expected interval in milliseconds before enough heartbeats are received.
+     * @param start                  The time in milliseconds the monitored server has been seen for the first time.
+     */
+    public PhiAccrualFailureDetector(final int windowSize,
+                                     final long minStdDeviation,
+                                     final long acceptablePause,
+                                     final long firstHeartbeatEstimate,
+                                     final long start) {
+        this.intervals = new long[Math.max(2, windowSize)];
+        this.minStdDeviation = minStdDeviation;
+        this.acceptablePause = acceptablePause;
+        this.firstHeartbeatEstimate = firstHeartbeatEstimate;
+        this.lastHeartbeat = start;
+    }
+
+    /**
+     * Records a heartbeat received at the given time.
+     *
+     * @param now The time in milliseconds the heartbeat has been received at.
+     */
+    public synchronized void heartbeat(final long now) {
+        final long interval = now - lastHeartbeat;
+        lastHeartbeat = now;
+        if (interval <= 0) return;
+        if (size == intervals.length) {
+            final long evicted = intervals[index];
+            sum -= evicted;
+            squaresSum -= evicted * evicted;
+        } else {
+            size++;
+        }
+        intervals[index] = interval;
+        index = (index + 1) % intervals.length;
+        sum += interval;
+        squaresSum += interval * interval;
+    }
+
+    /**
+     * Computes the suspicion level of the monitored server at the given time.
+     *
+     * @param now The current time in milliseconds.
+     * @return The suspicion level, zero right after a heartbeat and growing as the next one is late.
+     */
+    public synchronized double phi(final long now) {
+        final double mean, variance;
+        if (size < 2) {
+            // Not enough samples yet, assume intervals spread a quarter around the expected one.
+            mean = firstHeartbeatEstimate + acceptablePause;
+            variance = Math.pow(firstHeartbeatEstimate / 4D, 2);
+        } else {
+            final double intervalsMean = (double) sum / size;
+            mean = intervalsMean + acceptablePause;
+            variance = Math.max(0D, (double) squaresSum / size - intervalsMean * intervalsMean);
+        }
+        final double stdDeviation = Math.max(Math.sqrt(variance), minStdDeviation);
+        final double elapsed = now - lastHeartbeat;
+        // Logistic approximation of the normal cumulative distribution function.
+        final double y = (elapsed - mean) / stdDeviation;
+        final double e = Math.exp(-y * (1.5976D + 0.070566D * y * y));
+        final double phi = elapsed > mean ? -Math.log10(e / (1D + e)) : -Math.log10(1D - 1D / (1D + e));
+        return Math.max(0D, phi);
+    }
+
+    /**
+     * Retrieves the time the last heartbeat has been received at.
+     *
+     * @return Timestamp of the last heartbeat in milliseconds.
+     */
+    public synchronized long getLastHeartbeat() {
+        return lastHeartbeat;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.server;
+
+import java.util.*;
+
+/**
+ * Queues the registrations and un-registrations of servers in the proxy, so they are applied in batches on a
+ * single thread instead of being applied from the broker threads as messages arrive.
+ *
+ * <p>Only the latest change of every server is kept until the next batch, and changes leading to the state the
+ * proxy already has are dropped, so remove-then-add sequences collapse into nothing. Servers that keep flapping
+ * are damped: every registration state change adds a penalty which decays exponentially over time, and once it
+ * exceeds a threshold the server is held in its current proxy state until the penalty decays enough.</p>
+ *
+ * @version 1.0-BETA
+ */
+final class ProxyRegistrationQueue {
+
+    private static final double FLAP_PENALTY = 1000D, SUPPRESS_THRESHOLD = 3000D, REUSE_THRESHOLD = 1000D;
+
+    private final ServersManager serversManager;
+    private final Map<String, Change> pending = new LinkedHashMap<>();
+    /** Registration states applied in the proxy, only accessed by the flushing thread. */
+    private final Map<String, Registration> registrations = new HashMap<>();
+    private volatile long halfLifeMillis;
+
+    ProxyRegistrationQueue(final ServersManager serversManager) {
+        this.serversManager = serversManager;
+    }
+
+    void setHalfLifeMillis(final long halfLifeMillis) {
+        this.halfLifeMillis = halfLifeMillis;
+    }
+
+    synchronized void register(final Server server) {
+        offer(new Change(server, true));
+    }
+
+    synchronized void unregister(final Server server) {
+        offer(new Change(server, false));
+    }
+
+    private void offer(final Change change) {
+        // Re-inserting keeps the batch ordered by the time of the latest change.
+        pending.remove(change.server.getName());
+        pending.put(change.server.getName(), change);
+    }
+
+    /**
+     * Applies the pending changes in the proxy. Must not be called concurrently.
+     */
+    void flush() {
+        final List<Change> changes;
+        synchronized (this) {
+            if (pending.isEmpty()) return;
+            changes = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        final long now = System.currentTimeMillis();
+        final List<Change> held = new ArrayList<>();
+        for (final Change change : changes) {
+            final String name = change.server.getName();
+            final Registration registration = registrations.computeIfAbsent(name, key -> new Registration());
+            if (registration.matches(change)) {
+                if (change.register) serversManager.onRegistrationHandled(change.server, false);
+                continue;
+            }
+            if (registration.isSuppressed(now)) {
+                held.add(change);
+                continue;
+            }
+            if (registration.registered) serversManager.unregisterFromProxy(registration.server);
+            if (change.register) {
+                serversManager.registerInProxy(change.server);
+                serversManager.onRegistrationHandled(change.server, true);
+            }
+            registration.apply(change, now);
+        }
+        synchronized (this) {
+            // Changes queued during the flush are newer than the held ones.
+            for (final Change change : held) pending.putIfAbsent(change.server.getName(), change);
+        }
+        registrations.values().removeIf(registration -> !registration.registered && registration.penalty(now) < 1D);
+    }
+
+    private static final class Change {
+
+        private final Server server;
+        private final boolean register;
+
+        private Change(final Server server,
+                       final boolean register) {
+            this.server = server;
+            this.register = register;
+        }
+    }
+
+    private final class Registration {
+
+        private Server server;
+        private boolean registered, suppressed;
+        private double penalty;
+        private long penaltyUpdatedAt;
+
+        private boolean matches(final Change change) {
+            if (change.register != registered) return false;
+            return !registered || (server.getIp().equals(change.server.getIp()) && server.getPort() == change.server.getPort());
+        }
+
+        private boolean isSuppressed(final long now) {
+            if (suppressed && penalty(now) < REUSE_THRESHOLD) suppressed = false;
+            return suppressed;
+        }
+
+        private void apply(final Change change,
+                           final long now) {
+            // The first registration of a server is not a flap.
+            if (server != null && halfLifeMillis > 0) {
+                penalty = penalty(now) + FLAP_PENALTY;
+                penaltyUpdatedAt = now;
+                if (penalty > SUPPRESS_THRESHOLD) suppressed = true;
+            }
+            server = change.server;
+            registered = change.register;
+        }
+
+        private double penalty(final long now) {
+            if (halfLifeMillis <= 0 || penalty == 0D) return 0D;
+            return penalty * Math.pow(0.5D, (double) (now - penaltyUpdatedAt) / halfLifeMillis);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.server;
+
+import me.akraml.serversync.player.SyncPlayer;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Reads and writes compact binary snapshots of a {@link ServersManager} registry, so a restarted proxy
+ * can route players to the known servers right away instead of waiting for them to announce themselves.
+ *
+ * <p>A snapshot is written to a temporary file which then replaces the previous snapshot with an atomic rename,
+ * so a crash while writing never leaves a truncated snapshot behind. A checksum guards against corrupted files.</p>
+ *
+ * @version 1.0-BETA
+ */
+final class RegistrySnapshot {
+
+    private static final int MAGIC = 0x53534e50; // "SSNP"
+    private static final int VERSION = 2;
+
+    private RegistrySnapshot() {
+    }
+
+    /**
+     * Writes a snapshot of the given servers.
+     *
+     * @param servers The servers to write.
+     * @param file    The snapshot file.
+     * @throws IOException if the snapshot could not be written.
+     */
+    static void write(final Collection<ServerImpl> servers,
+                      final Path file) throws IOException {
+        final Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        final CRC32 crc = new CRC32();
+        try (final DataOutputStream output = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temporaryFile), 1 << 16), crc))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(System.currentTimeMillis());
+            for (final ServerImpl server : servers) {
+                output.writeUTF(server.getName());
+                output.writeUTF(server.getIp());
+                output.writeInt(server.getPort());
+                output.writeInt(server.getMaxPlayers());
+                output.writeLong(server.getLastHeartbeat());
+                output.writeUTF(server.getGroup() == null ? "" : server.getGroup());
+                final Map<String, String> tags = server.getTags();
+                output.writeInt(tags.size());
+                for (final Map.Entry<String, String> tag : tags.entrySet()) {
+                    output.writeUTF(tag.getKey());
+                    output.writeUTF(tag.getValue());
+                }
+                // Copied first, so the written count always matches the written players.
+                final List<SyncPlayer> players = new ArrayList<>(server.getOnlinePlayers());
+                output.writeInt(players.size());
+                for (final SyncPlayer player : players) {
+                    output.writeLong(player.getUuid().getMostSignificantBits());
+                    output.writeLong(player.getUuid().getLeastSignificantBits());
+                    output.writeUTF(player.getUsername());
+                }
+            }
+            // Marks the end of the servers, as their collection may change while it is being written.
+            output.writeUTF("");
+            output.flush();
+            output.writeLong(crc.getValue());
+        }
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads a snapshot into the given servers manager. Servers already known by the manager are skipped,
+     * as well as servers whose last heartbeat is older than the given maximum age.
+     *
+     * @param serversManager The servers manager to load the servers in.
+     * @param file           The snapshot file.
+     * @param maxAgeMillis   Maximum time in milliseconds since the last heartbeat of a server for it to be loaded.
+     * @return The amount of loaded servers.
+     * @throws IOException if the snapshot could not be read or is corrupted.
+     */
+    static int load(final ServersManager serversManager,
+                    final Path file,
+                    final long maxAgeMillis) throws IOException {
+        final byte[] content = Files.readAllBytes(file);
+        if (content.length < Long.BYTES) throw new IOException("Truncated snapshot");
+        final CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length - Long.BYTES);
+        final long expectedCrc;
+        try (final DataInputStream input = new DataInputStream(new ByteArrayInputStream(content, content.length - Long.BYTES, Long.BYTES))) {
+            expectedCrc = input.readLong();
+        }
+        if (crc.getValue() != expectedCrc) throw new IOException("Corrupted snapshot");
+        final long now = System.currentTimeMillis();
+        int loaded = 0;
+        try (final DataInputStream input = new DataInputStream(
+                new ByteArrayInputStream(content, 0, content.length - Long.BYTES))) {
+            if (input.readInt() != MAGIC) throw new IOException("Unknown snapshot format");
+            // Version 1 snapshots have no groups nor tags, the servers announce them again with their heartbeats.
+            final int version = input.readInt();
+            if (version < 1 || version > VERSION) throw new IOException("Unknown snapshot version " + version);
+            // Time the snapshot has been written at, only informative for now.
+            input.readLong();
+            String name;
+            while (!(name = input.readUTF()).isEmpty()) {
+                final String ip = input.readUTF();
+                final int port = input.readInt(), maxPlayers = input.readInt();
+                final long lastHeartbeat = input.readLong();
+                String group = null;
+                final Map<String, String> tags = new HashMap<>();
+                if (version >= 2) {
+                    group = input.readUTF();
+                    if (group.isEmpty()) group = null;
+                    final int tagsCount = input.readInt();
+                    for (int i = 0; i < tagsCount; i++) tags.put(input.readUTF(), input.readUTF());
+                }
+                final int playersCount = input.readInt();
+                final boolean fresh = now - lastHeartbeat <= maxAgeMillis && serversManager.getServer(name) == null;
+                final ServerImpl server = fresh ? new ServerImpl(name, ip, port, lastHeartbeat) : null;
+                if (fresh) {
+                    server.setMaxPlayers(maxPlayers);
+                    server.setMetadata(group, tags);
+                    serversManager.addServer(server);
+                    loaded++;
+                }
+                for (int i = 0; i < playersCount; i++) {
+                    final UUID uuid = new UUID(input.readLong(), input.readLong());
+                    final String username = input.readUTF();
+                    if (fresh) serversManager.addPlayer(server, new SyncPlayer(uuid, username));
+                }
+            }
+        }
+        return loaded;
+    }
+}
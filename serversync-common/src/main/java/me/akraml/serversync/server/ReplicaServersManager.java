@@ -0,0 +1,57 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.server;
+
+/**
+ * A {@link ServersManager} maintaining a read-only replica of the network on spigot servers.
+ * It is fed by the same messages as the proxies' managers, but never registers anything anywhere:
+ * it only keeps the registry and the players index up to date, and publishes the matching events.
+ *
+ * @version 1.0-BETA
+ */
+public final class ReplicaServersManager extends ServersManager {
+
+    /**
+     * Constructs a new replica.
+     *
+     * @param heartbeatSchedulerDelay Delay in seconds between two expiry checks.
+     * @param maxAliveTime            Maximum time in seconds without heartbeat before a server is removed.
+     */
+    public ReplicaServersManager(final int heartbeatSchedulerDelay,
+                                 final int maxAliveTime) {
+        this.heartbeatSchedulerDelay = heartbeatSchedulerDelay;
+        this.maxAliveTime = maxAliveTime;
+    }
+
+    @Override
+    protected void unregisterFromProxy(Server server) {
+        // There is no proxy to unregister from.
+    }
+
+    @Override
+    protected void registerInProxy(Server server) {
+        // There is no proxy to register in.
+    }
+}
@@ -27,6 +27,7 @@ package me.akraml.serversync.server;
 import me.akraml.serversync.player.SyncPlayer;
 
 import java.util.Collection;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -58,6 +59,20 @@ public interface Server {
      */
     int getPort();
 
+    /**
+     * Retrieves the group the server announced itself in, such as "bedwars" or "lobby".
+     *
+     * @return The group of the server, null if it has none.
+     */
+    String getGroup();
+
+    /**
+     * Retrieves the tags the server announced itself with, such as its region, version or game mode.
+     *
+     * @return An unmodifiable map of the tags values by key.
+     */
+    Map<String, String> getTags();
+
     /**
      * Retrieves a collection of the players currently online on this server.
      *
@@ -112,6 +127,24 @@ public interface Server {
         return System.currentTimeMillis() - getLastHeartbeat();
     }
 
+    /**
+     * Retrieves the latest load sample reported by the server's heartbeats.
+     *
+     * @return The load of the server, null if it has not reported any yet.
+     */
+    ServerLoad getLoad();
+
+    /**
+     * Checks if the server reported a load showing it is struggling, so it can be avoided when routing players.
+     *
+     * @return If the server is known to be struggling.
+     * @see ServerLoad#isStruggling()
+     */
+    default boolean isStruggling() {
+        final ServerLoad load = getLoad();
+        return load != null && load.isStruggling();
+    }
+
     /**
      * Initializes a new instance of {@link ServerImpl} from the provided name, ip and port.
      *
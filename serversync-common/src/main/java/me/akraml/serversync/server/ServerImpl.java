@@ -27,6 +27,9 @@ package me.akraml.serversync.server;
 import me.akraml.serversync.player.SyncPlayer;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * Represents an implementation of the {@link Server} interface.
@@ -46,14 +49,29 @@ public final class ServerImpl implements Server {
     /** The port which the server is running on */
     private final int port;
 
-    /** A map storing online players using their UUIDs as the key. */
-    private final Map<UUID, SyncPlayer> onlinePlayers = new HashMap<>();
+    /** A map storing online players using their UUIDs as the key, it can be read from any thread. */
+    private final Map<UUID, SyncPlayer> onlinePlayers = new ConcurrentHashMap<>();
+
+    /** The group of the server, null if it has none. */
+    private volatile String group;
+
+    /** The tags of the server, replaced as a whole when they change. */
+    private volatile Map<String, String> tags = Collections.emptyMap();
 
     /** The maximum number of players allowed on the server. */
-    private int maxPlayers = 0;
+    private volatile int maxPlayers = 0;
+
+    /** The latest load sample reported by the server, null until its first heartbeat carrying one. */
+    private volatile ServerLoad load;
 
-    /** The timestamp of the last heartbeat received from the server. */
-    private long lastHeartbeat = System.currentTimeMillis();
+    /** Failure detector learning the intervals between the heartbeats received from the server. */
+    private final PhiAccrualFailureDetector failureDetector;
+
+    /** Incremented by every change of the server, so unchanged servers are shared between registry snapshots. */
+    private final AtomicInteger modCount = new AtomicInteger();
+
+    /** Notified with the name of the server after each change, set while the server is managed. */
+    private volatile Consumer<String> changeListener;
 
     /**
      * Constructs a new ServerImpl with the given server name.
@@ -65,9 +83,28 @@ public final class ServerImpl implements Server {
     ServerImpl(final String name,
                final String ip,
                final int port) {
+        this(name, ip, port, System.currentTimeMillis());
+    }
+
+    /**
+     * Constructs a new ServerImpl whose last heartbeat has been received at the given time,
+     * used to restore a server from a registry snapshot.
+     *
+     * @param name          The name of the server.
+     * @param ip            The address of the server.
+     * @param port          The port which the server is running on.
+     * @param lastHeartbeat The time in milliseconds of the last heartbeat received from the server.
+     */
+    ServerImpl(final String name,
+               final String ip,
+               final int port,
+               final long lastHeartbeat) {
         this.name = name;
         this.ip   = ip;
         this.port = port;
+        this.failureDetector = new PhiAccrualFailureDetector(PhiAccrualFailureDetector.DEFAULT_WINDOW_SIZE,
+                PhiAccrualFailureDetector.DEFAULT_MIN_STD_DEVIATION, PhiAccrualFailureDetector.DEFAULT_ACCEPTABLE_PAUSE,
+                PhiAccrualFailureDetector.DEFAULT_FIRST_HEARTBEAT_ESTIMATE, lastHeartbeat);
     }
 
     @Override
@@ -85,6 +122,36 @@ public final class ServerImpl implements Server {
         return port;
     }
 
+    @Override
+    public String getGroup() {
+        return group;
+    }
+
+    @Override
+    public Map<String, String> getTags() {
+        return tags;
+    }
+
+    /**
+     * Updates the group and tags of the server. Once the server is managed, it must be done through
+     * {@link ServersManager#updateMetadata(ServerImpl, String, Map)} to keep the indexes current.
+     *
+     * @param group The group of the server, null if it has none.
+     * @param tags  The tags of the server.
+     */
+    void setMetadata(final String group,
+                     final Map<String, String> tags) {
+        this.group = group;
+        this.tags = tags.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(new HashMap<>(tags));
+        changed();
+    }
+
+    /**
+     * Retrieves the online players of the server. The returned view is live and weakly consistent,
+     * {@link ServersManager#getSnapshot()} provides a consistent view of the whole registry.
+     *
+     * @return A live view of the online players.
+     */
     @Override
     public Collection<SyncPlayer> getOnlinePlayers() {
         return onlinePlayers.values();
@@ -106,8 +173,8 @@ public final class ServerImpl implements Server {
      * @param syncPlayer The player to be added or updated.
      */
     public void addPlayer(final SyncPlayer syncPlayer) {
-        removePlayer(syncPlayer);
         onlinePlayers.put(syncPlayer.getUuid(), syncPlayer);
+        changed();
     }
 
     /**
@@ -116,7 +183,7 @@ public final class ServerImpl implements Server {
      * @param syncPlayer The player to be removed.
      */
     public void removePlayer(final SyncPlayer syncPlayer) {
-        onlinePlayers.remove(syncPlayer.getUuid());
+        if (onlinePlayers.remove(syncPlayer.getUuid()) != null) changed();
     }
 
     @Override
@@ -125,18 +192,65 @@ public final class ServerImpl implements Server {
     }
 
     public void setMaxPlayers(final int maxPlayers) {
+        if (this.maxPlayers == maxPlayers) return;
         this.maxPlayers = maxPlayers;
+        changed();
+    }
+
+    @Override
+    public ServerLoad getLoad() {
+        return load;
+    }
+
+    /**
+     * Updates the load reported by the server.
+     *
+     * @param load The new load sample.
+     */
+    public void setLoad(final ServerLoad load) {
+        this.load = load;
+        changed();
     }
 
     @Override
     public long getLastHeartbeat() {
-        return lastHeartbeat;
+        return failureDetector.getLastHeartbeat();
     }
 
     /**
      * Updates the last heartbeat timestamp to the current time.
      */
     public void heartbeat() {
-        this.lastHeartbeat = System.currentTimeMillis();
+        failureDetector.heartbeat(System.currentTimeMillis());
+    }
+
+    /**
+     * Computes how likely the server is to have failed, based on the heartbeats received so far.
+     *
+     * @param now The current time in milliseconds.
+     * @return The suspicion level of the server.
+     * @see PhiAccrualFailureDetector#phi(long)
+     */
+    public double getPhi(final long now) {
+        return failureDetector.phi(now);
+    }
+
+    int getModCount() {
+        return modCount.get();
+    }
+
+    /**
+     * Sets the listener notified of the changes of this server.
+     *
+     * @param changeListener The listener, null to stop notifying changes.
+     */
+    void setChangeListener(final Consumer<String> changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    private void changed() {
+        modCount.incrementAndGet();
+        final Consumer<String> listener = changeListener;
+        if (listener != null) listener.accept(name);
     }
 }
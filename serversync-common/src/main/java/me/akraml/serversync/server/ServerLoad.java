@@ -0,0 +1,146 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.server;
+
+import com.google.gson.JsonArray;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * An immutable sample of the load of a spigot server, carried by its heartbeats.
+ * Player counts alone are a poor load signal, this lets proxies route players away from servers
+ * which are already struggling to keep up.
+ *
+ * @version 1.0-BETA
+ */
+@Getter
+@RequiredArgsConstructor
+public final class ServerLoad {
+
+    /** Below this amount of ticks per second, a server is considered struggling. */
+    public static final double STRUGGLING_TPS = 18D;
+
+    /** Above this amount of milliseconds per tick, a server is considered struggling. */
+    public static final double STRUGGLING_MSPT = 45D;
+
+    /** Above this share of the maximum heap still in use after a garbage collection, a server is considered struggling. */
+    public static final double STRUGGLING_HEAP_USAGE = 0.9D;
+
+    /** Ticks per second, at most 20. */
+    private final double tps;
+
+    /** Average milliseconds spent per tick, negative if the server software does not report it. */
+    private final double mspt;
+
+    /** Heap in use after the latest garbage collection in MiB, the live data rather than the garbage awaiting collection. */
+    private final long heapUsed;
+
+    /** Maximum heap in MiB. */
+    private final long heapMax;
+
+    /** Amount of entities in every world. */
+    private final int entities;
+
+    /** Amount of loaded chunks in every world. */
+    private final int chunks;
+
+    /**
+     * Retrieves the share of the maximum heap in use after the latest garbage collection.
+     *
+     * @return The heap usage, between 0 and 1.
+     */
+    public double getHeapUsage() {
+        return heapMax <= 0 ? 0D : (double) heapUsed / heapMax;
+    }
+
+    /**
+     * Checks if the server is struggling: its tick rate dropped, its ticks take too long, or its heap is almost full
+     * even after a garbage collection. A heap filling up between two collections is normal and not considered.
+     *
+     * @return If the server is struggling.
+     */
+    public boolean isStruggling() {
+        return tps < STRUGGLING_TPS || mspt > STRUGGLING_MSPT || getHeapUsage() > STRUGGLING_HEAP_USAGE;
+    }
+
+    /**
+     * Checks if this sample differs enough from another one to be worth disseminating on its own.
+     * Small fluctuations are ignored, they will be carried by the next heartbeats anyway.
+     *
+     * @param other The other sample, may be null.
+     * @return If the samples differ materially.
+     */
+    public boolean differsFrom(final ServerLoad other) {
+        if (other == null) return true;
+        return Math.abs(tps - other.tps) >= 0.5D
+                || Math.abs(mspt - other.mspt) >= 5D
+                || Math.abs(heapUsed - other.heapUsed) >= Math.max(1L, heapMax / 20)
+                || Math.abs(entities - other.entities) > Math.max(10, other.entities / 10)
+                || Math.abs(chunks - other.chunks) > Math.max(10, other.chunks / 10)
+                || isStruggling() != other.isStruggling();
+    }
+
+    /**
+     * Encodes this sample into a compact array, as carried by heartbeats.
+     *
+     * @return The encoded sample.
+     */
+    public JsonArray toJson() {
+        final JsonArray array = new JsonArray();
+        array.add(Math.round(tps * 100D) / 100D);
+        array.add(Math.round(mspt * 100D) / 100D);
+        array.add(heapUsed);
+        array.add(heapMax);
+        array.add(entities);
+        array.add(chunks);
+        return array;
+    }
+
+    /**
+     * Decodes a sample encoded by {@link #toJson()}.
+     *
+     * @param array The encoded sample.
+     * @return The decoded sample.
+     */
+    public static ServerLoad fromJson(final JsonArray array) {
+        return new ServerLoad(
+                array.get(0).getAsDouble(),
+                array.get(1).getAsDouble(),
+                array.get(2).getAsLong(),
+                array.get(3).getAsLong(),
+                array.get(4).getAsInt(),
+                array.get(5).getAsInt()
+        );
+    }
+
+    @Override
+    public String toString() {
+        return "tps=" + String.format("%.2f", tps)
+                + ", mspt=" + (mspt < 0 ? "?" : String.format("%.2f", mspt))
+                + ", heap=" + heapUsed + "/" + heapMax + "MiB"
+                + ", entities=" + entities
+                + ", chunks=" + chunks;
+    }
+}
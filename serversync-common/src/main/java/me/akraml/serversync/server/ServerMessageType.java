@@ -33,6 +33,7 @@ package me.akraml.serversync.server;
  *     <li>{@link #UPDATE} - Indicates an update action on an existing server.</li>
  *     <li>{@link #HEARTBEAT} - Represents a periodic signal sent by the server indicating its active status.</li>
  *     <li>{@link #REMOVE} - Indicates a request or action to remove an existing server.</li>
+ *     <li>{@link #SYNC_REQUEST} - Sent by proxies to ask servers to publish their full state.</li>
  * </ul>
  *
  * @version 1.0-BETA
@@ -49,5 +50,8 @@ public enum ServerMessageType {
     HEARTBEAT,
 
     /** Represents a removal message or action. */
-    REMOVE
+    REMOVE,
+
+    /** Represents a request for the full state of servers, sent on the control channel. */
+    SYNC_REQUEST
 }
@@ -0,0 +1,185 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.server;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Represents a query on the servers of the network, run through {@link NetworkView#findServers(ServerQuery)}.
+ * The group and tags are answered from indexes, the free slots and load are checked on the matching servers only.
+ *
+ * <pre>{@code
+ * ServerQuery.newBuilder()
+ *         .group("bedwars")
+ *         .tag("region", "eu")
+ *         .minFreeSlots(1)
+ *         .excludeStruggling()
+ *         .build();
+ * }</pre>
+ *
+ * @version 1.0-BETA
+ */
+public final class ServerQuery {
+
+    private String group;
+    private final Map<String, String> tags = new HashMap<>();
+    private int minFreeSlots;
+    private boolean excludeStruggling;
+
+    /**
+     * Constructor must be private to disallow external initialization.
+     */
+    private ServerQuery() {
+    }
+
+    /**
+     * Retrieves the group the servers must belong to.
+     *
+     * @return The group, null to match every group.
+     */
+    public String getGroup() {
+        return group;
+    }
+
+    /**
+     * Retrieves the tags the servers must have.
+     *
+     * @return An unmodifiable map of the tags values by key.
+     */
+    public Map<String, String> getTags() {
+        return Collections.unmodifiableMap(tags);
+    }
+
+    /**
+     * Retrieves the minimum amount of free slots the servers must have.
+     *
+     * @return The minimum free slots.
+     */
+    public int getMinFreeSlots() {
+        return minFreeSlots;
+    }
+
+    /**
+     * Checks if the servers reporting a struggling load are excluded.
+     *
+     * @return If struggling servers are excluded.
+     */
+    public boolean isExcludeStruggling() {
+        return excludeStruggling;
+    }
+
+    /**
+     * Checks if a server matches this query.
+     *
+     * @param server The server to check.
+     * @return If the server matches.
+     */
+    public boolean matches(final Server server) {
+        if (group != null && !group.equals(server.getGroup())) return false;
+        for (final Map.Entry<String, String> tag : tags.entrySet()) {
+            if (!tag.getValue().equals(server.getTags().get(tag.getKey()))) return false;
+        }
+        if (minFreeSlots > 0 && server.getMaxPlayers() - server.getOnlinePlayers().size() < minFreeSlots) return false;
+        return !excludeStruggling || !server.isStruggling();
+    }
+
+    /**
+     * Creates a new instance of the ServerQuery.Builder.
+     *
+     * @return A new instance of the ServerQuery.Builder.
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * A builder class for constructing ServerQuery objects.
+     */
+    public static final class Builder {
+
+        private final ServerQuery query;
+
+        private Builder() {
+            this.query = new ServerQuery();
+        }
+
+        /**
+         * Only matches the servers of a group.
+         *
+         * @param group The name of the group.
+         * @return The Builder instance.
+         */
+        public Builder group(final String group) {
+            query.group = group;
+            return this;
+        }
+
+        /**
+         * Only matches the servers having a tag with the given value.
+         *
+         * @param key   The key of the tag.
+         * @param value The value of the tag.
+         * @return The Builder instance.
+         */
+        public Builder tag(final String key,
+                           final String value) {
+            query.tags.put(key, value);
+            return this;
+        }
+
+        /**
+         * Only matches the servers with at least the given amount of free slots.
+         *
+         * @param minFreeSlots The minimum free slots.
+         * @return The Builder instance.
+         */
+        public Builder minFreeSlots(final int minFreeSlots) {
+            query.minFreeSlots = minFreeSlots;
+            return this;
+        }
+
+        /**
+         * Excludes the servers reporting a struggling load.
+         *
+         * @return The Builder instance.
+         * @see Server#isStruggling()
+         */
+        public Builder excludeStruggling() {
+            query.excludeStruggling = true;
+            return this;
+        }
+
+        /**
+         * Builds and returns the ServerQuery object.
+         *
+         * @return The constructed ServerQuery object.
+         */
+        public ServerQuery build() {
+            return query;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package me.akraml.serversync.server;
+
+import me.akraml.serversync.player.SyncPlayer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * An immutable copy of a {@link Server}, as it was when a {@link NetworkSnapshot} has been published.
+ * It can be read from any thread without synchronization.
+ *
+ * @version 1.0-BETA
+ */
+public final class ServerSnapshot implements Server {
+
+    private final String name;
+    private final String ip;
+    private final int port;
+    private final String group;
+    private final Map<String, String> tags;
+    private final Map<UUID, SyncPlayer> onlinePlayers;
+    private final int maxPlayers;
+    private final long lastHeartbeat;
+    private final ServerLoad load;
+
+    /** The copied server and its modification count, used to decide if the copy can be reused. */
+    private final ServerImpl source;
+    private final int modCount;
+
+    private ServerSnapshot(final ServerImpl server,
+                           final int modCount) {
+        this.name = server.getName();
+        this.ip = server.getIp();
+        this.port = server.getPort();
+        this.group = server.getGroup();
+        this.tags = server.getTags();
+        final Map<UUID, SyncPlayer> players = new HashMap<>();
+        for (final SyncPlayer player : server.getOnlinePlayers()) players.put(player.getUuid(), player);
+        this.onlinePlayers = Collections.unmodifiableMap(players);
+        this.maxPlayers = server.getMaxPlayers();
+        this.lastHeartbeat = server.getLastHeartbeat();
+        this.load = server.getLoad();
+        this.source = server;
+        this.modCount = modCount;
+    }
+
+    /**
+     * Copies a server, or reuses the previous copy if the server has not changed since.
+     *
+     * @param server   The server to copy.
+     * @param previous The previous copy of the server, may be null.
+     * @return An immutable copy of the server.
+     */
+    static ServerSnapshot of(final ServerImpl server,
+                             final ServerSnapshot previous) {
+        // Read before copying, so a change made during the copy is caught by the next snapshot.
+        final int modCount = server.getModCount();
+        if (previous != null && previous.source == server && previous.modCount == modCount) return previous;
+        return new ServerSnapshot(server, modCount);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getIp() {
+        return ip;
+    }
+
+    @Override
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public String getGroup() {
+        return group;
+    }
+
+    @Override
+    public Map<String, String> getTags() {
+        return tags;
+    }
+
+    @Override
+    public Collection<SyncPlayer> getOnlinePlayers() {
+        return onlinePlayers.values();
+    }
+
+    @Override
+    public boolean containsPlayer(final UUID uuid) {
+        return onlinePlayers.containsKey(uuid);
+    }
+
+    @Override
+    public SyncPlayer getPlayer(final UUID uuid) {
+        return onlinePlayers.get(uuid);
+    }
+
+    @Override
+    public int getMaxPlayers() {
+        return maxPlayers;
+    }
+
+    /**
+     * Snapshots are immutable, the maximum players must be updated on the managed server.
+     *
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void setMaxPlayers(final int maxPlayers) {
+        throw new UnsupportedOperationException("Server snapshots are immutable");
+    }
+
+    /**
+     * Retrieves the timestamp of the last heartbeat of the server when it has been copied. Heartbeats alone
+     * do not cause a new copy, so it may be older than the one of the managed server.
+     *
+     * @return The timestamp of the last heartbeat in milliseconds.
+     */
+    @Override
+    public long getLastHeartbeat() {
+        return lastHeartbeat;
+    }
+
+    @Override
+    public ServerLoad getLoad() {
+        return load;
+    }
+}
@@ -24,45 +24,217 @@
 
 package me.akraml.serversync.server;
 
+import me.akraml.serversync.event.EventBus;
+import me.akraml.serversync.event.PlayerAttributesChangedEvent;
+import me.akraml.serversync.event.PlayerJoinedNetworkEvent;
+import me.akraml.serversync.event.PlayerLeftNetworkEvent;
+import me.akraml.serversync.event.PlayerSwitchedServerEvent;
+import me.akraml.serversync.event.ServerExpiredEvent;
+import me.akraml.serversync.event.ServerRegisteredEvent;
+import me.akraml.serversync.event.ServerRemovedEvent;
+import me.akraml.serversync.executor.SyncExecutor;
+import me.akraml.serversync.metrics.LatencyTracer;
+import me.akraml.serversync.player.SyncPlayer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Manages a collection of servers and provides utility methods for server management tasks.
  * This class also manages a heartbeat task to periodically check for server activity and
  * removes any server that hasn't sent a heartbeat signal within a specified time frame.
  *
+ * <p>Every change applied to the managed servers is published as a {@link me.akraml.serversync.event.SyncEvent}
+ * through the {@link EventBus} of this manager.</p>
+ *
  * @version 1.0-BETA
  */
-public abstract class ServersManager {
+public abstract class ServersManager implements NetworkView {
 
-    /** Timer to schedule and manage the heartbeat task. */
-    private final Timer timer =  new Timer();
+    /** Handles of the scheduled heartbeat and registration tasks, null until they are started. */
+    private ScheduledFuture<?> heartbeatTask, registrationTask;
 
     /** Map storing the servers using their names as the key. */
-    private final Map<String, ServerImpl> servers = new HashMap<>();
+    private final Map<String, ServerImpl> servers = new ConcurrentHashMap<>();
+
+    /** Names of the servers of each group, and of each tag as "key=value", kept current with the servers. */
+    private final Map<String, Set<String>> groupIndex = new ConcurrentHashMap<>(), tagIndex = new ConcurrentHashMap<>();
+
+    /** Guards the updates of the indexes, lookups do not need it. */
+    private final Object indexLock = new Object();
+
+    /** Map storing the name of the server each known player is on. */
+    private final Map<UUID, String> playerLocations = new ConcurrentHashMap<>();
+
+    /** Players which left a server recently, waiting to be reported as switching servers or leaving. */
+    private final Map<UUID, PendingLeave> pendingLeaves = new ConcurrentHashMap<>();
+
+    /** Event bus used to notify other plugins about servers and players changes. */
+    private final EventBus eventBus = new EventBus();
+
+    /** Queue of the registrations waiting to be applied in the proxy. */
+    private final ProxyRegistrationQueue registrationQueue = new ProxyRegistrationQueue(this);
 
     /** Integers for heartbeat task delay and maximum time to remove the server. */
     protected int heartbeatSchedulerDelay, maxAliveTime;
 
+    /** How the stopped servers are detected, see {@link #setLivenessMode(LivenessMode)}. */
+    private volatile LivenessMode livenessMode = LivenessMode.HEARTBEAT;
+
+    /** The suspicion level above which a server is considered as failed, see {@link PhiAccrualFailureDetector}. */
+    protected double phiThreshold = 8D;
+
+    /** Delay in milliseconds between two batches of proxy registrations. */
+    protected long registrationBatchInterval = 250L;
+
+    /** Half-life in seconds of the flapping penalty of a server, zero to disable flap damping. */
+    protected long flapDampingHalfLife = 30L;
+
+    /** Delay in milliseconds a quit waits for the player to join another server, zero to report quits right away. */
+    protected long playerSwitchWindow = 1000L;
+
+    /** File the registry snapshots are written to, null to disable snapshots. */
+    protected Path snapshotFile;
+
+    /** Delay in seconds between two periodic snapshots, zero to only write one when stopping. */
+    protected long snapshotInterval = 60L;
+
+    /** Handle of the periodic snapshot task, null if it is not started. */
+    private ScheduledFuture<?> snapshotTask;
+
+    /** The latest published snapshot of the registry, replaced as a whole. */
+    private volatile NetworkSnapshot networkSnapshot = NetworkSnapshot.EMPTY;
+
+    /** Serializes the publication of the snapshots. */
+    private final Object networkSnapshotLock = new Object();
+
+    /** Names of the servers added, changed or removed since the latest published snapshot. */
+    private final Set<String> changedServers = ConcurrentHashMap.newKeySet();
+
+    /** Traced registrations waiting to be applied in the proxy, by server name. */
+    private final Map<String, RegistrationTrace> registrationTraces = new ConcurrentHashMap<>();
+
+    /**
+     * Starts the recurring tasks of this manager: the heartbeat check and the proxy registration batches.
+     *
+     * @param executor The executor to run the tasks on.
+     */
+    public final void start(final SyncExecutor executor) {
+        registrationQueue.setHalfLifeMillis(TimeUnit.SECONDS.toMillis(flapDampingHalfLife));
+        registrationTask = executor.scheduleAtFixedRate(() -> {
+            registrationQueue.flush();
+            flushPendingLeaves(false);
+        }, 0L, registrationBatchInterval, TimeUnit.MILLISECONDS);
+        startHeartbeatTask(executor);
+        if (snapshotFile != null && snapshotInterval > 0) {
+            snapshotTask = executor.scheduleAtFixedRate(this::writeSnapshot, snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Loads the servers of the last registry snapshot, if snapshots are enabled and one exists. Only the servers
+     * which sent a heartbeat within the last {@link #maxAliveTime} seconds are loaded, they are then reconciled
+     * by the messages received from the servers themselves.
+     *
+     * @return The amount of loaded servers.
+     */
+    public final int loadSnapshot() {
+        if (snapshotFile == null || !Files.exists(snapshotFile)) return 0;
+        try {
+            final int loaded = RegistrySnapshot.load(this, snapshotFile, Duration.ofSeconds(maxAliveTime).toMillis());
+            publishNetworkSnapshot();
+            return loaded;
+        } catch (final IOException exception) {
+            exception.printStackTrace(System.err);
+            return 0;
+        }
+    }
+
+    /**
+     * Writes a snapshot of the registry, if snapshots are enabled.
+     */
+    public final void writeSnapshot() {
+        if (snapshotFile == null) return;
+        try {
+            RegistrySnapshot.write(servers.values(), snapshotFile);
+        } catch (final IOException exception) {
+            exception.printStackTrace(System.err);
+        }
+    }
+
+    /**
+     * Sets how the stopped servers are detected. With {@link LivenessMode#REDIS_TTL}, the failure detector is
+     * disabled and servers are removed once the message broker reports their expiry through
+     * {@link #expireServer(String)}. Servers which didn't send a heartbeat within the last {@link #maxAliveTime}
+     * seconds are still removed, in case an expiry notification was missed. It must be set before starting.
+     *
+     * @param livenessMode The liveness mode.
+     */
+    public final void setLivenessMode(final LivenessMode livenessMode) {
+        this.livenessMode = livenessMode;
+    }
+
+    /**
+     * Retrieves how the stopped servers are detected.
+     *
+     * @return The liveness mode.
+     */
+    public final LivenessMode getLivenessMode() {
+        return livenessMode;
+    }
+
+    /**
+     * Removes a server whose liveness expired in the message broker, as if it had been detected locally.
+     *
+     * @param name The name of the expired server.
+     */
+    public final void expireServer(final String name) {
+        final ServerImpl server = servers.get(name);
+        if (server == null) return;
+        removeServer(server, true);
+        publishNetworkSnapshot();
+    }
+
     /**
      * Starts a recurring task to check servers for their heartbeat signal.
-     * Servers that haven't sent a heartbeat signal within the last 30 seconds will be removed.
-     */
-    public final void startHeartbeatTask() {
-        timer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                final List<ServerImpl> toRemove =  new ArrayList<>();
-                servers.values().forEach(server -> {
-                    if (System.currentTimeMillis() - server.getLastHeartbeat() > maxAliveTime) {
-                        toRemove.add(server);
-                    }
-                });
-                toRemove.forEach(ServersManager.this::removeServer);
-                toRemove.clear();
-            }
-        }, 0L, Duration.ofSeconds(heartbeatSchedulerDelay).toMillis());
+     * Servers whose suspicion level exceeds {@link #phiThreshold}, or that haven't sent a heartbeat signal
+     * within the last {@link #maxAliveTime} seconds, will be removed.
+     *
+     * @param executor The executor to run the task on.
+     */
+    public final void startHeartbeatTask(final SyncExecutor executor) {
+        heartbeatTask = executor.scheduleAtFixedRate(() -> {
+            final long maxAliveMillis = Duration.ofSeconds(maxAliveTime).toMillis();
+            final long now = System.currentTimeMillis();
+            final boolean detectFailures = livenessMode == LivenessMode.HEARTBEAT;
+            final List<ServerImpl> toRemove =  new ArrayList<>();
+            servers.values().forEach(server -> {
+                if ((detectFailures && server.getPhi(now) > phiThreshold) || now - server.getLastHeartbeat() > maxAliveMillis) {
+                    toRemove.add(server);
+                }
+            });
+            toRemove.forEach(server -> removeServer(server, true));
+            toRemove.clear();
+            publishNetworkSnapshot();
+        }, 0L, heartbeatSchedulerDelay, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the recurring tasks and the event bus of this manager.
+     */
+    public void stop() {
+        if (heartbeatTask != null) heartbeatTask.cancel(false);
+        if (registrationTask != null) registrationTask.cancel(false);
+        if (snapshotTask != null) snapshotTask.cancel(false);
+        flushPendingLeaves(true);
+        writeSnapshot();
+        eventBus.shutdown();
     }
 
     /**
@@ -71,33 +243,354 @@ public abstract class ServersManager {
      * @param name The name of the server.
      * @return The server instance or null if not found.
      */
+    @Override
     public final Server getServer(String name) {
         return this.servers.get(name);
     }
 
+    @Override
+    public final Collection<Server> getServers() {
+        return Collections.unmodifiableCollection(servers.values());
+    }
+
+    /**
+     * Retrieves the servers matching a query. The candidates are taken from the smallest index matching the group
+     * or one of the tags of the query, so only a query without group nor tags scans every server.
+     *
+     * @param query The query to run.
+     * @return A new list of the matching servers.
+     */
+    @Override
+    public final List<Server> findServers(final ServerQuery query) {
+        Collection<String> candidates = null;
+        if (query.getGroup() != null) {
+            candidates = groupIndex.getOrDefault(query.getGroup(), Collections.emptySet());
+        }
+        for (final Map.Entry<String, String> tag : query.getTags().entrySet()) {
+            final Set<String> tagged = tagIndex.getOrDefault(tag.getKey() + "=" + tag.getValue(), Collections.emptySet());
+            if (candidates == null || tagged.size() < candidates.size()) candidates = tagged;
+        }
+        if (candidates == null) candidates = servers.keySet();
+        final List<Server> result = new ArrayList<>();
+        for (final String name : candidates) {
+            final ServerImpl server = servers.get(name);
+            // The index is rechecked, as the metadata may have changed since the candidates were looked up.
+            if (server != null && query.matches(server)) result.add(server);
+        }
+        return result;
+    }
+
+    @Override
+    public final Collection<String> getGroups() {
+        return Collections.unmodifiableSet(groupIndex.keySet());
+    }
+
+    /**
+     * Updates the group and tags of a managed server, and moves it in the indexes if they changed.
+     *
+     * @param server The server to update.
+     * @param group  The new group of the server, null if it has none.
+     * @param tags   The new tags of the server.
+     */
+    public final void updateMetadata(final ServerImpl server,
+                                     final String group,
+                                     final Map<String, String> tags) {
+        if (Objects.equals(group, server.getGroup()) && tags.equals(server.getTags())) return;
+        synchronized (indexLock) {
+            final boolean managed = servers.get(server.getName()) == server;
+            if (managed) unindex(server);
+            server.setMetadata(group, tags);
+            if (managed) index(server);
+        }
+    }
+
+    @Override
+    public final int getOnlinePlayersCount() {
+        return playerLocations.size();
+    }
+
+    /**
+     * Retrieves the server on which the player with the provided UUID is currently known to be.
+     *
+     * @param uuid UUID of the player.
+     * @return The server the player is on, or null if the player is not on any synchronized server.
+     */
+    @Override
+    public final Server getPlayerServer(final UUID uuid) {
+        final String serverName = playerLocations.get(uuid);
+        return serverName == null ? null : servers.get(serverName);
+    }
+
+    @Override
+    public final NetworkSnapshot getSnapshot() {
+        return networkSnapshot;
+    }
+
     /**
-     * Adds a server to the managed collection of servers.
+     * Publishes a new snapshot of the registry if it changed since the previous one. Only the servers changed
+     * since the previous snapshot are visited and copied, the copies of the others are shared with it, so the
+     * call returns right away when nothing changed.
+     * It is called after each batch of applied messages, changes made through this manager's API by other
+     * plugins are published with the next batch, or right away by calling this method.
+     */
+    public final void publishNetworkSnapshot() {
+        if (changedServers.isEmpty()) return;
+        synchronized (networkSnapshotLock) {
+            final NetworkSnapshot previous = networkSnapshot;
+            final Map<String, ServerSnapshot> copies = new HashMap<>(previous.getServerSnapshots());
+            int onlinePlayersCount = previous.getOnlinePlayersCount();
+            final List<ServerSnapshot[]> changes = new ArrayList<>();
+            final Iterator<String> iterator = changedServers.iterator();
+            while (iterator.hasNext()) {
+                final String name = iterator.next();
+                // Forgotten before copying, so a change made during the copy is caught by the next snapshot.
+                iterator.remove();
+                final ServerSnapshot previousCopy = copies.get(name);
+                final ServerImpl server = servers.get(name);
+                final ServerSnapshot copy = server == null ? null : ServerSnapshot.of(server, previousCopy);
+                if (copy == previousCopy) continue;
+                changes.add(new ServerSnapshot[]{previousCopy, copy});
+                if (previousCopy != null) onlinePlayersCount -= previousCopy.getOnlinePlayers().size();
+                if (copy == null) {
+                    copies.remove(name);
+                } else {
+                    copies.put(name, copy);
+                    onlinePlayersCount += copy.getOnlinePlayers().size();
+                }
+            }
+            if (changes.isEmpty()) return;
+            networkSnapshot = previous.next(copies, onlinePlayersCount, changes);
+        }
+    }
+
+    /**
+     * Retrieves the event bus used to publish servers and players changes.
+     *
+     * @return The event bus of this manager.
+     */
+    @Override
+    public final EventBus getEventBus() {
+        return eventBus;
+    }
+
+    /**
+     * Adds a server to the managed collection of servers. The registration in the proxy is queued
+     * and applied with the next batch.
      *
      * @param server The server to be added.
      */
     public final void addServer(Server server) {
-        this.servers.put(server.getName(), (ServerImpl) server);
-        registerInProxy(server);
+        synchronized (indexLock) {
+            final ServerImpl previous = this.servers.put(server.getName(), (ServerImpl) server);
+            if (previous != null) {
+                unindex(previous);
+                previous.setChangeListener(null);
+            }
+            index((ServerImpl) server);
+        }
+        ((ServerImpl) server).setChangeListener(changedServers::add);
+        changedServers.add(server.getName());
+        registrationQueue.register(server);
+        eventBus.post(new ServerRegisteredEvent(server));
     }
 
     /**
      * Removes a server from the managed collection of servers.
-     * Also, triggers an unregister action specific to the proxy.
+     * Also, queues an unregister action specific to the proxy.
      *
      * @param server The server to be removed.
      */
     public final void removeServer(Server server) {
-        unregisterFromProxy(server);
-        this.servers.remove(server.getName());
+        removeServer(server, false);
+    }
+
+    /**
+     * Adds a player to a managed server and keeps track of the player location in the network.
+     *
+     * <p>Join and quit updates of different servers are not ordered between each other, so a player switching
+     * servers is either still known on the origin server, or left it less than {@link #playerSwitchWindow}
+     * ago. Both cases are reported as a {@link PlayerSwitchedServerEvent}.</p>
+     *
+     * @param server     The server the player joined.
+     * @param syncPlayer The player to add.
+     */
+    public final void addPlayer(final ServerImpl server,
+                                final SyncPlayer syncPlayer) {
+        server.addPlayer(syncPlayer);
+        final String previous = playerLocations.put(syncPlayer.getUuid(), server.getName());
+        if (previous == null) {
+            synchronized (pendingLeaves) {
+                final PendingLeave leave = pendingLeaves.remove(syncPlayer.getUuid());
+                if (leave == null) {
+                    eventBus.post(new PlayerJoinedNetworkEvent(syncPlayer, server));
+                } else if (!leave.server.getName().equals(server.getName())) {
+                    eventBus.post(new PlayerSwitchedServerEvent(syncPlayer, leave.server, server));
+                } else {
+                    eventBus.post(new PlayerLeftNetworkEvent(leave.player, leave.server));
+                    eventBus.post(new PlayerJoinedNetworkEvent(syncPlayer, server));
+                }
+            }
+        } else if (!previous.equals(server.getName())) {
+            final ServerImpl previousServer = servers.get(previous);
+            if (previousServer != null) previousServer.removePlayer(syncPlayer);
+            eventBus.post(new PlayerSwitchedServerEvent(syncPlayer, previousServer, server));
+        }
+    }
+
+    /**
+     * Replaces a player of a managed server by a copy carrying new attributes.
+     *
+     * @param server     The server the player is on.
+     * @param syncPlayer The player carrying the new attributes.
+     */
+    public final void updatePlayer(final ServerImpl server,
+                                   final SyncPlayer syncPlayer) {
+        final SyncPlayer previous = server.getPlayer(syncPlayer.getUuid());
+        if (previous == null || previous.attributesEqual(syncPlayer)) return;
+        server.addPlayer(syncPlayer);
+        eventBus.post(new PlayerAttributesChangedEvent(syncPlayer, previous, server));
+    }
+
+    /**
+     * Removes a player from a managed server and forgets the player location if it was on this server.
+     *
+     * @param server     The server the player left.
+     * @param syncPlayer The player to remove.
+     */
+    public final void removePlayer(final ServerImpl server,
+                                   final SyncPlayer syncPlayer) {
+        server.removePlayer(syncPlayer);
+        if (!playerLocations.remove(syncPlayer.getUuid(), server.getName())) return;
+        if (playerSwitchWindow > 0) {
+            pendingLeaves.put(syncPlayer.getUuid(), new PendingLeave(syncPlayer, server));
+        } else {
+            eventBus.post(new PlayerLeftNetworkEvent(syncPlayer, server));
+        }
+    }
+
+    /**
+     * Reports the players which did not join another server in time as leaving the network.
+     *
+     * @param all If every waiting player must be reported, whatever the time it left.
+     */
+    private void flushPendingLeaves(final boolean all) {
+        if (pendingLeaves.isEmpty()) return;
+        final long deadline = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(playerSwitchWindow);
+        synchronized (pendingLeaves) {
+            final Iterator<PendingLeave> iterator = pendingLeaves.values().iterator();
+            while (iterator.hasNext()) {
+                final PendingLeave leave = iterator.next();
+                if (!all && leave.leftNanos - deadline > 0L) continue;
+                iterator.remove();
+                eventBus.post(new PlayerLeftNetworkEvent(leave.player, leave.server));
+            }
+        }
+    }
+
+    /**
+     * Traces the proxy registration of a server, the delay until the registration batch applies it
+     * is logged through the given tracer.
+     *
+     * @param name    Name of the server being registered.
+     * @param traceId Identifier of the trace.
+     * @param tracer  Tracer to log the registration stage to.
+     */
+    public final void traceRegistration(final String name,
+                                        final String traceId,
+                                        final LatencyTracer tracer) {
+        registrationTraces.put(name, new RegistrationTrace(traceId, tracer));
+    }
+
+    /**
+     * Called by the registration batches once the registration of a server has been handled.
+     *
+     * @param server  The server whose registration has been handled.
+     * @param applied If the server has been registered in the proxy, false if it was already registered.
+     */
+    void onRegistrationHandled(final Server server,
+                               final boolean applied) {
+        if (registrationTraces.isEmpty()) return;
+        final RegistrationTrace trace = registrationTraces.remove(server.getName());
+        if (trace == null) return;
+        trace.tracer.trace("id=" + trace.traceId
+                + " server=" + server.getName()
+                + " registration=" + (applied ? LatencyTracer.formatNanos(System.nanoTime() - trace.startNanos) : "unchanged"));
+    }
+
+    private void removeServer(final Server server,
+                              final boolean expired) {
+        registrationQueue.unregister(server);
+        registrationTraces.remove(server.getName());
+        final ServerImpl removed;
+        synchronized (indexLock) {
+            removed = this.servers.remove(server.getName());
+            if (removed == null) return;
+            unindex(removed);
+        }
+        removed.setChangeListener(null);
+        changedServers.add(removed.getName());
+        for (final SyncPlayer syncPlayer : removed.getOnlinePlayers()) {
+            if (playerLocations.remove(syncPlayer.getUuid(), removed.getName())) {
+                eventBus.post(new PlayerLeftNetworkEvent(syncPlayer, removed));
+            }
+        }
+        eventBus.post(expired ? new ServerExpiredEvent(removed) : new ServerRemovedEvent(removed));
+    }
+
+    private void index(final ServerImpl server) {
+        if (server.getGroup() != null) {
+            groupIndex.computeIfAbsent(server.getGroup(), key -> ConcurrentHashMap.newKeySet()).add(server.getName());
+        }
+        for (final Map.Entry<String, String> tag : server.getTags().entrySet()) {
+            tagIndex.computeIfAbsent(tag.getKey() + "=" + tag.getValue(), key -> ConcurrentHashMap.newKeySet()).add(server.getName());
+        }
+    }
+
+    private void unindex(final ServerImpl server) {
+        if (server.getGroup() != null) removeFromIndex(groupIndex, server.getGroup(), server.getName());
+        for (final Map.Entry<String, String> tag : server.getTags().entrySet()) {
+            removeFromIndex(tagIndex, tag.getKey() + "=" + tag.getValue(), server.getName());
+        }
+    }
+
+    private static final class PendingLeave {
+
+        private final SyncPlayer player;
+        private final ServerImpl server;
+        private final long leftNanos = System.nanoTime();
+
+        private PendingLeave(final SyncPlayer player,
+                             final ServerImpl server) {
+            this.player = player;
+            this.server = server;
+        }
+    }
+
+    private static final class RegistrationTrace {
+
+        private final String traceId;
+        private final LatencyTracer tracer;
+        private final long startNanos = System.nanoTime();
+
+        private RegistrationTrace(final String traceId,
+                                  final LatencyTracer tracer) {
+            this.traceId = traceId;
+            this.tracer = tracer;
+        }
+    }
+
+    private static void removeFromIndex(final Map<String, Set<String>> index,
+                                        final String key,
+                                        final String name) {
+        final Set<String> names = index.get(key);
+        if (names == null) return;
+        names.remove(name);
+        if (names.isEmpty()) index.remove(key, names);
     }
 
     /**
      * Abstract method that should be implemented to unregister a server from the associated proxy.
+     * It is only called by the registration batches, one batch at a time.
      *
      * @param server The server to be unregistered from the proxy.
      */
@@ -105,6 +598,7 @@ public abstract class ServersManager {
 
     /**
      * Abstract method that should be implemented to register a server in the proxy server.
+     * It is only called by the registration batches, one batch at a time.
      *
      * @param server The server to be registered in the proxy.
      */
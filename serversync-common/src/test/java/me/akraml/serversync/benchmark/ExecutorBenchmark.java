@@ -0,0 +1,115 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package me.akraml.serversync.benchmark;
+
+import me.akraml.serversync.executor.ExecutionMode;
+import me.akraml.serversync.executor.SyncExecutor;
+import me.akraml.serversync.metrics.LatencyHistogram;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Compares the latency of broker-like tasks run on the common pool and on the {@link SyncExecutor}, while other
+ * plugins saturate the common pool with blocking work.
+ *
+ * <p>Each measured task simulates a broker round trip by sleeping for a millisecond, tasks are submitted at a steady
+ * pace the executors can keep up with, and the latency is the delay between the submission of a task and its
+ * completion. The common pool is saturated by as many tasks as it has threads, each blocking for two seconds like
+ * slow database calls made by other plugins.
+ * Usage: {@code ExecutorBenchmark [tasks] [roundTripMicros] [intervalMicros]}.</p>
+ *
+ * @version 1.0-BETA
+ */
+public final class ExecutorBenchmark {
+
+    private static final long SATURATION_MICROS = TimeUnit.SECONDS.toMicros(2L);
+
+    public static void main(final String[] args) throws Exception {
+        final int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        final long roundTripMicros = args.length > 1 ? Long.parseLong(args[1]) : 1000L;
+        final long intervalMicros = args.length > 2 ? Long.parseLong(args[2]) : 500L;
+        final int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        System.out.println("Common pool parallelism " + parallelism + ", " + tasks + " tasks of " + roundTripMicros
+                + "us submitted every " + intervalMicros + "us");
+
+        report("common pool, idle", tasks, roundTripMicros, intervalMicros, ForkJoinPool.commonPool()::execute);
+        saturate(parallelism);
+        report("common pool, saturated", tasks, roundTripMicros, intervalMicros, ForkJoinPool.commonPool()::execute);
+        for (final ExecutionMode mode : new ExecutionMode[]{ExecutionMode.PLATFORM, ExecutionMode.AUTO}) {
+            saturate(parallelism);
+            final SyncExecutor executor = SyncExecutor.create("Benchmark", mode, 4);
+            report("SyncExecutor " + mode + (executor.isVirtual() ? " (virtual)" : " (platform)") + ", saturated",
+                    tasks, roundTripMicros, intervalMicros, executor::execute);
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Blocks every thread of the common pool for a while.
+     */
+    private static void saturate(final int parallelism) {
+        for (int i = 0; i < parallelism; i++) ForkJoinPool.commonPool().execute(() -> sleepMicros(SATURATION_MICROS));
+    }
+
+    private static void report(final String name,
+                               final int tasks,
+                               final long roundTripMicros,
+                               final long intervalMicros,
+                               final Consumer<Runnable> submitter) throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final CountDownLatch done = new CountDownLatch(tasks);
+        final long start = System.nanoTime();
+        for (int i = 0; i < tasks; i++) {
+            final long submitted = start + i * TimeUnit.MICROSECONDS.toNanos(intervalMicros);
+            while (System.nanoTime() < submitted) LockSupport.parkNanos(submitted - System.nanoTime());
+            submitter.accept(() -> {
+                sleepMicros(roundTripMicros);
+                histogram.recordNanos(System.nanoTime() - submitted);
+                done.countDown();
+            });
+        }
+        if (!done.await(1L, TimeUnit.MINUTES)) {
+            System.out.println(name + ": timed out with " + done.getCount() + " tasks left");
+            return;
+        }
+        System.out.println(name + ": " + histogram
+                + ", wall=" + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        // Lets the saturating tasks end before the next run.
+        sleepMicros(SATURATION_MICROS);
+    }
+
+    private static void sleepMicros(final long micros) {
+        try {
+            TimeUnit.MICROSECONDS.sleep(micros);
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
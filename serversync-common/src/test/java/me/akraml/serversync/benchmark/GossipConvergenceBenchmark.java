@@ -0,0 +1,139 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package me.akraml.serversync.benchmark;
+
+import me.akraml.serversync.broker.GossipMessageBrokerService;
+import me.akraml.serversync.connection.ConnectionResult;
+import me.akraml.serversync.connection.auth.ConnectionCredentials;
+import me.akraml.serversync.connection.auth.credentials.GossipCredentialsKeys;
+import me.akraml.serversync.executor.ExecutionMode;
+import me.akraml.serversync.executor.SyncExecutor;
+import me.akraml.serversync.gossip.GossipMember;
+import me.akraml.serversync.gossip.MemberState;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Measures how fast the membership of the {@link GossipMessageBrokerService} converges on loopback.
+ *
+ * <p>For every cluster size, that many members are started, each seeded with the first one only. The join time runs
+ * from the start of the last member until every member knows every other one as alive. A member is then stopped
+ * without leaving, like a crashed server, and the failure time runs until every remaining member declares it dead.
+ * A run which does not converge before its deadline fails the harness.
+ * Usage: {@code GossipConvergenceBenchmark [sizes] [protocolPeriodMillis] [basePort]}, sizes being comma separated.</p>
+ *
+ * @version 1.0-BETA
+ */
+public final class GossipConvergenceBenchmark {
+
+    public static void main(final String[] args) throws Exception {
+        final String[] sizes = (args.length > 0 ? args[0] : "4,8,16,32").split(",");
+        final long protocolPeriod = args.length > 1 ? Long.parseLong(args[1]) : 200L;
+        final int basePort = args.length > 2 ? Integer.parseInt(args[2]) : 27000;
+        System.out.println("Protocol period of " + protocolPeriod + "ms");
+
+        boolean converged = true;
+        for (final String size : sizes) {
+            converged &= run(Integer.parseInt(size.trim()), protocolPeriod, basePort);
+        }
+        if (!converged) {
+            System.err.println("The membership did not converge");
+            System.exit(1);
+        }
+    }
+
+    private static boolean run(final int size,
+                               final long protocolPeriod,
+                               final int basePort) throws InterruptedException {
+        final SyncExecutor executor = SyncExecutor.create("Benchmark", ExecutionMode.AUTO, 8);
+        final List<GossipMessageBrokerService> members = new ArrayList<>();
+        // Failure detection probes members round-robin, so a crash is noticed within about a round.
+        final long deadlineMillis = (4L * size + 40L) * protocolPeriod;
+        try {
+            final long start = System.nanoTime();
+            for (int i = 0; i < size; i++) {
+                final GossipMessageBrokerService member = new GossipMessageBrokerService(null, executor,
+                        ConnectionCredentials.newBuilder()
+                                .addKey(GossipCredentialsKeys.NODE_NAME, "member-" + i)
+                                .addKey(GossipCredentialsKeys.BIND_ADDRESS, "127.0.0.1:" + (basePort + i))
+                                .addKey(GossipCredentialsKeys.SEEDS, Collections.singletonList("127.0.0.1:" + basePort))
+                                .addKey(GossipCredentialsKeys.SHARED_SECRET, "benchmark")
+                                .addKey(GossipCredentialsKeys.PROTOCOL_PERIOD, protocolPeriod)
+                                .build());
+                if (member.connect() != ConnectionResult.SUCCESS) {
+                    System.out.println(size + " members: unable to start member-" + i + ", skipped");
+                    return false;
+                }
+                members.add(member);
+            }
+            final long joined = awaitConvergence(members, deadlineMillis, known -> known.size() == size
+                    && known.stream().allMatch(member -> member.getState() == MemberState.ALIVE));
+            if (joined < 0L) {
+                System.out.println(size + " members: join did not converge within " + deadlineMillis + "ms");
+                return false;
+            }
+
+            final GossipMessageBrokerService crashed = members.remove(members.size() - 1);
+            crashed.stop();
+            final long failed = awaitConvergence(members, deadlineMillis, known -> known.stream()
+                    .anyMatch(member -> member.getId().equals("member-" + (size - 1)) && member.getState() == MemberState.DEAD));
+            if (failed < 0L) {
+                System.out.println(size + " members: failure did not converge within " + deadlineMillis + "ms");
+                return false;
+            }
+            System.out.println(size + " members: join=" + TimeUnit.NANOSECONDS.toMillis(joined - start)
+                    + "ms (" + (joined - start) / TimeUnit.MILLISECONDS.toNanos(protocolPeriod) + " periods)"
+                    + ", failure=" + TimeUnit.NANOSECONDS.toMillis(failed - joined)
+                    + "ms (" + (failed - joined) / TimeUnit.MILLISECONDS.toNanos(protocolPeriod) + " periods)");
+            return true;
+        } finally {
+            for (final GossipMessageBrokerService member : members) member.stop();
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Polls the members until each of them sees a converged membership.
+     *
+     * @return The time in nanoseconds at which the membership converged, or -1 if the deadline passed first.
+     */
+    private static long awaitConvergence(final List<GossipMessageBrokerService> members,
+                                         final long deadlineMillis,
+                                         final Predicate<List<GossipMember>> converged) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        while (System.nanoTime() < deadline) {
+            if (members.stream().allMatch(member -> converged.test(new ArrayList<>(member.getMembers())))) {
+                return System.nanoTime();
+            }
+            Thread.sleep(10L);
+        }
+        return -1L;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package me.akraml.serversync.benchmark;
+
+import com.google.gson.JsonObject;
+import me.akraml.serversync.broker.MessageBrokerService;
+import me.akraml.serversync.broker.RedisClientType;
+import me.akraml.serversync.connection.ConnectionResult;
+import me.akraml.serversync.connection.auth.AuthenticatedConnection;
+import me.akraml.serversync.connection.auth.ConnectionCredentials;
+import me.akraml.serversync.connection.auth.credentials.RedisCredentialsKeys;
+import me.akraml.serversync.executor.ExecutionMode;
+import me.akraml.serversync.executor.SyncExecutor;
+import me.akraml.serversync.metrics.LatencyHistogram;
+import me.akraml.serversync.server.ReplicaServersManager;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the publish throughput of the {@link RedisClientType#JEDIS} and {@link RedisClientType#LETTUCE} clients
+ * against a local redis.
+ *
+ * <p>Several threads publish through the service as fast as they can, while a separate connection subscribes to
+ * the benchmark channel. The throughput is measured until the last message is received, so the asynchronous
+ * publications of Lettuce are only counted once redis delivered them, and the latency is measured from the call to
+ * {@code publish} to the reception of each message.
+ * Usage: {@code PublishBenchmark [host] [port] [messages] [threads] [password]}.</p>
+ *
+ * @version 1.0-BETA
+ */
+public final class PublishBenchmark {
+
+    private static final String CHANNEL = "serversync:benchmark";
+
+    public static void main(final String[] args) throws Exception {
+        final String host = args.length > 0 ? args[0] : "127.0.0.1";
+        final int port = args.length > 1 ? Integer.parseInt(args[1]) : 6379;
+        final int messages = args.length > 2 ? Integer.parseInt(args[2]) : 200_000;
+        final int threads = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+        final String password = args.length > 4 ? args[4] : null;
+        final ConnectionCredentials credentials = ConnectionCredentials.newBuilder()
+                .addKey(RedisCredentialsKeys.HOST, host)
+                .addKey(RedisCredentialsKeys.PORT, port)
+                .addKey(RedisCredentialsKeys.PASSWORD, password)
+                .addKey(RedisCredentialsKeys.TIMEOUT, 5000)
+                .addKey(RedisCredentialsKeys.MAX_TOTAL, 8)
+                .addKey(RedisCredentialsKeys.MAX_IDLE, 8)
+                .addKey(RedisCredentialsKeys.MIN_IDLE, 1)
+                .addKey(RedisCredentialsKeys.MIN_EVICTABLE_IDLE_TIME, 60000L)
+                .addKey(RedisCredentialsKeys.TIME_BETWEEN_EVICTION_RUNS, 30000L)
+                .addKey(RedisCredentialsKeys.BLOCK_WHEN_EXHAUSTED, true)
+                .addKey(RedisCredentialsKeys.CLUSTER_NODES, Collections.emptyList())
+                .build();
+        System.out.println(messages + " messages published by " + threads + " threads to " + host + ":" + port);
+        for (final RedisClientType clientType : new RedisClientType[]{RedisClientType.JEDIS, RedisClientType.LETTUCE}) {
+            run(clientType, credentials, host, port, password, messages, threads);
+        }
+    }
+
+    private static void run(final RedisClientType clientType,
+                            final ConnectionCredentials credentials,
+                            final String host,
+                            final int port,
+                            final String password,
+                            final int messages,
+                            final int threads) throws Exception {
+        final SyncExecutor executor = SyncExecutor.create("Benchmark", ExecutionMode.AUTO, threads);
+        final MessageBrokerService service = clientType.createService(new ReplicaServersManager(1, 30), executor, credentials);
+        if (((AuthenticatedConnection<?>) service).connect() == ConnectionResult.FAILURE) {
+            System.out.println(clientType + ": unable to connect to redis");
+            executor.shutdown();
+            return;
+        }
+        final LatencyHistogram latency = new LatencyHistogram();
+        final CountDownLatch subscribed = new CountDownLatch(1), received = new CountDownLatch(messages);
+        final JedisPubSub subscriber = new JedisPubSub() {
+            @Override
+            public void onSubscribe(final String channel, final int subscribedChannels) {
+                subscribed.countDown();
+            }
+
+            @Override
+            public void onMessage(final String channel, final String message) {
+                final int start = message.indexOf(':') + 1;
+                latency.recordNanos(System.nanoTime() - Long.parseLong(message.substring(start, message.indexOf('}', start))));
+                received.countDown();
+            }
+        };
+        final Thread subscriberThread = new Thread(() -> {
+            try (final Jedis jedis = new Jedis(host, port)) {
+                if (password != null) jedis.auth(password);
+                jedis.subscribe(subscriber, CHANNEL);
+            }
+        }, "Benchmark-Subscriber");
+        subscriberThread.start();
+        subscribed.await(5L, TimeUnit.SECONDS);
+
+        final AtomicInteger remaining = new AtomicInteger(messages);
+        final long start = System.nanoTime();
+        final Thread[] publishers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            publishers[i] = new Thread(() -> {
+                while (remaining.getAndDecrement() > 0) {
+                    final JsonObject message = new JsonObject();
+                    message.addProperty("sentNanos", System.nanoTime());
+                    service.publish(CHANNEL, message);
+                }
+            }, "Benchmark-Publisher-" + i);
+            publishers[i].start();
+        }
+        for (final Thread publisher : publishers) publisher.join();
+        final long publishedNanos = System.nanoTime() - start;
+        final boolean complete = received.await(1L, TimeUnit.MINUTES);
+        final long elapsedNanos = System.nanoTime() - start;
+        subscriber.unsubscribe();
+        service.stop();
+        executor.shutdown();
+        System.out.println(clientType + ": "
+                + (complete ? "" : "lost " + received.getCount() + " messages, ")
+                + String.format("%.0f", (messages - received.getCount()) / (elapsedNanos / 1e9)) + " msg/s delivered"
+                + ", publish calls took " + TimeUnit.NANOSECONDS.toMillis(publishedNanos) + "ms"
+                + ", latency=[" + latency + "]");
+    }
+}
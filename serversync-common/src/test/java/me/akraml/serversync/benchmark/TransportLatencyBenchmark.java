@@ -0,0 +1,172 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package me.akraml.serversync.benchmark;
+
+import me.akraml.serversync.broker.DirectMessageBrokerService;
+import me.akraml.serversync.broker.MessageBrokerService;
+import me.akraml.serversync.broker.RedisClientType;
+import me.akraml.serversync.connection.ConnectionResult;
+import me.akraml.serversync.connection.auth.AuthenticatedConnection;
+import me.akraml.serversync.connection.auth.ConnectionCredentials;
+import me.akraml.serversync.connection.auth.credentials.DirectCredentialsKeys;
+import me.akraml.serversync.connection.auth.credentials.RedisCredentialsKeys;
+import me.akraml.serversync.event.PlayerJoinedNetworkEvent;
+import me.akraml.serversync.executor.ExecutionMode;
+import me.akraml.serversync.executor.SyncExecutor;
+import me.akraml.serversync.metrics.LatencyHistogram;
+import me.akraml.serversync.player.SyncPlayer;
+import me.akraml.serversync.server.ReplicaServersManager;
+import me.akraml.serversync.server.ServersManager;
+
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Compares the end-to-end latency of the {@link DirectMessageBrokerService} and of the redis transport on loopback.
+ *
+ * <p>A server side service publishes player joins at a steady pace, each followed by the quit of the player, and a
+ * proxy side service applies them to its servers manager. The latency is measured from the publication to the {@link PlayerJoinedNetworkEvent} of the
+ * proxy, the event carrying the publication time in the name of the player. Both transports pay the same event bus
+ * hop, so the difference between them is the transport. The redis run is skipped if no redis is reachable.
+ * Usage: {@code TransportLatencyBenchmark [messages] [intervalMicros] [redisHost] [redisPort] [directPort]}.</p>
+ *
+ * @version 1.0-BETA
+ */
+public final class TransportLatencyBenchmark {
+
+    private static final String SERVER_NAME = "benchmark";
+
+    public static void main(final String[] args) throws Exception {
+        final int messages = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        final long intervalMicros = args.length > 1 ? Long.parseLong(args[1]) : 200L;
+        final String redisHost = args.length > 2 ? args[2] : "127.0.0.1";
+        final int redisPort = args.length > 3 ? Integer.parseInt(args[3]) : 6379;
+        final int directPort = args.length > 4 ? Integer.parseInt(args[4]) : 25590;
+        System.out.println(messages + " player joins published every " + intervalMicros + "us");
+
+        final String address = "127.0.0.1:" + directPort;
+        run("DIRECT", messages, intervalMicros, (manager, executor) -> new DirectMessageBrokerService(manager, executor,
+                ConnectionCredentials.newBuilder()
+                        .addKey(manager == null ? DirectCredentialsKeys.PROXY_ADDRESSES : DirectCredentialsKeys.LISTEN_ADDRESS,
+                                manager == null ? Collections.singletonList(address) : address)
+                        .addKey(DirectCredentialsKeys.SHARED_SECRET, "benchmark")
+                        .build()));
+        final ConnectionCredentials redisCredentials = ConnectionCredentials.newBuilder()
+                .addKey(RedisCredentialsKeys.HOST, redisHost)
+                .addKey(RedisCredentialsKeys.PORT, redisPort)
+                .addKey(RedisCredentialsKeys.PASSWORD, null)
+                .addKey(RedisCredentialsKeys.TIMEOUT, 5000)
+                .addKey(RedisCredentialsKeys.MAX_TOTAL, 8)
+                .addKey(RedisCredentialsKeys.MAX_IDLE, 8)
+                .addKey(RedisCredentialsKeys.MIN_IDLE, 1)
+                .addKey(RedisCredentialsKeys.MIN_EVICTABLE_IDLE_TIME, 60000L)
+                .addKey(RedisCredentialsKeys.TIME_BETWEEN_EVICTION_RUNS, 30000L)
+                .addKey(RedisCredentialsKeys.BLOCK_WHEN_EXHAUSTED, true)
+                .build();
+        for (final RedisClientType clientType : new RedisClientType[]{RedisClientType.JEDIS, RedisClientType.LETTUCE}) {
+            run("REDIS " + clientType, messages, intervalMicros,
+                    (manager, executor) -> clientType.createService(manager, executor, redisCredentials));
+        }
+    }
+
+    private static void run(final String name,
+                            final int messages,
+                            final long intervalMicros,
+                            final ServiceFactory factory) throws InterruptedException {
+        final SyncExecutor executor = SyncExecutor.create("Benchmark", ExecutionMode.AUTO, 4);
+        final ServersManager proxyManager = new ReplicaServersManager(1, 30);
+        final MessageBrokerService proxy = factory.create(proxyManager, executor);
+        final MessageBrokerService server = factory.create(null, executor);
+        if (!connect(proxy)) {
+            System.out.println(name + ": unable to connect, skipped");
+            executor.shutdown();
+            return;
+        }
+        if (!connect(server)) {
+            System.out.println(name + ": unable to connect, skipped");
+            proxy.stop();
+            executor.shutdown();
+            return;
+        }
+        try {
+            proxy.startHandler();
+            server.startHandler();
+            final long registrationDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+            while (proxyManager.getServer(SERVER_NAME) == null) {
+                if (System.nanoTime() > registrationDeadline) {
+                    System.out.println(name + ": the server never registered, skipped");
+                    return;
+                }
+                server.publishCreate(SERVER_NAME, "127.0.0.1", 25565, 100);
+                Thread.sleep(100L);
+            }
+
+            final LatencyHistogram latency = new LatencyHistogram();
+            final int warmup = messages / 10;
+            final CountDownLatch received = new CountDownLatch(warmup + messages);
+            proxyManager.getEventBus().register(PlayerJoinedNetworkEvent.class, event -> {
+                latency.recordNanos(System.nanoTime() - Long.parseLong(event.getPlayer().getUsername()));
+                received.countDown();
+                if (received.getCount() == messages) latency.reset();
+            });
+            final long start = System.nanoTime();
+            for (int i = 0; i < warmup + messages; i++) {
+                final long due = start + i * TimeUnit.MICROSECONDS.toNanos(intervalMicros);
+                while (System.nanoTime() < due) LockSupport.parkNanos(due - System.nanoTime());
+                final SyncPlayer player = new SyncPlayer(UUID.randomUUID(), Long.toString(System.nanoTime()));
+                server.publishPlayerUpdate(SERVER_NAME, player, MessageBrokerService.PlayerUpdateState.ADD);
+                // Players quit right away, so the server does not grow over the run.
+                server.publishPlayerUpdate(SERVER_NAME, player, MessageBrokerService.PlayerUpdateState.REMOVE);
+            }
+            final boolean complete = received.await(1L, TimeUnit.MINUTES);
+            System.out.println(name + ": " + (complete ? "" : "lost " + received.getCount() + " messages, ")
+                    + "latency=[" + latency + "]");
+        } finally {
+            server.stop();
+            proxy.stop();
+            proxyManager.stop();
+            executor.shutdown();
+        }
+    }
+
+    private static boolean connect(final MessageBrokerService service) {
+        try {
+            return ((AuthenticatedConnection<?>) service).connect() == ConnectionResult.SUCCESS;
+        } catch (final RuntimeException exception) {
+            return false;
+        }
+    }
+
+    @FunctionalInterface
+    private interface ServiceFactory {
+
+        MessageBrokerService create(final ServersManager serversManager,
+                                    final SyncExecutor executor);
+    }
+}
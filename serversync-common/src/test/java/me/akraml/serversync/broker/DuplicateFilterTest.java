@@ -0,0 +1,97 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package me.akraml.serversync.broker;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the {@link DuplicateFilter} sliding windows.
+ *
+ * @version 1.0-BETA
+ */
+final class DuplicateFilterTest {
+
+    private final DuplicateFilter filter = new DuplicateFilter();
+
+    @Test
+    void dropsRepeatedSequences() {
+        assertTrue(filter.accept("lobby", MessageLane.CONTROL, 0L));
+        assertTrue(filter.accept("lobby", MessageLane.CONTROL, 1L));
+        assertFalse(filter.accept("lobby", MessageLane.CONTROL, 1L));
+        assertFalse(filter.accept("lobby", MessageLane.CONTROL, 0L));
+        assertEquals(2, filter.getDuplicates());
+    }
+
+    @Test
+    void acceptsLateSequencesInsideTheWindowOnce() {
+        assertTrue(filter.accept("lobby", MessageLane.CONTROL, 100L));
+        assertTrue(filter.accept("lobby", MessageLane.CONTROL, 40L));
+        assertFalse(filter.accept("lobby", MessageLane.CONTROL, 40L));
+        assertTrue(filter.accept("lobby", MessageLane.CONTROL, 99L));
+    }
+
+    @Test
+    void dropsSequencesOlderThanTheWindow() {
+        final long highest = 10L * DuplicateFilter.WINDOW_SIZE;
+        assertTrue(filter.accept("lobby", MessageLane.CONTROL, highest));
+        assertFalse(filter.accept("lobby", MessageLane.CONTROL, highest - DuplicateFilter.WINDOW_SIZE));
+        assertTrue(filter.accept("lobby", MessageLane.CONTROL, highest - DuplicateFilter.WINDOW_SIZE + 1));
+    }
+
+    @Test
+    void forgetsTheSlotsTheWindowSlidesOver() {
+        // Every sequence of the window is seen once, sliding must not leave stale bits behind for the new ones.
+        final int count = 5 * DuplicateFilter.WINDOW_SIZE;
+        for (long sequence = 0; sequence < count; sequence++) {
+            assertTrue(filter.accept("lobby", MessageLane.DATA, sequence), "sequence " + sequence);
+        }
+        for (long sequence = count - DuplicateFilter.WINDOW_SIZE; sequence < count; sequence++) {
+            assertFalse(filter.accept("lobby", MessageLane.DATA, sequence), "sequence " + sequence);
+        }
+        assertTrue(filter.accept("lobby", MessageLane.DATA, count + 3L * Long.SIZE));
+        assertTrue(filter.accept("lobby", MessageLane.DATA, count + 1L));
+    }
+
+    @Test
+    void keepsOriginsAndLanesApart() {
+        assertTrue(filter.accept("lobby", MessageLane.CONTROL, 7L));
+        assertTrue(filter.accept("lobby", MessageLane.DATA, 7L));
+        assertTrue(filter.accept("game", MessageLane.CONTROL, 7L));
+        assertEquals(0, filter.getDuplicates());
+    }
+
+    @Test
+    void forgetsTheLeastRecentlySeenOrigins() {
+        assertTrue(filter.accept("origin-0", MessageLane.CONTROL, 0L));
+        for (int i = 1; i <= DuplicateFilter.MAX_ORIGINS; i++) {
+            assertTrue(filter.accept("origin-" + i, MessageLane.CONTROL, 0L));
+        }
+        assertTrue(filter.accept("origin-0", MessageLane.CONTROL, 0L));
+        assertFalse(filter.accept("origin-" + DuplicateFilter.MAX_ORIGINS, MessageLane.CONTROL, 0L));
+    }
+}
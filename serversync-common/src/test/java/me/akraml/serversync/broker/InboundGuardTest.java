@@ -0,0 +1,132 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package me.akraml.serversync.broker;
+
+import me.akraml.serversync.broker.InboundGuard.Rejection;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the {@link InboundGuard} buckets and quarantines.
+ *
+ * @version 1.0-BETA
+ */
+final class InboundGuardTest {
+
+    /** Refilled by a single message per second, so the buckets do not refill while a test runs. */
+    private final InboundGuard guard = InboundGuard.newBuilder()
+            .messagesPerSecond(1)
+            .burst(2)
+            .maxPayloadSize(256)
+            .maxPlayersPerMessage(2)
+            .quarantine(1L, TimeUnit.HOURS)
+            .build();
+
+    private static String update(final String origin) {
+        return "{\"type\":\"UPDATE\",\"origin\":\"" + origin + "\",\"name\":\"" + origin + "\",\"maxPlayers\":100}";
+    }
+
+    @Test
+    void dropsOnlyTheExcessMessages() {
+        assertTrue(guard.accept(update("lobby"), null, true));
+        assertTrue(guard.accept(update("lobby"), null, true));
+        assertFalse(guard.accept(update("lobby"), null, true));
+        assertTrue(guard.accept(update("game"), null, true));
+
+        assertEquals(1, guard.getRejections(Rejection.RATE_LIMITED));
+        assertEquals(0, guard.getQuarantines());
+        assertTrue(guard.getQuarantinedOrigins().isEmpty());
+    }
+
+    @Test
+    void neverLimitsMembershipMessagesOfTheServersChannel() {
+        final String heartbeat = "{\"type\":\"HEARTBEAT\",\"name\":\"lobby\"}";
+        for (int i = 0; i < 10; i++) assertTrue(guard.accept(heartbeat, null, true));
+        assertTrue(guard.accept(heartbeat, null, false));
+        assertTrue(guard.accept(heartbeat, null, false));
+        assertFalse(guard.accept(heartbeat, null, false));
+    }
+
+    @Test
+    void quarantinesOriginsSendingOversizedMessages() {
+        final String oversized = "{\"type\":\"UPDATE\",\"name\":\"lobby\",\"padding\":\""
+                + String.join("", Collections.nCopies(300, "x")) + "\"}";
+        assertFalse(guard.accept(oversized, null, true));
+        final String heartbeat = "{\"type\":\"HEARTBEAT\",\"name\":\"lobby\"}";
+        assertFalse(guard.accept(heartbeat, null, true));
+
+        assertEquals(1, guard.getRejections(Rejection.OVERSIZED));
+        assertEquals(1, guard.getRejections(Rejection.QUARANTINED));
+        assertEquals(Collections.singleton("lobby"), guard.getQuarantinedOrigins());
+
+        guard.release("lobby");
+        assertTrue(guard.accept(heartbeat, null, true));
+    }
+
+    @Test
+    void quarantinesOriginsListingTooManyPlayers() {
+        assertTrue(guard.accept("{\"type\":\"CREATE\",\"name\":\"lobby\",\"players\":[\"a;Alex\",\"b;Steve\"]}", null, true));
+        assertFalse(guard.accept("{\"type\":\"CREATE\",\"name\":\"lobby\",\"players\":[\"a;Alex\",\"b;Steve\",\"c;Herobrine\"]}", null, true));
+        assertEquals(1, guard.getRejections(Rejection.TOO_MANY_PLAYERS));
+        assertEquals(1, guard.getQuarantines());
+    }
+
+    @Test
+    void readsOnlyTheTopLevelOrigin() {
+        assertTrue(guard.accept(update("victim"), null, false));
+        assertTrue(guard.accept(update("victim"), null, false));
+        // Neither the nested payload nor a string value can pass for the origin of the message.
+        final String spoofing = "{\"type\":\"RPC\",\"payload\":{\"origin\":\"victim\"},"
+                + "\"note\":\"\\\"origin\\\":\\\"victim\\\"\",\"origin\":\"attacker\"}";
+        assertTrue(guard.accept(spoofing, null, false));
+        assertTrue(guard.accept(spoofing, null, false));
+        assertFalse(guard.accept(spoofing, null, false));
+        assertEquals(1, guard.getRejections(Rejection.RATE_LIMITED));
+    }
+
+    @Test
+    void scopesClaimedOriginsToTheirPeer() {
+        final String oversized = "{\"type\":\"UPDATE\",\"origin\":\"lobby\",\"padding\":\""
+                + String.join("", Collections.nCopies(300, "x")) + "\"}";
+        assertFalse(guard.accept(oversized, "10.0.0.2", true));
+        assertEquals(Collections.singleton("10.0.0.2/lobby"), guard.getQuarantinedOrigins());
+        assertTrue(guard.accept(update("lobby"), "10.0.0.1", true));
+        assertTrue(guard.accept(update("lobby"), null, true));
+    }
+
+    @Test
+    void checksTheSizeOfMessagesWithoutOrigin() {
+        assertTrue(guard.accept("{\"type\":\"UPDATE\"}", null, false));
+        assertTrue(guard.accept("{\"type\":\"UPDATE\"}", null, false));
+        assertTrue(guard.accept("{\"type\":\"UPDATE\"}", null, false));
+        assertFalse(guard.accept("{\"padding\":\"" + String.join("", Collections.nCopies(300, "x")) + "\"}", null, false));
+        assertEquals(0, guard.getQuarantines());
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package me.akraml.serversync.broker;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the {@link SpillJournal} collapsing and replay.
+ *
+ * @version 1.0-BETA
+ */
+final class SpillJournalTest {
+
+    private static final String CHANNEL = "serversync:servers";
+
+    @TempDir
+    Path directory;
+
+    private SpillJournal journal;
+    private final List<String> published = new ArrayList<>();
+
+    @BeforeEach
+    void open() throws IOException {
+        journal = new SpillJournal(directory.resolve("spill.journal"), 64 * 1024);
+    }
+
+    @AfterEach
+    void close() {
+        journal.close();
+    }
+
+    private static JsonObject message(final String type,
+                                      final String name,
+                                      final String id) {
+        final JsonObject message = new JsonObject();
+        message.addProperty("type", type);
+        message.addProperty("name", name);
+        message.addProperty("id", id);
+        return message;
+    }
+
+    private static JsonObject playerUpdate(final String name,
+                                           final String update,
+                                           final String uuid,
+                                           final String id) {
+        final JsonObject message = message("UPDATE", name, id);
+        message.addProperty("playerUpdate", update);
+        message.addProperty("playerToUpdate", uuid + ";Steve");
+        return message;
+    }
+
+    private boolean replay() {
+        return journal.replay((channel, message) -> published.add(message.get("id").getAsString()));
+    }
+
+    @Test
+    void keepsOnlyTheLatestSupersededMessages() {
+        journal.append(CHANNEL, message("HEARTBEAT", "lobby", "heartbeat-1"));
+        journal.append(CHANNEL, playerUpdate("lobby", "ADD", "uuid-1", "player-1"));
+        journal.append(CHANNEL, message("HEARTBEAT", "lobby", "heartbeat-2"));
+        journal.append(CHANNEL, playerUpdate("lobby", "REMOVE", "uuid-1", "player-2"));
+        journal.append(CHANNEL, message("HEARTBEAT", "game", "heartbeat-3"));
+        journal.append(CHANNEL, message("CREATE", "lobby", "create-1"));
+        journal.append(CHANNEL, message("CREATE", "lobby", "create-2"));
+
+        assertTrue(replay());
+        assertEquals(Arrays.asList("heartbeat-2", "player-2", "heartbeat-3", "create-1", "create-2"), published);
+        assertEquals(2, journal.getCollapsed());
+        assertEquals(5, journal.getReplayed());
+        assertFalse(journal.hasPending());
+    }
+
+    @Test
+    void neverCollapsesAttributeUpdates() {
+        journal.append(CHANNEL, playerUpdate("lobby", "ATTRIBUTES", "uuid-1", "attributes-1"));
+        journal.append(CHANNEL, playerUpdate("lobby", "ATTRIBUTES", "uuid-1", "attributes-2"));
+
+        assertTrue(replay());
+        assertEquals(Arrays.asList("attributes-1", "attributes-2"), published);
+        assertEquals(0, journal.getCollapsed());
+    }
+
+    @Test
+    void collapsesSyncRequestsPerTarget() {
+        final JsonObject all = message("SYNC_REQUEST", "proxy", "sync-1");
+        final JsonObject lobby = message("SYNC_REQUEST", "proxy", "sync-2");
+        lobby.addProperty("target", "lobby");
+        journal.append(CHANNEL, all);
+        journal.append(CHANNEL, lobby);
+        journal.append(CHANNEL, message("SYNC_REQUEST", "proxy", "sync-3"));
+
+        assertTrue(replay());
+        assertEquals(Arrays.asList("sync-2", "sync-3"), published);
+    }
+
+    @Test
+    void keepsTheUnpublishedMessagesInOrder() {
+        for (int i = 0; i < 4; i++) journal.append(CHANNEL, message("CREATE", "server-" + i, "create-" + i));
+
+        assertFalse(journal.replay((channel, message) -> {
+            if (published.size() == 2) throw new IllegalStateException("broker down");
+            published.add(message.get("id").getAsString());
+        }));
+        assertTrue(journal.hasPending());
+
+        assertTrue(replay());
+        assertEquals(Arrays.asList("create-0", "create-1", "create-2", "create-3"), published);
+        assertFalse(journal.hasPending());
+    }
+
+    @Test
+    void dropsMessagesOnceFull() throws IOException {
+        journal.close();
+        journal = new SpillJournal(directory.resolve("small.journal"), 256);
+        for (int i = 0; i < 10; i++) journal.append(CHANNEL, message("CREATE", "server-" + i, "create-" + i));
+
+        assertTrue(journal.getDropped() > 0);
+        assertEquals(10, journal.getSpilled() + journal.getDropped());
+        assertTrue(replay());
+        assertEquals(journal.getSpilled(), published.size());
+        assertEquals("create-0", published.get(0));
+    }
+}
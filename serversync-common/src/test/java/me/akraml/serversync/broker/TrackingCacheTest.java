@@ -0,0 +1,124 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package me.akraml.serversync.broker;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the {@link TrackingCache} loads and invalidations.
+ *
+ * @version 1.0-BETA
+ */
+final class TrackingCacheTest {
+
+    private final TrackingCache<String> cache = new TrackingCache<>(2);
+
+    @BeforeEach
+    void activate() {
+        cache.setActive(true);
+    }
+
+    private void load(final String key,
+                      final String value) {
+        cache.completeLoad(key, cache.beginLoad(key), value);
+    }
+
+    @Test
+    void servesLoadedValuesUntilInvalidated() {
+        assertNull(cache.get("player:1"));
+        load("player:1", "lobby");
+        assertEquals("lobby", cache.get("player:1"));
+
+        cache.invalidate("player:1");
+        assertNull(cache.get("player:1"));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.getInvalidations());
+    }
+
+    @Test
+    void dropsLoadsInvalidatedInFlight() {
+        final Object marker = cache.beginLoad("player:1");
+        assertNull(cache.get("player:1"));
+        cache.invalidate("player:1");
+        cache.completeLoad("player:1", marker, "lobby");
+        assertNull(cache.get("player:1"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void keepsOnlyTheLatestOfConcurrentLoads() {
+        final Object first = cache.beginLoad("player:1");
+        final Object second = cache.beginLoad("player:1");
+        cache.completeLoad("player:1", second, "game");
+        cache.completeLoad("player:1", first, "lobby");
+        assertEquals("game", cache.get("player:1"));
+    }
+
+    @Test
+    void dropsLoadsInFlightWhenEverythingIsInvalidated() {
+        final Object marker = cache.beginLoad("player:1");
+        load("player:2", "game");
+        cache.invalidateAll();
+        cache.completeLoad("player:1", marker, "lobby");
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.getInvalidations());
+    }
+
+    @Test
+    void storesNothingWhileInactive() {
+        load("player:1", "lobby");
+        cache.setActive(false);
+        assertEquals(0, cache.size());
+        assertNull(cache.beginLoad("player:1"));
+        load("player:1", "lobby");
+        assertNull(cache.get("player:1"));
+
+        // Loads begun before a reconnection are stale once invalidations are received again.
+        cache.setActive(true);
+        final Object marker = cache.beginLoad("player:1");
+        cache.setActive(false);
+        cache.setActive(true);
+        cache.completeLoad("player:1", marker, "lobby");
+        assertNull(cache.get("player:1"));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedValues() {
+        load("player:1", "lobby");
+        load("player:2", "game");
+        assertEquals("lobby", cache.get("player:1"));
+        load("player:3", "hub");
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get("player:2"));
+        assertEquals("lobby", cache.get("player:1"));
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package me.akraml.serversync.event;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the {@link EventBus} ordering, isolation and drop accounting.
+ *
+ * @version 1.0-BETA
+ */
+final class EventBusTest {
+
+    private final EventBus eventBus = new EventBus(4);
+
+    @AfterEach
+    void shutdown() {
+        eventBus.shutdown();
+    }
+
+    @Test
+    void deliversEventsInPostedOrder() throws InterruptedException {
+        final List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(100);
+        final EventBus bus = new EventBus();
+        try {
+            bus.register(TestEvent.class, event -> {
+                received.add(event.id);
+                done.countDown();
+            });
+            for (int i = 0; i < 100; i++) assertTrue(bus.post(new TestEvent(i)));
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+        } finally {
+            bus.shutdown();
+        }
+        for (int i = 0; i < 100; i++) assertEquals(i, received.get(i));
+    }
+
+    @Test
+    void dropsOnlyForTheSlowListener() throws InterruptedException {
+        final CountDownLatch entered = new CountDownLatch(1), release = new CountDownLatch(1);
+        final CountDownLatch fastFirst = new CountDownLatch(1), fastDone = new CountDownLatch(5);
+        final ListenerRegistration<TestEvent> slow = eventBus.register(TestEvent.class, event -> {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException exception) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        final ListenerRegistration<TestEvent> fast = eventBus.register(TestEvent.class, event -> {
+            fastFirst.countDown();
+            fastDone.countDown();
+        });
+
+        assertTrue(eventBus.post(new TestEvent(0)));
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        assertTrue(fastFirst.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 4; i++) assertTrue(eventBus.post(new TestEvent(i)));
+        // The slow listener is stuck on the first event with a full queue, the fast one keeps up.
+        assertTrue(fastDone.await(5, TimeUnit.SECONDS));
+        assertFalse(eventBus.post(new TestEvent(5)));
+
+        assertEquals(1, slow.getDroppedCount());
+        assertEquals(0, fast.getDroppedCount());
+        assertEquals(1, eventBus.getDroppedEvents());
+        release.countDown();
+    }
+
+    @Test
+    void skipsListenersOfOtherTypes() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final ListenerRegistration<OtherEvent> other = eventBus.register(OtherEvent.class, event -> fail("unexpected " + event));
+        eventBus.register(TestEvent.class, event -> done.countDown());
+
+        assertTrue(eventBus.post(new TestEvent(0)));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, other.getDeliveredCount());
+        assertEquals(0, other.getFailedCount());
+    }
+
+    @Test
+    void keepsDeliveringAfterAFailure() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final ListenerRegistration<TestEvent> registration = eventBus.register(TestEvent.class, event -> {
+            if (event.id == 0) throw new IllegalStateException("expected by the test");
+            done.countDown();
+        });
+
+        eventBus.post(new TestEvent(0));
+        eventBus.post(new TestEvent(1));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, registration.getFailedCount());
+    }
+
+    @Test
+    void rejectsEventsWithoutListenersOrAfterShutdown() {
+        assertFalse(eventBus.post(new TestEvent(0)));
+        assertEquals(0, eventBus.getPostedEvents());
+
+        eventBus.register(TestEvent.class, event -> { });
+        eventBus.shutdown();
+        assertFalse(eventBus.post(new TestEvent(1)));
+        assertTrue(eventBus.getRegistrations().isEmpty());
+    }
+
+    @Test
+    void rejectsNonPositiveCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new EventBus(0));
+    }
+
+    private static final class TestEvent extends SyncEvent {
+
+        private final int id;
+
+        private TestEvent(final int id) {
+            this.id = id;
+        }
+    }
+
+    private static final class OtherEvent extends SyncEvent {
+    }
+}
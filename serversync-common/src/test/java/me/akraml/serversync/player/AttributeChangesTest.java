@@ -0,0 +1,129 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package me.akraml.serversync.player;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonPrimitive;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the {@link AttributeChanges} encoding and of their application to a {@link SyncPlayer}.
+ *
+ * @version 1.0-BETA
+ */
+final class AttributeChangesTest {
+
+    /** Identifier no attribute is registered with, using the sign bit of the mask. */
+    private static final int UNKNOWN_ID = 63;
+
+    private final SyncPlayer player = new SyncPlayer(UUID.randomUUID(), "Steve");
+
+    @Test
+    void buildsNothingWithoutChanges() {
+        final AttributeChanges.Builder builder = AttributeChanges.newBuilder();
+        assertTrue(builder.isEmpty());
+        assertSame(AttributeChanges.NONE, builder.build());
+        assertSame(player, player.withChanges(AttributeChanges.NONE));
+    }
+
+    @Test
+    void encodesOnlyTheChangedAttributes() {
+        final AttributeChanges changes = AttributeChanges.newBuilder()
+                .set(PlayerAttribute.AFK, true)
+                .set(PlayerAttribute.PING, 42)
+                .remove(PlayerAttribute.WORLD)
+                .build();
+        assertTrue(changes.contains(PlayerAttribute.PING));
+        assertFalse(changes.contains(PlayerAttribute.PARTY));
+
+        final JsonArray json = changes.toJson();
+        assertEquals(0b1011L, json.get(0).getAsLong());
+        assertEquals(4, json.size());
+        assertEquals(42, json.get(1).getAsInt());
+        assertTrue(json.get(2).isJsonNull());
+        assertTrue(json.get(3).getAsBoolean());
+
+        final SyncPlayer decoded = player.withChanges(AttributeChanges.fromJson(json));
+        assertEquals(Integer.valueOf(42), decoded.getAttribute(PlayerAttribute.PING));
+        assertEquals(Boolean.TRUE, decoded.getAttribute(PlayerAttribute.AFK));
+        assertFalse(decoded.hasAttribute(PlayerAttribute.WORLD));
+    }
+
+    @Test
+    void keepsUnknownAttributesEncoded() {
+        final JsonArray json = new JsonArray();
+        json.add(1L << UNKNOWN_ID | 1L);
+        json.add(20);
+        json.add("opaque");
+
+        final AttributeChanges changes = AttributeChanges.fromJson(json);
+        assertEquals(json, changes.toJson());
+        final SyncPlayer decoded = player.withChanges(changes);
+        assertEquals(1L << UNKNOWN_ID | 1L, decoded.getAttributesMask());
+        assertEquals(json, decoded.getAttributes().toJson());
+        assertEquals(new JsonPrimitive("opaque"), decoded.getAttributes().getValues()[1]);
+    }
+
+    @Test
+    void appliesChangesOnTopOfTheCurrentAttributes() {
+        final SyncPlayer first = player.withChanges(AttributeChanges.newBuilder()
+                .set(PlayerAttribute.PING, 20)
+                .set(PlayerAttribute.PARTY, "red")
+                .build());
+        final SyncPlayer second = first.withChanges(AttributeChanges.newBuilder()
+                .set(PlayerAttribute.WORLD, "nether")
+                .remove(PlayerAttribute.PING)
+                .build());
+
+        assertNull(second.getAttribute(PlayerAttribute.PING));
+        assertEquals("nether", second.getAttribute(PlayerAttribute.WORLD));
+        assertEquals("red", second.getAttribute(PlayerAttribute.PARTY));
+        assertEquals(0b110L, second.getAttributesMask());
+        // The previous player is left untouched.
+        assertEquals(Integer.valueOf(20), first.getAttribute(PlayerAttribute.PING));
+    }
+
+    @Test
+    void returnsTheSamePlayerWhenNothingChanges() {
+        final SyncPlayer updated = player.withChanges(AttributeChanges.newBuilder().set(PlayerAttribute.PING, 20).build());
+        assertSame(updated, updated.withChanges(AttributeChanges.newBuilder().set(PlayerAttribute.PING, 20).build()));
+        assertSame(player, player.withChanges(AttributeChanges.newBuilder().remove(PlayerAttribute.AFK).build()));
+    }
+
+    @Test
+    void restoresEveryAttributeFromTheirChanges() {
+        final SyncPlayer updated = player.withChanges(AttributeChanges.newBuilder()
+                .set(PlayerAttribute.PING, 20)
+                .set(PlayerAttribute.AFK, false)
+                .build());
+        final SyncPlayer restored = player.withChanges(AttributeChanges.fromJson(updated.getAttributes().toJson()));
+        assertTrue(updated.attributesEqual(restored));
+    }
+}
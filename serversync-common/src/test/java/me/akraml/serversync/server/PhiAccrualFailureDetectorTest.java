@@ -0,0 +1,106 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package me.akraml.serversync.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the {@link PhiAccrualFailureDetector} suspicion levels.
+ *
+ * @version 1.0-BETA
+ */
+final class PhiAccrualFailureDetectorTest {
+
+    private static PhiAccrualFailureDetector detector(final int windowSize) {
+        return new PhiAccrualFailureDetector(windowSize, 100L, 0L, 1000L, 0L);
+    }
+
+    private static long beat(final PhiAccrualFailureDetector detector,
+                             final long from,
+                             final long interval,
+                             final int count) {
+        long now = from;
+        for (int i = 0; i < count; i++) {
+            now += interval;
+            detector.heartbeat(now);
+        }
+        return now;
+    }
+
+    @Test
+    void usesTheFirstHeartbeatEstimateWithoutSamples() {
+        final PhiAccrualFailureDetector detector = detector(10);
+        assertEquals(0D, detector.phi(0L), 0.01D);
+        // Right on the expected interval the normal distribution gives one chance out of two.
+        assertEquals(-Math.log10(0.5D), detector.phi(1000L), 0.01D);
+        assertTrue(detector.phi(3000L) > 3D);
+    }
+
+    @Test
+    void growsWhileTheNextHeartbeatIsLate() {
+        final PhiAccrualFailureDetector detector = detector(10);
+        final long last = beat(detector, 0L, 1000L, 10);
+        double previous = detector.phi(last);
+        assertTrue(previous < 0.1D);
+        for (long elapsed = 250L; elapsed <= 3000L; elapsed += 250L) {
+            final double phi = detector.phi(last + elapsed);
+            assertTrue(phi >= previous, "phi decreased at " + elapsed + "ms");
+            previous = phi;
+        }
+        assertTrue(previous > 8D);
+    }
+
+    @Test
+    void givesJitteryServersAWiderMargin() {
+        final PhiAccrualFailureDetector regular = detector(10), jittery = detector(10);
+        final long regularLast = beat(regular, 0L, 1000L, 10);
+        long jitteryLast = 0L;
+        for (int i = 0; i < 10; i++) {
+            jitteryLast = beat(jittery, jitteryLast, i % 2 == 0 ? 200L : 1800L, 1);
+        }
+        assertTrue(regular.phi(regularLast + 1800L) > jittery.phi(jitteryLast + 1800L));
+    }
+
+    @Test
+    void forgetsIntervalsOutsideTheWindow() {
+        final PhiAccrualFailureDetector detector = detector(10);
+        long last = beat(detector, 0L, 1000L, 10);
+        assertTrue(detector.phi(last + 3000L) > 8D);
+        last = beat(detector, last, 3000L, 10);
+        assertTrue(detector.phi(last + 3000L) < 1D);
+    }
+
+    @Test
+    void ignoresHeartbeatsWithoutElapsedTime() {
+        final PhiAccrualFailureDetector detector = detector(10);
+        final long last = beat(detector, 0L, 1000L, 10);
+        for (int i = 0; i < 10; i++) detector.heartbeat(last);
+        assertEquals(last, detector.getLastHeartbeat());
+        assertTrue(detector.phi(last + 3000L) > 8D);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package me.akraml.serversync.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the {@link ProxyRegistrationQueue} batching and flap damping.
+ *
+ * @version 1.0-BETA
+ */
+final class ProxyRegistrationQueueTest {
+
+    private final List<String> calls = new ArrayList<>();
+    private final ServersManager serversManager = new ServersManager() {
+        @Override
+        protected void unregisterFromProxy(final Server server) {
+            calls.add("unregister " + server.getName() + ":" + server.getPort());
+        }
+
+        @Override
+        protected void registerInProxy(final Server server) {
+            calls.add("register " + server.getName() + ":" + server.getPort());
+        }
+    };
+    private final ProxyRegistrationQueue queue = new ProxyRegistrationQueue(serversManager);
+
+    @Test
+    void keepsOnlyTheLatestChangeOfAServer() {
+        final Server server = Server.of("lobby", "127.0.0.1", 25565);
+        queue.register(server);
+        queue.unregister(server);
+        queue.flush();
+        assertEquals(Collections.emptyList(), calls);
+
+        queue.register(server);
+        queue.flush();
+        assertEquals(Collections.singletonList("register lobby:25565"), calls);
+    }
+
+    @Test
+    void collapsesRemoveThenAddOfTheSameAddress() {
+        queue.register(Server.of("lobby", "127.0.0.1", 25565));
+        queue.flush();
+        calls.clear();
+
+        queue.unregister(Server.of("lobby", "127.0.0.1", 25565));
+        queue.register(Server.of("lobby", "127.0.0.1", 25565));
+        queue.flush();
+        assertEquals(Collections.emptyList(), calls);
+    }
+
+    @Test
+    void registersAgainWhenTheAddressChanges() {
+        queue.register(Server.of("lobby", "127.0.0.1", 25565));
+        queue.flush();
+        queue.register(Server.of("lobby", "127.0.0.1", 25566));
+        queue.flush();
+        assertEquals(Arrays.asList("register lobby:25565", "unregister lobby:25565", "register lobby:25566"), calls);
+    }
+
+    @Test
+    void holdsFlappingServersInTheirCurrentState() {
+        queue.setHalfLifeMillis(3_600_000L);
+        final Server server = Server.of("lobby", "127.0.0.1", 25565);
+        // The first registration is free, the four next changes push the penalty over the threshold.
+        for (int i = 0; i < 5; i++) {
+            if (i % 2 == 0) queue.register(server); else queue.unregister(server);
+            queue.flush();
+        }
+        assertEquals(5, calls.size());
+        assertEquals("register lobby:25565", calls.get(4));
+
+        queue.unregister(server);
+        queue.flush();
+        queue.flush();
+        assertEquals(5, calls.size());
+
+        // A newer change replaces the held one, and matching the proxy state it needs nothing.
+        queue.register(server);
+        queue.flush();
+        assertEquals(5, calls.size());
+    }
+
+    @Test
+    void appliesEveryChangeWithoutDamping() {
+        queue.setHalfLifeMillis(0L);
+        final Server server = Server.of("lobby", "127.0.0.1", 25565);
+        for (int i = 0; i < 20; i++) {
+            if (i % 2 == 0) queue.register(server); else queue.unregister(server);
+            queue.flush();
+        }
+        assertEquals(20, calls.size());
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package me.akraml.serversync.spigot;
+
+import me.akraml.serversync.ServerSync;
+import me.akraml.serversync.broker.MessageBrokerService;
+import me.akraml.serversync.player.AttributeChanges;
+import me.akraml.serversync.player.PlayerAttribute;
+import me.akraml.serversync.player.SyncPlayer;
+import org.bukkit.entity.Player;
+
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tracks the attributes of the online players, and publishes only the attributes which changed.
+ *
+ * <p>The world and the ping are sampled on the main thread, the world every second and the ping every few seconds.
+ * The ping is only sampled on servers providing {@code Player#getPing()}, which is missing before 1.17.
+ * Other plugins, such as party or AFK plugins, provide their attributes through {@link #set(Player, PlayerAttribute, Object)}.
+ * Once per second, the changes are compared to the published attributes and the differences are published
+ * asynchronously, so a player whose attributes didn't change costs no message at all.</p>
+ */
+public final class SpigotAttributeTracker implements Runnable {
+
+    /** Amount of samples between two ping samples. */
+    private static final int PING_PERIOD = 5;
+
+    /** The ping accessor of the players, null if the server is older than 1.17. */
+    private static final Method GET_PING = findGetPing();
+
+    private final SpigotServerSyncPlugin plugin;
+    private final ServerSync serverSync;
+    private final Map<UUID, TrackedPlayer> trackedPlayers = new ConcurrentHashMap<>();
+    private final Set<UUID> announcedEarly = new HashSet<>();
+    private final AtomicBoolean flushing = new AtomicBoolean();
+    private volatile boolean flushRequested;
+    private int samples;
+
+    SpigotAttributeTracker(final SpigotServerSyncPlugin plugin,
+                           final ServerSync serverSync) {
+        this.plugin = plugin;
+        this.serverSync = serverSync;
+    }
+
+    /**
+     * Starts sampling on the main thread, and tracks the players which are already online.
+     */
+    void start() {
+        for (final Player player : plugin.getServer().getOnlinePlayers()) {
+            synchronized (this) {
+                announcedEarly.add(player.getUniqueId());
+            }
+            track(player);
+        }
+        plugin.getServer().getScheduler().runTaskTimer(plugin, this, 20L, 20L);
+    }
+
+    /**
+     * Starts tracking a player who joined, its attributes are published once it has been announced. The join may
+     * already have been announced, since it is published asynchronously before the player is tracked.
+     *
+     * @param player The player who joined.
+     */
+    void track(final Player player) {
+        final TrackedPlayer trackedPlayer = new TrackedPlayer(new SyncPlayer(player.getUniqueId(), player.getName()));
+        synchronized (this) {
+            trackedPlayer.announced = announcedEarly.remove(player.getUniqueId());
+            trackedPlayers.put(player.getUniqueId(), trackedPlayer);
+        }
+        sample(player, trackedPlayer, true);
+        if (trackedPlayer.announced) requestFlush(true);
+    }
+
+    /**
+     * Stops tracking a player who left.
+     *
+     * @param player The player who left.
+     */
+    synchronized void untrack(final Player player) {
+        trackedPlayers.remove(player.getUniqueId());
+        announcedEarly.remove(player.getUniqueId());
+    }
+
+    /**
+     * Sets an attribute of a player, the change is published within a second.
+     *
+     * @param player    The player.
+     * @param attribute The attribute to set.
+     * @param value     The new value, null to remove the attribute.
+     * @param <T>       The type of the attribute values.
+     */
+    public <T> void set(final Player player,
+                        final PlayerAttribute<T> attribute,
+                        final T value) {
+        final TrackedPlayer trackedPlayer = trackedPlayers.get(player.getUniqueId());
+        if (trackedPlayer != null) trackedPlayer.set(attribute, value);
+    }
+
+    /**
+     * Retrieves a player with its published attributes, as known by the rest of the network.
+     *
+     * @param player The player.
+     * @return The synchronized player.
+     */
+    public SyncPlayer getSyncPlayer(final Player player) {
+        final TrackedPlayer trackedPlayer = trackedPlayers.get(player.getUniqueId());
+        if (trackedPlayer == null) return new SyncPlayer(player.getUniqueId(), player.getName());
+        synchronized (trackedPlayer) {
+            return trackedPlayer.published;
+        }
+    }
+
+    @Override
+    public void run() {
+        // Players are tracked as soon as their join has been handled, any join announced earlier is of a player who left.
+        synchronized (this) {
+            announcedEarly.clear();
+        }
+        final boolean samplePing = GET_PING != null && ++samples % PING_PERIOD == 0;
+        for (final Player player : plugin.getServer().getOnlinePlayers()) {
+            final TrackedPlayer trackedPlayer = trackedPlayers.get(player.getUniqueId());
+            if (trackedPlayer != null) sample(player, trackedPlayer, samplePing);
+        }
+        requestFlush(true);
+    }
+
+    /**
+     * Announces a player whose join has just been published, and publishes its initial attributes.
+     * It must run on the thread which published the join, so the attributes never precede it.
+     *
+     * @param player The player who joined.
+     */
+    void announce(final SyncPlayer player) {
+        final TrackedPlayer trackedPlayer;
+        synchronized (this) {
+            trackedPlayer = trackedPlayers.get(player.getUuid());
+            if (trackedPlayer == null) {
+                announcedEarly.add(player.getUuid());
+                return;
+            }
+        }
+        synchronized (trackedPlayer) {
+            trackedPlayer.announced = true;
+        }
+        requestFlush(false);
+    }
+
+    /**
+     * Flushes the changes of every player, unless a flush is already running, in which case it flushes again once done.
+     * Only one flush runs at a time, so the differences of a player are always published in the order they were collected.
+     *
+     * @param async If the flush must run on the executor rather than on the calling thread.
+     */
+    private void requestFlush(final boolean async) {
+        flushRequested = true;
+        if (!flushing.compareAndSet(false, true)) return;
+        if (async) {
+            serverSync.getExecutor().execute(this::flush);
+        } else {
+            flush();
+        }
+    }
+
+    private void flush() {
+        do {
+            flushRequested = false;
+            try {
+                trackedPlayers.values().forEach(this::flush);
+            } finally {
+                flushing.set(false);
+            }
+        } while (flushRequested && flushing.compareAndSet(false, true));
+    }
+
+    private void flush(final TrackedPlayer trackedPlayer) {
+        final SyncPlayer syncPlayer;
+        final AttributeChanges changes;
+        synchronized (trackedPlayer) {
+            if (!trackedPlayer.announced || trackedPlayer.dirty == 0L) return;
+            changes = trackedPlayer.collectChanges();
+            if (changes.isEmpty()) return;
+            syncPlayer = trackedPlayer.published;
+        }
+        final MessageBrokerService messageBrokerService = serverSync.getMessageBrokerService();
+        messageBrokerService.publishPlayerAttributes(plugin.getServerName(), syncPlayer, changes);
+    }
+
+    private static void sample(final Player player,
+                               final TrackedPlayer trackedPlayer,
+                               final boolean samplePing) {
+        trackedPlayer.set(PlayerAttribute.WORLD, player.getWorld().getName());
+        if (samplePing && GET_PING != null) {
+            try {
+                trackedPlayer.set(PlayerAttribute.PING, (Integer) GET_PING.invoke(player));
+            } catch (final ReflectiveOperationException | LinkageError exception) {
+                exception.printStackTrace(System.err);
+            }
+        }
+    }
+
+    private static Method findGetPing() {
+        try {
+            return Player.class.getMethod("getPing");
+        } catch (final NoSuchMethodException exception) {
+            return null;
+        }
+    }
+
+    /**
+     * The published attributes of a player, and the latest values set since they were published.
+     */
+    private static final class TrackedPlayer {
+
+        private final Object[] values = new Object[PlayerAttribute.MAX_ATTRIBUTES];
+        private SyncPlayer published;
+        private long dirty;
+        private boolean announced;
+
+        private TrackedPlayer(final SyncPlayer published) {
+            this.published = published;
+        }
+
+        private synchronized void set(final PlayerAttribute<?> attribute,
+                                      final Object value) {
+            values[attribute.getId()] = value;
+            dirty |= 1L << attribute.getId();
+        }
+
+        /**
+         * Collects the attributes whose values differ from the published ones, and marks them as published.
+         */
+        @SuppressWarnings("unchecked")
+        private AttributeChanges collectChanges() {
+            final AttributeChanges.Builder builder = AttributeChanges.newBuilder();
+            for (long bits = dirty; bits != 0L; bits &= bits - 1) {
+                final int id = Long.numberOfTrailingZeros(bits);
+                final PlayerAttribute<Object> attribute = (PlayerAttribute<Object>) PlayerAttribute.byId(id);
+                if (!Objects.equals(published.getAttribute(attribute), values[id])) builder.set(attribute, values[id]);
+                values[id] = null;
+            }
+            dirty = 0L;
+            final AttributeChanges changes = builder.build();
+            published = published.withChanges(changes);
+            return changes;
+        }
+    }
+}
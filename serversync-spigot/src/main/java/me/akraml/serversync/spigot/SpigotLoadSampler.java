@@ -0,0 +1,165 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2023 Akram Louze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.akraml.serversync.spigot;
+
+import me.akraml.serversync.server.ServerLoad;
+import org.bukkit.World;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Samples the load of the server, to be carried by its heartbeats.
+ *
+ * <p>It runs on the main thread every tick, where it only records the time elapsed since the previous tick.
+ * Once per window, the tick rate is computed from these intervals and the entities, chunks and heap are counted,
+ * so the heavier part of the sampling happens once every few seconds. The milliseconds per tick are only
+ * reported by servers exposing them (such as Paper), as Spigot has no way to measure the time spent in a tick.
+ * The entities and chunks are counted without copying them on servers exposing their counts (such as Paper).</p>
+ *
+ * <p>The heap is measured after the latest garbage collection of each heap pool, so a heap filling up with garbage
+ * right before a collection is not mistaken for a struggling server.</p>
+ */
+final class SpigotLoadSampler implements Runnable {
+
+    /** Amount of ticks between two samples. */
+    private static final int WINDOW = 100;
+
+    private static final long MIB = 1024L * 1024L;
+
+    private final JavaPlugin plugin;
+    private final Method averageTickTime, entityCount, chunkCount;
+    private final List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+    private final long[] intervals = new long[WINDOW];
+    private int ticks;
+    private long lastTick;
+    private volatile ServerLoad load;
+
+    SpigotLoadSampler(final JavaPlugin plugin) {
+        this.plugin = plugin;
+        this.averageTickTime = findMethod(plugin.getServer().getClass(), "getAverageTickTime");
+        this.entityCount = findMethod(World.class, "getEntityCount");
+        this.chunkCount = findMethod(World.class, "getChunkCount");
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) heapPools.add(pool);
+        }
+    }
+
+    /**
+     * Starts sampling on the main thread.
+     */
+    void start() {
+        plugin.getServer().getScheduler().runTaskTimer(plugin, this, 1L, 1L);
+    }
+
+    /**
+     * Retrieves the latest sample.
+     *
+     * @return The latest load sample, null until the first window is complete.
+     */
+    ServerLoad getLoad() {
+        return load;
+    }
+
+    @Override
+    public void run() {
+        final long now = System.nanoTime();
+        if (lastTick != 0L) {
+            intervals[ticks++] = now - lastTick;
+        }
+        lastTick = now;
+        if (ticks < WINDOW) return;
+        ticks = 0;
+        long total = 0L;
+        for (final long interval : intervals) total += interval;
+        final double tps = Math.min(20D, WINDOW * 1_000_000_000D / total);
+        int entities = 0, chunks = 0;
+        for (final World world : plugin.getServer().getWorlds()) {
+            final int worldEntities = invokeCount(entityCount, world), worldChunks = invokeCount(chunkCount, world);
+            entities += worldEntities >= 0 ? worldEntities : world.getEntities().size();
+            chunks += worldChunks >= 0 ? worldChunks : world.getLoadedChunks().length;
+        }
+        load = new ServerLoad(
+                tps,
+                getMspt(),
+                getHeapUsedAfterCollection() / MIB,
+                Runtime.getRuntime().maxMemory() / MIB,
+                entities,
+                chunks
+        );
+    }
+
+    private double getMspt() {
+        if (averageTickTime == null) return -1D;
+        try {
+            return ((Number) averageTickTime.invoke(plugin.getServer())).doubleValue();
+        } catch (final ReflectiveOperationException exception) {
+            return -1D;
+        }
+    }
+
+    /**
+     * Retrieves the heap in use after the latest garbage collection of each heap pool, or the heap currently in use
+     * if the pools don't report it.
+     */
+    private long getHeapUsedAfterCollection() {
+        long used = 0L;
+        boolean collected = false;
+        for (final MemoryPoolMXBean pool : heapPools) {
+            final MemoryUsage usage = pool.getCollectionUsage();
+            if (usage == null) continue;
+            used += usage.getUsed();
+            collected = true;
+        }
+        if (collected) return used;
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static int invokeCount(final Method method,
+                                   final Object target) {
+        if (method == null) return -1;
+        try {
+            return ((Number) method.invoke(target)).intValue();
+        } catch (final ReflectiveOperationException exception) {
+            return -1;
+        }
+    }
+
+    private static Method findMethod(final Class<?> type,
+                                     final String name) {
+        try {
+            return type.getMethod(name);
+        } catch (final NoSuchMethodException exception) {
+            return null;
+        }
+    }
+}
@@ -34,8 +34,6 @@ import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 
-import java.util.concurrent.CompletableFuture;
-
 /**
  * Listens to incoming events in the spigot server and then attempts to publish synchronization messages
  * into message broker server.
@@ -44,27 +42,34 @@ import java.util.concurrent.CompletableFuture;
 public final class SpigotServerSyncListener implements Listener {
 
     private final SpigotServerSyncPlugin plugin;
+    private final ServerSync serverSync;
 
     @EventHandler
     public void onJoin(final PlayerJoinEvent event) {
         final Player player = event.getPlayer();
         publishPlayerUpdate(player, MessageBrokerService.PlayerUpdateState.ADD);
+        plugin.getAttributeTracker().track(player);
     }
 
     @EventHandler
     public void onQuit(final PlayerQuitEvent event) {
         final Player player = event.getPlayer();
+        plugin.getAttributeTracker().untrack(player);
         publishPlayerUpdate(player, MessageBrokerService.PlayerUpdateState.REMOVE);
     }
 
     private void publishPlayerUpdate(final Player player,
                                      final MessageBrokerService.PlayerUpdateState updateState) {
         final SyncPlayer syncPlayer = new SyncPlayer(player.getUniqueId(), player.getName());
-        CompletableFuture.runAsync(() -> ServerSync.getInstance().getMessageBrokerService().publishPlayerUpdate(
-                plugin.getServerName(),
-                syncPlayer,
-                updateState
-        )).exceptionally(throwable -> {
+        serverSync.getExecutor().runAsync(() -> {
+            serverSync.getMessageBrokerService().publishPlayerUpdate(
+                    plugin.getServerName(),
+                    syncPlayer,
+                    updateState
+            );
+            // The initial attributes follow the join, so proxies already know the player when they receive them.
+            if (updateState == MessageBrokerService.PlayerUpdateState.ADD) plugin.getAttributeTracker().announce(syncPlayer);
+        }).exceptionally(throwable -> {
             throwable.printStackTrace(System.err);
             return null;
         });
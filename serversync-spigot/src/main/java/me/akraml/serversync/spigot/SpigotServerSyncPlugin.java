@@ -24,18 +24,35 @@
 
 package me.akraml.serversync.spigot;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import me.akraml.serversync.ServerSync;
 import me.akraml.serversync.VersionInfo;
+import me.akraml.serversync.broker.DirectMessageBrokerService;
+import me.akraml.serversync.broker.GossipMessageBrokerService;
+import me.akraml.serversync.broker.MessageBrokerService;
+import me.akraml.serversync.broker.RedisClientType;
 import me.akraml.serversync.broker.RedisMessageBrokerService;
 import me.akraml.serversync.connection.ConnectionResult;
 import me.akraml.serversync.connection.ConnectionType;
+import me.akraml.serversync.connection.auth.AuthenticatedConnection;
 import me.akraml.serversync.connection.auth.ConnectionCredentials;
+import me.akraml.serversync.connection.auth.credentials.DirectCredentialsKeys;
+import me.akraml.serversync.connection.auth.credentials.GossipCredentialsKeys;
 import me.akraml.serversync.connection.auth.credentials.RedisCredentialsKeys;
+import me.akraml.serversync.executor.ExecutionMode;
+import me.akraml.serversync.executor.SyncExecutor;
+import me.akraml.serversync.metrics.LatencyTracer;
 import me.akraml.serversync.player.SyncPlayer;
+import me.akraml.serversync.server.LivenessMode;
+import me.akraml.serversync.server.ReplicaServersManager;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -45,6 +62,12 @@ import java.util.stream.Collectors;
 public final class SpigotServerSyncPlugin extends JavaPlugin {
 
     private String serverName;
+    @Getter(AccessLevel.NONE)
+    private SpigotLoadSampler loadSampler;
+    private SpigotAttributeTracker attributeTracker;
+    /** The instance of the network of this server, which is not the primary one if several networks share the process. */
+    @Getter(AccessLevel.NONE)
+    private ServerSync serverSync;
 
     @Override
     public void onEnable() {
@@ -59,6 +82,25 @@ public final class SpigotServerSyncPlugin extends JavaPlugin {
                 "                                |___/            \n");
         getLogger().info("This server is running ServerSync " + VersionInfo.VERSION + " by AkramL.");
         this.serverName = getConfig().getString("server-name");
+        final long syncResponseWindow = getConfig().getLong("sync-response-window", 500L);
+        // The group and tags let proxies and plugins query servers without relying on their names.
+        final String serverGroup = getConfig().getString("server-group", "");
+        final Map<String, String> serverTags = new HashMap<>();
+        final ConfigurationSection tagsSection = getConfig().getConfigurationSection("server-tags");
+        if (tagsSection != null) {
+            for (final String key : tagsSection.getKeys(false)) serverTags.put(key, tagsSection.getString(key));
+        }
+        final SyncExecutor executor = SyncExecutor.create(
+                "ServerSync",
+                ExecutionMode.valueOf(getConfig().getString("executor-mode", "AUTO")),
+                getConfig().getInt("executor-threads", 4)
+        );
+        getLogger().info("ServerSync tasks will run on " + (executor.isVirtual() ? "virtual threads." : "a platform thread pool."));
+        // The replica of the network is fed by the messages of every server, but never registers anything.
+        final ReplicaServersManager networkView = getConfig().getBoolean("network-view", false)
+                ? new ReplicaServersManager(getConfig().getInt("heartbeat-scheduler-delay", 1), getConfig().getInt("max-alive-time", 30))
+                : null;
+        final String network = getConfig().getString("network", MessageBrokerService.DEFAULT_NETWORK);
         // Initialize message broker service.
         final ConnectionType connectionType = ConnectionType.valueOf(getConfig().getString("message-broker-service"));
         switch (connectionType) {
@@ -78,53 +120,193 @@ public final class SpigotServerSyncPlugin extends JavaPlugin {
                         .addKey(RedisCredentialsKeys.MIN_EVICTABLE_IDLE_TIME, redisSection.getLong("min-evictable-idle-time"))
                         .addKey(RedisCredentialsKeys.TIME_BETWEEN_EVICTION_RUNS, redisSection.getLong("time-between-eviction-runs"))
                         .addKey(RedisCredentialsKeys.BLOCK_WHEN_EXHAUSTED, redisSection.getBoolean("block-when-exhausted"))
+                        .addKey(RedisCredentialsKeys.CLUSTER_NODES, redisSection.getStringList("cluster.seed-nodes"))
+                        .addKey(RedisCredentialsKeys.CLUSTER_SHARDS, redisSection.getInt("cluster.shards", 16))
+                        .addKey(RedisCredentialsKeys.TOPOLOGY_REFRESH_PERIOD, redisSection.getLong("cluster.topology-refresh-period", 30000L))
                         .build();
-                final RedisMessageBrokerService messageBrokerService = new RedisMessageBrokerService(
-                        null,
+                final RedisClientType clientType = RedisClientType.valueOf(redisSection.getString("client", "JEDIS"));
+                final MessageBrokerService messageBrokerService = clientType.createService(
+                        networkView,
+                        executor,
                         credentials
                 );
-                final ConnectionResult connectionResult = messageBrokerService.connect();
+                messageBrokerService.setNetwork(network);
+                final int trackingCacheSize = redisSection.getInt("tracking-cache-size", 0);
+                if (trackingCacheSize > 0) {
+                    if (messageBrokerService instanceof RedisMessageBrokerService) {
+                        ((RedisMessageBrokerService) messageBrokerService).enableTrackingCache(trackingCacheSize);
+                    } else {
+                        getLogger().warning("The tracking cache requires the JEDIS redis client, it won't be enabled.");
+                    }
+                }
+                final LivenessMode livenessMode = LivenessMode.valueOf(getConfig().getString("liveness-mode", "HEARTBEAT"));
+                if (livenessMode == LivenessMode.REDIS_TTL && !messageBrokerService.supportsBrokerLiveness()) {
+                    getLogger().warning("The REDIS_TTL liveness mode is not supported by the " + clientType + " client, heartbeats will be checked instead.");
+                } else {
+                    messageBrokerService.setLivenessMode(livenessMode, getConfig().getLong("liveness-ttl", 15000L));
+                }
+                if (getConfig().getBoolean("player-location-index", false)) {
+                    if (messageBrokerService.supportsPlayerLocationIndex()) {
+                        messageBrokerService.enablePlayerLocationIndex(getConfig().getLong("player-location-cache", 1000L));
+                    } else {
+                        getLogger().warning("The player location index requires the JEDIS or LETTUCE redis client, it won't be enabled.");
+                    }
+                }
+                messageBrokerService.setSyncResponder(serverName, () -> publishFullState(messageBrokerService), syncResponseWindow);
+                messageBrokerService.setServerMetadata(serverGroup, serverTags);
+                final int spillJournalSize = getConfig().getInt("spill-journal-size", 1024);
+                if (spillJournalSize > 0) {
+                    try {
+                        messageBrokerService.enableSpillJournal(getDataFolder().toPath().resolve("spill.journal"), spillJournalSize * 1024);
+                    } catch (final IOException exception) {
+                        getLogger().warning("Unable to open the spill journal, messages will be lost while redis is unreachable: " + exception.getMessage());
+                    }
+                }
+                final ConnectionResult connectionResult = ((AuthenticatedConnection<?>) messageBrokerService).connect();
                 if (connectionResult == ConnectionResult.FAILURE) {
                     getLogger().severe("Failed to connect into redis, please check credentials!");
+                    executor.shutdown();
+                    setEnabled(false);
+                    return;
+                }
+                getLogger().info("Successfully connected to redis using " + clientType + " client, process took " + (System.currentTimeMillis() - redisStartTime) + "ms!");
+                // Listens to the control channel, to answer the synchronization requests of proxies.
+                messageBrokerService.startHandler();
+                this.serverSync = ServerSync.initializeInstance(networkView, messageBrokerService, executor);
+                if (networkView != null) {
+                    networkView.start(executor);
+                    messageBrokerService.publishSyncRequest(null);
+                }
+                break;
+            }
+            case DIRECT: {
+                getLogger().info("ServerSync will run without message broker, using direct connections...");
+                if (networkView != null) {
+                    getLogger().warning("The network view is not available with direct connections, as servers only talk to proxies.");
+                }
+                final ConfigurationSection directSection = getConfig().getConfigurationSection("direct");
+                assert directSection != null;
+                final ConnectionCredentials credentials = ConnectionCredentials.newBuilder()
+                        .addKey(DirectCredentialsKeys.PROXY_ADDRESSES, directSection.getStringList("proxies"))
+                        .addKey(DirectCredentialsKeys.SHARED_SECRET, directSection.getString("shared-secret"))
+                        .build();
+                final DirectMessageBrokerService messageBrokerService = new DirectMessageBrokerService(
+                        null,
+                        executor,
+                        credentials
+                );
+                messageBrokerService.setNetwork(network);
+                // The full state is also sent to every proxy as soon as the connection to it is authenticated.
+                messageBrokerService.setSyncResponder(serverName, () -> publishFullState(messageBrokerService), syncResponseWindow);
+                messageBrokerService.setServerMetadata(serverGroup, serverTags);
+                if (messageBrokerService.connect() == ConnectionResult.FAILURE) {
+                    getLogger().severe("Failed to start direct connections, please check the configuration!");
+                    executor.shutdown();
                     setEnabled(false);
                     return;
                 }
-                getLogger().info("Successfully connected to redis, process took " + (System.currentTimeMillis() - redisStartTime) + "ms!");
-                ServerSync.initializeInstance(null, messageBrokerService);
+                getLogger().info("Connecting to " + directSection.getStringList("proxies").size() + " proxies...");
+                messageBrokerService.startHandler();
+                this.serverSync = ServerSync.initializeInstance(null, messageBrokerService, executor);
+                break;
+            }
+            case GOSSIP: {
+                getLogger().info("ServerSync will run without message broker, using gossip membership...");
+                final ConfigurationSection gossipSection = getConfig().getConfigurationSection("gossip");
+                assert gossipSection != null;
+                final ConnectionCredentials.Builder credentialsBuilder = ConnectionCredentials.newBuilder()
+                        .addKey(GossipCredentialsKeys.NODE_NAME, serverName)
+                        .addKey(GossipCredentialsKeys.BIND_ADDRESS, gossipSection.getString("bind-address", "0.0.0.0:7946"))
+                        .addKey(GossipCredentialsKeys.SEEDS, gossipSection.getStringList("seeds"))
+                        .addKey(GossipCredentialsKeys.SHARED_SECRET, gossipSection.getString("shared-secret"))
+                        .addKey(GossipCredentialsKeys.PROTOCOL_PERIOD, gossipSection.getLong("protocol-period", 1000L));
+                if (!gossipSection.getString("advertise-address", "").isEmpty()) {
+                    credentialsBuilder.addKey(GossipCredentialsKeys.ADVERTISE_ADDRESS, gossipSection.getString("advertise-address"));
+                }
+                final GossipMessageBrokerService messageBrokerService = new GossipMessageBrokerService(
+                        networkView,
+                        executor,
+                        credentialsBuilder.build()
+                );
+                messageBrokerService.setNetwork(network);
+                messageBrokerService.setServerMetadata(serverGroup, serverTags);
+                if (messageBrokerService.connect() == ConnectionResult.FAILURE) {
+                    getLogger().severe("Failed to join the gossip membership, please check the bind address!");
+                    executor.shutdown();
+                    setEnabled(false);
+                    return;
+                }
+                getLogger().info("Joined the gossip membership on " + gossipSection.getString("bind-address", "0.0.0.0:7946") + ".");
+                if (networkView != null) {
+                    messageBrokerService.startHandler();
+                    networkView.start(executor);
+                }
+                this.serverSync = ServerSync.initializeInstance(networkView, messageBrokerService, executor);
                 break;
             }
             case RABBITMQ: {
                 getLogger().severe("RabbitMQ is not ready yet, the plugin won't continue starting up!");
+                executor.shutdown();
                 return;
             }
         }
-        getServer().getPluginManager().registerEvents(new SpigotServerSyncListener(this), this);
-        ServerSync.getInstance().getMessageBrokerService().publishCreate(
+        serverSync.getMessageBrokerService().getLatencyTracer().configure(
+                LatencyTracer.ClockMode.valueOf(getConfig().getString("latency-clock-mode", "WALL_CLOCK")),
+                getConfig().getDouble("trace-sample-rate", 0D),
+                getLogger()::info
+        );
+        this.attributeTracker = new SpigotAttributeTracker(this, serverSync);
+        attributeTracker.start();
+        getServer().getPluginManager().registerEvents(new SpigotServerSyncListener(this, serverSync), this);
+        this.loadSampler = new SpigotLoadSampler(this);
+        loadSampler.start();
+        serverSync.getMessageBrokerService().publishCreate(
                 serverName,
                 getServer().getIp(),
                 getServer().getPort(),
                 getServer().getMaxPlayers()
         );
         final int interval = getConfig().getInt("heartbeat-interval");
-        getServer().getScheduler().runTaskTimerAsynchronously(this, () ->
-                ServerSync.getInstance().getMessageBrokerService().publishHeartbeat(
+        executor.scheduleAtFixedRate(() ->
+                serverSync.getMessageBrokerService().publishHeartbeat(
                         serverName,
                         getServer().getIp(),
                         getServer().getPort(),
                         getServer().getMaxPlayers(),
                         getServer().getOnlinePlayers().stream()
-                                .map(player -> new SyncPlayer(player.getUniqueId(), player.getName()))
-                                .collect(Collectors.toList())
-        ), interval, interval);
+                                .map(attributeTracker::getSyncPlayer)
+                                .collect(Collectors.toList()),
+                        loadSampler.getLoad()
+        ), interval, interval, TimeUnit.SECONDS);
         getLogger().info("ServerSync has fully started in " + (System.currentTimeMillis() - start) + "ms.");
     }
 
     @Override
     public void onDisable() {
-        if (ServerSync.getInstance() != null) {
-            ServerSync.getInstance().getMessageBrokerService().publishRemove(serverName);
-            ServerSync.getInstance().getMessageBrokerService().stop();
+        if (serverSync != null) {
+            serverSync.getMessageBrokerService().publishRemove(serverName);
+            serverSync.getMessageBrokerService().closeSpillJournal();
+            serverSync.getMessageBrokerService().stop();
+            if (serverSync.getServersManager() != null) serverSync.getServersManager().stop();
+            serverSync.getExecutor().shutdown();
+            ServerSync.removeInstance(serverSync.getNetwork());
+            serverSync = null;
         }
     }
 
+    private void publishFullState(final MessageBrokerService messageBrokerService) {
+        messageBrokerService.publishSyncResponse(
+                serverName,
+                getServer().getIp(),
+                getServer().getPort(),
+                getServer().getMaxPlayers(),
+                getServer().getOnlinePlayers().stream()
+                        .map(player -> attributeTracker == null
+                                ? new SyncPlayer(player.getUniqueId(), player.getName())
+                                : attributeTracker.getSyncPlayer(player))
+                        .collect(Collectors.toList()),
+                loadSampler == null ? null : loadSampler.getLoad()
+        );
+    }
+
 }
@@ -27,18 +27,34 @@ package me.akraml.serversync.velocity;
 import com.google.inject.Inject;
 import com.moandjiezana.toml.Toml;
 import com.velocitypowered.api.event.Subscribe;
+import com.velocitypowered.api.event.connection.DisconnectEvent;
+import com.velocitypowered.api.event.connection.PostLoginEvent;
 import com.velocitypowered.api.event.proxy.ProxyInitializeEvent;
 import com.velocitypowered.api.event.proxy.ProxyShutdownEvent;
 import com.velocitypowered.api.plugin.Plugin;
 import com.velocitypowered.api.proxy.ProxyServer;
+import lombok.AccessLevel;
 import lombok.Getter;
 import me.akraml.serversync.ServerSync;
 import me.akraml.serversync.VersionInfo;
+import me.akraml.serversync.broker.DirectMessageBrokerService;
+import me.akraml.serversync.broker.GossipMessageBrokerService;
+import me.akraml.serversync.broker.InboundGuard;
+import me.akraml.serversync.broker.MessageBrokerService;
+import me.akraml.serversync.broker.PlayerLocationIndex;
+import me.akraml.serversync.broker.RedisClientType;
 import me.akraml.serversync.broker.RedisMessageBrokerService;
 import me.akraml.serversync.connection.ConnectionResult;
 import me.akraml.serversync.connection.ConnectionType;
+import me.akraml.serversync.connection.auth.AuthenticatedConnection;
 import me.akraml.serversync.connection.auth.ConnectionCredentials;
+import me.akraml.serversync.connection.auth.credentials.DirectCredentialsKeys;
+import me.akraml.serversync.connection.auth.credentials.GossipCredentialsKeys;
 import me.akraml.serversync.connection.auth.credentials.RedisCredentialsKeys;
+import me.akraml.serversync.executor.ExecutionMode;
+import me.akraml.serversync.executor.SyncExecutor;
+import me.akraml.serversync.server.LivenessMode;
+import me.akraml.serversync.metrics.LatencyTracer;
 import me.akraml.serversync.server.ServersManager;
 import org.slf4j.Logger;
 
@@ -47,6 +63,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Velocity implementation for ServerSync proxy system.
@@ -64,6 +82,11 @@ public final class VelocityServerSyncPlugin {
     private final ProxyServer proxyServer;
     private final Logger logger;
     private final Toml config;
+    private volatile PlayerLocationIndex playerLocationIndex;
+    private String proxyName;
+    /** The instance of the network of this proxy, which is not the primary one if several networks share the process. */
+    @Getter(AccessLevel.NONE)
+    private ServerSync serverSync;
 
     @Inject
     public VelocityServerSyncPlugin(final ProxyServer proxyServer,
@@ -91,6 +114,23 @@ public final class VelocityServerSyncPlugin {
                 """);
         logger.info("This server is running ServerSync " + VersionInfo.VERSION + " by AkramL.");
         final ServersManager serversManager = new VelocityServersManager(this);
+        final int restoredServers = serversManager.loadSnapshot();
+        if (restoredServers > 0) logger.info("Restored " + restoredServers + " servers from the registry snapshot.");
+        final SyncExecutor executor = SyncExecutor.create(
+                "ServerSync",
+                ExecutionMode.valueOf(config.getString("executor-mode", "AUTO")),
+                config.getLong("executor-threads", 4L).intValue()
+        );
+        logger.info("ServerSync tasks will run on " + (executor.isVirtual() ? "virtual threads." : "a platform thread pool."));
+        final String network = config.getString("network", MessageBrokerService.DEFAULT_NETWORK);
+        // The guard is installed before the handlers start, so the very first messages are checked too.
+        final InboundGuard inboundGuard = InboundGuard.newBuilder()
+                .messagesPerSecond(config.getLong("inbound-rate-limit", 1000L).intValue())
+                .burst(config.getLong("inbound-burst", 5000L).intValue())
+                .maxPayloadSize(config.getLong("inbound-max-payload", 1048576L).intValue())
+                .maxPlayersPerMessage(config.getLong("inbound-max-players", 5000L).intValue())
+                .quarantine(config.getLong("inbound-quarantine", 30L), TimeUnit.SECONDS)
+                .build();
         // Initialize message broker service.
         final ConnectionType connectionType = ConnectionType.valueOf(config.getString("message-broker-service"));
         switch (connectionType) {
@@ -109,25 +149,119 @@ public final class VelocityServerSyncPlugin {
                         .addKey(RedisCredentialsKeys.MIN_EVICTABLE_IDLE_TIME, redisTable.getLong("min-evictable-idle-time"))
                         .addKey(RedisCredentialsKeys.TIME_BETWEEN_EVICTION_RUNS, redisTable.getLong("time-between-eviction-runs"))
                         .addKey(RedisCredentialsKeys.BLOCK_WHEN_EXHAUSTED, redisTable.getBoolean("block-when-exhausted"))
+                        .addKey(RedisCredentialsKeys.CLUSTER_NODES, redisTable.getList("cluster.seed-nodes", Collections.emptyList()))
+                        .addKey(RedisCredentialsKeys.CLUSTER_SHARDS, redisTable.getLong("cluster.shards", 16L).intValue())
+                        .addKey(RedisCredentialsKeys.TOPOLOGY_REFRESH_PERIOD, redisTable.getLong("cluster.topology-refresh-period", 30000L))
                         .build();
-                final RedisMessageBrokerService messageBrokerService = new RedisMessageBrokerService(
+                final RedisClientType clientType = RedisClientType.valueOf(redisTable.getString("client", "JEDIS"));
+                final MessageBrokerService messageBrokerService = clientType.createService(
                         serversManager,
+                        executor,
                         credentials
                 );
-                final ConnectionResult connectionResult = messageBrokerService.connect();
+                messageBrokerService.setNetwork(network);
+                final int trackingCacheSize = redisTable.getLong("tracking-cache-size", 0L).intValue();
+                if (trackingCacheSize > 0) {
+                    if (messageBrokerService instanceof RedisMessageBrokerService) {
+                        ((RedisMessageBrokerService) messageBrokerService).enableTrackingCache(trackingCacheSize);
+                    } else {
+                        logger.warn("The tracking cache requires the JEDIS redis client, it won't be enabled.");
+                    }
+                }
+                final LivenessMode livenessMode = LivenessMode.valueOf(config.getString("liveness-mode", "HEARTBEAT"));
+                if (livenessMode == LivenessMode.REDIS_TTL && !messageBrokerService.supportsBrokerLiveness()) {
+                    logger.warn("The REDIS_TTL liveness mode is not supported by the " + clientType + " client, heartbeats will be checked instead.");
+                } else {
+                    messageBrokerService.setLivenessMode(livenessMode, config.getLong("liveness-ttl", 15000L));
+                }
+                final ConnectionResult connectionResult = ((AuthenticatedConnection<?>) messageBrokerService).connect();
                 if (connectionResult == ConnectionResult.FAILURE) {
                     logger.error("Failed to connect into redis, please check credentials!");
+                    executor.shutdown();
+                    return;
+                }
+                logger.info("Successfully connected to redis using " + clientType + " client, process took " + (System.currentTimeMillis() - redisStartTime) + "ms!");
+                messageBrokerService.setInboundGuard(inboundGuard);
+                messageBrokerService.startHandler();
+                serversManager.start(executor);
+                this.serverSync = ServerSync.initializeInstance(serversManager, messageBrokerService, executor);
+                // Ask every server for its full state instead of waiting for their next heartbeat.
+                messageBrokerService.publishSyncRequest(null);
+            }
+            case DIRECT -> {
+                logger.info("ServerSync will run without message broker, using direct connections...");
+                final String listenAddress = config.getString("direct.listen-address", "0.0.0.0:25580");
+                final ConnectionCredentials credentials = ConnectionCredentials.newBuilder()
+                        .addKey(DirectCredentialsKeys.LISTEN_ADDRESS, listenAddress)
+                        .addKey(DirectCredentialsKeys.SHARED_SECRET, config.getString("direct.shared-secret"))
+                        .build();
+                final DirectMessageBrokerService messageBrokerService = new DirectMessageBrokerService(
+                        serversManager,
+                        executor,
+                        credentials
+                );
+                messageBrokerService.setNetwork(network);
+                if (messageBrokerService.connect() == ConnectionResult.FAILURE) {
+                    logger.error("Failed to listen for direct connections, please check the listen address!");
+                    executor.shutdown();
                     return;
                 }
-                logger.info("Successfully connected to redis, process took " + (System.currentTimeMillis() - redisStartTime) + "ms!");
+                logger.info("Listening for direct connections on " + listenAddress + ".");
+                messageBrokerService.setInboundGuard(inboundGuard);
                 messageBrokerService.startHandler();
-                ServerSync.initializeInstance(serversManager, messageBrokerService);
+                serversManager.start(executor);
+                this.serverSync = ServerSync.initializeInstance(serversManager, messageBrokerService, executor);
+            }
+            case GOSSIP -> {
+                logger.info("ServerSync will run without message broker, using gossip membership...");
+                final String bindAddress = config.getString("gossip.bind-address", "0.0.0.0:7946");
+                final ConnectionCredentials.Builder credentialsBuilder = ConnectionCredentials.newBuilder()
+                        .addKey(GossipCredentialsKeys.NODE_NAME, config.getString("gossip.node-name", ""))
+                        .addKey(GossipCredentialsKeys.BIND_ADDRESS, bindAddress)
+                        .addKey(GossipCredentialsKeys.SEEDS, config.getList("gossip.seeds", Collections.emptyList()))
+                        .addKey(GossipCredentialsKeys.SHARED_SECRET, config.getString("gossip.shared-secret"))
+                        .addKey(GossipCredentialsKeys.PROTOCOL_PERIOD, config.getLong("gossip.protocol-period", 1000L));
+                if (!config.getString("gossip.advertise-address", "").isEmpty()) {
+                    credentialsBuilder.addKey(GossipCredentialsKeys.ADVERTISE_ADDRESS, config.getString("gossip.advertise-address"));
+                }
+                final GossipMessageBrokerService messageBrokerService = new GossipMessageBrokerService(
+                        serversManager,
+                        executor,
+                        credentialsBuilder.build()
+                );
+                messageBrokerService.setNetwork(network);
+                if (messageBrokerService.connect() == ConnectionResult.FAILURE) {
+                    logger.error("Failed to join the gossip membership, please check the bind address!");
+                    executor.shutdown();
+                    return;
+                }
+                logger.info("Joined the gossip membership on " + bindAddress + ".");
+                messageBrokerService.setInboundGuard(inboundGuard);
+                messageBrokerService.startHandler();
+                serversManager.start(executor);
+                this.serverSync = ServerSync.initializeInstance(serversManager, messageBrokerService, executor);
             }
             case RABBITMQ -> {
                 logger.error("RabbitMQ is not ready yet, the plugin won't continue starting up!");
+                executor.shutdown();
                 return;
             }
         }
+        serverSync.getMessageBrokerService().getLatencyTracer().configure(
+                LatencyTracer.ClockMode.valueOf(config.getString("latency-clock-mode", "WALL_CLOCK")),
+                config.getDouble("trace-sample-rate", 0D),
+                logger::info
+        );
+        if (config.getBoolean("player-location-index", false)) {
+            final MessageBrokerService messageBrokerService = serverSync.getMessageBrokerService();
+            if (messageBrokerService.supportsPlayerLocationIndex()) {
+                final String configuredName = config.getString("proxy-name", "");
+                this.proxyName = configuredName.isEmpty() ? messageBrokerService.getRpcManager().getNodeId() : configuredName;
+                this.playerLocationIndex = messageBrokerService.enablePlayerLocationIndex(config.getLong("player-location-cache", 1000L));
+            } else {
+                logger.warn("The player location index requires the JEDIS or LETTUCE redis client, it won't be enabled.");
+            }
+        }
         logger.info("ServerSync has fully started in " + (System.currentTimeMillis() - start) + "ms.");
     }
 
@@ -144,10 +278,27 @@ public final class VelocityServerSyncPlugin {
         }
     }
 
+    @Subscribe
+    public void onPostLogin(final PostLoginEvent event) {
+        final PlayerLocationIndex index = playerLocationIndex;
+        if (index != null) index.proxyJoined(event.getPlayer().getUniqueId(), proxyName);
+    }
+
+    @Subscribe
+    public void onDisconnect(final DisconnectEvent event) {
+        final PlayerLocationIndex index = playerLocationIndex;
+        if (index != null) index.proxyLeft(event.getPlayer().getUniqueId(), proxyName);
+    }
+
     @Subscribe
     public void onShutdown(final ProxyShutdownEvent event) {
-        if (ServerSync.getInstance() != null)
-            ServerSync.getInstance().getMessageBrokerService().stop();
+        if (serverSync != null) {
+            serverSync.getMessageBrokerService().stop();
+            serverSync.getServersManager().stop();
+            serverSync.getExecutor().shutdown();
+            ServerSync.removeInstance(serverSync.getNetwork());
+            serverSync = null;
+        }
     }
 
 }
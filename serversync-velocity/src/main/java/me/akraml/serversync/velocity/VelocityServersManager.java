@@ -30,6 +30,7 @@ import me.akraml.serversync.server.Server;
 import me.akraml.serversync.server.ServersManager;
 
 import java.net.InetSocketAddress;
+import java.nio.file.Paths;
 import java.util.Optional;
 
 /**
@@ -45,6 +46,14 @@ public final class VelocityServersManager extends ServersManager {
         this.plugin = plugin;
         this.heartbeatSchedulerDelay = plugin.getConfig().getLong("heartbeat-scheduler-delay").intValue();
         this.maxAliveTime = plugin.getConfig().getLong("max-alive-time").intValue();
+        this.phiThreshold = plugin.getConfig().getDouble("phi-threshold", 8D);
+        this.registrationBatchInterval = plugin.getConfig().getLong("registration-batch-interval", 250L);
+        this.flapDampingHalfLife = plugin.getConfig().getLong("flap-damping-half-life", 30L);
+        this.playerSwitchWindow = plugin.getConfig().getLong("player-switch-window", 1000L);
+        if (plugin.getConfig().getBoolean("registry-snapshot", true)) {
+            this.snapshotFile = Paths.get("plugins", "serversync", "registry.snapshot");
+            this.snapshotInterval = plugin.getConfig().getLong("registry-snapshot-interval", 60L);
+        }
     }
 
     /**